@@ -0,0 +1,54 @@
+package nz.ac.auckland.avatar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+
+/**
+ * Builds the domain objects that the benchmarks operate on. Objects are 
+ * built deterministically so that results are comparable between runs.
+ *
+ */
+public class Fixtures {
+	private static final DateTime EPOCH = new DateTime(2015, 1, 1, 0, 0);
+
+	public static Bag bag(int items) {
+		Bag bag = new Bag();
+		ItemType[] types = ItemType.values();
+		for(int i = 0; i < items; i++) {
+			bag.addItem(new Item(i, "Item " + i, types[i % types.length]));
+		}
+		return bag;
+	}
+
+	public static List<Achievement> achievements(int count) {
+		List<Achievement> achievements = new ArrayList<Achievement>(count);
+		for(int i = 0; i < count; i++) {
+			achievements.add(achievement(i));
+		}
+		return achievements;
+	}
+
+	public static Achievement achievement(int i) {
+		return new Achievement(0, EPOCH.plusMinutes(i), "Achievement " + i);
+	}
+
+	public static Avatar avatar(long id, int items, int achievements) {
+		Category[] categories = Category.values();
+		return new Avatar(id,
+				"user" + id,
+				categories[(int) (id % categories.length)],
+				new LocalDate(1990, 1, 1).plusDays((int) (id % 5000)),
+				bag(items),
+				achievements(achievements));
+	}
+}
@@ -0,0 +1,65 @@
+package nz.ac.auckland.avatar.domain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+
+/**
+ * Measures adding achievements to Avatars that already hold a given number
+ * of achievements. Each invocation adds a block of achievements to a fresh
+ * Avatar, so that the Avatar's size stays close to the parameter.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarBenchmark {
+	private static final int ADDS = 100;
+
+	@Param({"0", "100", "10000"})
+	public int achievements;
+
+	private Avatar _avatar;
+	private Achievement[] _toAdd;
+
+	@Setup(Level.Trial)
+	public void createAchievements() {
+		_toAdd = new Achievement[ADDS];
+		for(int i = 0; i < ADDS; i++) {
+			_toAdd[i] = Fixtures.achievement(achievements + i);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createAvatar() {
+		_avatar = Fixtures.avatar(1, 0, achievements);
+		// Build the timeline outside of the measurement.
+		_avatar.getLatestAchievement();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ADDS)
+	public Avatar addAchievement() {
+		for(Achievement achievement : _toAdd) {
+			_avatar.addAchievement(achievement);
+		}
+		return _avatar;
+	}
+}
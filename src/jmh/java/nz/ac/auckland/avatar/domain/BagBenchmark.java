@@ -0,0 +1,83 @@
+package nz.ac.auckland.avatar.domain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+import nz.ac.auckland.avatar.Fixtures;
+
+/**
+ * Measures Bag equality and hashing, used whenever Bags are compared or
+ * Avatars are placed in hashed collections.
+ *
+ * The footprint of BAGS Bags holding the same Items is measured with JOL
+ * and printed when the benchmark is set up, alongside that of the layout
+ * Bag replaced: a HashSet of Items each with its own description.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BagBenchmark {
+	private static final int BAGS = 10000;
+
+	@Param({"0", "5", "50"})
+	public int items;
+
+	private Bag _bag;
+	private Bag _equalBag;
+
+	@Setup
+	public void setUp() {
+		_bag = Fixtures.bag(items);
+		_equalBag = Fixtures.bag(items);
+
+		Bag[] bags = new Bag[BAGS];
+		List<Set<Item>> hashSets = new ArrayList<Set<Item>>(BAGS);
+		for(int i = 0; i < BAGS; i++) {
+			bags[i] = Fixtures.bag(items);
+			Set<Item> hashSet = new HashSet<Item>();
+			for(Item item : _bag.getItems()) {
+				hashSet.add(new Item(item.getStatIncreaseAmount(), 
+						new String(item.getDescription()), item.getItemType()));
+			}
+			hashSets.add(hashSet);
+		}
+		printFootprint("bag", bags);
+		printFootprint("hashset", hashSets);
+	}
+
+	private void printFootprint(String layout, Object bags) {
+		long bytes = GraphLayout.parseInstance(bags).totalSize();
+		System.out.println(layout + " footprint with " + items + " items: " 
+				+ (double) bytes / BAGS + " bytes per bag");
+	}
+
+	@Benchmark
+	public boolean equalBags() {
+		return _bag.equals(_equalBag);
+	}
+
+	@Benchmark
+	public int hashCodeOfBag() {
+		return _bag.hashCode();
+	}
+}
@@ -0,0 +1,97 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+import nz.ac.auckland.avatar.dto.Avatar;
+
+/**
+ * Compares the XML and binary representations of a DTO Avatar: the cost of
+ * encoding and decoding, and the payload size, which is reported by the 
+ * "payloadBytes" secondary result of the encode benchmark.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarFormatBenchmark {
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+	private static final MediaType BINARY = MediaType.valueOf(AvatarBinaryProvider.MEDIA_TYPE);
+
+	@Param({"xml", "binary"})
+	public String format;
+
+	@Param({"0", "10", "1000"})
+	public int achievements;
+
+	private JAXBContext _context;
+	private AvatarBinaryProvider _provider;
+	private Avatar _dtoAvatar;
+	private byte[] _encoded;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Payload {
+		public long payloadBytes;
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		_context = new AvatarResolver().getContext(Avatar.class);
+		_provider = new AvatarBinaryProvider();
+		_dtoAvatar = AvatarMapper.toDto(Fixtures.avatar(1, 5, achievements));
+		_encoded = encode();
+	}
+
+	@Benchmark
+	public byte[] encode(Payload payload) throws Exception {
+		byte[] encoded = encode();
+		payload.payloadBytes = encoded.length;
+		return encoded;
+	}
+
+	@Benchmark
+	public Object decode() throws Exception {
+		if("binary".equals(format)) {
+			return _provider.readFrom(Object.class, Avatar.class, NO_ANNOTATIONS, BINARY,
+					null, new ByteArrayInputStream(_encoded));
+		}
+		return _context.createUnmarshaller().unmarshal(new ByteArrayInputStream(_encoded));
+	}
+
+	private byte[] encode() throws IOException, JAXBException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				_encoded == null ? 1024 : _encoded.length);
+		if("binary".equals(format)) {
+			_provider.writeTo(_dtoAvatar, Avatar.class, Avatar.class, NO_ANNOTATIONS, BINARY,
+					null, out);
+		} else {
+			_context.createMarshaller().marshal(_dtoAvatar, out);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,68 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+
+/**
+ * Measures marshalling and unmarshalling of DTO Avatars with the JAXBContext
+ * used by the Web service. AvatarResolver's context is used where it covers
+ * the DTO; otherwise, as RESTEasy does, a context is created for the DTO
+ * class alone. Each operation asks the context for its Marshaller or 
+ * Unmarshaller, as the JAXB provider does per request.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarJaxbBenchmark {
+
+	@Param({"0", "10", "1000"})
+	public int achievements;
+
+	private JAXBContext _context;
+	private nz.ac.auckland.avatar.dto.Avatar _dtoAvatar;
+	private byte[] _xml;
+
+	@Setup
+	public void setUp() throws JAXBException {
+		_context = new AvatarResolver().getContext(nz.ac.auckland.avatar.dto.Avatar.class);
+		if(_context == null) {
+			_context = JAXBContext.newInstance(nz.ac.auckland.avatar.dto.Avatar.class);
+		}
+		_dtoAvatar = AvatarMapper.toDto(Fixtures.avatar(1, 5, achievements));
+		_xml = marshal();
+	}
+
+	@Benchmark
+	public byte[] marshal() throws JAXBException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(_xml == null ? 1024 : _xml.length);
+		_context.createMarshaller().marshal(_dtoAvatar, out);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public Object unmarshal() throws JAXBException {
+		return _context.createUnmarshaller().unmarshal(new ByteArrayInputStream(_xml));
+	}
+}
@@ -0,0 +1,54 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Measures conversion between domain-model and DTO Avatars, which happens
+ * on every request that reads or writes an Avatar.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarMapperBenchmark {
+
+	@Param({"0", "10", "1000"})
+	public int achievements;
+
+	private Avatar _avatar;
+	private nz.ac.auckland.avatar.dto.Avatar _dtoAvatar;
+
+	@Setup
+	public void setUp() {
+		_avatar = Fixtures.avatar(1, 5, achievements);
+		_dtoAvatar = AvatarMapper.toDto(_avatar);
+	}
+
+	@Benchmark
+	public nz.ac.auckland.avatar.dto.Avatar toDto() {
+		return AvatarMapper.toDto(_avatar);
+	}
+
+	@Benchmark
+	public Avatar toDomainModel() {
+		return AvatarMapper.toDomainModel(_dtoAvatar);
+	}
+}
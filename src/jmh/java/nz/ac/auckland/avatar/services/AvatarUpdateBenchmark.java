@@ -0,0 +1,102 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Request;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Skills;
+import nz.ac.auckland.avatar.store.AvatarStoreFactory;
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+import nz.ac.auckland.avatar.store.ShardedAvatarStore;
+
+/**
+ * Measures updates of Avatars through AvatarResource, and reads that take
+ * an Avatar's read lock, by several threads at once, each choosing Avatars
+ * at random. An update takes the Avatar's lock stripe, re-puts it in the
+ * store and re-indexes it under an index stripe. Set the number of threads
+ * with -t.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AvatarUpdateBenchmark {
+	private static final int AVATARS = 10000;
+
+	@Param({"memory", "sharded"})
+	public String store;
+
+	private AvatarResource _resource;
+	private long _first;
+
+	@Setup
+	public void setUp() {
+		AvatarStoreFactory factory = "sharded".equals(store) ?
+				new ShardedAvatarStore.Factory(4, false) : InMemoryAvatarStore.FACTORY;
+		_resource = new AvatarResource(factory);
+		IndexedAvatarStore avatars = _resource.currentStore();
+		_first = avatars.nextIds(AVATARS);
+		List<Avatar> created = new ArrayList<Avatar>(AVATARS);
+		for(int i = 0; i < AVATARS; i++) {
+			created.add(Fixtures.avatar(_first + i, 5, 0));
+		}
+		avatars.createAvatars(created);
+	}
+
+	@TearDown
+	public void tearDown() {
+		_resource.currentStore().close();
+	}
+
+	@State(Scope.Thread)
+	public static class Requests {
+		private final Random _random = new Random();
+		private final Skills _skills = new Skills();
+		private Request _request;
+
+		@Setup
+		public void setUp() throws Exception {
+			_request = new RequestImpl(MockHttpRequest.put("/avatars"), new MockHttpResponse());
+		}
+
+		long next(AvatarUpdateBenchmark benchmark) {
+			return benchmark._first + _random.nextInt(AVATARS);
+		}
+	}
+
+	@Benchmark
+	public int updateSkills(Requests requests) {
+		return _resource.updateSkills(requests.next(this), requests._skills,
+				requests._request).getStatus();
+	}
+
+	@Benchmark
+	public int getStats(Requests requests) {
+		return _resource.getStats(requests.next(this), requests._request).getStatus();
+	}
+}
@@ -0,0 +1,59 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead that request metrics add to every request: the 
+ * two clock reads and the lock-free update of an endpoint's counters and 
+ * histogram, with 8 threads recording into the same endpoint. The nanoTime
+ * benchmark is the cost of the clock reads alone.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RequestMetricsBenchmark {
+
+	private RequestMetrics _metrics;
+	private RequestMetrics.Endpoint _endpoint;
+
+	@Setup
+	public void setUp() {
+		_metrics = new RequestMetrics();
+		_endpoint = _metrics.endpoint("AvatarResource.getAvatar");
+	}
+
+	@Benchmark
+	public long nanoTime() {
+		long start = System.nanoTime();
+		return System.nanoTime() - start;
+	}
+
+	@Benchmark
+	public void record() {
+		long start = System.nanoTime();
+		_endpoint.record(200, System.nanoTime() - start);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String render() {
+		return _metrics.render();
+	}
+}
@@ -0,0 +1,89 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Measures findAvatar() with many threads reading the same store, as the 
+ * Web service does. The store is wrapped in an IndexedAvatarStore as it is 
+ * by the service.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class FindAvatarBenchmark {
+	private static final int AVATARS = 10000;
+
+	@Param({"memory", "jpa"})
+	public String store;
+
+	private AvatarStore _store;
+	private long _firstId;
+
+	@Setup
+	public void setUp() {
+		AvatarStore delegate;
+		if("jpa".equals(store)) {
+			Map<String, String> properties = new HashMap<String, String>();
+			properties.put("hibernate.connection.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+			properties.put("javax.persistence.schema-generation.scripts.action", "none");
+			delegate = new JpaAvatarStore(properties);
+		} else {
+			delegate = new InMemoryAvatarStore();
+		}
+		_store = new IndexedAvatarStore(delegate);
+		_store.clear();
+
+		_firstId = _store.nextIds(AVATARS);
+		List<Avatar> avatars = new ArrayList<Avatar>(AVATARS);
+		for(int i = 0; i < AVATARS; i++) {
+			avatars.add(Fixtures.avatar(_firstId + i, 3, 3));
+		}
+		_store.createAvatars(avatars);
+	}
+
+	@TearDown
+	public void tearDown() {
+		_store.close();
+	}
+
+	@State(Scope.Thread)
+	public static class Ids {
+		private final Random _random = new Random(42);
+
+		int next() {
+			return _random.nextInt(AVATARS);
+		}
+	}
+
+	@Benchmark
+	public Avatar findAvatar(Ids ids) {
+		return _store.findAvatar(_firstId + ids.next());
+	}
+}
@@ -0,0 +1,72 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a Leaderboard ranking of a million Avatars: the cost of
+ * re-ranking an Avatar that has gained an achievement, and of the rank,
+ * top-K and neighbourhood queries.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LeaderboardBenchmark {
+	@Param({"1000000"})
+	public int avatars;
+
+	private Leaderboard.Ranking _ranking;
+	private int[] _achievements;
+	private Random _random;
+
+	@Setup
+	public void setUp() {
+		_ranking = new Leaderboard.Ranking();
+		_achievements = new int[avatars + 1];
+		_random = new Random(42);
+		for(int id = 1; id <= avatars; id++) {
+			_achievements[id] = _random.nextInt(100);
+			_ranking.add(_achievements[id], id);
+		}
+	}
+
+	@Benchmark
+	public void addAchievement() {
+		int id = _random.nextInt(avatars) + 1;
+		_ranking.remove(_achievements[id], id);
+		_ranking.add(++_achievements[id], id);
+	}
+
+	@Benchmark
+	public int rankOf() {
+		int id = _random.nextInt(avatars) + 1;
+		return _ranking.rankOf(_achievements[id], id);
+	}
+
+	@Benchmark
+	public List<Leaderboard.Entry> top10() {
+		return _ranking.entries(1, 10);
+	}
+
+	@Benchmark
+	public List<Leaderboard.Entry> around() {
+		return _ranking.entries(_random.nextInt(avatars - 10) + 1, 11);
+	}
+}
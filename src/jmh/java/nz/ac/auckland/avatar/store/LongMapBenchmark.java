@@ -0,0 +1,100 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares ConcurrentLongMap, which InMemoryAvatarStore uses to hold 
+ * Avatars by id, with the ConcurrentSkipListMap it replaced and with a 
+ * ConcurrentHashMap: lookup throughput with 8 threads reading, and memory
+ * footprint. 
+ *
+ * The footprint of each map, excluding its values (every entry shares one
+ * value), is measured with JOL and printed when the benchmark is set up.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(8)
+public class LongMapBenchmark {
+	private static final Object VALUE = new Object();
+
+	@Param({"longmap", "skiplist", "hashmap"})
+	public String map;
+
+	@Param({"1000000"})
+	public int entries;
+
+	private ConcurrentLongMap<Object> _longMap;
+	private Map<Long, Object> _boxedMap;
+
+	@Setup
+	public void setUp() {
+		Object footprintOf;
+		if("longmap".equals(map)) {
+			_longMap = new ConcurrentLongMap<Object>();
+			for(long id = 1; id <= entries; id++) {
+				_longMap.put(id, VALUE);
+			}
+			// Build the sorted key list, as paging through the store would.
+			_longMap.valuesAfter(0, 1);
+			footprintOf = _longMap;
+		} else {
+			_boxedMap = "skiplist".equals(map) 
+					? new ConcurrentSkipListMap<Long, Object>() 
+					: new ConcurrentHashMap<Long, Object>();
+			for(long id = 1; id <= entries; id++) {
+				_boxedMap.put(id, VALUE);
+			}
+			footprintOf = _boxedMap;
+		}
+		long bytes = GraphLayout.parseInstance(footprintOf).totalSize()
+				- GraphLayout.parseInstance(VALUE).totalSize();
+		System.out.println(map + " footprint: " + bytes + " bytes, " 
+				+ (double) bytes / entries + " bytes per entry");
+	}
+
+	@State(Scope.Thread)
+	public static class Ids {
+		private final Random _random = new Random(42);
+		private int _entries;
+
+		@Setup
+		public void setUp(LongMapBenchmark benchmark) {
+			_entries = benchmark.entries;
+		}
+
+		long next() {
+			return _random.nextInt(_entries) + 1;
+		}
+	}
+
+	@Benchmark
+	public Object get(Ids ids) {
+		if(_longMap != null) {
+			return _longMap.get(ids.next());
+		}
+		return _boxedMap.get(ids.next());
+	}
+}
@@ -0,0 +1,102 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ConcurrentLongMap with writes interleaved with ordered reads, 
+ * as when Avatars are created while clients page through the store: each 
+ * operation inserts a key and then reads a page of 20 values from a random
+ * key. Compares it with the ConcurrentSkipListMap it replaced.
+ *
+ * Keys are inserted either in ascending order, as ids are allocated, or 
+ * mostly ascending with one in 8 reaching back below the largest key, as 
+ * when concurrent creates finish out of order.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LongMapPagingBenchmark {
+	private static final Object VALUE = new Object();
+	private static final int PAGE_SIZE = 20;
+
+	@Param({"longmap", "skiplist"})
+	public String map;
+
+	@Param({"ascending", "outOfOrder"})
+	public String order;
+
+	@Param({"1000000"})
+	public int entries;
+
+	private ConcurrentLongMap<Object> _longMap;
+	private ConcurrentSkipListMap<Long, Object> _skipList;
+	private final Random _random = new Random(42);
+	private long _nextKey;
+
+	@Setup
+	public void setUp() {
+		if("longmap".equals(map)) {
+			_longMap = new ConcurrentLongMap<Object>();
+		} else {
+			_skipList = new ConcurrentSkipListMap<Long, Object>();
+		}
+		// Keys are spaced out, so that out of order keys have room below 
+		// the largest key.
+		for(_nextKey = 8; _nextKey <= entries * 8L; _nextKey += 8) {
+			put(_nextKey);
+		}
+	}
+
+	@Benchmark
+	public int putAndPage() {
+		long key = _nextKey;
+		if("outOfOrder".equals(order) && _random.nextInt(8) == 0) {
+			// An odd key, below the largest key but among the last few.
+			key = key - 1 - 2 * _random.nextInt(4);
+		} else {
+			_nextKey += 8;
+		}
+		put(key);
+
+		long after = (long) _random.nextInt(entries) * 8;
+		if(_longMap != null) {
+			List<Object> page = _longMap.valuesAfter(after, PAGE_SIZE);
+			return page.size();
+		}
+		int count = 0;
+		Iterator<Object> page = _skipList.tailMap(after, false).values().iterator();
+		while(count < PAGE_SIZE && page.hasNext()) {
+			page.next();
+			count++;
+		}
+		return count;
+	}
+
+	private void put(long key) {
+		if(_longMap != null) {
+			_longMap.put(key, VALUE);
+		} else {
+			_skipList.put(key, VALUE);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the write throughput of ConcurrentLongMap, whose writes share a
+ * monitor, with a ConcurrentHashMap's, with several threads writing. Run
+ * with -t to vary the number of threads.
+ *
+ * Each thread writes its own range of keys, inserting them on its first
+ * pass. Writes are either "replace", which alternates each key between two
+ * values and so takes ConcurrentLongMap's monitor, or "reput", which puts
+ * the value already held, as updates of an Avatar in place do.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LongMapPutBenchmark {
+	private static final Object[] VALUES = {new Object(), new Object()};
+
+	// Keys written by each thread.
+	private static final int KEYS = 1 << 16;
+
+	@Param({"longmap", "hashmap"})
+	public String map;
+
+	@Param({"replace", "reput"})
+	public String write;
+
+	private ConcurrentLongMap<Object> _longMap;
+	private Map<Long, Object> _boxedMap;
+	private final AtomicInteger _threads = new AtomicInteger();
+
+	@Setup
+	public void setUp() {
+		if("longmap".equals(map)) {
+			_longMap = new ConcurrentLongMap<Object>();
+		} else {
+			_boxedMap = new ConcurrentHashMap<Long, Object>();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Keys {
+		private long _base;
+		private boolean _replace;
+		private int _next;
+		private int _pass;
+
+		@Setup
+		public void setUp(LongMapPutBenchmark benchmark) {
+			_base = (long) benchmark._threads.getAndIncrement() * KEYS;
+			_replace = "replace".equals(benchmark.write);
+		}
+
+		long next() {
+			if(++_next == KEYS) {
+				_next = 0;
+				_pass++;
+			}
+			return _base + _next;
+		}
+
+		Object value() {
+			return VALUES[_replace ? _pass & 1 : 0];
+		}
+	}
+
+	@Benchmark
+	public Object put(Keys keys) {
+		long key = keys.next();
+		if(_longMap != null) {
+			return _longMap.put(key, keys.value());
+		}
+		return _boxedMap.put(key, keys.value());
+	}
+}
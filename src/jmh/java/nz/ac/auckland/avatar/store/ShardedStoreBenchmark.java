@@ -0,0 +1,139 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nz.ac.auckland.avatar.Fixtures;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Category;
+
+/**
+ * Compares ShardedAvatarStore, with and without single writers, with the
+ * unsharded InMemoryAvatarStore (shards = 0, for which singleWriter has no
+ * effect): bulk loading, counting Avatars by category across the store,
+ * and concurrent single-Avatar writes.
+ *
+ * The number of threads writing in updateAvatar is set with -t (default,
+ * one); run it once for each count, e.g. 1, 2, 4, 8, 16 and 32. To see how
+ * each store scales with cores rather than with threads, run on a machine
+ * with at least 32 of them, limiting the cores the JVM may use (e.g. with
+ * taskset) to the number of threads.
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ShardedStoreBenchmark {
+	private static final int AVATARS = 100000;
+
+	@Param({"0", "1", "4", "16", "32"})
+	public int shards;
+
+	@Param({"false", "true"})
+	public boolean singleWriter;
+
+	private AvatarStore _store;
+	private List<Avatar> _avatars;
+
+	@Setup
+	public void setUp() {
+		_store = shards == 0 ? new InMemoryAvatarStore() : new ShardedAvatarStore(shards, singleWriter);
+		long first = _store.nextIds(AVATARS);
+		_avatars = new ArrayList<Avatar>(AVATARS);
+		for(int i = 0; i < AVATARS; i++) {
+			_avatars.add(Fixtures.avatar(first + i, 0, 0));
+		}
+		_store.createAvatars(_avatars);
+	}
+
+	@TearDown
+	public void tearDown() {
+		_store.close();
+	}
+
+	/**
+	 * The Avatars to bulk load, into a store emptied before each load.
+	 */
+	@State(Scope.Thread)
+	public static class EmptyStore {
+		@Setup(Level.Invocation)
+		public void clear(ShardedStoreBenchmark benchmark) {
+			benchmark._store.clear();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Ids {
+		private final Random _random = new Random(42);
+
+		int next() {
+			return _random.nextInt(AVATARS);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Threads(1)
+	public int bulkLoad(EmptyStore empty) {
+		_store.createAvatars(_avatars);
+		return _store.size();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Threads(1)
+	public int countMages() {
+		if(!(_store instanceof ShardedAvatarStore)) {
+			return countMages(_store.getAvatars());
+		}
+		int mages = 0;
+		for(int count : ((ShardedAvatarStore) _store).onEachShard(
+				new ShardedAvatarStore.ShardTask<Integer>() {
+					@Override
+					public Integer run(Collection<Avatar> avatars) {
+						return countMages(avatars);
+					}
+				})) {
+			mages += count;
+		}
+		return mages;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void updateAvatar(Ids ids) {
+		_store.updateAvatar(_avatars.get(ids.next()));
+	}
+
+	private static int countMages(Collection<Avatar> avatars) {
+		int mages = 0;
+		for(Avatar avatar : avatars) {
+			if(avatar.getCategory() == Category.MAGE) {
+				mages++;
+			}
+		}
+		return mages;
+	}
+}
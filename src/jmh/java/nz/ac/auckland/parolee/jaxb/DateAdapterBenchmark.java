@@ -0,0 +1,102 @@
+package nz.ac.auckland.parolee.jaxb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JAXB date adapters with the Joda conversions they replace.
+ * The "joda" benchmarks are the general-purpose String constructors and 
+ * toString(); the "adapter" benchmarks go through IsoFormats. Run with 
+ * -prof gc to compare allocation.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateAdapterBenchmark {
+	private static final int VALUES = 64;
+
+	private final LocalDateAdapter _dateAdapter = new LocalDateAdapter();
+	private final DateTimeAdapter _dateTimeAdapter = new DateTimeAdapter();
+
+	private LocalDate[] _dates;
+	private String[] _dateStrings;
+	private DateTime[] _dateTimes;
+	private String[] _dateTimeStrings;
+	private int _next;
+
+	@Setup
+	public void setUp() {
+		_dates = new LocalDate[VALUES];
+		_dateStrings = new String[VALUES];
+		_dateTimes = new DateTime[VALUES];
+		_dateTimeStrings = new String[VALUES];
+		DateTime start = new DateTime(2015, 1, 1, 0, 0);
+		for(int i = 0; i < VALUES; i++) {
+			_dates[i] = new LocalDate(1960, 1, 1).plusDays(i * 397);
+			_dateStrings[i] = _dates[i].toString();
+			_dateTimes[i] = start.plusMinutes(i * 1117).plusMillis(i);
+			_dateTimeStrings[i] = _dateTimes[i].toString();
+		}
+	}
+
+	private int next() {
+		_next = (_next + 1) & (VALUES - 1);
+		return _next;
+	}
+
+	@Benchmark
+	public LocalDate jodaParseLocalDate() {
+		return new LocalDate(_dateStrings[next()]);
+	}
+
+	@Benchmark
+	public LocalDate adapterParseLocalDate() throws Exception {
+		return _dateAdapter.unmarshal(_dateStrings[next()]);
+	}
+
+	@Benchmark
+	public String jodaPrintLocalDate() {
+		return _dates[next()].toString();
+	}
+
+	@Benchmark
+	public String adapterPrintLocalDate() throws Exception {
+		return _dateAdapter.marshal(_dates[next()]);
+	}
+
+	@Benchmark
+	public DateTime jodaParseDateTime() {
+		return new DateTime(_dateTimeStrings[next()]);
+	}
+
+	@Benchmark
+	public DateTime adapterParseDateTime() throws Exception {
+		return _dateTimeAdapter.unmarshal(_dateTimeStrings[next()]);
+	}
+
+	@Benchmark
+	public String jodaPrintDateTime() {
+		return _dateTimes[next()].toString();
+	}
+
+	@Benchmark
+	public String adapterPrintDateTime() throws Exception {
+		return _dateTimeAdapter.marshal(_dateTimes[next()]);
+	}
+}
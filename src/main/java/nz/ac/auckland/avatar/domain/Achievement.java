@@ -2,36 +2,54 @@ package nz.ac.auckland.avatar.domain;
 
 import java.util.List;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import nz.ac.auckland.avatar.jpa.DateTimeConverter;
+
 /*
  * Achievements act as trophies, and 
  * are used to display the avatar's progress
  * through the game
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@XmlRootElement(name="achievement")
+@XmlAccessorType(XmlAccessType.FIELD)
 public class Achievement {
+	// Sequence (rather than identity) generation allows Hibernate to batch
+	// the inserts of new achievements.
 	@Id
-	@GeneratedValue( strategy = GenerationType.IDENTITY )
+	@GeneratedValue( strategy = GenerationType.SEQUENCE )
+	@XmlAttribute(name="id")
 	private long _id;
 
+	@XmlElement(name="achievement-name")
 	private String _achievementName;
 
+	@Convert(converter = DateTimeConverter.class)
+	@XmlElement(name="time-recieved")
 	private DateTime _timeRecieved;
 //the id of the quest the achievement is unlocked in
+	@XmlElement(name="quest-id")
 	private long _questId;
 	
 	protected Achievement() {
@@ -69,6 +87,14 @@ public class Achievement {
 		_achievementName = name;
 	}
 
+	public long getQuestId() {
+		return _questId;
+	}
+
+	public void setQuestId(long questId) {
+		_questId = questId;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof Achievement))
@@ -0,0 +1,230 @@
+package nz.ac.auckland.avatar.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.joda.time.DateTime;
+
+/**
+ * An Avatar's achievements ordered by the time they were received, most
+ * recent first. Achievements are inserted in O(log n), and a window of the
+ * timeline is returned in O(log n + k) for k achievements, without copying
+ * the rest of the timeline.
+ *
+ * Achievements received at the same instant are ordered by id, highest 
+ * first, and achievements that also share an id most recently added first.
+ * Achievements without a time are treated as the oldest. Each achievement's
+ * position is identified by a Cursor, which pages through the timeline 
+ * without skipping or repeating achievements that share a time.
+ *
+ */
+public class AchievementTimeline {
+	private final ConcurrentNavigableMap<Cursor, Achievement> _achievements;
+
+	public AchievementTimeline() {
+		_achievements = new ConcurrentSkipListMap<Cursor, Achievement>();
+	}
+
+	public AchievementTimeline(Collection<Achievement> achievements) {
+		this();
+		for(Achievement achievement : achievements) {
+			add(achievement);
+		}
+	}
+
+	public synchronized void add(Achievement achievement) {
+		// Number achievements with the same time and id in the order they're
+		// added. Distinct achievements (with distinct ids, as the database
+		// assigns) all get 0, so their cursors are the same whichever order
+		// the timeline was built in.
+		long time = timeOf(achievement);
+		long id = achievement.getId();
+		Cursor newest = _achievements.ceilingKey(new Cursor(time, id, Long.MAX_VALUE));
+		long occurrence = newest != null && newest._time == time && newest._id == id ?
+				newest._occurrence + 1 : 0;
+		_achievements.put(new Cursor(time, id, occurrence), achievement);
+	}
+
+	public int size() {
+		return _achievements.size();
+	}
+
+	public boolean isEmpty() {
+		return _achievements.isEmpty();
+	}
+
+	/**
+	 * Returns the most recent achievement, or null if there are none.
+	 */
+	public Achievement latest() {
+		Map.Entry<Cursor, Achievement> first = _achievements.firstEntry();
+		return first == null ? null : first.getValue();
+	}
+
+	/**
+	 * Returns all achievements, most recent first.
+	 */
+	public List<Achievement> toList() {
+		return new ArrayList<Achievement>(_achievements.values());
+	}
+
+	/**
+	 * Returns achievements, most recent first, that were received within the
+	 * given window. Any of the bounds may be null.
+	 *
+	 * @param from
+	 *            only achievements received at or after this time.
+	 * @param to
+	 *            only achievements received at or before this time.
+	 * @param before
+	 *            only achievements received strictly before this time.
+	 * @param limit
+	 *            the maximum number of achievements to return, or 0 for no
+	 *            limit.
+	 */
+	public List<Achievement> window(DateTime from, DateTime to, DateTime before, int limit) {
+		return page(from, to, before, null, limit).getAchievements();
+	}
+
+	/**
+	 * Returns a page of the achievements in a window, most recent first. 
+	 * Pass the page's next cursor, with the same bounds, to get the next
+	 * (older) page. Any of the bounds may be null.
+	 *
+	 * @param after
+	 *            only achievements older than the one at this cursor.
+	 * @param limit
+	 *            the maximum number of achievements to return, or 0 for no
+	 *            limit.
+	 * @see #window(DateTime, DateTime, DateTime, int)
+	 */
+	public Page page(DateTime from, DateTime to, DateTime before, Cursor after, int limit) {
+		long newest = Long.MAX_VALUE;
+		if(to != null) {
+			newest = to.getMillis();
+		}
+		if(before != null) {
+			newest = Math.min(newest, before.getMillis() - 1);
+		}
+		Cursor start = new Cursor(newest, Long.MAX_VALUE, Long.MAX_VALUE);
+		Cursor oldest = from == null ? null : new Cursor(from.getMillis(), Long.MIN_VALUE, 0);
+
+		ConcurrentNavigableMap<Cursor, Achievement> window = 
+				after != null && after.compareTo(start) >= 0 ?
+				_achievements.tailMap(after, false) : _achievements.tailMap(start, true);
+
+		List<Achievement> achievements = new ArrayList<Achievement>(
+				limit > 0 ? Math.min(limit, 64) : 16);
+		Cursor last = null;
+		for(Map.Entry<Cursor, Achievement> entry : window.entrySet()) {
+			if(oldest != null && entry.getKey().compareTo(oldest) > 0) {
+				break;
+			}
+			if(limit > 0 && achievements.size() == limit) {
+				return new Page(achievements, last);
+			}
+			achievements.add(entry.getValue());
+			last = entry.getKey();
+		}
+		return new Page(achievements, null);
+	}
+
+	private static long timeOf(Achievement achievement) {
+		DateTime time = achievement.getTimeAchieved();
+		return time == null ? Long.MIN_VALUE : time.getMillis();
+	}
+
+	/**
+	 * A page of a timeline window, and the cursor of the page's last 
+	 * achievement if there are more achievements after it.
+	 */
+	public static final class Page {
+		private final List<Achievement> _achievements;
+		private final Cursor _next;
+
+		Page(List<Achievement> achievements, Cursor next) {
+			_achievements = achievements;
+			_next = next;
+		}
+
+		public List<Achievement> getAchievements() {
+			return _achievements;
+		}
+
+		/**
+		 * Returns the cursor to pass for the next page, or null if this is
+		 * the last page.
+		 */
+		public Cursor getNext() {
+			return _next;
+		}
+	}
+
+	/**
+	 * The position of an achievement in a timeline. Orders positions by 
+	 * time, id and then occurrence, all descending. The string form is
+	 * "time.id.occurrence" and can be read back with parse().
+	 */
+	public static final class Cursor implements Comparable<Cursor> {
+		private final long _time;
+		private final long _id;
+		private final long _occurrence;
+
+		Cursor(long time, long id, long occurrence) {
+			_time = time;
+			_id = id;
+			_occurrence = occurrence;
+		}
+
+		/**
+		 * Reads a cursor from its string form.
+		 * @throws IllegalArgumentException if value is malformed.
+		 */
+		public static Cursor parse(String value) {
+			String[] parts = value.split("\\.");
+			if(parts.length != 3) {
+				throw new IllegalArgumentException("Malformed cursor " + value);
+			}
+			return new Cursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]), 
+					Long.parseLong(parts[2]));
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			if(_time != other._time) {
+				return _time > other._time ? -1 : 1;
+			}
+			if(_id != other._id) {
+				return _id > other._id ? -1 : 1;
+			}
+			if(_occurrence != other._occurrence) {
+				return _occurrence > other._occurrence ? -1 : 1;
+			}
+			return 0;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Cursor))
+				return false;
+			Cursor cursor = (Cursor) obj;
+			return _time == cursor._time && _id == cursor._id 
+					&& _occurrence == cursor._occurrence;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((int) (_time ^ (_time >>> 32)) * 31 + (int) (_id ^ (_id >>> 32))) * 31 
+					+ (int) (_occurrence ^ (_occurrence >>> 32));
+		}
+
+		@Override
+		public String toString() {
+			return _time + "." + _id + "." + _occurrence;
+		}
+	}
+}
@@ -5,41 +5,93 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import javax.persistence.*;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import nz.ac.auckland.avatar.jpa.LocalDateConverter;
+
 /**
  * Class to represent a Avatar. A Avatar is described by:
  * - Personal details: username, firstname, gender, date-of-birth, home address;
  * - Curfew: any constraints on the Avatar's location;
  * - Bag: Holds the info regarding which items the avatar has;
+ * - Skills: what training adds to the Avatar's stats;
  * - Friends: other Avatar who the Avatar is not permitted to be with;
  * - Achievements: a timestamped history of where the Avatar has been.
  * 
  * A Avatar is uniquely identified by an id value of type Long.
  * 
+ * An Avatar may be read by many threads while another changes it. Its 
+ * collections are changed under the Avatar's monitor, and friends are 
+ * replaced rather than changed in place, so readers never see a collection
+ * mid-change. Callers that read, change and store an Avatar must serialise
+ * that sequence themselves (see AvatarLocks in the services package).
+ * 
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Avatar {
+	// Ids are allocated by the AvatarStore rather than by the database, so
+	// that newly created Avatars can be written in JDBC batches.
 	@Id
-	@GeneratedValue( strategy = GenerationType.IDENTITY )
 	private long _id;
 	//@Colummn nullable = false, add many to one etc mapped by
 	private String _username;
+	@Enumerated(EnumType.STRING)
 	private Category _category;
+	@Convert(converter = LocalDateConverter.class)
 	private LocalDate _dateOfBirth;
+	@Embedded
 	private Bag _bag;
-	private Set<Avatar> _friends;
+	// Null if loaded by JPA from a row written before Avatars had Skills.
+	@Embedded
+	private Skills _skills;
+	@ManyToMany(fetch = FetchType.EAGER)
+	@JoinTable(name = "AVATAR_FRIENDS")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+	private volatile Set<Avatar> _friends;
+	@OneToMany(cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+	@JoinColumn(name = "AVATAR_ID")
+	@OrderBy("_timeRecieved DESC")
+	// Load with a separate select; joining a list alongside the set-valued
+	// associations would duplicate its elements.
+	@Fetch(FetchMode.SELECT)
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private List<Achievement> _achievements;
 	
+	// Time-ordered view of _achievements. _achievements is the persistent
+	// collection, in no particular order, and the timeline is rebuilt from
+	// it when first needed after loading.
+	@Transient
+	private volatile AchievementTimeline _timeline;
+	
+	@ManyToOne
 	private Quest _currentQuest;
 	
+	// Incremented by every mutator, so that clients can tell whether an
+	// Avatar has changed since they last read it.
+	private volatile long _version;
+	
+	private static final AtomicLongFieldUpdater<Avatar> _versionUpdater = 
+			AtomicLongFieldUpdater.newUpdater(Avatar.class, "_version");
+	
+	protected Avatar() {
+		// Required by JPA.
+		_friends = new HashSet<Avatar>();
+		_achievements = new ArrayList<Achievement>();
+	}
 	
 	public Avatar(long id,
 			String username,
@@ -51,6 +103,7 @@ public class Avatar {
 		_category = category;
 		_dateOfBirth = dateOfBirth;
 		_bag = bag;
+		_skills = new Skills();
 		_friends = new HashSet<Avatar>();
 		_achievements = new ArrayList<Achievement>();
 	}
@@ -66,7 +119,10 @@ public class Avatar {
 		_category = category;
 		_dateOfBirth = dateOfBirth;
 		_bag = bag;
-		_achievements = achievement;
+		_skills = new Skills();
+		_friends = new HashSet<Avatar>();
+		_achievements = achievement != null ? 
+				new ArrayList<Achievement>(achievement) : new ArrayList<Achievement>();
 	}
 	
 
@@ -84,6 +140,7 @@ public class Avatar {
 	
 	public void setUsername(String username) {
 		_username = username;
+		incrementVersion();
 	}
 	
 	public Category getCategory() {
@@ -92,6 +149,7 @@ public class Avatar {
 	
 	public void setCategory(Category gender) {
 		_category = gender;
+		incrementVersion();
 	}
 	
 	public LocalDate getDateOfBirth() {
@@ -100,10 +158,12 @@ public class Avatar {
 	
 	public void setDateOfBirth(LocalDate dateOfBirth) {
 		_dateOfBirth = dateOfBirth;
+		incrementVersion();
 	}
 	
 	public void setCurrentQuest(Quest quest){
 		_currentQuest = quest;
+		incrementVersion();
 	}
 	
 	public Quest getCurrentQuest() {
@@ -116,43 +176,84 @@ public class Avatar {
 	
 	public void setBag(Bag bag) {
 		_bag = bag;
+		incrementVersion();
 	}
 	
+	public Skills getSkills() {
+		return _skills != null ? _skills : new Skills();
+	}
 	
-	public void addAchievement(Achievement achievement) {
-		// Store the new achievement.
+	public void setSkills(Skills skills) {
+		_skills = skills;
+		incrementVersion();
+	}
+	
+	
+	public synchronized void addAchievement(Achievement achievement) {
+		// Store the new achievement, and insert it into the timeline so that
+		// achievements remain in descending order (i.e. that the most recent
+		// achievement appears first).
+		AchievementTimeline timeline = getTimeline();
 		_achievements.add(achievement);
-		
-		// Ensure that achievements are sorted in descending order (i.e. that the
-		// most recent achievement appears first.
-		Collections.sort(_achievements, Collections.reverseOrder());
+		timeline.add(achievement);
+		incrementVersion();
 	}
 	
 	public List<Achievement> getAchievements() {
-		// Returns the Avatar's achievements in a read-only collection.
-		return Collections.unmodifiableList(_achievements);
+		// Returns a copy of the Avatar's achievements, most recent first.
+		return getTimeline().toList();
 	}
 	
-	public Achievement getLatestAchievement(){
-		if (_achievements.isEmpty()){
-			return _achievements.get(0);
+	public AchievementTimeline getTimeline() {
+		AchievementTimeline timeline = _timeline;
+		if(timeline == null) {
+			synchronized(this) {
+				timeline = _timeline;
+				if(timeline == null) {
+					timeline = new AchievementTimeline(_achievements);
+					_timeline = timeline;
+				}
+			}
 		}
-		return null;
+		return timeline;
 	}
-	public void addFriend(Avatar avatar) {
-		_friends.add(avatar);
+	
+	public Achievement getLatestAchievement(){
+		return getTimeline().latest();
+	}
+	public synchronized void addFriend(Avatar avatar) {
+		Set<Avatar> friends = new HashSet<Avatar>(_friends);
+		friends.add(avatar);
+		_friends = friends;
+		incrementVersion();
 	}
 	
-	public void removeFriend(Avatar avatar) {
-		_friends.remove(avatar);
+	public synchronized void removeFriend(Avatar avatar) {
+		Set<Avatar> friends = new HashSet<Avatar>(_friends);
+		friends.remove(avatar);
+		_friends = friends;
+		incrementVersion();
 	}
 	
 	public Set<Avatar> getFriends() {
 		return Collections.unmodifiableSet(_friends);
 	}
 	
-	public void updateFriends(Set<Avatar> friends) {
-		_friends = friends;
+	public synchronized void updateFriends(Set<Avatar> friends) {
+		_friends = new HashSet<Avatar>(friends);
+		incrementVersion();
+	}
+	
+	/**
+	 * Returns this Avatar's version. The version increases each time the 
+	 * Avatar is changed through one of its mutators.
+	 */
+	public long getVersion() {
+		return _version;
+	}
+	
+	private void incrementVersion() {
+		_versionUpdater.incrementAndGet(this);
 	}
 	
 	@Override
@@ -207,11 +308,11 @@ public class Avatar {
 		}
 		
 		if(!_achievements.isEmpty()) {
-			for (Achievement ach : _achievements){
+			for (Achievement ach : getAchievements()){
 				buffer.append(ach.getAchievementName());
 			}
 			buffer.append("\n  Last known location: ");
-			Achievement lastAchievement = _achievements.get(0);
+			Achievement lastAchievement = getLatestAchievement();
 			buffer.append(lastAchievement);
 		}
 		
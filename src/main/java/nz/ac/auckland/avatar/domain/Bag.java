@@ -5,14 +5,18 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.persistence.CollectionTable;
+import javax.persistence.ElementCollection;
 import javax.persistence.Embeddable;
+import javax.persistence.FetchType;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -20,14 +24,36 @@ import org.joda.time.format.DateTimeFormatter;
 
 /** 
  *Represents the avatar's bag. Holds items.
+ *
+ *Items are held in an ItemSet, which shares Items through the ItemCatalog
+ *and keeps their counts by ItemType and bonuses by Stat. A Bag loaded by JPA holds the collection JPA
+ *gives it instead.
  */
 @Embeddable
+@XmlRootElement(name="bag")
+@XmlAccessorType(XmlAccessType.FIELD)
 public class Bag {
 
+	@XmlElementWrapper(name="items")
+	@XmlElement(name="item")
+	@ElementCollection(fetch = FetchType.EAGER)
+	@CollectionTable(name = "BAG_ITEMS")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private Set<Item> _items;
 	
 	public Bag() {
-		_items = new HashSet<Item>();
+		_items = new ItemSet();
+	}
+	
+	/**
+	 * Creates a Bag holding the same items as bag, or an empty Bag if bag is
+	 * null.
+	 */
+	public Bag(Bag bag) {
+		this();
+		if(bag != null) {
+			_items.addAll(bag._items);
+		}
 	}
 	
 	public void addItem(Item item) {
@@ -38,6 +64,42 @@ public class Bag {
 		_items.remove(item);
 	}
 	
+	public Set<Item> getItems() {
+		return Collections.unmodifiableSet(_items);
+	}
+	
+	/**
+	 * Returns the number of items of the given type in the bag.
+	 */
+	public int count(ItemType type) {
+		if(_items instanceof ItemSet) {
+			return ((ItemSet) _items).count(type);
+		}
+		int count = 0;
+		for(Item item : _items) {
+			if(item.getItemType() == type) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the total that the items in the bag add to a Stat.
+	 */
+	public int getBonus(Stat stat) {
+		if(_items instanceof ItemSet) {
+			return ((ItemSet) _items).bonus(stat);
+		}
+		int bonus = 0;
+		for(Item item : _items) {
+			if(item.getItemType() != null && item.getItemType().getStat() == stat) {
+				bonus += item.getStatIncreaseAmount();
+			}
+		}
+		return bonus;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof Bag))
@@ -46,16 +108,12 @@ public class Bag {
             return true;
 
         Bag bag = (Bag) obj;
-        return new EqualsBuilder().
-            append(_items, bag._items).
-            isEquals();
+        return _items.equals(bag._items);
 	}
 	
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 31). 
-	            append(_items).
-	            toHashCode();
+		return _items.hashCode();
 	}
 	
 	@Override
@@ -1,7 +1,24 @@
 package nz.ac.auckland.avatar.domain;
 
 public enum Category {
-	MAGE, ROUGE, BARBARIAN, MONK;
+	// Base HEALTH, MANA, ATTACK, DEFENCE and MAGIC.
+	MAGE(70, 120, 4, 4, 16), ROUGE(90, 40, 12, 6, 4), 
+	BARBARIAN(130, 10, 16, 10, 0), MONK(100, 70, 8, 12, 8);
+	
+	private final int[] _baseStats;
+	
+	private Category(int... baseStats) {
+		_baseStats = baseStats;
+	}
+	
+	/**
+	 * Returns the value of a Stat for an Avatar of this category before any
+	 * Skills or Items are added.
+	 */
+	public int getBaseStat(Stat stat) {
+		return _baseStats[stat.ordinal()];
+	}
+	
 /*
  * Returns the category of the avatar
  */
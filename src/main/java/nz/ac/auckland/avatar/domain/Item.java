@@ -1,28 +1,35 @@
 package nz.ac.auckland.avatar.domain;
 
+import javax.persistence.Embeddable;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 /**
  * Class to represent a particular criminal item. A item is made up 
  * of one or more Profile.Offence tags, the date of item, and a 
  * description of the item.
  *
  */
+@Embeddable
+@XmlAccessorType(XmlAccessType.FIELD)
 public class Item {
 	
+	@XmlElement(name="item_type")
+	@Enumerated(EnumType.STRING)
 	private ItemType _itemType;
 	
+	@XmlElement(name="stat_increase_amount")
 	private int _statIncreaseAmount;
 	
+	@XmlElement(name="item_description")
 	private String _description;
 	
 	protected Item() {
-		this((Integer) null,null,null);
+		// Required by JAXB and JPA.
+		this(0,null,null);
 	}
 	
 	public Item(int increaseAmount,
@@ -48,25 +55,27 @@ public class Item {
 	
 	@Override
 	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
 		if (!(obj instanceof Item))
-            return false;
-        if (obj == this)
-            return true;
+			return false;
 
-        Item i = (Item) obj;
-        return new EqualsBuilder().
-            append(_statIncreaseAmount, i._statIncreaseAmount).
-            append(_description, i._description).
-            append(_itemType,i._itemType).
-            isEquals();
+		// Compared field by field rather than with an EqualsBuilder, as Bags
+		// compare Items often; Items from the ItemCatalog are usually the
+		// same instance.
+		Item i = (Item) obj;
+		return _statIncreaseAmount == i._statIncreaseAmount
+				&& _itemType == i._itemType
+				&& (_description == null ? i._description == null 
+						: _description.equals(i._description));
 	}
 	
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 31). 
-	            append(_statIncreaseAmount).
-	            append(_description).
-	            append(_itemType).
-	            toHashCode();
+		// The ItemType's ordinal, unlike its identity hash code, is the same 
+		// in every JVM.
+		int hash = 17 * 31 + _statIncreaseAmount;
+		hash = hash * 31 + (_description == null ? 0 : _description.hashCode());
+		return hash * 31 + (_itemType == null ? 0 : _itemType.ordinal() + 1);
 	}
 }
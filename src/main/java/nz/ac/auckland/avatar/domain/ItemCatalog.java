@@ -0,0 +1,53 @@
+package nz.ac.auckland.avatar.domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Catalog of the distinct Items held in Bags. A Bag holds the catalog's
+ * instance of each Item added to it, so an Item held in many Bags, and its
+ * description, is stored once however many Bags hold it.
+ *
+ * Items are defined by clients, so the catalog is bounded: once it holds
+ * MAX_SIZE_PROPERTY Items, further distinct Items are held as given.
+ *
+ */
+public final class ItemCatalog {
+	/**
+	 * System property giving the maximum number of distinct Items held in the
+	 * catalog (default 65536).
+	 */
+	public static final String MAX_SIZE_PROPERTY = "avatar.items.catalog";
+
+	static final int DEFAULT_MAX_SIZE = 65536;
+
+	private static final int _maxSize = Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+
+	private static final ConcurrentMap<Item, Item> _items = new ConcurrentHashMap<Item, Item>();
+
+	private ItemCatalog() {
+	}
+
+	/**
+	 * Returns the catalog's instance of an Item equal to item, adding item
+	 * to the catalog if there is none and the catalog isn't full.
+	 */
+	public static Item intern(Item item) {
+		Item interned = _items.get(item);
+		if(interned != null) {
+			return interned;
+		}
+		if(_items.size() >= _maxSize) {
+			return item;
+		}
+		interned = _items.putIfAbsent(item, item);
+		return interned != null ? interned : item;
+	}
+
+	/**
+	 * Returns the number of distinct Items in the catalog.
+	 */
+	public static int size() {
+		return _items.size();
+	}
+}
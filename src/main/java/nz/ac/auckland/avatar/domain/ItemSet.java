@@ -0,0 +1,244 @@
+package nz.ac.auckland.avatar.domain;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The Set of Items held in a Bag. Items are grouped by ItemType in an
+ * EnumMap of small arrays, each kept in a fixed order, and are taken from
+ * the ItemCatalog as they're added, so a Bag holds shared references
+ * rather than its own copies.
+ *
+ * Because of the fixed order, two ItemSets are compared array by array.
+ * The hash code, and the total bonus that the Items give each Stat, are
+ * kept up to date as Items are added and removed, so none of these
+ * allocate or rescan the Items. Arrays are replaced, not changed, when Items are
+ * added or removed, so an iterator sees the Items of each type as they
+ * were when it reached that type.
+ *
+ * ItemSet is not thread-safe; Avatars are updated under their store's
+ * per-Avatar locks.
+ *
+ */
+final class ItemSet extends AbstractSet<Item> {
+	private static final Item[] NONE = new Item[0];
+
+	private static final ItemType[] TYPES = ItemType.values();
+
+	private static final int STATS = Stat.values().length;
+
+	// Orders the Items of one type.
+	private static final Comparator<Item> ORDER = new Comparator<Item>() {
+		@Override
+		public int compare(Item a, Item b) {
+			if(a.getStatIncreaseAmount() != b.getStatIncreaseAmount()) {
+				return a.getStatIncreaseAmount() < b.getStatIncreaseAmount() ? -1 : 1;
+			}
+			String x = a.getDescription();
+			String y = b.getDescription();
+			if(x == null || y == null) {
+				return x == y ? 0 : x == null ? -1 : 1;
+			}
+			return x.compareTo(y);
+		}
+	};
+
+	// Created when the first typed Item is added; most Bags are empty.
+	private EnumMap<ItemType, Item[]> _items;
+
+	// Items without an ItemType, which EnumMap can't key.
+	private Item[] _untyped;
+
+	// Sum of the stat increase amounts of the Items of each Stat, indexed by
+	// ordinal; created with _items.
+	private int[] _bonuses;
+
+	private int _size;
+	private int _hashCode;
+
+	ItemSet() {
+		_untyped = NONE;
+	}
+
+	/**
+	 * Returns the number of Items of the given type.
+	 */
+	int count(ItemType type) {
+		return itemsOf(type).length;
+	}
+
+	/**
+	 * Returns the total that the Items add to a Stat.
+	 */
+	int bonus(Stat stat) {
+		return _bonuses == null ? 0 : _bonuses[stat.ordinal()];
+	}
+
+	@Override
+	public int size() {
+		return _size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if(!(o instanceof Item)) {
+			return false;
+		}
+		Item item = (Item) o;
+		return Arrays.binarySearch(itemsOf(item.getItemType()), item, ORDER) >= 0;
+	}
+
+	@Override
+	public boolean add(Item item) {
+		item = ItemCatalog.intern(item);
+		Item[] items = itemsOf(item.getItemType());
+		int index = Arrays.binarySearch(items, item, ORDER);
+		if(index >= 0) {
+			return false;
+		}
+		index = -index - 1;
+		Item[] added = new Item[items.length + 1];
+		System.arraycopy(items, 0, added, 0, index);
+		added[index] = item;
+		System.arraycopy(items, index, added, index + 1, items.length - index);
+		setItemsOf(item.getItemType(), added);
+		_size++;
+		_hashCode += item.hashCode();
+		addBonus(item, item.getStatIncreaseAmount());
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if(!(o instanceof Item)) {
+			return false;
+		}
+		Item item = (Item) o;
+		Item[] items = itemsOf(item.getItemType());
+		int index = Arrays.binarySearch(items, item, ORDER);
+		if(index < 0) {
+			return false;
+		}
+		Item[] removed = items.length == 1 ? NONE : new Item[items.length - 1];
+		System.arraycopy(items, 0, removed, 0, index);
+		System.arraycopy(items, index + 1, removed, index, items.length - index - 1);
+		setItemsOf(item.getItemType(), removed);
+		_size--;
+		_hashCode -= item.hashCode();
+		addBonus(item, -item.getStatIncreaseAmount());
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		_items = null;
+		_bonuses = null;
+		_untyped = NONE;
+		_size = 0;
+		_hashCode = 0;
+	}
+
+	@Override
+	public Iterator<Item> iterator() {
+		return new Iterator<Item>() {
+			// Index into TYPES of the type being iterated, or TYPES.length for
+			// the untyped Items.
+			private int _type = -1;
+			private Item[] _current = NONE;
+			private int _next;
+			private Item _last;
+
+			@Override
+			public boolean hasNext() {
+				while(_next == _current.length) {
+					if(_type == TYPES.length) {
+						return false;
+					}
+					_type++;
+					_current = _type == TYPES.length ? _untyped : itemsOf(TYPES[_type]);
+					_next = 0;
+				}
+				return true;
+			}
+
+			@Override
+			public Item next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				_last = _current[_next++];
+				return _last;
+			}
+
+			@Override
+			public void remove() {
+				if(_last == null) {
+					throw new IllegalStateException();
+				}
+				ItemSet.this.remove(_last);
+				_last = null;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof ItemSet)) {
+			return super.equals(o);
+		}
+		if(o == this) {
+			return true;
+		}
+		ItemSet other = (ItemSet) o;
+		if(_size != other._size || _hashCode != other._hashCode
+				|| !Arrays.equals(_untyped, other._untyped)) {
+			return false;
+		}
+		for(ItemType type : TYPES) {
+			if(!Arrays.equals(itemsOf(type), other.itemsOf(type))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return _hashCode;
+	}
+
+	private Item[] itemsOf(ItemType type) {
+		if(type == null) {
+			return _untyped;
+		}
+		if(_items == null) {
+			return NONE;
+		}
+		Item[] items = _items.get(type);
+		return items != null ? items : NONE;
+	}
+
+	private void setItemsOf(ItemType type, Item[] items) {
+		if(type == null) {
+			_untyped = items;
+		} else if(items.length == 0) {
+			_items.remove(type);
+		} else {
+			if(_items == null) {
+				_items = new EnumMap<ItemType, Item[]>(ItemType.class);
+				_bonuses = new int[STATS];
+			}
+			_items.put(type, items);
+		}
+	}
+
+	private void addBonus(Item item, int amount) {
+		if(item.getItemType() != null) {
+			_bonuses[item.getItemType().getStat().ordinal()] += amount;
+		}
+	}
+}
@@ -1,5 +1,23 @@
 package nz.ac.auckland.avatar.domain;
 
+/**
+ * Kinds of Item. An Item's stat increase amount is added to the Stat of
+ * its type.
+ */
 public enum ItemType {
-	MANA_POTION, HEALTH_POTION, STAFF, SWORD, SHIELD,;
+	MANA_POTION(Stat.MANA), HEALTH_POTION(Stat.HEALTH), STAFF(Stat.MAGIC), 
+	SWORD(Stat.ATTACK), SHIELD(Stat.DEFENCE),;
+	
+	private final Stat _stat;
+	
+	private ItemType(Stat stat) {
+		_stat = stat;
+	}
+	
+	/**
+	 * Returns the Stat that Items of this type increase.
+	 */
+	public Stat getStat() {
+		return _stat;
+	}
 }
@@ -9,11 +9,15 @@ import java.util.Set;
 import javax.persistence.*;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Quest {
 	@Id
 	@GeneratedValue( strategy = GenerationType.IDENTITY )
@@ -23,6 +27,10 @@ public class Quest {
 	
 	private String _questDescription;
 	
+	protected Quest() {
+		// Required by JPA.
+	}
+	
 	public Quest(long id,
 			String questName,
 			String questDescription) {
@@ -1,6 +1,103 @@
 package nz.ac.auckland.avatar.domain;
 
+import javax.persistence.Embeddable;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Represents the avatar's skills: the amount that training adds to each of
+ * its Stats.
+ */
+@Embeddable
+@XmlRootElement(name="skills")
+@XmlAccessorType(XmlAccessType.FIELD)
 public class Skills {
-	private long _avatarId;
+	@XmlAttribute(name="health")
+	private int _health;
+	
+	@XmlAttribute(name="mana")
+	private int _mana;
+	
+	@XmlAttribute(name="attack")
+	private int _attack;
+	
+	@XmlAttribute(name="defence")
+	private int _defence;
+	
+	@XmlAttribute(name="magic")
+	private int _magic;
+	
+	public Skills() {
+		// Required by JAXB and JPA.
+	}
+	
+	/**
+	 * Returns the amount that these skills add to a Stat.
+	 */
+	public int getBonus(Stat stat) {
+		switch(stat) {
+		case HEALTH:
+			return _health;
+		case MANA:
+			return _mana;
+		case ATTACK:
+			return _attack;
+		case DEFENCE:
+			return _defence;
+		default:
+			return _magic;
+		}
+	}
+	
+	public void setBonus(Stat stat, int bonus) {
+		switch(stat) {
+		case HEALTH:
+			_health = bonus;
+			break;
+		case MANA:
+			_mana = bonus;
+			break;
+		case ATTACK:
+			_attack = bonus;
+			break;
+		case DEFENCE:
+			_defence = bonus;
+			break;
+		default:
+			_magic = bonus;
+		}
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Skills))
+			return false;
+		if (obj == this)
+			return true;
 
+		Skills skills = (Skills) obj;
+		return new EqualsBuilder().
+			append(_health, skills._health).
+			append(_mana, skills._mana).
+			append(_attack, skills._attack).
+			append(_defence, skills._defence).
+			append(_magic, skills._magic).
+			isEquals();
+	}
+	
+	@Override
+	public int hashCode() {
+		return new HashCodeBuilder(17, 31).
+			append(_health).
+			append(_mana).
+			append(_attack).
+			append(_defence).
+			append(_magic).
+			toHashCode();
+	}
 }
@@ -0,0 +1,10 @@
+package nz.ac.auckland.avatar.domain;
+
+/**
+ * The stats that make up an Avatar's strength in combat. Each is the sum
+ * of a base value for the Avatar's Category, the Avatar's Skills, and the
+ * bonuses of the Items in its Bag (see Stats).
+ */
+public enum Stat {
+	HEALTH, MANA, ATTACK, DEFENCE, MAGIC;
+}
@@ -0,0 +1,58 @@
+package nz.ac.auckland.avatar.domain;
+
+/**
+ * An Avatar's effective Stats at the time they were taken: for each Stat,
+ * the base value for its Category plus its Skills plus the bonuses of the
+ * Items in its Bag.
+ *
+ * Taking Stats doesn't scan the Avatar's Items; a Bag keeps its Items'
+ * bonuses up to date as they're added and removed.
+ *
+ */
+public class Stats {
+	private static final Stat[] STATS = Stat.values();
+
+	private final int[] _base;
+	private final int[] _skills;
+	private final int[] _items;
+
+	private Stats() {
+		_base = new int[STATS.length];
+		_skills = new int[STATS.length];
+		_items = new int[STATS.length];
+	}
+
+	/**
+	 * Returns the current Stats of an Avatar.
+	 */
+	public static Stats of(Avatar avatar) {
+		Stats stats = new Stats();
+		Category category = avatar.getCategory();
+		Skills skills = avatar.getSkills();
+		Bag bag = avatar.getBag();
+		for(Stat stat : STATS) {
+			int i = stat.ordinal();
+			stats._base[i] = category == null ? 0 : category.getBaseStat(stat);
+			stats._skills[i] = skills.getBonus(stat);
+			stats._items[i] = bag == null ? 0 : bag.getBonus(stat);
+		}
+		return stats;
+	}
+
+	public int getBase(Stat stat) {
+		return _base[stat.ordinal()];
+	}
+
+	public int getSkillBonus(Stat stat) {
+		return _skills[stat.ordinal()];
+	}
+
+	public int getItemBonus(Stat stat) {
+		return _items[stat.ordinal()];
+	}
+
+	public int getTotal(Stat stat) {
+		int i = stat.ordinal();
+		return _base[i] + _skills[i] + _items[i];
+	}
+}
@@ -82,6 +82,14 @@ public class Achievement {
 			_achievementName = name;
 		}
 
+		public long getQuestId() {
+			return _questId;
+		}
+
+		public void setQuestId(long questId) {
+			_questId = questId;
+		}
+
 		@Override
 		public boolean equals(Object obj) {
 			if (!(obj instanceof Achievement))
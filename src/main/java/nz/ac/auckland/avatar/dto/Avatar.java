@@ -8,6 +8,7 @@ import java.util.Set;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlID;
 import javax.xml.bind.annotation.XmlIDREF;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -59,14 +60,16 @@ public class Avatar {
 	@XmlJavaTypeAdapter(value=LocalDateAdapter.class)
 	private LocalDate _dateOfBirth;
 	
-	@XmlIDREF
-	@XmlElement(name="achievements")
+	@XmlElementWrapper(name="achievements")
+	@XmlElement(name="achievement")
 	private List<Achievement> _achievements;
 	
 	@XmlElement(name="bag")
 	private Bag _bag;
 
-	
+	protected Avatar() {
+		// Required by JAXB.
+	}
 	
 	/**
 	 * Constructs a DTO Avatar instance. This method is intended to be called
@@ -0,0 +1,47 @@
+package nz.ac.auckland.avatar.dto;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+
+/**
+ * An achievement addressed to a particular Avatar. Used to record 
+ * achievements for many Avatars in a single batch request.
+ *
+ */
+@XmlRootElement(name="avatar-achievement")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class AvatarAchievement {
+
+	@XmlAttribute(name="avatar-id")
+	private long _avatarId;
+
+	@XmlElement(name="achievement")
+	private Achievement _achievement;
+
+	protected AvatarAchievement() {
+		// Required by JAXB.
+	}
+
+	public AvatarAchievement(long avatarId, Achievement achievement) {
+		_avatarId = avatarId;
+		_achievement = achievement;
+	}
+
+	public long getAvatarId() {
+		return _avatarId;
+	}
+
+	public Achievement getAchievement() {
+		return _achievement;
+	}
+
+	@Override
+	public String toString() {
+		return "AvatarAchievement: { [" + _avatarId + "]; " + _achievement + " }";
+	}
+}
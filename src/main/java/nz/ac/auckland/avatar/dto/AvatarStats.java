@@ -0,0 +1,127 @@
+package nz.ac.auckland.avatar.dto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nz.ac.auckland.avatar.domain.Stat;
+import nz.ac.auckland.avatar.domain.Stats;
+
+/**
+ * An Avatar's effective stats: for each Stat, its base value for the
+ * Avatar's category, the bonuses from its skills and items, and the total.
+ *
+ */
+@XmlRootElement(name="stats")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class AvatarStats {
+
+	@XmlAttribute(name="avatar-id")
+	private long _avatarId;
+
+	@XmlElement(name="stat")
+	private List<StatValue> _stats;
+
+	protected AvatarStats() {
+		// Required by JAXB.
+		_stats = new ArrayList<StatValue>();
+	}
+
+	public AvatarStats(long avatarId, Stats stats) {
+		_avatarId = avatarId;
+		_stats = new ArrayList<StatValue>(Stat.values().length);
+		for(Stat stat : Stat.values()) {
+			_stats.add(new StatValue(stat, stats.getBase(stat), stats.getSkillBonus(stat),
+					stats.getItemBonus(stat), stats.getTotal(stat)));
+		}
+	}
+
+	public long getAvatarId() {
+		return _avatarId;
+	}
+
+	public List<StatValue> getStats() {
+		return Collections.unmodifiableList(_stats);
+	}
+
+	/**
+	 * Returns the value of the given Stat, or null if there's none.
+	 */
+	public StatValue getStat(Stat stat) {
+		for(StatValue value : _stats) {
+			if(value._stat == stat) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "AvatarStats: { [" + _avatarId + "]; " + _stats + " }";
+	}
+
+	/**
+	 * The value of one Stat.
+	 */
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class StatValue {
+		@XmlAttribute(name="name")
+		private Stat _stat;
+
+		@XmlAttribute(name="base")
+		private int _base;
+
+		@XmlAttribute(name="skills")
+		private int _skills;
+
+		@XmlAttribute(name="items")
+		private int _items;
+
+		@XmlAttribute(name="total")
+		private int _total;
+
+		protected StatValue() {
+			// Required by JAXB.
+		}
+
+		public StatValue(Stat stat, int base, int skills, int items, int total) {
+			_stat = stat;
+			_base = base;
+			_skills = skills;
+			_items = items;
+			_total = total;
+		}
+
+		public Stat getStat() {
+			return _stat;
+		}
+
+		public int getBase() {
+			return _base;
+		}
+
+		public int getSkills() {
+			return _skills;
+		}
+
+		public int getItems() {
+			return _items;
+		}
+
+		public int getTotal() {
+			return _total;
+		}
+
+		@Override
+		public String toString() {
+			return _stat + "=" + _total;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package nz.ac.auckland.avatar.dto;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -38,6 +39,10 @@ public class Bag {
 		_items.remove(item);
 	}
 	
+	public Set<Item> getItems() {
+		return Collections.unmodifiableSet(_items);
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof Bag))
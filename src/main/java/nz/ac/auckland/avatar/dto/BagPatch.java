@@ -0,0 +1,67 @@
+package nz.ac.auckland.avatar.dto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import nz.ac.auckland.avatar.domain.Item;
+
+/**
+ * Changes to an Avatar's bag: Items to remove from it, and Items to add to
+ * it. Items are removed before Items are added.
+ *
+ */
+@XmlRootElement(name="bag-patch")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class BagPatch {
+
+	@XmlElementWrapper(name="remove")
+	@XmlElement(name="item")
+	private List<Item> _remove;
+
+	@XmlElementWrapper(name="add")
+	@XmlElement(name="item")
+	private List<Item> _add;
+
+	public BagPatch() {
+		_remove = new ArrayList<Item>();
+		_add = new ArrayList<Item>();
+	}
+
+	public void removeItem(Item item) {
+		_remove.add(item);
+	}
+
+	public void addItem(Item item) {
+		_add.add(item);
+	}
+
+	public List<Item> getItemsToRemove() {
+		return _remove != null ? Collections.unmodifiableList(_remove) 
+				: Collections.<Item>emptyList();
+	}
+
+	public List<Item> getItemsToAdd() {
+		return _add != null ? Collections.unmodifiableList(_add) 
+				: Collections.<Item>emptyList();
+	}
+
+	/**
+	 * Returns true if this patch neither removes nor adds any Items, which
+	 * is the case when both lists are missing from the request.
+	 */
+	public boolean isEmpty() {
+		return getItemsToRemove().isEmpty() && getItemsToAdd().isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "BagPatch: { remove " + _remove + "; add " + _add + " }";
+	}
+}
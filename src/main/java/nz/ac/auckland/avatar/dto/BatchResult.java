@@ -0,0 +1,56 @@
+package nz.ac.auckland.avatar.dto;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Outcome of one item of a batch request. Results are returned in the same 
+ * order as the items of the request; index identifies the item a result
+ * belongs to.
+ * 
+ * status is the HTTP status code that the equivalent single-item request
+ * would have returned, and id is the id of the Avatar concerned.
+ *
+ */
+@XmlRootElement(name="result")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class BatchResult {
+
+	@XmlAttribute(name="index")
+	private int _index;
+
+	@XmlAttribute(name="id")
+	private long _id;
+
+	@XmlAttribute(name="status")
+	private int _status;
+
+	protected BatchResult() {
+		// Required by JAXB.
+	}
+
+	public BatchResult(int index, long id, int status) {
+		_index = index;
+		_id = id;
+		_status = status;
+	}
+
+	public int getIndex() {
+		return _index;
+	}
+
+	public long getId() {
+		return _id;
+	}
+
+	public int getStatus() {
+		return _status;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult: { [" + _index + "]; " + _id + ", " + _status + " }";
+	}
+}
@@ -0,0 +1,88 @@
+package nz.ac.auckland.avatar.dto;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A snapshot of a cache's counters. hits and misses count lookups; 
+ * evictions counts entries dropped to stay within capacity, and 
+ * invalidations counts entries dropped because the cached data changed.
+ *
+ */
+@XmlRootElement(name="cache-statistics")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class CacheStatistics {
+
+	@XmlAttribute(name="name")
+	private String _name;
+
+	@XmlAttribute(name="size")
+	private int _size;
+
+	@XmlAttribute(name="capacity")
+	private int _capacity;
+
+	@XmlAttribute(name="hits")
+	private long _hits;
+
+	@XmlAttribute(name="misses")
+	private long _misses;
+
+	@XmlAttribute(name="evictions")
+	private long _evictions;
+
+	@XmlAttribute(name="invalidations")
+	private long _invalidations;
+
+	protected CacheStatistics() {
+		// Required by JAXB.
+	}
+
+	public CacheStatistics(String name, int size, int capacity, long hits,
+			long misses, long evictions, long invalidations) {
+		_name = name;
+		_size = size;
+		_capacity = capacity;
+		_hits = hits;
+		_misses = misses;
+		_evictions = evictions;
+		_invalidations = invalidations;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public int getSize() {
+		return _size;
+	}
+
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	public long getHits() {
+		return _hits;
+	}
+
+	public long getMisses() {
+		return _misses;
+	}
+
+	public long getEvictions() {
+		return _evictions;
+	}
+
+	public long getInvalidations() {
+		return _invalidations;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics: { " + _name + "; " + _size + "/" + _capacity 
+				+ ", hits " + _hits + ", misses " + _misses + ", evictions " 
+				+ _evictions + ", invalidations " + _invalidations + " }";
+	}
+}
@@ -0,0 +1,61 @@
+package nz.ac.auckland.avatar.dto;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * An Avatar's place on the achievement leaderboard: its rank, starting at
+ * 1, and the number of achievements it's ranked by.
+ *
+ */
+@XmlRootElement(name="leaderboard-entry")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class LeaderboardEntry {
+
+	@XmlAttribute(name="rank")
+	private int _rank;
+
+	@XmlAttribute(name="avatar-id")
+	private long _avatarId;
+
+	@XmlAttribute(name="username")
+	private String _username;
+
+	@XmlAttribute(name="achievements")
+	private int _achievements;
+
+	protected LeaderboardEntry() {
+		// Required by JAXB.
+	}
+
+	public LeaderboardEntry(int rank, long avatarId, String username, int achievements) {
+		_rank = rank;
+		_avatarId = avatarId;
+		_username = username;
+		_achievements = achievements;
+	}
+
+	public int getRank() {
+		return _rank;
+	}
+
+	public long getAvatarId() {
+		return _avatarId;
+	}
+
+	public String getUsername() {
+		return _username;
+	}
+
+	public int getAchievements() {
+		return _achievements;
+	}
+
+	@Override
+	public String toString() {
+		return "LeaderboardEntry: { " + _rank + "; [" + _avatarId + "]; "
+				+ _username + "; " + _achievements + " }";
+	}
+}
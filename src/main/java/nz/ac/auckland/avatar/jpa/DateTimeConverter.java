@@ -0,0 +1,35 @@
+package nz.ac.auckland.avatar.jpa;
+
+import java.sql.Timestamp;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import org.joda.time.DateTime;
+
+/**
+ * JPA attribute converter to convert between Joda DateTime instances and
+ * SQL TIMESTAMP values.
+ *
+ */
+@Converter
+public class DateTimeConverter implements AttributeConverter<DateTime, Timestamp> {
+
+	@Override
+	public Timestamp convertToDatabaseColumn(DateTime dateTime) {
+		if(dateTime == null) {
+			return null;
+		}
+		
+		return new Timestamp(dateTime.getMillis());
+	}
+
+	@Override
+	public DateTime convertToEntityAttribute(Timestamp timestamp) {
+		if(timestamp == null) {
+			return null;
+		}
+		
+		return new DateTime(timestamp.getTime());
+	}
+}
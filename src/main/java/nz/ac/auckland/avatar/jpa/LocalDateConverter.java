@@ -0,0 +1,35 @@
+package nz.ac.auckland.avatar.jpa;
+
+import java.sql.Date;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import org.joda.time.LocalDate;
+
+/**
+ * JPA attribute converter to convert between Joda LocalDate instances and
+ * SQL DATE values.
+ *
+ */
+@Converter
+public class LocalDateConverter implements AttributeConverter<LocalDate, Date> {
+
+	@Override
+	public Date convertToDatabaseColumn(LocalDate date) {
+		if(date == null) {
+			return null;
+		}
+		
+		return new Date(date.toDate().getTime());
+	}
+
+	@Override
+	public LocalDate convertToEntityAttribute(Date date) {
+		if(date == null) {
+			return null;
+		}
+		
+		return LocalDate.fromDateFields(date);
+	}
+}
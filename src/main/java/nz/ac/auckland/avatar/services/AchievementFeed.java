@@ -0,0 +1,177 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+
+/**
+ * Bounded, in-memory feed of recorded achievements. Each event is given the
+ * next sequence number and written to a ring buffer, overwriting the event
+ * capacity places before it.
+ *
+ * Publishing never waits for subscribers: it claims a sequence number with
+ * one atomic increment and writes one slot. Subscribers read at their own
+ * pace from any sequence number still in the ring; one that falls more than
+ * capacity events behind finds its next events overwritten, and skips
+ * ahead to the oldest event still held.
+ *
+ * A slot is written once its event is complete, and an event records its
+ * own sequence number, so a reader can tell an event that hasn't been
+ * published yet (an older sequence number, or none) from one that has been
+ * overwritten (a newer one).
+ *
+ */
+class AchievementFeed {
+	/**
+	 * System property giving the number of events held for subscribers to
+	 * replay (default 4096).
+	 */
+	static final String CAPACITY_PROPERTY = "avatar.feed.capacity";
+
+	static final int DEFAULT_CAPACITY = 4096;
+
+	private final AtomicReferenceArray<Event> _ring;
+	private final int _mask;
+	private final AtomicLong _nextSequence;
+
+	// Subscribers that have read every event wait on _published; publishers
+	// only take the lock to signal when there are such subscribers.
+	private final ReentrantLock _lock;
+	private final Condition _published;
+	private final AtomicInteger _waiting;
+
+	/**
+	 * Creates a feed that holds the most recent capacity events; capacity is
+	 * rounded up to a power of two.
+	 */
+	AchievementFeed(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		_ring = new AtomicReferenceArray<Event>(size);
+		_mask = size - 1;
+		_nextSequence = new AtomicLong();
+		_lock = new ReentrantLock();
+		_published = _lock.newCondition();
+		_waiting = new AtomicInteger();
+	}
+
+	int capacity() {
+		return _ring.length();
+	}
+
+	/**
+	 * Publishes an achievement recorded for an Avatar, and returns its
+	 * sequence number.
+	 */
+	long publish(long avatarId, Achievement achievement) {
+		long sequence = _nextSequence.getAndIncrement();
+		_ring.set((int) sequence & _mask, new Event(sequence, avatarId, achievement));
+		if(_waiting.get() > 0) {
+			_lock.lock();
+			try {
+				_published.signalAll();
+			} finally {
+				_lock.unlock();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Returns the sequence number that the next event will be given.
+	 */
+	long nextSequence() {
+		return _nextSequence.get();
+	}
+
+	/**
+	 * Returns up to max consecutive events, starting with the given sequence
+	 * number or, if that event has been overwritten, with the oldest event
+	 * still held. Fewer events are returned if later ones haven't been
+	 * published yet.
+	 */
+	List<Event> read(long sequence, int max) {
+		List<Event> events = new ArrayList<Event>(Math.min(max, 64));
+		long oldest = _nextSequence.get() - _ring.length();
+		if(sequence < oldest) {
+			sequence = oldest;
+		}
+		while(events.size() < max) {
+			Event event = _ring.get((int) sequence & _mask);
+			if(event == null || event._sequence < sequence) {
+				// Not published yet.
+				break;
+			}
+			if(event._sequence > sequence) {
+				// Overwritten while being read; start again from the oldest.
+				events.clear();
+				sequence = _nextSequence.get() - _ring.length();
+				continue;
+			}
+			events.add(event);
+			sequence++;
+		}
+		return events;
+	}
+
+	/**
+	 * Waits up to timeout for the event with the given sequence number to be
+	 * published.
+	 * @return false if it wasn't published in time.
+	 */
+	boolean await(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		_waiting.incrementAndGet();
+		_lock.lock();
+		try {
+			while(!isPublished(sequence)) {
+				if(remaining <= 0) {
+					return false;
+				}
+				remaining = _published.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			_lock.unlock();
+			_waiting.decrementAndGet();
+		}
+	}
+
+	private boolean isPublished(long sequence) {
+		Event event = _ring.get((int) sequence & _mask);
+		return event != null && event._sequence >= sequence;
+	}
+
+	/**
+	 * An achievement recorded for an Avatar.
+	 */
+	static final class Event {
+		private final long _sequence;
+		private final long _avatarId;
+		private final Achievement _achievement;
+
+		Event(long sequence, long avatarId, Achievement achievement) {
+			_sequence = sequence;
+			_avatarId = avatarId;
+			_achievement = achievement;
+		}
+
+		long getSequence() {
+			return _sequence;
+		}
+
+		long getAvatarId() {
+			return _avatarId;
+		}
+
+		Achievement getAchievement() {
+			return _achievement;
+		}
+	}
+}
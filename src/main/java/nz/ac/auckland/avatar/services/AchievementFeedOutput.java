@@ -0,0 +1,126 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import nz.ac.auckland.avatar.dto.AvatarAchievement;
+
+/**
+ * Writes the events of an AchievementFeed to an HTTP response as a stream of
+ * server-sent events (text/event-stream), as they're published.
+ *
+ * Each achievement is sent as an "achievement" event whose id is its
+ * sequence number and whose data is an <avatar-achievement> document. A
+ * client that reconnects with the last id it received, as the Last-Event-ID
+ * header, resumes after that event. If the client has fallen so far behind
+ * that events it hasn't read have been overwritten, a "skipped" event whose
+ * data is the number of events missed is sent, and the stream continues
+ * with the oldest event still held.
+ *
+ * A comment is sent when no event has been published for HEARTBEAT_SECONDS,
+ * so that a client that has gone away is noticed.
+ *
+ */
+class AchievementFeedOutput implements StreamingOutput {
+	public static final String MEDIA_TYPE = "text/event-stream";
+
+	static final int HEARTBEAT_SECONDS = 15;
+
+	// Maximum number of events written between flushes.
+	private static final int BATCH_SIZE = 64;
+
+	private static final PooledJAXBContext _context = createContext();
+
+	private final AchievementFeed _feed;
+	private final long _from;
+	private final int _limit;
+
+	/**
+	 * Creates an AchievementFeedOutput that writes the feed's events from the
+	 * given sequence number. If limit is positive, the stream ends after that
+	 * many events.
+	 */
+	AchievementFeedOutput(AchievementFeed feed, long from, int limit) {
+		_feed = feed;
+		_from = from;
+		_limit = limit;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException,
+			WebApplicationException {
+		Writer writer = new OutputStreamWriter(output, "UTF-8");
+		try {
+			Marshaller marshaller = _context.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+			long next = _from;
+			int sent = 0;
+			while(_limit <= 0 || sent < _limit) {
+				int max = _limit <= 0 ? BATCH_SIZE : Math.min(BATCH_SIZE, _limit - sent);
+				List<AchievementFeed.Event> events = _feed.read(next, max);
+				if(events.isEmpty()) {
+					if(!_feed.await(next, HEARTBEAT_SECONDS, TimeUnit.SECONDS)) {
+						writer.write(":\n\n");
+						writer.flush();
+					}
+					continue;
+				}
+
+				long first = events.get(0).getSequence();
+				if(first > next) {
+					writer.write("event: skipped\ndata: " + (first - next) + "\n\n");
+				}
+				for(AchievementFeed.Event event : events) {
+					writeEvent(writer, marshaller, event);
+				}
+				sent += events.size();
+				next = events.get(events.size() - 1).getSequence() + 1;
+				writer.flush();
+			}
+		} catch (InterruptedException e) {
+			// Shutting down; end the stream.
+			Thread.currentThread().interrupt();
+		} catch (JAXBException e) {
+			throw new WebApplicationException(e);
+		}
+		writer.flush();
+	}
+
+	private static void writeEvent(Writer writer, Marshaller marshaller,
+			AchievementFeed.Event event) throws IOException, JAXBException {
+		StringWriter data = new StringWriter(256);
+		marshaller.marshal(new AvatarAchievement(event.getAvatarId(), event.getAchievement()), data);
+
+		writer.write("id: ");
+		writer.write(Long.toString(event.getSequence()));
+		writer.write("\nevent: achievement\n");
+		// A line break in the data starts a new data line; the client joins
+		// them back together.
+		for(String line : data.toString().split("\r\n|\r|\n")) {
+			writer.write("data: ");
+			writer.write(line);
+			writer.write('\n');
+		}
+		writer.write('\n');
+	}
+
+	private static PooledJAXBContext createContext() {
+		try {
+			return new PooledJAXBContext(JAXBContext.newInstance(AvatarAchievement.class));
+		} catch (JAXBException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+}
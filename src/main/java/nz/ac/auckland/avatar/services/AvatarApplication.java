@@ -4,6 +4,10 @@ import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
 import nz.ac.auckland.avatar.services.AvatarResource;
+import nz.ac.auckland.avatar.store.AvatarStoreFactory;
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+import nz.ac.auckland.avatar.store.JpaAvatarStore;
+import nz.ac.auckland.avatar.store.ShardedAvatarStore;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -17,17 +21,63 @@ import java.util.Set;
 @ApplicationPath("/services")
 public class AvatarApplication extends Application
 {
+   /**
+    * System property that selects the AvatarStore: "memory" (the default),
+    * "sharded" for an in-memory store split into shards (configured by the
+    * avatar.store.shards and avatar.store.singleWriter properties), or "jpa"
+    * for the Hibernate/H2 store configured by persistence.xml.
+    */
+   public static final String STORE_PROPERTY = "avatar.store";
+
+   /**
+    * System property giving the maximum number of clients streaming the 
+    * achievement feed at once (default 256).
+    */
+   public static final String FEED_SUBSCRIBERS_PROPERTY = "avatar.feed.subscribers";
+
+   private static final int DEFAULT_FEED_SUBSCRIBERS = 256;
+
    private Set<Object> singletons = new HashSet<Object>();
    private Set<Class<?>> classes = new HashSet<Class<?>>();
 
    public AvatarApplication()
    {
 	  // Register the ParoleeResource singleton to handle HTTP requests.
-	   AvatarResource resource = new AvatarResource();
+	  // Requests are suspended and run on the executor configured by the
+	  // avatar.executor system properties; achievement feed streams each
+	  // have a thread of their own.
+	   AvatarResource resource = new AvatarResource(createStoreFactory(),
+	         RequestExecutor.fromSystemProperties(),
+	         RequestExecutor.streamingPool(Integer.getInteger(
+	               FEED_SUBSCRIBERS_PROPERTY, DEFAULT_FEED_SUBSCRIBERS)));
       singletons.add(resource);
       
+      // Quests share the Avatars' database and executor.
+      singletons.add(new QuestResource(resource));
+      
+      // Record per-endpoint request metrics, exposed at /services/metrics.
+      RequestMetrics metrics = new RequestMetrics();
+      singletons.add(new RequestMetricsFeature(metrics));
+      singletons.add(new MetricsResource(metrics));
+      
       // Register the ContextResolver class for JAXB.
       classes.add(AvatarResolver.class);
+      
+      // Register the provider for the binary media type.
+      classes.add(AvatarBinaryProvider.class);
+   }
+
+   private static AvatarStoreFactory createStoreFactory()
+   {
+      if ("jpa".equalsIgnoreCase(System.getProperty(STORE_PROPERTY)))
+      {
+         return new JpaAvatarStore.Factory();
+      }
+      if ("sharded".equalsIgnoreCase(System.getProperty(STORE_PROPERTY)))
+      {
+         return ShardedAvatarStore.Factory.fromSystemProperties();
+      }
+      return InMemoryAvatarStore.FACTORY;
    }
 
    @Override
@@ -0,0 +1,245 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.dto.Avatar;
+import nz.ac.auckland.avatar.dto.Quest;
+
+/**
+ * Encodes and decodes the types exchanged by the Avatar Web service in a 
+ * compact binary form. Fields are written in a fixed order without names or
+ * tags, using the primitive encodings of BinaryOutput; enums are written 
+ * by ordinal, so constants may only be appended.
+ *
+ * Each payload starts with a format version byte. Decoding rejects 
+ * payloads of any other version.
+ *
+ */
+class AvatarBinaryCodec {
+	static final int VERSION = 1;
+
+	/**
+	 * Encoding and decoding of one type.
+	 */
+	interface TypeCodec<T> {
+		void write(BinaryOutput output, T value) throws IOException;
+
+		T read(BinaryInput input) throws IOException;
+	}
+
+	private static final Map<Class<?>, TypeCodec<?>> _codecs = new HashMap<Class<?>, TypeCodec<?>>();
+
+	private static final TypeCodec<Item> ITEM = new TypeCodec<Item>() {
+		@Override
+		public void write(BinaryOutput output, Item item) throws IOException {
+			output.writeEnum(item.getItemType());
+			output.writeSignedVarLong(item.getStatIncreaseAmount());
+			output.writeString(item.getDescription());
+		}
+
+		@Override
+		public Item read(BinaryInput input) throws IOException {
+			ItemType type = input.readEnum(ItemType.values());
+			int amount = input.readInt();
+			return new Item(amount, input.readString(), type);
+		}
+	};
+
+	private static final TypeCodec<Bag> BAG = new TypeCodec<Bag>() {
+		@Override
+		public void write(BinaryOutput output, Bag bag) throws IOException {
+			writeCollection(output, ITEM, bag.getItems());
+		}
+
+		@Override
+		public Bag read(BinaryInput input) throws IOException {
+			List<Item> items = readList(input, ITEM);
+			Bag bag = new Bag();
+			if(items != null) {
+				for(Item item : items) {
+					bag.addItem(item);
+				}
+			}
+			return bag;
+		}
+	};
+
+	private static final TypeCodec<Achievement> ACHIEVEMENT = new TypeCodec<Achievement>() {
+		@Override
+		public void write(BinaryOutput output, Achievement achievement) throws IOException {
+			output.writeVarLong(achievement.getId());
+			output.writeString(achievement.getAchievementName());
+			output.writeDateTime(achievement.getTimeAchieved());
+			output.writeVarLong(achievement.getQuestId());
+		}
+
+		@Override
+		public Achievement read(BinaryInput input) throws IOException {
+			long id = input.readVarLong();
+			String name = input.readString();
+			Achievement achievement = new Achievement(id, input.readDateTime(), name);
+			achievement.setQuestId(input.readVarLong());
+			return achievement;
+		}
+	};
+
+	private static final TypeCodec<Avatar> AVATAR = new TypeCodec<Avatar>() {
+		@Override
+		public void write(BinaryOutput output, Avatar avatar) throws IOException {
+			output.writeVarLong(avatar.getId());
+			output.writeString(avatar.getUsername());
+			output.writeEnum(avatar.getCategory());
+			output.writeLocalDate(avatar.getDateOfBirth());
+			writeNullable(output, BAG, avatar.getBag());
+			writeCollection(output, ACHIEVEMENT, avatar.getAchievements());
+		}
+
+		@Override
+		public Avatar read(BinaryInput input) throws IOException {
+			long id = input.readVarLong();
+			String username = input.readString();
+			Category category = input.readEnum(Category.values());
+			return new Avatar(id, username, category, input.readLocalDate(),
+					readNullable(input, BAG), readList(input, ACHIEVEMENT));
+		}
+	};
+
+	private static final TypeCodec<Quest> QUEST = new TypeCodec<Quest>() {
+		@Override
+		public void write(BinaryOutput output, Quest quest) throws IOException {
+			output.writeVarLong(quest.getId());
+			output.writeString(quest.getQuestName());
+			output.writeString(quest.getQuestDescription());
+		}
+
+		@Override
+		public Quest read(BinaryInput input) throws IOException {
+			long id = input.readVarLong();
+			String name = input.readString();
+			return new Quest(id, name, input.readString());
+		}
+	};
+
+	private static final TypeCodec<nz.ac.auckland.avatar.dto.Item> DTO_ITEM = 
+			new TypeCodec<nz.ac.auckland.avatar.dto.Item>() {
+		@Override
+		public void write(BinaryOutput output, nz.ac.auckland.avatar.dto.Item item) throws IOException {
+			output.writeEnum(item.getItemType());
+			output.writeSignedVarLong(item.getStatIncreaseAmount());
+			output.writeString(item.getDescription());
+		}
+
+		@Override
+		public nz.ac.auckland.avatar.dto.Item read(BinaryInput input) throws IOException {
+			ItemType type = input.readEnum(ItemType.values());
+			int amount = input.readInt();
+			return new nz.ac.auckland.avatar.dto.Item(amount, input.readString(), type);
+		}
+	};
+
+	private static final TypeCodec<nz.ac.auckland.avatar.dto.Bag> DTO_BAG = 
+			new TypeCodec<nz.ac.auckland.avatar.dto.Bag>() {
+		@Override
+		public void write(BinaryOutput output, nz.ac.auckland.avatar.dto.Bag bag) throws IOException {
+			writeCollection(output, ITEM, bag.getItems());
+		}
+
+		@Override
+		public nz.ac.auckland.avatar.dto.Bag read(BinaryInput input) throws IOException {
+			List<Item> items = readList(input, ITEM);
+			nz.ac.auckland.avatar.dto.Bag bag = new nz.ac.auckland.avatar.dto.Bag();
+			if(items != null) {
+				for(Item item : items) {
+					bag.addItem(item);
+				}
+			}
+			return bag;
+		}
+	};
+
+	private static final TypeCodec<nz.ac.auckland.avatar.dto.Achievement> DTO_ACHIEVEMENT = 
+			new TypeCodec<nz.ac.auckland.avatar.dto.Achievement>() {
+		@Override
+		public void write(BinaryOutput output, nz.ac.auckland.avatar.dto.Achievement achievement) throws IOException {
+			output.writeVarLong(achievement.getId());
+			output.writeString(achievement.getAchievementName());
+			output.writeDateTime(achievement.getTimeAchieved());
+			output.writeVarLong(achievement.getQuestId());
+		}
+
+		@Override
+		public nz.ac.auckland.avatar.dto.Achievement read(BinaryInput input) throws IOException {
+			long id = input.readVarLong();
+			String name = input.readString();
+			nz.ac.auckland.avatar.dto.Achievement achievement = 
+					new nz.ac.auckland.avatar.dto.Achievement(id, input.readDateTime(), name);
+			achievement.setQuestId(input.readVarLong());
+			return achievement;
+		}
+	};
+
+	static {
+		_codecs.put(Item.class, ITEM);
+		_codecs.put(Bag.class, BAG);
+		_codecs.put(Achievement.class, ACHIEVEMENT);
+		_codecs.put(Avatar.class, AVATAR);
+		_codecs.put(Quest.class, QUEST);
+		_codecs.put(nz.ac.auckland.avatar.dto.Item.class, DTO_ITEM);
+		_codecs.put(nz.ac.auckland.avatar.dto.Bag.class, DTO_BAG);
+		_codecs.put(nz.ac.auckland.avatar.dto.Achievement.class, DTO_ACHIEVEMENT);
+	}
+
+	/**
+	 * Returns the codec for a type, or null if the type isn't supported.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> TypeCodec<T> codecFor(Class<T> type) {
+		return (TypeCodec<T>) _codecs.get(type);
+	}
+
+	static <T> void writeNullable(BinaryOutput output, TypeCodec<T> codec, T value) throws IOException {
+		output.writeBoolean(value != null);
+		if(value != null) {
+			codec.write(output, value);
+		}
+	}
+
+	static <T> T readNullable(BinaryInput input, TypeCodec<T> codec) throws IOException {
+		return input.readBoolean() ? codec.read(input) : null;
+	}
+
+	static <T> void writeCollection(BinaryOutput output, TypeCodec<T> codec, 
+			Collection<? extends T> values) throws IOException {
+		if(values == null) {
+			output.writeNullSize();
+			return;
+		}
+		output.writeSize(values.size());
+		for(T value : values) {
+			writeNullable(output, codec, value);
+		}
+	}
+
+	static <T> List<T> readList(BinaryInput input, TypeCodec<T> codec) throws IOException {
+		int size = input.readSize();
+		if(size < 0) {
+			return null;
+		}
+		List<T> values = new ArrayList<T>(Math.min(size, 64));
+		for(int i = 0; i < size; i++) {
+			values.add(readNullable(input, codec));
+		}
+		return values;
+	}
+
+}
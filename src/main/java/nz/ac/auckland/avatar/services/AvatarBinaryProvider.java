@@ -0,0 +1,128 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import nz.ac.auckland.avatar.services.AvatarBinaryCodec.TypeCodec;
+
+/**
+ * Reads and writes Avatars, Bags, Items, Achievements and Quests, and Lists
+ * and Sets of them, in the binary format of AvatarBinaryCodec. Clients 
+ * select the format with the application/x-avatar-binary media type in 
+ * their Accept or Content-Type headers; XML remains the default.
+ *
+ */
+@Provider
+@Produces(AvatarBinaryProvider.MEDIA_TYPE)
+@Consumes(AvatarBinaryProvider.MEDIA_TYPE)
+public class AvatarBinaryProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+	public static final String MEDIA_TYPE = "application/x-avatar-binary";
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return codecFor(type, genericType) != null;
+	}
+
+	@Override
+	public long getSize(Object value, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void writeTo(Object value, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+			throws IOException, WebApplicationException {
+		TypeCodec<Object> codec = (TypeCodec<Object>) codecFor(type, genericType);
+		BinaryOutput output = new BinaryOutput(entityStream);
+		output.writeByte(AvatarBinaryCodec.VERSION);
+		if(Collection.class.isAssignableFrom(type)) {
+			AvatarBinaryCodec.writeCollection(output, codec, (Collection<Object>) value);
+		} else {
+			codec.write(output, value);
+		}
+		output.flush();
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		if(Collection.class.isAssignableFrom(type) 
+				&& !type.isAssignableFrom(ArrayList.class) 
+				&& !type.isAssignableFrom(LinkedHashSet.class)) {
+			return false;
+		}
+		return codecFor(type, genericType) != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+			throws IOException, WebApplicationException {
+		TypeCodec<Object> codec = (TypeCodec<Object>) codecFor(type, genericType);
+		BinaryInput input = new BinaryInput(entityStream);
+		try {
+			int version = input.readByte();
+			if(version != AvatarBinaryCodec.VERSION) {
+				throw new IOException("Unsupported binary format version " + version);
+			}
+			if(!Collection.class.isAssignableFrom(type)) {
+				return codec.read(input);
+			}
+			List<Object> values = AvatarBinaryCodec.readList(input, codec);
+			if(values != null && type.isAssignableFrom(LinkedHashSet.class) 
+					&& !type.isAssignableFrom(ArrayList.class)) {
+				return new LinkedHashSet<Object>(values);
+			}
+			return values;
+		} catch (IOException e) {
+			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Returns the codec for a supported type, or for the element type of a 
+	 * List or Set of a supported type; null otherwise.
+	 */
+	private static TypeCodec<?> codecFor(Class<?> type, Type genericType) {
+		if(!Collection.class.isAssignableFrom(type)) {
+			return AvatarBinaryCodec.codecFor(type);
+		}
+		if(!List.class.isAssignableFrom(type) && !Set.class.isAssignableFrom(type)
+				&& type != Collection.class) {
+			return null;
+		}
+		if(!(genericType instanceof ParameterizedType)) {
+			return null;
+		}
+		Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+		if(arguments.length != 1 || !(arguments[0] instanceof Class)) {
+			return null;
+		}
+		return AvatarBinaryCodec.codecFor((Class<?>) arguments[0]);
+	}
+}
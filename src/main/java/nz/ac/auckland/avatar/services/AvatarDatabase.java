@@ -0,0 +1,49 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.Random;
+
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+
+/**
+ * Immutable snapshot of the Avatar Web service's database for one epoch. An
+ * epoch starts when the service starts or the database is reloaded.
+ * 
+ * Everything a request needs from the database, including the id allocator
+ * (owned by the store), is reached through a single AvatarDatabase. A reload 
+ * builds and seeds the next epoch's AvatarDatabase off to the side, then 
+ * publishes it with one atomic swap, so requests see either the old epoch or
+ * the new one and never a mixture.
+ *
+ */
+final class AvatarDatabase {
+	private static final Random _salts = new Random();
+
+	private final long _epoch;
+	private final IndexedAvatarStore _store;
+	private final String _tagPrefix;
+
+	AvatarDatabase(long epoch, IndexedAvatarStore store) {
+		_epoch = epoch;
+		_store = store;
+		_tagPrefix = Long.toHexString(epoch) + "." + Integer.toHexString(_salts.nextInt()) + "-";
+	}
+
+	long getEpoch() {
+		return _epoch;
+	}
+
+	/**
+	 * Returns the prefix of the entity tags of this database's Avatars. Each
+	 * epoch reuses ids and restarts versions, and so do the epochs of later
+	 * runs of the service; the prefix, made of the epoch and a random salt,
+	 * keeps a tag from one database from matching a representation from
+	 * another.
+	 */
+	String getTagPrefix() {
+		return _tagPrefix;
+	}
+
+	IndexedAvatarStore getStore() {
+		return _store;
+	}
+}
@@ -0,0 +1,115 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Striped locks that serialise changes to each Avatar. An Avatar's lock is
+ * chosen by its id, so it guards the Avatar however many instances of it
+ * exist (a persistent store returns a new instance from each lookup); a 
+ * mutator takes the lock, looks the Avatar up, changes and stores it, and
+ * no concurrent change to the same Avatar can be lost. Avatars whose ids 
+ * map to different stripes are changed in parallel: re-storing a changed
+ * Avatar in an in-memory store takes no lock, and IndexedAvatarStore
+ * re-indexes it under a striped lock of its own. Creating Avatars still
+ * takes the write lock of an in-memory map, or of one shard's map.
+ *
+ * A read of more than one of an Avatar's fields takes the read lock of its
+ * stripe, so that it sees all or none of each change; toDto() does this. A
+ * change replaces an Avatar's Bag and Skills rather than changing them, so
+ * those read under the lock can be used after it's released. Readers hold
+ * one stripe at a time.
+ *
+ */
+final class AvatarLocks {
+	private static final int DEFAULT_STRIPES = 256;
+
+	private final ReentrantReadWriteLock[] _stripes;
+
+	AvatarLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes the number of locks, a power of two.
+	 */
+	AvatarLocks(int stripes) {
+		_stripes = new ReentrantReadWriteLock[stripes];
+		for(int i = 0; i < stripes; i++) {
+			_stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Acquires the lock of the Avatar with the given id, for changing it.
+	 */
+	void lock(long id) {
+		_stripes[stripeOf(id)].writeLock().lock();
+	}
+
+	void unlock(long id) {
+		_stripes[stripeOf(id)].writeLock().unlock();
+	}
+
+	/**
+	 * Acquires the lock of the Avatar with the given id, for reading it.
+	 */
+	void lockForReading(long id) {
+		_stripes[stripeOf(id)].readLock().lock();
+	}
+
+	void unlockForReading(long id) {
+		_stripes[stripeOf(id)].readLock().unlock();
+	}
+
+	/**
+	 * Converts an Avatar to a DTO under its read lock.
+	 */
+	nz.ac.auckland.avatar.dto.Avatar toDto(Avatar avatar) {
+		lockForReading(avatar.getId());
+		try {
+			return AvatarMapper.toDto(avatar);
+		} finally {
+			unlockForReading(avatar.getId());
+		}
+	}
+
+	/**
+	 * Acquires the locks of all the given Avatars. Stripes are always
+	 * acquired in ascending order, so that two threads locking overlapping
+	 * sets of Avatars can't deadlock.
+	 */
+	void lockAll(Collection<Long> ids) {
+		boolean[] stripes = stripesOf(ids);
+		for(int i = 0; i < stripes.length; i++) {
+			if(stripes[i]) {
+				_stripes[i].writeLock().lock();
+			}
+		}
+	}
+
+	void unlockAll(Collection<Long> ids) {
+		boolean[] stripes = stripesOf(ids);
+		for(int i = stripes.length - 1; i >= 0; i--) {
+			if(stripes[i]) {
+				_stripes[i].writeLock().unlock();
+			}
+		}
+	}
+
+	private boolean[] stripesOf(Collection<Long> ids) {
+		boolean[] stripes = new boolean[_stripes.length];
+		for(long id : ids) {
+			stripes[stripeOf(id)] = true;
+		}
+		return stripes;
+	}
+
+	private int stripeOf(long id) {
+		// Spread sequential ids across stripes.
+		long hash = id * 0x9e3779b97f4a7c15L;
+		return (int) (hash >>> 32) & (_stripes.length - 1);
+	}
+}
@@ -9,6 +9,7 @@ import nz.ac.auckland.avatar.domain.Achievement;
 import nz.ac.auckland.avatar.domain.Avatar;
 import nz.ac.auckland.avatar.domain.Bag;
 import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Quest;
 
 /**
  * Helper class to convert between domain-model and DTO objects representing
@@ -42,4 +43,16 @@ public class AvatarMapper {
 		return dtoavatar;
 		
 	}
+	
+	static Quest toDomainModel(nz.ac.auckland.avatar.dto.Quest dtoQuest) {
+		return new Quest(dtoQuest.getId(),
+				dtoQuest.getQuestName(),
+				dtoQuest.getQuestDescription());
+	}
+	
+	static nz.ac.auckland.avatar.dto.Quest toDto(Quest quest) {
+		return new nz.ac.auckland.avatar.dto.Quest(quest.getId(),
+				quest.getQuestName(),
+				quest.getQuestDescription());
+	}
 }
@@ -1,41 +1,115 @@
 package nz.ac.auckland.avatar.services;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.ws.rs.ext.ContextResolver;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import nz.ac.auckland.avatar.domain.Quest;
 import nz.ac.auckland.avatar.domain.Achievement;
-import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.Skills;
+import nz.ac.auckland.avatar.dto.Avatar;
+import nz.ac.auckland.avatar.dto.AvatarAchievement;
+import nz.ac.auckland.avatar.dto.AvatarStats;
+import nz.ac.auckland.avatar.dto.BagPatch;
+import nz.ac.auckland.avatar.dto.BatchResult;
+import nz.ac.auckland.avatar.dto.CacheStatistics;
+import nz.ac.auckland.avatar.dto.LeaderboardEntry;
+import nz.ac.auckland.avatar.dto.Quest;
 
 /**
  * ContextResolver implementation to return a customised JAXBContext for the
  * Avatar Web service.
  * 
+ * A single context covers every type exchanged by the service's endpoints.
+ * Other JAXB-annotated DTO and domain classes (some of which share XML type 
+ * names with the types on the wire, and so can't join the same context) are 
+ * each given their own context when first requested. Contexts are wrapped 
+ * in PooledJAXBContexts, so Marshallers and Unmarshallers are reused.
+ * 
  * @author Ian Warren
  *
  */
 public class AvatarResolver implements ContextResolver<JAXBContext> {
-	private JAXBContext _context;
+	private static final Logger _logger = LoggerFactory.getLogger(AvatarResolver.class);
+
+	/**
+	 * The types exchanged by the Avatar Web service.
+	 */
+	static final List<Class<?>> WIRE_TYPES = Collections.unmodifiableList(
+			Arrays.<Class<?>>asList(Avatar.class, AvatarAchievement.class,
+					BatchResult.class, CacheStatistics.class, Quest.class, Bag.class,
+					Achievement.class, Item.class, LeaderboardEntry.class, 
+					Skills.class, AvatarStats.class, BagPatch.class));
+
+	private static final String[] PACKAGES = { "nz.ac.auckland.avatar.dto",
+			"nz.ac.auckland.avatar.domain" };
+
+	private final ConcurrentMap<Class<?>, PooledJAXBContext> _contexts;
 
 	public AvatarResolver() {
+		_contexts = new ConcurrentHashMap<Class<?>, PooledJAXBContext>();
 		try {
-			// The JAXV Context should be able to marshal and unmarshal the
+			// The JAXB Context should be able to marshal and unmarshal the
 			// specified classes.
-			_context = JAXBContext.newInstance(Avatar.class, Achievement.class,
-					Quest.class);
+			PooledJAXBContext context = new PooledJAXBContext(JAXBContext.newInstance(
+					WIRE_TYPES.toArray(new Class<?>[WIRE_TYPES.size()])));
+			for(Class<?> type : WIRE_TYPES) {
+				_contexts.put(type, context);
+			}
 		} catch (JAXBException e) {
-			e.printStackTrace();
+			_logger.error("Unable to create JAXBContext for the Avatar Web service", e);
 		}
 	}
 
 	@Override
 	public JAXBContext getContext(Class<?> type) {
-		if (type.equals(Avatar.class) || type.equals(Achievement.class)
-				|| type.equals(Quest.class)) {
-			return _context;
-		} else {
+		PooledJAXBContext context = _contexts.get(type);
+		if(context != null || !isBindable(type)) {
+			return context;
+		}
+		try {
+			context = new PooledJAXBContext(JAXBContext.newInstance(type));
+		} catch (JAXBException e) {
+			_logger.warn("Unable to create JAXBContext for " + type.getName(), e);
 			return null;
 		}
+		PooledJAXBContext existing = _contexts.putIfAbsent(type, context);
+		return existing != null ? existing : context;
+	}
+
+	/**
+	 * Returns the distinct contexts created so far, e.g. to read their 
+	 * Marshaller and Unmarshaller reuse counters.
+	 */
+	Collection<PooledJAXBContext> getContexts() {
+		return new HashSet<PooledJAXBContext>(_contexts.values());
+	}
+
+	private static boolean isBindable(Class<?> type) {
+		if(type.getPackage() == null) {
+			return false;
+		}
+		String name = type.getPackage().getName();
+		for(String bindable : PACKAGES) {
+			if(name.equals(bindable)) {
+				return type.isAnnotationPresent(XmlRootElement.class)
+						|| type.isAnnotationPresent(XmlAccessorType.class);
+			}
+		}
+		return false;
 	}
 }
@@ -1,23 +1,47 @@
 package nz.ac.auckland.avatar.services;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.Set;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -26,11 +50,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.AchievementTimeline;
 import nz.ac.auckland.avatar.domain.Avatar;
 import nz.ac.auckland.avatar.domain.Bag;
 import nz.ac.auckland.avatar.domain.Category;
 import nz.ac.auckland.avatar.domain.Item;
 import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.domain.Quest;
+import nz.ac.auckland.avatar.domain.Skills;
+import nz.ac.auckland.avatar.domain.Stats;
+import nz.ac.auckland.avatar.dto.AvatarAchievement;
+import nz.ac.auckland.avatar.dto.AvatarStats;
+import nz.ac.auckland.avatar.dto.BagPatch;
+import nz.ac.auckland.avatar.dto.BatchResult;
+import nz.ac.auckland.avatar.dto.CacheStatistics;
+import nz.ac.auckland.avatar.dto.LeaderboardEntry;
+import nz.ac.auckland.avatar.store.AvatarCursor;
+import nz.ac.auckland.avatar.store.AvatarStore;
+import nz.ac.auckland.avatar.store.AvatarStoreFactory;
+import nz.ac.auckland.avatar.store.FriendGraph;
+import nz.ac.auckland.avatar.store.IdIterators;
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+import nz.ac.auckland.avatar.store.Leaderboard;
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
 import nz.ac.auckland.avatar.services.AvatarMapper;
 import nz.ac.auckland.avatar.services.AvatarResource;
 
@@ -38,18 +80,100 @@ import nz.ac.auckland.avatar.services.AvatarResource;
 public class AvatarResource {
 	private static final Logger _logger = LoggerFactory.getLogger(AvatarResource.class);
 	
-	private Map<Long, Avatar> _AvatarDB;
-	private AtomicLong _idCounter;
+	// Number of Avatars read from the store at a time when streaming.
+	private static final int STREAM_CHUNK_SIZE = 100;
+	
+	// Upper bound on the limit query parameter of getAvatars().
+	private static final int MAX_PAGE_SIZE = 1000;
+	
+	// Number of Avatars whose rendered representations are cached.
+	private static final int RENDERED_AVATAR_CACHE_SIZE = 10000;
+	
+	// The representations offered by getAvatar(), the first being the default.
+	private static final List<Variant> AVATAR_VARIANTS = Variant.mediaTypes(
+			MediaType.APPLICATION_XML_TYPE, 
+			MediaType.valueOf(AvatarBinaryProvider.MEDIA_TYPE)).build();
+	
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+	
+	// The fields that patchAvatar() can update, by element name.
+	private static final Set<String> PATCHABLE_FIELDS = new HashSet<String>(
+			Arrays.asList("user-name", "category", "date-of-birth", "bag"));
+
+	private final AvatarStoreFactory _storeFactory;
+	
+	// The current epoch's database. Each request reads this once and works
+	// against that epoch throughout, even if a reload publishes a new one.
+	private final AtomicReference<AvatarDatabase> _database;
+	
+	// Serialises reloads, so that epochs are published in the order their
+	// stores were created.
+	private final Object _reloadLock = new Object();
+	
+	private final RenderedAvatarCache _renderedAvatars;
+	
+	// Runs the work of each (suspended) request.
+	private final RequestExecutor _executor;
+	
+	// Serialise the changes made to each Avatar.
+	private final AvatarLocks _locks;
+	
+	// Recently recorded achievements, and the executor that streams them to
+	// subscribers.
+	private final AchievementFeed _feed;
+	private final RequestExecutor _feedExecutor;
 
 	public AvatarResource() {
-		reloadDatabase();
+		this(InMemoryAvatarStore.FACTORY);
+	}
+
+	public AvatarResource(AvatarStoreFactory storeFactory) {
+		this(storeFactory, RequestExecutor.DIRECT);
+	}
+
+	public AvatarResource(AvatarStoreFactory storeFactory, RequestExecutor executor) {
+		this(storeFactory, executor, executor);
+	}
+
+	/**
+	 * Creates an AvatarResource whose requests run on executor, except for
+	 * the long-lived streams of the achievement feed, which run on 
+	 * feedExecutor.
+	 */
+	public AvatarResource(AvatarStoreFactory storeFactory, RequestExecutor executor,
+			RequestExecutor feedExecutor) {
+		_storeFactory = storeFactory;
+		_executor = executor;
+		_locks = new AvatarLocks();
+		_feed = new AchievementFeed(Integer.getInteger(AchievementFeed.CAPACITY_PROPERTY, 
+				AchievementFeed.DEFAULT_CAPACITY));
+		_feedExecutor = feedExecutor;
+
+		// Only seed the database if it's empty; a persistent store may
+		// already hold Avatars from a previous run.
+		IndexedAvatarStore store = new IndexedAvatarStore(_storeFactory.createStore());
+		if(store.size() == 0) {
+			seedDatabase(store);
+		}
+		_database = new AtomicReference<AvatarDatabase>(new AvatarDatabase(0, store));
+		_renderedAvatars = new RenderedAvatarCache(RENDERED_AVATAR_CACHE_SIZE);
 	}
 
 	/**
     * 
     */
 	@PUT
-	public void reloadData() {
+	public void reloadData(@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				reloadData();
+				return null;
+			}
+		});
+	}
+
+	protected void reloadData() {
 		reloadDatabase();
 	}
 
@@ -61,19 +185,162 @@ public class AvatarResource {
 	 *            the Avatar data included in the HTTP request body.
 	 */
 	@POST
-	@Consumes("application/xml")
-	public Response createAvatar(
-			nz.ac.auckland.avatar.dto.Avatar dtoAvatar) {
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void createAvatar(final nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			@Context UriInfo uriInfo,
+			@Suspended final AsyncResponse response) {
+		// The request's URIs can only be read on the request thread.
+		final UriBuilder avatars = uriInfo.getBaseUriBuilder().path(AvatarResource.class);
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return createAvatar(dtoAvatar, avatars);
+			}
+		});
+	}
+
+	/**
+	 * @param avatars
+	 *            builds the URI of the Avatars collection, to which the new 
+	 *            Avatar's id is appended to give its Location.
+	 */
+	protected Response createAvatar(nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			UriBuilder avatars) {
 		_logger.debug("Read Avatar: " + dtoAvatar);
+		IndexedAvatarStore store = currentStore();
 		nz.ac.auckland.avatar.domain.Avatar Avatar = AvatarMapper.toDomainModel(dtoAvatar);
-		Avatar.setId(_idCounter.incrementAndGet());
-		_AvatarDB.put(Avatar.getId(), Avatar);
+		Avatar.setId(store.nextId());
+		store.createAvatar(Avatar);
 		
 		_logger.debug("Created Avatar: " + Avatar);
-		return Response.created(URI.create("/Avatars/" + Avatar.getId()))
+		return Response.created(avatars.path(Long.toString(Avatar.getId())).build())
 				.build();
 	}
 
+	/**
+	 * Adds several new Avatars to the system in one request. The Avatars are
+	 * given a contiguous range of ids and written to the database together.
+	 * 
+	 * @param dtoAvatars
+	 *            the Avatars to create.
+	 * @return one result per Avatar, in request order, giving the new 
+	 *            Avatar's id and a status of 201 (Created).
+	 */
+	@POST
+	@Path("batch")
+	@Consumes("application/xml")
+	@Produces("application/xml")
+	public void createAvatars(final List<nz.ac.auckland.avatar.dto.Avatar> dtoAvatars,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return createAvatars(dtoAvatars);
+			}
+		});
+	}
+
+	protected Response createAvatars(List<nz.ac.auckland.avatar.dto.Avatar> dtoAvatars) {
+		if(dtoAvatars == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		IndexedAvatarStore store = currentStore();
+		List<Avatar> avatars = new ArrayList<Avatar>(dtoAvatars.size());
+		List<BatchResult> results = new ArrayList<BatchResult>(dtoAvatars.size());
+		
+		long id = dtoAvatars.isEmpty() ? 0 : store.nextIds(dtoAvatars.size());
+		for(nz.ac.auckland.avatar.dto.Avatar dtoAvatar : dtoAvatars) {
+			Avatar avatar = AvatarMapper.toDomainModel(dtoAvatar);
+			avatar.setId(id);
+			avatars.add(avatar);
+			results.add(new BatchResult(results.size(), id, 
+					Response.Status.CREATED.getStatusCode()));
+			id++;
+		}
+		store.createAvatars(avatars);
+		
+		_logger.debug("Created " + avatars.size() + " Avatars");
+		return Response.ok(new GenericEntity<List<BatchResult>>(results) {}).build();
+	}
+
+	/**
+	 * Records new achievements for many Avatars in one request. Each Avatar
+	 * is looked up and written once, however many of the achievements are
+	 * addressed to it.
+	 * 
+	 * @param avatarAchievements
+	 *            the achievements, each paired with the id of its Avatar.
+	 * @return one result per achievement, in request order, with a status of
+	 *            204 (No Content) if it was recorded or 404 (Not Found) if 
+	 *            there's no such Avatar.
+	 */
+	@POST
+	@Path("achievements/batch")
+	@Consumes("application/xml")
+	@Produces("application/xml")
+	public void createAchievementsForAvatars(final List<AvatarAchievement> avatarAchievements,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return createAchievementsForAvatars(avatarAchievements);
+			}
+		});
+	}
+
+	protected Response createAchievementsForAvatars(List<AvatarAchievement> avatarAchievements) {
+		if(avatarAchievements == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		IndexedAvatarStore store = currentStore();
+		Map<Long, Avatar> updated = new LinkedHashMap<Long, Avatar>();
+		List<AvatarAchievement> recorded = new ArrayList<AvatarAchievement>(avatarAchievements.size());
+		List<BatchResult> results = new ArrayList<BatchResult>(avatarAchievements.size());
+		Set<Long> ids = new HashSet<Long>();
+		for(AvatarAchievement avatarAchievement : avatarAchievements) {
+			ids.add(avatarAchievement.getAvatarId());
+		}
+		
+		_locks.lockAll(ids);
+		try {
+			for(AvatarAchievement avatarAchievement : avatarAchievements) {
+				long id = avatarAchievement.getAvatarId();
+				Avatar avatar = updated.get(id);
+				if(avatar == null) {
+					avatar = store.findAvatar(id);
+				}
+				
+				Response.Status status;
+				if(avatar == null || avatarAchievement.getAchievement() == null) {
+					status = avatar == null ? 
+							Response.Status.NOT_FOUND : Response.Status.BAD_REQUEST;
+				} else {
+					avatar.addAchievement(avatarAchievement.getAchievement());
+					updated.put(id, avatar);
+					recorded.add(avatarAchievement);
+					status = Response.Status.NO_CONTENT;
+				}
+				results.add(new BatchResult(results.size(), id, status.getStatusCode()));
+			}
+			store.updateAvatars(updated.values());
+			for(AvatarAchievement avatarAchievement : recorded) {
+				store.indexAchievement(avatarAchievement.getAvatarId(), 
+						avatarAchievement.getAchievement());
+				_feed.publish(avatarAchievement.getAvatarId(), 
+						avatarAchievement.getAchievement());
+			}
+			for(long id : updated.keySet()) {
+				_renderedAvatars.invalidate(id);
+			}
+		} finally {
+			_locks.unlockAll(ids);
+		}
+		
+		return Response.ok(new GenericEntity<List<BatchResult>>(results) {}).build();
+	}
+
 	/**
 	 * Records a new achievement for a particular Avatar.
 	 * 
@@ -85,11 +352,91 @@ public class AvatarResource {
 	 */
 	@POST
 	@Path("{id}/achievements")
-	@Consumes("application/xml")
-	public void createAchievementForAvatar(@PathParam("id") long id,
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void createAchievementForAvatar(@PathParam("id") final long id,
+			final Achievement achievement,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return createAchievementForAvatar(id, achievement);
+			}
+		});
+	}
+
+	protected Response createAchievementForAvatar(long id,
 			Achievement achievement) {
-		Avatar Avatar = findAvatar(id);
-		Avatar.addAchievement(achievement);
+		IndexedAvatarStore store = currentStore();
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			Avatar.addAchievement(achievement);
+			store.updateAvatar(Avatar);
+			store.indexAchievement(id, achievement);
+			_feed.publish(id, achievement);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().build();
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+
+	/**
+	 * Streams achievements to the client as they're recorded, as 
+	 * server-sent events (see AchievementFeedOutput). Recent achievements are
+	 * held for replay, so a client can start from an earlier sequence 
+	 * number, or resume after the last event it received by sending its id 
+	 * as the Last-Event-ID header. Otherwise the stream starts with the next 
+	 * achievement recorded.
+	 * 
+	 * @param lastEventId
+	 *            the sequence number of the last event received.
+	 * @param from
+	 *            the sequence number of the first event to send.
+	 * @param limit
+	 *            the number of events after which to end the stream, or 0 
+	 *            to stream until the client disconnects.
+	 */
+	@GET
+	@Path("achievements/feed")
+	@Produces(AchievementFeedOutput.MEDIA_TYPE)
+	public void getAchievementFeed(@HeaderParam("Last-Event-ID") final String lastEventId,
+			@QueryParam("from") final Long from,
+			@QueryParam("limit") @DefaultValue("0") final int limit,
+			@Suspended final AsyncResponse response) {
+		_feedExecutor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAchievementFeed(lastEventId, from, limit);
+			}
+		});
+	}
+
+	protected Response getAchievementFeed(String lastEventId,
+			Long from,
+			int limit) {
+		long start;
+		try {
+			if(from != null) {
+				start = from;
+			} else if(lastEventId != null) {
+				start = Long.parseLong(lastEventId.trim()) + 1;
+			} else {
+				start = _feed.nextSequence();
+			}
+		} catch (NumberFormatException e) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		if(start < 0 || limit < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		return Response.ok(new AchievementFeedOutput(_feed, start, limit), 
+				AchievementFeedOutput.MEDIA_TYPE)
+				.header("Cache-Control", "no-cache")
+				.build();
 	}
 
 	/**
@@ -97,179 +444,1334 @@ public class AvatarResource {
 	 * are those represented by a nz.ac.auckland.Avatar.dto.Avatar
 	 * instance.
 	 * 
+	 * If the request has an If-Match header, the update is only made if it
+	 * matches the Avatar's current entity tag; otherwise 412 (Precondition
+	 * Failed) is returned. The response carries the updated entity tag.
+	 * 
 	 * @param dtoAvatar
 	 *            the Avatar data included in the HTTP request body.
 	 */
 	@PUT
 	@Path("{id}")
-	@Consumes("application/xml")
-	public void updateAvatar(
-			nz.ac.auckland.avatar.dto.Avatar dtoAvatar) {
-		// Get the full Avatar object from the database.
-		Avatar Avatar = findAvatar(dtoAvatar.getId());
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void updateAvatar(final nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return updateAvatar(dtoAvatar, request);
+			}
+		});
+	}
 
-		// Update the Avatar object in the database based on the data in
-		// shortAvatar.
-		Avatar.setUsername(dtoAvatar.getUsername());
-		Avatar.setCategory(dtoAvatar.getCategory());
-		Avatar.setDateOfBirth(dtoAvatar.getDateOfBirth());
-		Avatar.setBag(dtoAvatar.getBag());
-		
+	protected Response updateAvatar(nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(dtoAvatar.getId());
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = store.findAvatar(dtoAvatar.getId());
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forAvatar(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			// Update the Avatar object in the database based on the data in
+			// shortAvatar.
+			Avatar.setUsername(dtoAvatar.getUsername());
+			Avatar.setCategory(dtoAvatar.getCategory());
+			Avatar.setDateOfBirth(dtoAvatar.getDateOfBirth());
+			Avatar.setBag(dtoAvatar.getBag());
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			
+			// Ignore the last known location in dtoAvatar (i.e. the data in the
+			// HTTP request header).
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(dtoAvatar.getId());
+		}
+	}
+	
+	/**
+	 * Updates some of the fields of a Avatar. Only the fields named in the
+	 * fields query parameter are updated; each is set to its value in the 
+	 * request body, which need only contain those fields. A named field that
+	 * the body omits is cleared.
+	 * 
+	 * The If-Match header is checked as for PUT.
+	 * 
+	 * @param fields
+	 *            comma-separated names of the fields to update: any of 
+	 *            user-name, category, date-of-birth and bag.
+	 * @return 400 (Bad Request) if fields is missing or names an unknown
+	 *            field, or if the request has no body.
+	 */
+	@PATCH
+	@Path("{id}")
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void patchAvatar(@PathParam("id") final long id,
+			@QueryParam("fields") final String fields,
+			final nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return patchAvatar(id, fields, dtoAvatar, request);
+			}
+		});
+	}
 
-		// Ignore the last known location in dtoAvatar (i.e. the data in the
-		// HTTP request header).
+	protected Response patchAvatar(long id,
+			String fields,
+			nz.ac.auckland.avatar.dto.Avatar dtoAvatar,
+			Request request) {
+		Set<String> mask = parseFieldMask(fields);
+		if(mask == null || dtoAvatar == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forAvatar(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			if(mask.contains("user-name")) {
+				Avatar.setUsername(dtoAvatar.getUsername());
+			}
+			if(mask.contains("category")) {
+				Avatar.setCategory(dtoAvatar.getCategory());
+			}
+			if(mask.contains("date-of-birth")) {
+				Avatar.setDateOfBirth(dtoAvatar.getDateOfBirth());
+			}
+			if(mask.contains("bag")) {
+				Avatar.setBag(dtoAvatar.getBag());
+			}
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
 	}
 	
 	/**
-	 * Updates the set of a dissassociate Avatars for a given Avatar.
+	 * Returns the field names in a comma-separated field mask, or null if it
+	 * is empty or names a field that PATCH {id} can't update.
+	 */
+	private static Set<String> parseFieldMask(String fields) {
+		if(fields == null) {
+			return null;
+		}
+		Set<String> mask = new HashSet<String>();
+		for(String field : fields.split(",")) {
+			field = field.trim();
+			if(!PATCHABLE_FIELDS.contains(field)) {
+				return null;
+			}
+			mask.add(field);
+		}
+		return mask;
+	}
+	
+	/**
+	 * Updates the set of a dissassociate Avatars for a given Avatar. An 
+	 * If-Match header is checked against the entity tag of the Avatar's 
+	 * friends, as returned by GET {id}/friends. The request is rejected 
+	 * with a 400 if any of the friends doesn't exist.
 	 * @param id the Avatar whose friends should be updated.
 	 * @param friends the new set of friends.
 	 */
 	@PUT
 	@Path("{id}/friends")
-	@Consumes("application/xml")
-	public void updateFriends(@PathParam("id") long id, Set<nz.ac.auckland.avatar.dto.Avatar> friends) {
-		// Get the full Avatar object from the database.
-		Avatar Avatar = findAvatar(id);
-		
-		// Lookup the friend Avatar instances in the database.
-		Set<Avatar> friendsInDatabase = new HashSet<Avatar>();
-		for(nz.ac.auckland.avatar.dto.Avatar dtoAvatar : friends) {
-			Avatar friend = findAvatar(dtoAvatar.getId());
-			friendsInDatabase.add(friend);
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void updateFriends(@PathParam("id") final long id,
+			final Set<nz.ac.auckland.avatar.dto.Avatar> friends,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return updateFriends(id, friends, request);
+			}
+		});
+	}
+
+	protected Response updateFriends(long id,
+			Set<nz.ac.auckland.avatar.dto.Avatar> friends,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		if(friends == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
 		}
 		
-		// Update the Avatar by setting its friends.
-		Avatar.updateFriends(friendsInDatabase);
+		_locks.lock(id);
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			// Lookup the friend Avatar instances in the database, rejecting 
+			// the request if any of them doesn't exist.
+			Set<Avatar> friendsInDatabase = new HashSet<Avatar>();
+			for(nz.ac.auckland.avatar.dto.Avatar dtoAvatar : friends) {
+				Avatar friend = store.findAvatar(dtoAvatar.getId());
+				if(friend == null) {
+					return Response.status(Response.Status.BAD_REQUEST).build();
+				}
+				friendsInDatabase.add(friend);
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forFriends(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			// Update the Avatar by setting its friends.
+			Avatar.updateFriends(friendsInDatabase);
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().tag(EntityTags.forFriends(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
 	}
 	
 	/**
-	 * Updates a Avatar's bag
+	 * Updates a Avatar's bag. An If-Match header is checked against the 
+	 * Avatar's entity tag.
 	 * @param id the unique identifier of the Avatar.
 	 * @param profile the Avatar's updated criminal profile.
 	 */
 	@PUT
 	@Path("{id}/bag")
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void updateBag(@PathParam("id") final long id,
+			final Bag bag,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return updateBag(id, bag, request);
+			}
+		});
+	}
+
+	protected Response updateBag(long id,
+			Bag bag,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(id);
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forAvatar(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			// Update the Avatar's bag
+			Avatar.setBag(bag);
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+	
+	/**
+	 * Removes Items from, and adds Items to, a Avatar's bag, without sending
+	 * the rest of the bag. Items are removed before Items are added; removing
+	 * an Item that isn't in the bag has no effect. The If-Match header is 
+	 * checked against the Avatar's entity tag.
+	 * @param id the unique identifier of the Avatar.
+	 * @param patch the Items to remove and add.
+	 * @return 400 (Bad Request) if the request has no body, or if the patch
+	 *            neither removes nor adds any Items.
+	 */
+	@PATCH
+	@Path("{id}/bag")
 	@Consumes("application/xml")
-	public void updateBag(@PathParam("id") long id, Bag bag) {
-		// Get the full Avatar object from the database.
-		Avatar Avatar = findAvatar(id);
+	public void patchBag(@PathParam("id") final long id,
+			final BagPatch patch,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return patchBag(id, patch, request);
+			}
+		});
+	}
+
+	protected Response patchBag(long id,
+			BagPatch patch,
+			Request request) {
+		if(patch == null || patch.isEmpty()) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
 		
-		// Update the Avatar's bag
-		Avatar.setBag(bag);
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forAvatar(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			// Change a copy and replace the bag, so that readers never see it
+			// part way through the change. The copy shares the bag's Items.
+			Bag bag = new Bag(Avatar.getBag());
+			for(Item item : patch.getItemsToRemove()) {
+				bag.removeItem(item);
+			}
+			for(Item item : patch.getItemsToAdd()) {
+				bag.addItem(item);
+			}
+			Avatar.setBag(bag);
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+	
+	/**
+	 * Updates a Avatar's skills. An If-Match header is checked against the 
+	 * Avatar's entity tag.
+	 * @param id the unique identifier of the Avatar.
+	 * @param skills the Avatar's updated skills.
+	 */
+	@PUT
+	@Path("{id}/skills")
+	@Consumes("application/xml")
+	public void updateSkills(@PathParam("id") final long id,
+			final Skills skills,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return updateSkills(id, skills, request);
+			}
+		});
+	}
+
+	protected Response updateSkills(long id,
+			Skills skills,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			ResponseBuilder preconditionFailed = 
+					request.evaluatePreconditions(EntityTags.forAvatar(database, Avatar));
+			if(preconditionFailed != null) {
+				return preconditionFailed.build();
+			}
+			
+			Avatar.setSkills(skills);
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(Avatar.getId());
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
 	}
 
 	/**
 	 * Returns a particular Avatar. The returned Avatar is represented by a
 	 * nz.ac.auckland.Avatar.dto.Avatar object.
 	 * 
+	 * The response carries an entity tag derived from the Avatar's version.
+	 * If the request's If-None-Match header matches it, 304 (Not Modified) is
+	 * returned without converting or marshalling the Avatar.
+	 * 
+	 * Rendered representations are cached per media type, so repeated reads
+	 * of an unchanged Avatar write the cached bytes directly.
+	 * 
 	 * @param id
 	 *            the unique identifier of the Avatar.
 	 * 
 	 */
 	@GET
 	@Path("{id}")
-	@Produces("application/xml")
-	public nz.ac.auckland.avatar.dto.Avatar getAvatar(
-			@PathParam("id") long id) {
-		// Get the full Avatar object from the database.
-		Avatar Avatar = findAvatar(id);
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getAvatar(@PathParam("id") final long id,
+			@Context final Request request,
+			@Context final Providers providers,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAvatar(id, request, providers);
+			}
+		});
+	}
 
-		// Convert the full Avatar to a short Avatar.
-		nz.ac.auckland.avatar.dto.Avatar dtoAvatar = AvatarMapper.toDto(Avatar);
+	protected Response getAvatar(long id,
+			Request request,
+			Providers providers) throws IOException {
+		AvatarDatabase database = _database.get();
+		long version;
+		EntityTag tag;
+		MediaType type;
+		byte[] rendered;
+		nz.ac.auckland.avatar.dto.Avatar dtoAvatar = null;
+		// Read the Avatar's version and, if there's no rendering of it, its
+		// DTO, under its read lock so that they match.
+		_locks.lockForReading(id);
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = database.getStore().findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			version = Avatar.getVersion();
+			tag = EntityTags.forAvatar(database, id, version);
+			ResponseBuilder notModified = request.evaluatePreconditions(tag);
+			if(notModified != null) {
+				return notModified.tag(tag).build();
+			}
+			
+			Variant variant = request.selectVariant(AVATAR_VARIANTS);
+			if(variant == null) {
+				return Response.notAcceptable(AVATAR_VARIANTS).build();
+			}
+			type = variant.getMediaType();
+
+			rendered = _renderedAvatars.get(id, type, database.getEpoch(), version);
+			if(rendered == null) {
+				// Convert the full Avatar to a short Avatar.
+				dtoAvatar = AvatarMapper.toDto(Avatar);
+			}
+		} finally {
+			_locks.unlockForReading(id);
+		}
 		
-		return dtoAvatar;
+		if(rendered == null) {
+			rendered = render(providers, dtoAvatar, type);
+			_renderedAvatars.put(id, type, database.getEpoch(), version, rendered);
+		}
+		return Response.ok(rendered, type).tag(tag).build();
+	}
+	
+	/**
+	 * Returns the hit, miss and eviction counts of the cache of rendered
+	 * Avatars.
+	 */
+	@GET
+	@Path("cache/statistics")
+	@Produces("application/xml")
+	public void getCacheStatistics(@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getCacheStatistics();
+			}
+		});
+	}
+
+	protected CacheStatistics getCacheStatistics() {
+		return _renderedAvatars.getStatistics();
 	}
 
 	/**
 	 * Returns a view of the Avatar database, represented as a List of
-	 * nz.ac.auckland.Avatar.dto.Avatar objects.
+	 * nz.ac.auckland.Avatar.dto.Avatar objects, in ascending id order.
+	 * 
+	 * Avatars are streamed to the response as they are read from the 
+	 * database. When a limit is given, at most limit Avatars are returned and,
+	 * if there are more, a Link header with rel="next" gives the URI of the
+	 * next page.
 	 * 
+	 * The Avatars returned can be filtered by username, category and 
+	 * date-of-birth. Filters are answered from secondary indexes rather than 
+	 * by scanning the database; when several are given, only Avatars 
+	 * matching all of them are returned.
+	 * 
+	 * @param after
+	 *            only Avatars with ids greater than this are returned.
+	 * @param limit
+	 *            the maximum number of Avatars to return, or 0 for all.
+	 * @param username
+	 *            only return Avatars with this username.
+	 * @param usernamePrefix
+	 *            only return Avatars whose username starts with this prefix.
+	 * @param category
+	 *            only return Avatars of this category.
+	 * @param bornFrom
+	 *            only return Avatars born on or after this (ISO-8601) date.
+	 * @param bornTo
+	 *            only return Avatars born on or before this (ISO-8601) date.
 	 */
 	@GET
 	@Produces("application/xml")
-	public List<nz.ac.auckland.avatar.dto.Avatar> getAvatars() {
-		List<nz.ac.auckland.avatar.dto.Avatar> Avatars = new ArrayList<nz.ac.auckland.avatar.dto.Avatar>();
+	public void getAvatars(@QueryParam("after") @DefaultValue("0") final long after,
+			@QueryParam("limit") @DefaultValue("0") final int limit,
+			@QueryParam("username") final String username,
+			@QueryParam("usernamePrefix") final String usernamePrefix,
+			@QueryParam("category") final String category,
+			@QueryParam("bornFrom") final String bornFrom,
+			@QueryParam("bornTo") final String bornTo,
+			@Context final UriInfo uriInfo,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAvatars(after, limit, username, usernamePrefix, category, bornFrom, bornTo, uriInfo);
+			}
+		});
+	}
 
-		for (Entry<Long, Avatar> entry : _AvatarDB.entrySet()) {
-			Avatars.add(AvatarMapper.toDto(entry.getValue()));
+	protected Response getAvatars(long after,
+			int limit,
+			String username,
+			String usernamePrefix,
+			String category,
+			String bornFrom,
+			String bornTo,
+			UriInfo uriInfo) {
+		if(limit < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		IndexedAvatarStore store = currentStore();
+		Iterator<Long> matches = null;
+		try {
+			if(username != null) {
+				matches = intersect(matches, store.findByUsername(username, after));
+			}
+			if(usernamePrefix != null) {
+				matches = intersect(matches, store.findByUsernamePrefix(usernamePrefix, after));
+			}
+			if(category != null) {
+				Category cat = Category.fromString(category);
+				if(cat == null) {
+					return Response.status(Response.Status.BAD_REQUEST).build();
+				}
+				matches = intersect(matches, store.findByCategory(cat, after));
+			}
+			if(bornFrom != null || bornTo != null) {
+				matches = intersect(matches, store.findByDateOfBirth(
+						bornFrom == null ? null : new LocalDate(bornFrom),
+						bornTo == null ? null : new LocalDate(bornTo), after));
+			}
+		} catch (IllegalArgumentException e) {
+			// Malformed date.
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		if(limit == 0) {
+			Iterator<Avatar> avatars = matches == null ?
+					new AvatarCursor(store, after, STREAM_CHUNK_SIZE) :
+					new AvatarIdIterator(store, matches);
+			return Response.ok(new AvatarStreamingOutput(avatars, _locks)).build();
+		}
+		
+		// Read one more Avatar than requested to find out whether there's a
+		// next page.
+		limit = Math.min(limit, MAX_PAGE_SIZE);
+		List<Avatar> page;
+		if(matches == null) {
+			page = store.getAvatars(after, limit + 1);
+		} else {
+			page = new ArrayList<Avatar>();
+			Iterator<Avatar> avatars = new AvatarIdIterator(store, matches);
+			while(avatars.hasNext() && page.size() <= limit) {
+				page.add(avatars.next());
+			}
+		}
+		
+		ResponseBuilder builder = Response.ok();
+		if(page.size() > limit) {
+			page = page.subList(0, limit);
+			URI next = uriInfo.getRequestUriBuilder()
+					.replaceQueryParam("after", page.get(limit - 1).getId())
+					.replaceQueryParam("limit", limit)
+					.build();
+			builder.link(next, "next");
 		}
-		return Avatars;
+		return builder.entity(new AvatarStreamingOutput(page.iterator(), _locks)).build();
 	}
 
 	/**
-	 * Returns movement history for a particular Avatar.
+	 * Returns achievements for a particular Avatar, most recent first. The
+	 * achievements returned can be restricted to a window of the Avatar's
+	 * timeline; times are ISO-8601 date-times.
 	 * 
 	 * @param id
 	 *            the unique identifier of the Avatar.
+	 * @param from
+	 *            only achievements received at or after this time.
+	 * @param to
+	 *            only achievements received at or before this time.
+	 * @param before
+	 *            only achievements received strictly before this time.
+	 * @param after
+	 *            cursor of the last achievement of the previous page. When
+	 *            there are more achievements than limit, the response has
+	 *            a "next" link that carries this parameter.
+	 * @param limit
+	 *            the maximum number of achievements to return, or 0 for all.
 	 * 
 	 */
 	@GET
 	@Path("{id}/achievements")
-	@Produces("application/xml")
-	public List<Achievement> getAchievements(@PathParam("id") long id) {
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getAchievements(@PathParam("id") final long id,
+			@QueryParam("from") final String from,
+			@QueryParam("to") final String to,
+			@QueryParam("before") final String before,
+			@QueryParam("after") final String after,
+			@QueryParam("limit") @DefaultValue("0") final int limit,
+			@Context final UriInfo uriInfo,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAchievements(id, from, to, before, after, limit, uriInfo);
+			}
+		});
+	}
+
+	protected Response getAchievements(long id,
+			String from,
+			String to,
+			String before,
+			String after,
+			int limit,
+			UriInfo uriInfo) {
+		if(limit < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
 		// Get the full Avatar object from the database.
 		Avatar Avatar = findAvatar(id);
+		if(Avatar == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
 
-		// Return the Avatar's movements.
-		return Avatar.getAchievements();
+		// Return the requested page of the Avatar's achievements.
+		AchievementTimeline.Page page;
+		try {
+			page = Avatar.getTimeline().page(
+					from == null ? null : new DateTime(from),
+					to == null ? null : new DateTime(to),
+					before == null ? null : new DateTime(before),
+					after == null ? null : AchievementTimeline.Cursor.parse(after),
+					limit);
+		} catch (IllegalArgumentException e) {
+			// Malformed date-time or cursor.
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		ResponseBuilder builder = Response.ok(
+				new GenericEntity<List<Achievement>>(page.getAchievements()) {});
+		if(page.getNext() != null) {
+			URI next = uriInfo.getRequestUriBuilder()
+					.replaceQueryParam("after", page.getNext())
+					.build();
+			builder.link(next, "next");
+		}
+		return builder.build();
 	}
 
 	/**
 	 * Returns the friends associated directly with a particular Avatar.
 	 * Each friend is represented as an instance of class
-	 * nz.ac.auckland.Avatar.dto.Avatar.
+	 * nz.ac.auckland.Avatar.dto.Avatar. The response's entity tag changes 
+	 * when the Avatar or any of its friends changes.
 	 * 
 	 * @param id
 	 *            the unique identifier of the Avatar.
 	 */
 	@GET
 	@Path("{id}/friends")
-	@Produces("application/xml")
-	public List<nz.ac.auckland.avatar.dto.Avatar> getAvatarFriends(
-			@PathParam("id") long id) {
-		// Get the full Avatar object from the database.
-		Avatar Avatar = findAvatar(id);
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getAvatarFriends(@PathParam("id") final long id,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAvatarFriends(id, request);
+			}
+		});
+	}
+
+	protected Response getAvatarFriends(long id,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		EntityTag tag;
+		Set<Avatar> friendSet;
+		_locks.lockForReading(id);
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = database.getStore().findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			
+			tag = EntityTags.forFriends(database, Avatar);
+			ResponseBuilder notModified = request.evaluatePreconditions(tag);
+			if(notModified != null) {
+				return notModified.tag(tag).build();
+			}
+			// The set is replaced, not changed, when friends change.
+			friendSet = Avatar.getFriends();
+		} finally {
+			_locks.unlockForReading(id);
+		}
 
 		List<nz.ac.auckland.avatar.dto.Avatar> friends = new ArrayList<nz.ac.auckland.avatar.dto.Avatar>();
 
-		for (Avatar friend : Avatar.getFriends()) {
-			friends.add(AvatarMapper.toDto(friend));
+		for (Avatar friend : friendSet) {
+			friends.add(_locks.toDto(friend));
 		}
-		return friends;
+		GenericEntity<List<nz.ac.auckland.avatar.dto.Avatar>> entity = 
+				new GenericEntity<List<nz.ac.auckland.avatar.dto.Avatar>>(friends) {};
+		return Response.ok(entity).tag(tag).build();
 	}
 
 	/**
-	 * Returns the bag for a particular Avatar.
+	 * Returns the bag for a particular Avatar. The response's entity tag is 
+	 * the Avatar's.
 	 * @param id the unique identifier of the Avatar.
 	 */
 	@GET
 	@Path("{id}/bag")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getAvatarBag(@PathParam("id") final long id,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAvatarBag(id, request);
+			}
+		});
+	}
+
+	protected Response getAvatarBag(long id,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		_locks.lockForReading(id);
+		try {
+			// Get the full Avatar object from the database.
+			Avatar Avatar = database.getStore().findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+		
+			EntityTag tag = EntityTags.forAvatar(database, Avatar);
+			ResponseBuilder notModified = request.evaluatePreconditions(tag);
+			if(notModified != null) {
+				return notModified.tag(tag).build();
+			}
+		
+			return Response.ok(Avatar.getBag()).tag(tag).build();
+		} finally {
+			_locks.unlockForReading(id);
+		}
+	}
+
+	/**
+	 * Returns the skills of a particular Avatar. The response's entity tag
+	 * is the Avatar's.
+	 * @param id the unique identifier of the Avatar.
+	 */
+	@GET
+	@Path("{id}/skills")
 	@Produces("application/xml")
-	public Bag getAvatarBag(@PathParam("id") long id) {
-		// Get the full Avatar object from the database.
+	public void getSkills(@PathParam("id") final long id,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getSkills(id, request);
+			}
+		});
+	}
+
+	protected Response getSkills(long id,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		_locks.lockForReading(id);
+		try {
+			Avatar Avatar = database.getStore().findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+		
+			EntityTag tag = EntityTags.forAvatar(database, Avatar);
+			ResponseBuilder notModified = request.evaluatePreconditions(tag);
+			if(notModified != null) {
+				return notModified.tag(tag).build();
+			}
+		
+			return Response.ok(Avatar.getSkills()).tag(tag).build();
+		} finally {
+			_locks.unlockForReading(id);
+		}
+	}
+
+	/**
+	 * Returns the effective stats of a particular Avatar: for each stat, its
+	 * category's base value plus its skills plus the bonuses of the items in
+	 * its bag. Bags keep their items' bonuses as items are added and 
+	 * removed, so this doesn't scan the bag. The response's entity tag is 
+	 * the Avatar's.
+	 * @param id the unique identifier of the Avatar.
+	 */
+	@GET
+	@Path("{id}/stats")
+	@Produces("application/xml")
+	public void getStats(@PathParam("id") final long id,
+			@Context final Request request,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getStats(id, request);
+			}
+		});
+	}
+
+	protected Response getStats(long id,
+			Request request) {
+		AvatarDatabase database = _database.get();
+		_locks.lockForReading(id);
+		try {
+			Avatar Avatar = database.getStore().findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+		
+			EntityTag tag = EntityTags.forAvatar(database, Avatar);
+			ResponseBuilder notModified = request.evaluatePreconditions(tag);
+			if(notModified != null) {
+				return notModified.tag(tag).build();
+			}
+		
+			return Response.ok(new AvatarStats(id, Stats.of(Avatar))).tag(tag).build();
+		} finally {
+			_locks.unlockForReading(id);
+		}
+	}
+
+	/**
+	 * Returns the Quest that a particular Avatar is on.
+	 * @param id the unique identifier of the Avatar.
+	 * @return 404 (Not Found) if there's no such Avatar or it isn't on a
+	 *            Quest.
+	 */
+	@GET
+	@Path("{id}/quest")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getCurrentQuest(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getCurrentQuest(id);
+			}
+		});
+	}
+
+	protected Response getCurrentQuest(long id) {
 		Avatar Avatar = findAvatar(id);
+		if(Avatar == null || Avatar.getCurrentQuest() == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(AvatarMapper.toDto(Avatar.getCurrentQuest())).build();
+	}
+
+	/**
+	 * Puts a particular Avatar on a Quest, in place of any Quest it's 
+	 * already on. Only the id of the given Quest is read.
+	 * @param id the unique identifier of the Avatar.
+	 * @param dtoQuest the Quest.
+	 * @return 404 (Not Found) if there's no such Avatar, or 400 (Bad 
+	 *            Request) if there's no such Quest.
+	 */
+	@PUT
+	@Path("{id}/quest")
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void setCurrentQuest(@PathParam("id") final long id,
+			final nz.ac.auckland.avatar.dto.Quest dtoQuest,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return setCurrentQuest(id, dtoQuest);
+			}
+		});
+	}
+
+	protected Response setCurrentQuest(long id,
+			nz.ac.auckland.avatar.dto.Quest dtoQuest) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		Quest quest = dtoQuest == null ? null : store.findQuest(dtoQuest.getId());
+		if(quest == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			Avatar.setCurrentQuest(quest);
+			store.updateAvatar(Avatar);
+			_renderedAvatars.invalidate(id);
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+
+	/**
+	 * Takes a particular Avatar off the Quest it's on, if any.
+	 * @param id the unique identifier of the Avatar.
+	 */
+	@DELETE
+	@Path("{id}/quest")
+	public void abandonQuest(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return abandonQuest(id);
+			}
+		});
+	}
+
+	protected Response abandonQuest(long id) {
+		AvatarDatabase database = _database.get();
+		IndexedAvatarStore store = database.getStore();
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			if(Avatar == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			if(Avatar.getCurrentQuest() != null) {
+				Avatar.setCurrentQuest(null);
+				store.updateAvatar(Avatar);
+				_renderedAvatars.invalidate(id);
+			}
+			return Response.noContent().tag(EntityTags.forAvatar(database, Avatar)).build();
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+
+	/**
+	 * Returns the Avatars that are friends of both of two Avatars, in id
+	 * order.
+	 * 
+	 * @param id
+	 *            the unique identifier of one Avatar.
+	 * @param otherId
+	 *            the unique identifier of the other Avatar.
+	 */
+	@GET
+	@Path("{id}/friends/mutual/{otherId}")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getMutualFriends(@PathParam("id") final long id,
+			@PathParam("otherId") final long otherId,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getMutualFriends(id, otherId);
+			}
+		});
+	}
+
+	protected Response getMutualFriends(long id,
+			long otherId) {
+		IndexedAvatarStore store = currentStore();
+		if(store.findAvatar(id) == null || store.findAvatar(otherId) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return avatarList(store, store.getFriendGraph().mutualFriends(id, otherId));
+	}
+
+	/**
+	 * Returns the Avatars within depth friendships of an Avatar, other than 
+	 * the Avatar itself and its friends, nearest first.
+	 * 
+	 * @param id
+	 *            the unique identifier of the Avatar.
+	 * @param depth
+	 *            the number of friendships to follow, from 2 (friends of 
+	 *            friends, the default) up to FriendGraph.MAX_DEPTH.
+	 * @param after
+	 *            the last Avatar of the previous page, or 0 for the first.
+	 * @param limit
+	 *            the maximum number of Avatars to return, up to 
+	 *            MAX_PAGE_SIZE. If there are more, a Link header with 
+	 *            rel="next" gives the URI of the next page.
+	 */
+	@GET
+	@Path("{id}/friends/network")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getFriendsOfFriends(@PathParam("id") final long id,
+			@QueryParam("depth") @DefaultValue("2") final int depth,
+			@QueryParam("after") @DefaultValue("0") final long after,
+			@QueryParam("limit") @DefaultValue("100") final int limit,
+			@Context final UriInfo uriInfo,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getFriendsOfFriends(id, depth, after, limit, uriInfo);
+			}
+		});
+	}
+
+	protected Response getFriendsOfFriends(long id,
+			int depth,
+			long after,
+			int limit,
+			UriInfo uriInfo) {
+		if(depth < 2 || depth > FriendGraph.MAX_DEPTH || limit < 1) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		IndexedAvatarStore store = currentStore();
+		if(store.findAvatar(id) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
 		
-		return Avatar.getBag();
+		// Find one more Avatar than requested to find out whether there's a
+		// next page.
+		limit = Math.min(limit, MAX_PAGE_SIZE);
+		long[] ids = store.getFriendGraph().friendsOfFriends(id, depth, after, limit + 1);
+		if(ids.length <= limit) {
+			return avatarList(store, ids);
+		}
+		ids = Arrays.copyOf(ids, limit);
+		URI next = uriInfo.getRequestUriBuilder()
+				.replaceQueryParam("after", ids[limit - 1])
+				.replaceQueryParam("limit", limit)
+				.build();
+		return Response.ok(avatarEntity(store, ids)).link(next, "next").build();
+	}
+
+	/**
+	 * Returns suggested friends for an Avatar: friends of its friends, most
+	 * friends in common first.
+	 * 
+	 * @param id
+	 *            the unique identifier of the Avatar.
+	 * @param limit
+	 *            the maximum number of suggestions to return.
+	 */
+	@GET
+	@Path("{id}/friends/suggestions")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getFriendSuggestions(@PathParam("id") final long id,
+			@QueryParam("limit") @DefaultValue("10") final int limit,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getFriendSuggestions(id, limit);
+			}
+		});
+	}
+
+	protected Response getFriendSuggestions(long id,
+			int limit) {
+		if(limit < 1) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		IndexedAvatarStore store = currentStore();
+		if(store.findAvatar(id) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return avatarList(store, store.getFriendGraph().suggestFriends(id, 
+				Math.min(limit, MAX_PAGE_SIZE)));
 	}
 	
+	/**
+	 * Returns part of the leaderboard of Avatars ranked by their number of
+	 * achievements, most first. By default the top of the leaderboard is 
+	 * returned; given a rank, the entries within radius of it are returned.
+	 * 
+	 * @param category
+	 *            rank only Avatars of this category.
+	 * @param limit
+	 *            the number of entries from the top to return.
+	 * @param rank
+	 *            the rank to return the neighbourhood of, or 0 for the top.
+	 * @param radius
+	 *            the number of entries to return either side of rank.
+	 */
+	@GET
+	@Path("leaderboard")
+	@Produces("application/xml")
+	public void getLeaderboard(@QueryParam("category") final String category,
+			@QueryParam("limit") @DefaultValue("10") final int limit,
+			@QueryParam("rank") @DefaultValue("0") final int rank,
+			@QueryParam("radius") @DefaultValue("5") final int radius,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getLeaderboard(category, limit, rank, radius);
+			}
+		});
+	}
+
+	protected Response getLeaderboard(String category,
+			int limit,
+			int rank,
+			int radius) {
+		Category cat = null;
+		if(category != null) {
+			cat = Category.fromString(category);
+			if(cat == null) {
+				return Response.status(Response.Status.BAD_REQUEST).build();
+			}
+		}
+		if(limit < 1 || rank < 0 || radius < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		
+		IndexedAvatarStore store = currentStore();
+		Leaderboard leaderboard = store.getLeaderboard();
+		List<Leaderboard.Entry> entries = rank == 0 ?
+				leaderboard.top(cat, Math.min(limit, MAX_PAGE_SIZE)) :
+				leaderboard.around(cat, rank, Math.min(radius, MAX_PAGE_SIZE / 2));
+		List<LeaderboardEntry> dtoEntries = new ArrayList<LeaderboardEntry>(entries.size());
+		for(Leaderboard.Entry entry : entries) {
+			dtoEntries.add(toDto(store, entry));
+		}
+		return Response.ok(new GenericEntity<List<LeaderboardEntry>>(dtoEntries) {}).build();
+	}
+
+	/**
+	 * Returns a particular Avatar's place on the achievement leaderboard.
+	 * 
+	 * @param id
+	 *            the unique identifier of the Avatar.
+	 * @param byCategory
+	 *            if true, the Avatar's rank among Avatars of its category;
+	 *            otherwise its rank among all Avatars.
+	 */
+	@GET
+	@Path("{id}/rank")
+	@Produces("application/xml")
+	public void getRank(@PathParam("id") final long id,
+			@QueryParam("byCategory") @DefaultValue("false") final boolean byCategory,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getRank(id, byCategory);
+			}
+		});
+	}
+
+	protected Response getRank(long id,
+			boolean byCategory) {
+		IndexedAvatarStore store = currentStore();
+		Leaderboard.Entry entry = store.getLeaderboard().find(id, byCategory);
+		if(entry == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(toDto(store, entry)).build();
+	}
+
+	private static LeaderboardEntry toDto(AvatarStore store, Leaderboard.Entry entry) {
+		Avatar avatar = store.findAvatar(entry.getAvatarId());
+		return new LeaderboardEntry(entry.getRank(), entry.getAvatarId(), 
+				avatar == null ? null : avatar.getUsername(), entry.getAchievements());
+	}
+	
+	/**
+	 * Returns the Avatars with the given ids, in order, as a list of DTOs.
+	 */
+	Response avatarList(AvatarStore store, long[] ids) {
+		return Response.ok(avatarEntity(store, ids)).build();
+	}
+
+	private GenericEntity<List<nz.ac.auckland.avatar.dto.Avatar>> avatarEntity(
+			AvatarStore store, long[] ids) {
+		List<nz.ac.auckland.avatar.dto.Avatar> avatars = 
+				new ArrayList<nz.ac.auckland.avatar.dto.Avatar>(ids.length);
+		for(long id : ids) {
+			Avatar avatar = store.findAvatar(id);
+			if(avatar != null) {
+				avatars.add(_locks.toDto(avatar));
+			}
+		}
+		return new GenericEntity<List<nz.ac.auckland.avatar.dto.Avatar>>(avatars) {};
+	}
+	
+	
+	private static Iterator<Long> intersect(Iterator<Long> matches, Iterator<Long> ids) {
+		return matches == null ? ids : IdIterators.intersection(matches, ids);
+	}
+	
+	/**
+	 * Iterator that looks up each Avatar, by id, as it is reached.
+	 */
+	private static class AvatarIdIterator implements Iterator<Avatar> {
+		private final AvatarStore _store;
+		private final Iterator<Long> _ids;
+		private Avatar _next;
+		
+		AvatarIdIterator(AvatarStore store, Iterator<Long> ids) {
+			_store = store;
+			_ids = ids;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			// Skip any Avatar removed since its id was read from an index.
+			while(_next == null && _ids.hasNext()) {
+				_next = _store.findAvatar(_ids.next());
+			}
+			return _next != null;
+		}
+		
+		@Override
+		public Avatar next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Avatar avatar = _next;
+			_next = null;
+			return avatar;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	protected IndexedAvatarStore currentStore() {
+		return _database.get().getStore();
+	}
 	
 	protected Avatar findAvatar(long id) {
-		return _AvatarDB.get(id);
+		return currentStore().findAvatar(id);
+	}
+
+	RequestExecutor getExecutor() {
+		return _executor;
+	}
+	
+	/**
+	 * Takes an Avatar off a Quest, if it's still on it.
+	 */
+	void leaveQuest(IndexedAvatarStore store, long id, long questId) {
+		_locks.lock(id);
+		try {
+			Avatar Avatar = store.findAvatar(id);
+			Quest quest = Avatar == null ? null : Avatar.getCurrentQuest();
+			if(quest != null && quest.getId() == questId) {
+				Avatar.setCurrentQuest(null);
+				store.updateAvatar(Avatar);
+				_renderedAvatars.invalidate(id);
+			}
+		} finally {
+			_locks.unlock(id);
+		}
+	}
+
+	private static byte[] render(Providers providers, 
+			nz.ac.auckland.avatar.dto.Avatar dtoAvatar, MediaType type) throws IOException {
+		MessageBodyWriter<nz.ac.auckland.avatar.dto.Avatar> writer = providers.getMessageBodyWriter(
+				nz.ac.auckland.avatar.dto.Avatar.class, nz.ac.auckland.avatar.dto.Avatar.class, 
+				NO_ANNOTATIONS, type);
+		ByteArrayOutputStream output = new ByteArrayOutputStream(512);
+		writer.writeTo(dtoAvatar, nz.ac.auckland.avatar.dto.Avatar.class, 
+				nz.ac.auckland.avatar.dto.Avatar.class, NO_ANNOTATIONS, type, 
+				new MultivaluedHashMap<String, Object>(), output);
+		return output.toByteArray();
 	}
 
+	/**
+	 * Replaces the database with a newly seeded one. The new epoch is built 
+	 * without disturbing the current one and then published atomically; 
+	 * requests already in progress complete against the epoch they started 
+	 * with, and no request waits for the reload. Overlapping reloads run one
+	 * after the other, so the last store created is the one left published.
+	 */
 	protected void reloadDatabase() {
-		_AvatarDB = new ConcurrentHashMap<Long, Avatar>();
-		_idCounter = new AtomicLong();
+		synchronized(_reloadLock) {
+			IndexedAvatarStore store = new IndexedAvatarStore(_storeFactory.createStore());
+			seedDatabase(store);
+			
+			long epoch = _database.get().getEpoch() + 1;
+			_database.set(new AvatarDatabase(epoch, store));
+			_renderedAvatars.clear();
+			_logger.debug("Published database epoch " + epoch);
+		}
+	}
 
+	private static void seedDatabase(AvatarStore store) {
 		// === Initialise Avatar #1
-		long id = _idCounter.incrementAndGet();
+		long id = store.nextId();
 		Avatar Avatar = new Avatar(id,
 				"ellieille", 
 				 Category.MAGE,
 				new LocalDate(1970, 5, 26),
 				null);
-		_AvatarDB.put(id, Avatar);
 
 		Bag bag = new Bag();
 		
@@ -277,23 +1779,24 @@ public class AvatarResource {
 				"Able to replenish a small amount of mana", 
 				ItemType.MANA_POTION));
 		Avatar.setBag(bag);
+		store.createAvatar(Avatar);
 		
 		// === Initialise Avatar #2
-		id = _idCounter.incrementAndGet();
+		id = store.nextId();
 		Avatar = new Avatar(id,
 				"lavitasy", 
 				Category.MONK,
 				new LocalDate(1970, 2, 9),
 			  new Bag());
-		_AvatarDB.put(id, Avatar);
+		store.createAvatar(Avatar);
 		
 		// === Initialise Avatar #3
-		id = _idCounter.incrementAndGet();
+		id = store.nextId();
 		Avatar = new Avatar(id,
 				"i_dont_know",
 				Category.BARBARIAN,
 				new LocalDate(1980, 10, 19),
 				null);
-		_AvatarDB.put(id, Avatar);
+		store.createAvatar(Avatar);
 	}
 }
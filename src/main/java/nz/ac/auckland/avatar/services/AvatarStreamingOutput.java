@@ -0,0 +1,74 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Writes a sequence of Avatars to an HTTP response body as XML. Each Avatar
+ * is converted to a DTO, under its read lock, and marshalled as soon as it's
+ * read, rather than building the whole list in memory first.
+ * 
+ * Avatars are wrapped in a <collection> element, the same document that 
+ * RESTEasy produces for a List of DTO Avatars, so clients can continue to 
+ * read the response as a List.
+ *
+ */
+public class AvatarStreamingOutput implements StreamingOutput {
+	private static final String COLLECTION_ELEMENT = "collection";
+
+	private static final XMLOutputFactory _outputFactory = XMLOutputFactory.newInstance();
+	private static final PooledJAXBContext _context = createContext();
+
+	private final Iterator<Avatar> _avatars;
+	private final AvatarLocks _locks;
+
+	AvatarStreamingOutput(Iterator<Avatar> avatars, AvatarLocks locks) {
+		_avatars = avatars;
+		_locks = locks;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException,
+			WebApplicationException {
+		try {
+			XMLStreamWriter writer = _outputFactory.createXMLStreamWriter(output, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(COLLECTION_ELEMENT);
+
+			Marshaller marshaller = _context.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+			while(_avatars.hasNext()) {
+				marshaller.marshal(_locks.toDto(_avatars.next()), writer);
+			}
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} catch (JAXBException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+
+	private static PooledJAXBContext createContext() {
+		try {
+			return new PooledJAXBContext(
+					JAXBContext.newInstance(nz.ac.auckland.avatar.dto.Avatar.class));
+		} catch (JAXBException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+/**
+ * Reads the primitive values written by BinaryOutput. Malformed input, 
+ * including sizes too large to be genuine, is reported with an IOException.
+ *
+ */
+class BinaryInput {
+	// Upper bound on any string or collection size, to stop a malformed 
+	// payload from causing a huge allocation.
+	static final int MAX_SIZE = 1 << 20;
+
+	private final InputStream _input;
+	private final byte[] _buffer;
+	private int _position;
+	private int _limit;
+
+	BinaryInput(InputStream input) {
+		_input = input;
+		_buffer = new byte[1024];
+	}
+
+	int readByte() throws IOException {
+		if(_position == _limit) {
+			fill();
+		}
+		return _buffer[_position++] & 0xFF;
+	}
+
+	boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	long readSignedVarLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	int readInt() throws IOException {
+		long value = readSignedVarLong();
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new IOException("Integer out of range: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads a size written by BinaryOutput.writeSize(), returning -1 for 
+	 * null.
+	 */
+	int readSize() throws IOException {
+		long size = readVarLong() - 1;
+		if(size > MAX_SIZE || size < -1) {
+			throw new IOException("Size out of range: " + size);
+		}
+		return (int) size;
+	}
+
+	String readString() throws IOException {
+		int size = readSize();
+		if(size < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[size];
+		readBytes(bytes);
+		return new String(bytes, BinaryOutput.UTF8);
+	}
+
+	<E extends Enum<E>> E readEnum(E[] values) throws IOException {
+		long ordinal = readVarLong();
+		if(ordinal == 0) {
+			return null;
+		}
+		if(ordinal > values.length) {
+			throw new IOException("Unknown constant " + (ordinal - 1) + " of "
+					+ values.getClass().getComponentType().getSimpleName());
+		}
+		return values[(int) ordinal - 1];
+	}
+
+	LocalDate readLocalDate() throws IOException {
+		if(!readBoolean()) {
+			return null;
+		}
+		int year = readInt();
+		int month = readByte();
+		int day = readByte();
+		try {
+			return new LocalDate(year, month, day);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid date", e);
+		}
+	}
+
+	DateTime readDateTime() throws IOException {
+		if(!readBoolean()) {
+			return null;
+		}
+		return new DateTime(readSignedVarLong());
+	}
+
+	private void readBytes(byte[] bytes) throws IOException {
+		int copied = Math.min(bytes.length, _limit - _position);
+		System.arraycopy(_buffer, _position, bytes, 0, copied);
+		_position += copied;
+		while(copied < bytes.length) {
+			int read = _input.read(bytes, copied, bytes.length - copied);
+			if(read < 0) {
+				throw new EOFException();
+			}
+			copied += read;
+		}
+	}
+
+	private void fill() throws IOException {
+		int read;
+		do {
+			read = _input.read(_buffer, 0, _buffer.length);
+		} while(read == 0);
+		if(read < 0) {
+			throw new EOFException();
+		}
+		_position = 0;
+		_limit = read;
+	}
+}
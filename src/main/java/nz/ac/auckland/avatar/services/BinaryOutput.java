@@ -0,0 +1,120 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+/**
+ * Writes the primitive values of the binary Avatar format to a stream.
+ * Integers are written as variable-length quantities, 7 bits per byte, so
+ * small values take a single byte; signed values are zig-zag encoded first.
+ * Nullable values are preceded by, or folded into, a presence marker.
+ *
+ * Output is buffered; flush() must be called when writing is complete.
+ *
+ */
+class BinaryOutput {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final OutputStream _output;
+	private final byte[] _buffer;
+	private int _position;
+
+	BinaryOutput(OutputStream output) {
+		_output = output;
+		_buffer = new byte[1024];
+	}
+
+	void writeByte(int b) throws IOException {
+		if(_position == _buffer.length) {
+			drain();
+		}
+		_buffer[_position++] = (byte) b;
+	}
+
+	void writeBoolean(boolean b) throws IOException {
+		writeByte(b ? 1 : 0);
+	}
+
+	/**
+	 * Writes a value that is expected to be non-negative. Negative values
+	 * are written correctly but take ten bytes.
+	 */
+	void writeVarLong(long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		writeByte((int) value);
+	}
+
+	void writeSignedVarLong(long value) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Writes the size of a collection, or null, as size + 1.
+	 */
+	void writeSize(int size) throws IOException {
+		writeVarLong(size + 1L);
+	}
+
+	void writeNullSize() throws IOException {
+		writeVarLong(0);
+	}
+
+	void writeString(String s) throws IOException {
+		if(s == null) {
+			writeNullSize();
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		writeSize(bytes.length);
+		writeBytes(bytes);
+	}
+
+	void writeEnum(Enum<?> e) throws IOException {
+		writeVarLong(e == null ? 0 : e.ordinal() + 1);
+	}
+
+	void writeLocalDate(LocalDate date) throws IOException {
+		writeBoolean(date != null);
+		if(date != null) {
+			writeSignedVarLong(date.getYear());
+			writeByte(date.getMonthOfYear());
+			writeByte(date.getDayOfMonth());
+		}
+	}
+
+	void writeDateTime(DateTime time) throws IOException {
+		writeBoolean(time != null);
+		if(time != null) {
+			writeSignedVarLong(time.getMillis());
+		}
+	}
+
+	void flush() throws IOException {
+		drain();
+		_output.flush();
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if(bytes.length > _buffer.length - _position) {
+			drain();
+			if(bytes.length > _buffer.length) {
+				_output.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, _buffer, _position, bytes.length);
+		_position += bytes.length;
+	}
+
+	private void drain() throws IOException {
+		_output.write(_buffer, 0, _position);
+		_position = 0;
+	}
+}
@@ -0,0 +1,60 @@
+package nz.ac.auckland.avatar.services;
+
+import javax.ws.rs.core.EntityTag;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Computes HTTP entity tags for Avatar representations from Avatar versions.
+ * A tag can be computed without converting the Avatar to a DTO or 
+ * marshalling it, so conditional requests can be answered cheaply.
+ * 
+ * Tags start with the prefix of the database the Avatar was read from, so
+ * that they don't match across reloads (see AvatarDatabase.getTagPrefix()).
+ *
+ */
+final class EntityTags {
+
+	private EntityTags() {
+	}
+
+	/**
+	 * Returns the entity tag for an Avatar, or for a representation (such as
+	 * its bag) that changes only when the Avatar does.
+	 */
+	static EntityTag forAvatar(AvatarDatabase database, Avatar avatar) {
+		return forAvatar(database, avatar.getId(), avatar.getVersion());
+	}
+
+	static EntityTag forAvatar(AvatarDatabase database, long id, long version) {
+		return new EntityTag(database.getTagPrefix() + Long.toHexString(id) + "-" 
+				+ Long.toHexString(version));
+	}
+
+	/**
+	 * Returns the entity tag for an Avatar's list of friends. The list 
+	 * includes each friend's details, so the tag combines the versions of 
+	 * the Avatar and of each of its friends.
+	 */
+	static EntityTag forFriends(AvatarDatabase database, Avatar avatar) {
+		// Summing per-friend hashes makes the tag independent of the order 
+		// in which friends are iterated.
+		long friends = 0;
+		for(Avatar friend : avatar.getFriends()) {
+			friends += mix(friend.getId() * 31 + friend.getVersion());
+		}
+		return new EntityTag(database.getTagPrefix() + Long.toHexString(avatar.getId()) + "-" 
+				+ Long.toHexString(avatar.getVersion()) + "-" 
+				+ Long.toHexString(friends));
+	}
+
+	// Finalisation step of the 64-bit MurmurHash3.
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe53ec5d4L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,128 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. 
+ *
+ * Buckets are log-linear: each power of two is split into 16 equal 
+ * sub-buckets, so a value is counted in a bucket no more than 1/16 wider 
+ * than the value itself, whatever its magnitude. Recording a value is an 
+ * atomic increment of its bucket plus updates of the sum and maximum; no 
+ * locks are taken and nothing is allocated. 
+ *
+ * Percentiles are read from a Snapshot, which is approximate while values
+ * are being recorded concurrently.
+ *
+ */
+final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any non-negative long.
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts;
+	private final AtomicLong _sum;
+	private final AtomicLong _max;
+
+	LatencyHistogram() {
+		_counts = new AtomicLongArray(BUCKETS);
+		_sum = new AtomicLong();
+		_max = new AtomicLong();
+	}
+
+	void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		_counts.incrementAndGet(bucketOf(nanos));
+		_sum.addAndGet(nanos);
+
+		long max = _max.get();
+		while(nanos > max && !_max.compareAndSet(max, nanos)) {
+			max = _max.get();
+		}
+	}
+
+	Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = _counts.get(i);
+			count += counts[i];
+		}
+		return new Snapshot(counts, count, _sum.get(), _max.get());
+	}
+
+	static int bucketOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value counted in the given bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * A copy of a histogram's counts at one point in time.
+	 */
+	static final class Snapshot {
+		private final long[] _counts;
+		private final long _count;
+		private final long _sum;
+		private final long _max;
+
+		Snapshot(long[] counts, long count, long sum, long max) {
+			_counts = counts;
+			_count = count;
+			_sum = sum;
+			_max = max;
+		}
+
+		long getCount() {
+			return _count;
+		}
+
+		long getSum() {
+			return _sum;
+		}
+
+		long getMax() {
+			return _max;
+		}
+
+		/**
+		 * Returns the value below which the given fraction of recorded 
+		 * values fall, to within the histogram's precision; 0 if none have
+		 * been recorded.
+		 */
+		long getValueAt(double quantile) {
+			if(_count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * _count));
+			long seen = 0;
+			for(int i = 0; i < _counts.length; i++) {
+				seen += _counts[i];
+				if(seen >= rank) {
+					return Math.min(highestValueOf(i), _max);
+				}
+			}
+			return _max;
+		}
+	}
+}
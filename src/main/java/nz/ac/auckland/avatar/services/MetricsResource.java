@@ -0,0 +1,27 @@
+package nz.ac.auckland.avatar.services;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * Exposes the Web service's RequestMetrics for scraping.
+ *
+ */
+@Path("/metrics")
+public class MetricsResource {
+	private final RequestMetrics _metrics;
+
+	public MetricsResource(RequestMetrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Returns the request metrics in the Prometheus text exposition format.
+	 */
+	@GET
+	@Produces(RequestMetrics.CONTENT_TYPE)
+	public String getMetrics() {
+		return _metrics.render();
+	}
+}
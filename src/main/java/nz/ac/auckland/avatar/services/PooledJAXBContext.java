@@ -0,0 +1,124 @@
+package nz.ac.auckland.avatar.services;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.Binder;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * JAXBContext decorator that keeps one Marshaller and one Unmarshaller per
+ * thread, rather than creating them for every request. Marshallers and
+ * Unmarshallers aren't thread-safe but may be reused by the thread that
+ * created them; their properties are reset to the defaults each time they
+ * are handed out, so settings made for one request don't leak into the next.
+ *
+ * Counters record how often instances are created and reused.
+ *
+ */
+class PooledJAXBContext extends JAXBContext {
+	private final JAXBContext _context;
+
+	private final ThreadLocal<Marshaller> _marshallers;
+	private final ThreadLocal<Unmarshaller> _unmarshallers;
+
+	private final AtomicLong _marshallersCreated;
+	private final AtomicLong _marshallersReused;
+	private final AtomicLong _unmarshallersCreated;
+	private final AtomicLong _unmarshallersReused;
+
+	PooledJAXBContext(JAXBContext context) {
+		_context = context;
+		_marshallers = new ThreadLocal<Marshaller>();
+		_unmarshallers = new ThreadLocal<Unmarshaller>();
+		_marshallersCreated = new AtomicLong();
+		_marshallersReused = new AtomicLong();
+		_unmarshallersCreated = new AtomicLong();
+		_unmarshallersReused = new AtomicLong();
+	}
+
+	@Override
+	public Marshaller createMarshaller() throws JAXBException {
+		Marshaller marshaller = _marshallers.get();
+		if(marshaller == null) {
+			marshaller = _context.createMarshaller();
+			_marshallers.set(marshaller);
+			_marshallersCreated.incrementAndGet();
+		} else {
+			_marshallersReused.incrementAndGet();
+		}
+		reset(marshaller);
+		return marshaller;
+	}
+
+	@Override
+	public Unmarshaller createUnmarshaller() throws JAXBException {
+		Unmarshaller unmarshaller = _unmarshallers.get();
+		if(unmarshaller == null) {
+			unmarshaller = _context.createUnmarshaller();
+			_unmarshallers.set(unmarshaller);
+			_unmarshallersCreated.incrementAndGet();
+		} else {
+			_unmarshallersReused.incrementAndGet();
+		}
+		reset(unmarshaller);
+		return unmarshaller;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public javax.xml.bind.Validator createValidator() throws JAXBException {
+		return _context.createValidator();
+	}
+
+	@Override
+	public <T> Binder<T> createBinder(Class<T> domType) {
+		return _context.createBinder(domType);
+	}
+
+	@Override
+	public JAXBIntrospector createJAXBIntrospector() {
+		return _context.createJAXBIntrospector();
+	}
+
+	@Override
+	public void generateSchema(SchemaOutputResolver outputResolver) throws IOException {
+		_context.generateSchema(outputResolver);
+	}
+
+	public long getMarshallersCreated() {
+		return _marshallersCreated.get();
+	}
+
+	public long getMarshallersReused() {
+		return _marshallersReused.get();
+	}
+
+	public long getUnmarshallersCreated() {
+		return _unmarshallersCreated.get();
+	}
+
+	public long getUnmarshallersReused() {
+		return _unmarshallersReused.get();
+	}
+
+	private static void reset(Marshaller marshaller) throws JAXBException {
+		marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.FALSE);
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.FALSE);
+		marshaller.setEventHandler(null);
+		marshaller.setListener(null);
+		marshaller.setSchema(null);
+	}
+
+	private static void reset(Unmarshaller unmarshaller) throws JAXBException {
+		unmarshaller.setEventHandler(null);
+		unmarshaller.setListener(null);
+		unmarshaller.setSchema(null);
+	}
+}
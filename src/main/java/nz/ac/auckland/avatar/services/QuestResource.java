@@ -0,0 +1,280 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Quest;
+import nz.ac.auckland.avatar.dto.AvatarAchievement;
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+
+/**
+ * Web service resource for the Quests that Avatars go on. Quests are held in
+ * the same epoch's database as the Avatars served by an AvatarResource, and
+ * requests run on its executor.
+ *
+ * The Avatars on a Quest, and the achievements unlocked in it, are answered
+ * from the store's QuestIndex rather than by scanning the Avatars.
+ *
+ */
+@Path("/quests")
+public class QuestResource {
+	private static final Logger _logger = LoggerFactory.getLogger(QuestResource.class);
+
+	private final AvatarResource _avatars;
+	private final RequestExecutor _executor;
+
+	public QuestResource(AvatarResource avatars) {
+		_avatars = avatars;
+		_executor = avatars.getExecutor();
+	}
+
+	/**
+	 * Adds a new Quest. Any id given in the request body is ignored.
+	 *
+	 * @param dtoQuest
+	 *            the Quest data included in the HTTP request body.
+	 */
+	@POST
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void createQuest(final nz.ac.auckland.avatar.dto.Quest dtoQuest,
+			@Context UriInfo uriInfo,
+			@Suspended final AsyncResponse response) {
+		// The request's URIs can only be read on the request thread.
+		final UriBuilder quests = uriInfo.getBaseUriBuilder().path(QuestResource.class);
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return createQuest(dtoQuest, quests);
+			}
+		});
+	}
+
+	protected Response createQuest(nz.ac.auckland.avatar.dto.Quest dtoQuest,
+			UriBuilder quests) {
+		if(dtoQuest == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		Quest quest = AvatarMapper.toDomainModel(dtoQuest);
+		_avatars.currentStore().createQuest(quest);
+
+		_logger.debug("Created Quest: " + quest);
+		return Response.created(quests.path(Long.toString(quest.getId())).build()).build();
+	}
+
+	/**
+	 * Returns all Quests, in ascending id order.
+	 */
+	@GET
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getQuests(@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getQuests();
+			}
+		});
+	}
+
+	protected Response getQuests() {
+		List<nz.ac.auckland.avatar.dto.Quest> quests = new ArrayList<nz.ac.auckland.avatar.dto.Quest>();
+		for(Quest quest : _avatars.currentStore().getQuests()) {
+			quests.add(AvatarMapper.toDto(quest));
+		}
+		return Response.ok(new GenericEntity<List<nz.ac.auckland.avatar.dto.Quest>>(quests) {}).build();
+	}
+
+	/**
+	 * Returns a particular Quest.
+	 *
+	 * @param id
+	 *            the unique identifier of the Quest.
+	 */
+	@GET
+	@Path("{id}")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getQuest(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getQuest(id);
+			}
+		});
+	}
+
+	protected Response getQuest(long id) {
+		Quest quest = _avatars.currentStore().findQuest(id);
+		if(quest == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(AvatarMapper.toDto(quest)).build();
+	}
+
+	/**
+	 * Updates a Quest's name and description.
+	 *
+	 * @param id
+	 *            the unique identifier of the Quest.
+	 * @param dtoQuest
+	 *            the Quest data included in the HTTP request body.
+	 */
+	@PUT
+	@Path("{id}")
+	@Consumes({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void updateQuest(@PathParam("id") final long id,
+			final nz.ac.auckland.avatar.dto.Quest dtoQuest,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return updateQuest(id, dtoQuest);
+			}
+		});
+	}
+
+	protected Response updateQuest(long id, nz.ac.auckland.avatar.dto.Quest dtoQuest) {
+		if(dtoQuest == null) {
+			return Response.status(Response.Status.BAD_REQUEST).build();
+		}
+		IndexedAvatarStore store = _avatars.currentStore();
+		// Quests change rarely, so one lock serialises all their updates.
+		synchronized(this) {
+			Quest quest = store.findQuest(id);
+			if(quest == null) {
+				return Response.status(Response.Status.NOT_FOUND).build();
+			}
+			quest.setQuestName(dtoQuest.getQuestName());
+			quest.setQuestDescription(dtoQuest.getQuestDescription());
+			store.updateQuest(quest);
+		}
+		return Response.noContent().build();
+	}
+
+	/**
+	 * Deletes a Quest, first taking every Avatar on it off it. The Quest's
+	 * achievements are kept by the Avatars that unlocked them.
+	 *
+	 * @param id
+	 *            the unique identifier of the Quest.
+	 */
+	@DELETE
+	@Path("{id}")
+	public void deleteQuest(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return deleteQuest(id);
+			}
+		});
+	}
+
+	protected Response deleteQuest(long id) {
+		IndexedAvatarStore store = _avatars.currentStore();
+		if(store.findQuest(id) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		for(long avatarId : store.getQuestIndex().findAvatarsOnQuest(id)) {
+			_avatars.leaveQuest(store, avatarId, id);
+		}
+		if(!store.deleteQuest(id)) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.noContent().build();
+	}
+
+	/**
+	 * Returns the Avatars currently on a Quest, in id order.
+	 *
+	 * @param id
+	 *            the unique identifier of the Quest.
+	 */
+	@GET
+	@Path("{id}/avatars")
+	@Produces({"application/xml", AvatarBinaryProvider.MEDIA_TYPE})
+	public void getAvatarsOnQuest(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAvatarsOnQuest(id);
+			}
+		});
+	}
+
+	protected Response getAvatarsOnQuest(long id) {
+		IndexedAvatarStore store = _avatars.currentStore();
+		if(store.findQuest(id) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return _avatars.avatarList(store,
+				toArray(store.getQuestIndex().findAvatarsOnQuest(id)));
+	}
+
+	/**
+	 * Returns the achievements unlocked in a Quest, each paired with the id
+	 * of the Avatar that unlocked it, in Avatar id order.
+	 *
+	 * @param id
+	 *            the unique identifier of the Quest.
+	 */
+	@GET
+	@Path("{id}/completions")
+	@Produces("application/xml")
+	public void getCompletions(@PathParam("id") final long id,
+			@Suspended final AsyncResponse response) {
+		_executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getCompletions(id);
+			}
+		});
+	}
+
+	protected Response getCompletions(long id) {
+		IndexedAvatarStore store = _avatars.currentStore();
+		if(store.findQuest(id) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		List<AvatarAchievement> completions = new ArrayList<AvatarAchievement>();
+		for(Map.Entry<Long, List<Achievement>> entry :
+				store.getQuestIndex().findAchievements(id).entrySet()) {
+			for(Achievement achievement : entry.getValue()) {
+				completions.add(new AvatarAchievement(entry.getKey(), achievement));
+			}
+		}
+		return Response.ok(new GenericEntity<List<AvatarAchievement>>(completions) {}).build();
+	}
+
+	private static long[] toArray(NavigableSet<Long> ids) {
+		long[] array = new long[ids.size()];
+		int i = 0;
+		for(long id : ids) {
+			array[i++] = id;
+		}
+		return array;
+	}
+}
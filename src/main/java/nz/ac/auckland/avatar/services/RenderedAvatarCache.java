@@ -0,0 +1,194 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+import nz.ac.auckland.avatar.dto.CacheStatistics;
+
+/**
+ * Bounded cache of serialised Avatar representations, one per Avatar and 
+ * media type. Each entry records the database epoch and the Avatar version
+ * it was rendered from, and is only returned for that same epoch and 
+ * version; so a representation rendered while the Avatar was being changed
+ * is never served after the change, even if it's stored after the 
+ * mutator's invalidate().
+ *
+ * Entries are held in a fixed number of segments, each an LRU map guarded
+ * by its own lock, so that readers of different Avatars rarely contend.
+ * Capacity is measured in Avatars.
+ *
+ */
+class RenderedAvatarCache {
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] _segments;
+	private final int _capacity;
+
+	private final AtomicLong _hits;
+	private final AtomicLong _misses;
+	private final AtomicLong _evictions;
+	private final AtomicLong _invalidations;
+
+	RenderedAvatarCache(int capacity) {
+		_capacity = capacity;
+		_segments = new Segment[SEGMENTS];
+		int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+		for(int i = 0; i < SEGMENTS; i++) {
+			_segments[i] = new Segment(segmentCapacity);
+		}
+		_hits = new AtomicLong();
+		_misses = new AtomicLong();
+		_evictions = new AtomicLong();
+		_invalidations = new AtomicLong();
+	}
+
+	/**
+	 * Returns the cached representation of an Avatar, or null if there's 
+	 * none for the given epoch and version.
+	 */
+	byte[] get(long id, MediaType type, long epoch, long version) {
+		Segment segment = segmentFor(id);
+		Entry entry;
+		synchronized(segment) {
+			entry = segment.get(id);
+		}
+		byte[] bytes = null;
+		if(entry != null && entry._epoch == epoch && entry._version == version) {
+			bytes = entry.get(type.toString());
+		}
+		if(bytes == null) {
+			_misses.incrementAndGet();
+		} else {
+			_hits.incrementAndGet();
+		}
+		return bytes;
+	}
+
+	void put(long id, MediaType type, long epoch, long version, byte[] bytes) {
+		Segment segment = segmentFor(id);
+		synchronized(segment) {
+			Entry entry = segment.get(id);
+			if(entry != null && entry._epoch == epoch && entry._version == version) {
+				entry = entry.with(type.toString(), bytes);
+			} else {
+				entry = new Entry(epoch, version, 
+						new String[] { type.toString() }, new byte[][] { bytes });
+			}
+			segment.put(id, entry);
+		}
+	}
+
+	/**
+	 * Drops every representation of an Avatar.
+	 */
+	void invalidate(long id) {
+		Segment segment = segmentFor(id);
+		synchronized(segment) {
+			if(segment.remove(id) != null) {
+				_invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	void clear() {
+		for(Segment segment : _segments) {
+			synchronized(segment) {
+				_invalidations.addAndGet(segment.size());
+				segment.clear();
+			}
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for(Segment segment : _segments) {
+			synchronized(segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	CacheStatistics getStatistics() {
+		return new CacheStatistics("rendered-avatars", size(), _capacity,
+				_hits.get(), _misses.get(), _evictions.get(), _invalidations.get());
+	}
+
+	private Segment segmentFor(long id) {
+		int hash = (int) (id ^ (id >>> 32));
+		hash ^= hash >>> 16;
+		return _segments[hash & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * An LRU map of bounded size.
+	 */
+	private class Segment extends LinkedHashMap<Long, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		private final int _segmentCapacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			_segmentCapacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			if(size() > _segmentCapacity) {
+				_evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The representations of one version of an Avatar. Entries are 
+	 * immutable, so they can be read outside of the segment's lock.
+	 */
+	private static final class Entry {
+		private final long _epoch;
+		private final long _version;
+		private final String[] _types;
+		private final byte[][] _representations;
+
+		Entry(long epoch, long version, String[] types, byte[][] representations) {
+			_epoch = epoch;
+			_version = version;
+			_types = types;
+			_representations = representations;
+		}
+
+		byte[] get(String type) {
+			for(int i = 0; i < _types.length; i++) {
+				if(_types[i].equals(type)) {
+					return _representations[i];
+				}
+			}
+			return null;
+		}
+
+		Entry with(String type, byte[] bytes) {
+			int n = _types.length;
+			for(int i = 0; i < n; i++) {
+				if(_types[i].equals(type)) {
+					String[] types = _types.clone();
+					byte[][] representations = _representations.clone();
+					representations[i] = bytes;
+					return new Entry(_epoch, _version, types, representations);
+				}
+			}
+			String[] types = new String[n + 1];
+			byte[][] representations = new byte[n + 1][];
+			System.arraycopy(_types, 0, types, 0, n);
+			System.arraycopy(_representations, 0, representations, 0, n);
+			types[n] = type;
+			representations[n] = bytes;
+			return new Entry(_epoch, _version, types, representations);
+		}
+	}
+}
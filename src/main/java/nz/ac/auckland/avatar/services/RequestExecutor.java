@@ -0,0 +1,177 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the work of suspended JAX-RS requests on an Executor, so that 
+ * container request threads aren't held while requests wait on the store.
+ *
+ * The default executor is a bounded pool: a fixed number of threads and a
+ * bounded queue of waiting requests. A request that can't be queued is 
+ * answered with 503 (Service Unavailable) and a Retry-After header; a 
+ * request that hasn't completed within the timeout is answered with 503 as
+ * well. The pool is configured with system properties:
+ * - avatar.executor.threads: the number of threads, or 0 to run requests 
+ *   on the container thread (default 32);
+ * - avatar.executor.queue: the maximum number of waiting requests 
+ *   (default 1000);
+ * - avatar.executor.timeout: the request timeout in milliseconds, or 0 for
+ *   none (default 30000).
+ *
+ * Long-lived streaming requests run on a separate streamingPool(), so that
+ * they can't take every thread of the request pool.
+ *
+ */
+public class RequestExecutor {
+	private static final Logger _logger = LoggerFactory.getLogger(RequestExecutor.class);
+
+	public static final String THREADS_PROPERTY = "avatar.executor.threads";
+	public static final String QUEUE_PROPERTY = "avatar.executor.queue";
+	public static final String TIMEOUT_PROPERTY = "avatar.executor.timeout";
+
+	private static final int DEFAULT_THREADS = 32;
+	private static final int DEFAULT_QUEUE = 1000;
+	private static final long DEFAULT_TIMEOUT = 30000;
+
+	// Seconds a rejected client is asked to wait before retrying.
+	private static final int RETRY_AFTER = 1;
+
+	/**
+	 * Runs requests on the thread that submits them, without a timeout.
+	 */
+	public static final RequestExecutor DIRECT = new RequestExecutor(new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	}, 0);
+
+	private static final TimeoutHandler TIMEOUT_HANDLER = new TimeoutHandler() {
+		@Override
+		public void handleTimeout(AsyncResponse response) {
+			response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+		}
+	};
+
+	private final Executor _executor;
+	private final long _timeoutMillis;
+
+	public RequestExecutor(Executor executor, long timeoutMillis) {
+		_executor = executor;
+		_timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Creates a RequestExecutor configured by the avatar.executor system 
+	 * properties.
+	 */
+	public static RequestExecutor fromSystemProperties() {
+		int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+		if(threads <= 0) {
+			return DIRECT;
+		}
+		int queue = Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE);
+		long timeout = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT);
+		_logger.info("Running requests on " + threads + " threads, queueing at most " 
+				+ queue + ", timeout " + timeout + "ms");
+		return new RequestExecutor(boundedPool(threads, queue), timeout);
+	}
+
+	/**
+	 * Creates a RequestExecutor for streaming requests, that runs each on its
+	 * own thread, without a timeout, and answers 503 (Service Unavailable) 
+	 * to any more than the given number at a time.
+	 */
+	public static RequestExecutor streamingPool(int streams) {
+		return new RequestExecutor(boundedPool(streams, 0, "avatar-stream-"), 0);
+	}
+
+	/**
+	 * Creates a pool of the given number of daemon threads that queues at 
+	 * most queueSize tasks and rejects any more.
+	 */
+	public static ThreadPoolExecutor boundedPool(int threads, int queueSize) {
+		return boundedPool(threads, queueSize, "avatar-request-");
+	}
+
+	private static ThreadPoolExecutor boundedPool(int threads, int queueSize, 
+			final String threadName) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 
+				60, TimeUnit.SECONDS, 
+				queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) 
+						: new SynchronousQueue<Runnable>(), 
+				new ThreadFactory() {
+					private final AtomicInteger _count = new AtomicInteger();
+	
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, threadName 
+								+ _count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, 
+				new ThreadPoolExecutor.AbortPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Runs task for a suspended request and resumes the request with its 
+	 * result: a Response, an entity, or null for 204 (No Content). An 
+	 * exception thrown by task is passed to the JAX-RS runtime, as if it had 
+	 * been thrown by the resource method.
+	 */
+	public void submit(final AsyncResponse response, final Callable<?> task) {
+		// The context that JAX-RS injects into resources (the Request, 
+		// Providers and so on) is held per thread; carry it over to the 
+		// thread that runs task.
+		final Map<Class<?>, Object> context = 
+				new HashMap<Class<?>, Object>(ResteasyProviderFactory.getContextDataMap());
+		if(_timeoutMillis > 0) {
+			response.setTimeoutHandler(TIMEOUT_HANDLER);
+			response.setTimeout(_timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		try {
+			_executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(!response.isSuspended()) {
+						// Timed out or cancelled while queued.
+						return;
+					}
+					ResteasyProviderFactory.pushContextDataMap(context);
+					try {
+						response.resume(task.call());
+					} catch (Throwable t) {
+						response.resume(t);
+					} finally {
+						ResteasyProviderFactory.removeContextDataLevel();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER).build());
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package nz.ac.auckland.avatar.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, throughput and error metrics for the Web service, broken down by
+ * endpoint (resource class and method) and HTTP status. Requests are 
+ * recorded by RequestMetricsFeature and exposed by MetricsResource in the
+ * Prometheus text exposition format:
+ *
+ * - avatar_requests_total{endpoint,status}: requests completed;
+ * - avatar_request_errors_total{endpoint}: requests completed with a 5xx 
+ *   status;
+ * - avatar_request_latency_seconds{endpoint,quantile}: p50, p99 and p999 
+ *   latency, plus its _max, _sum and _count.
+ *
+ */
+public class RequestMetrics {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final ConcurrentMap<String, Endpoint> _endpoints;
+
+	public RequestMetrics() {
+		_endpoints = new ConcurrentHashMap<String, Endpoint>();
+	}
+
+	/**
+	 * Returns the metrics of the named endpoint, creating them if necessary.
+	 * Callers on a hot path should hold on to the result.
+	 */
+	public Endpoint endpoint(String name) {
+		Endpoint endpoint = _endpoints.get(name);
+		if(endpoint == null) {
+			Endpoint created = new Endpoint();
+			endpoint = _endpoints.putIfAbsent(name, created);
+			if(endpoint == null) {
+				endpoint = created;
+			}
+		}
+		return endpoint;
+	}
+
+	/**
+	 * Renders all metrics in the text exposition format, endpoints in name 
+	 * order.
+	 */
+	public String render() {
+		Map<String, Endpoint> endpoints = new TreeMap<String, Endpoint>(_endpoints);
+		Map<String, LatencyHistogram.Snapshot> latencies = 
+				new TreeMap<String, LatencyHistogram.Snapshot>();
+		for(Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			latencies.put(entry.getKey(), entry.getValue()._latency.snapshot());
+		}
+
+		StringBuilder out = new StringBuilder();
+		out.append("# TYPE avatar_requests_total counter\n");
+		for(Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			AtomicLongArray statuses = entry.getValue()._statuses;
+			for(int status = 0; status < statuses.length(); status++) {
+				long count = statuses.get(status);
+				if(count > 0) {
+					out.append("avatar_requests_total{endpoint=\"").append(entry.getKey())
+							.append("\",status=\"").append(status).append("\"} ")
+							.append(count).append('\n');
+				}
+			}
+		}
+
+		out.append("# TYPE avatar_request_errors_total counter\n");
+		for(Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			out.append("avatar_request_errors_total{endpoint=\"").append(entry.getKey())
+					.append("\"} ").append(entry.getValue().getErrors()).append('\n');
+		}
+
+		out.append("# TYPE avatar_request_latency_seconds summary\n");
+		for(Map.Entry<String, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+			String endpoint = entry.getKey();
+			LatencyHistogram.Snapshot latency = entry.getValue();
+			for(double quantile : QUANTILES) {
+				out.append("avatar_request_latency_seconds{endpoint=\"").append(endpoint)
+						.append("\",quantile=\"").append(quantile).append("\"} ")
+						.append(seconds(latency.getValueAt(quantile))).append('\n');
+			}
+			out.append("avatar_request_latency_seconds_sum{endpoint=\"").append(endpoint)
+					.append("\"} ").append(seconds(latency.getSum())).append('\n');
+			out.append("avatar_request_latency_seconds_count{endpoint=\"").append(endpoint)
+					.append("\"} ").append(latency.getCount()).append('\n');
+		}
+
+		out.append("# TYPE avatar_request_latency_seconds_max gauge\n");
+		for(Map.Entry<String, LatencyHistogram.Snapshot> entry : latencies.entrySet()) {
+			out.append("avatar_request_latency_seconds_max{endpoint=\"").append(entry.getKey())
+					.append("\"} ").append(seconds(entry.getValue().getMax())).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / NANOS_PER_SECOND);
+	}
+
+	/**
+	 * Metrics of one endpoint. Recording is lock-free.
+	 */
+	public static final class Endpoint {
+		// Statuses outside 100-599 are counted as 500.
+		private static final int MAX_STATUS = 599;
+
+		private final LatencyHistogram _latency;
+		private final AtomicLongArray _statuses;
+
+		Endpoint() {
+			_latency = new LatencyHistogram();
+			_statuses = new AtomicLongArray(MAX_STATUS + 1);
+		}
+
+		public void record(int status, long latencyNanos) {
+			if(status < 100 || status > MAX_STATUS) {
+				status = 500;
+			}
+			_statuses.incrementAndGet(status);
+			_latency.record(latencyNanos);
+		}
+
+		public long getRequests(int status) {
+			return status < 0 || status > MAX_STATUS ? 0 : _statuses.get(status);
+		}
+
+		public long getErrors() {
+			long errors = 0;
+			for(int status = 500; status <= MAX_STATUS; status++) {
+				errors += _statuses.get(status);
+			}
+			return errors;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * Iterator over the Avatars held in an AvatarStore, in ascending id order.
+ * Avatars are fetched from the store a chunk at a time, so at most one chunk
+ * is held in memory regardless of the size of the store.
+ *
+ */
+public class AvatarCursor implements Iterator<Avatar> {
+	private final AvatarStore _store;
+	private final int _chunkSize;
+	private long _afterId;
+	private Iterator<Avatar> _chunk;
+	private boolean _exhausted;
+
+	/**
+	 * Creates an AvatarCursor.
+	 * @param store the store to iterate over.
+	 * @param afterId only Avatars with ids greater than this are returned.
+	 * @param chunkSize the number of Avatars to fetch from the store at once.
+	 */
+	public AvatarCursor(AvatarStore store, long afterId, int chunkSize) {
+		_store = store;
+		_afterId = afterId;
+		_chunkSize = chunkSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(_chunk != null && _chunk.hasNext()) {
+			return true;
+		}
+		if(_exhausted) {
+			return false;
+		}
+		List<Avatar> chunk = _store.getAvatars(_afterId, _chunkSize);
+		_exhausted = chunk.size() < _chunkSize;
+		_chunk = chunk.iterator();
+		return _chunk.hasNext();
+	}
+
+	@Override
+	public Avatar next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Avatar avatar = _chunk.next();
+		_afterId = avatar.getId();
+		return avatar;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
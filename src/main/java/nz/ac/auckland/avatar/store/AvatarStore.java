@@ -0,0 +1,116 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Collection;
+import java.util.List;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Quest;
+
+/**
+ * Storage abstraction for domain-model Avatars. The Avatar Web service reads 
+ * and writes Avatars exclusively through an AvatarStore, so that the 
+ * in-memory and database-backed implementations are interchangeable.
+ * 
+ * Avatars returned by a store may be mutated by the caller; a mutated Avatar
+ * must be passed back to updateAvatar() for the change to be made durable.
+ * 
+ * A store also holds the Quests that Avatars can be on. Quests are few and
+ * change rarely, so they're written through directly rather than batched.
+ *
+ */
+public interface AvatarStore {
+
+	/**
+	 * Allocates a new, unique Avatar id.
+	 */
+	long nextId();
+
+	/**
+	 * Allocates count consecutive Avatar ids, and returns the first of them.
+	 */
+	long nextIds(int count);
+
+	/**
+	 * Stores a new Avatar. The Avatar's id must already have been allocated
+	 * with nextId().
+	 */
+	void createAvatar(Avatar avatar);
+
+	/**
+	 * Stores several new Avatars in one operation. The Avatars' ids must 
+	 * already have been allocated.
+	 */
+	void createAvatars(Collection<Avatar> avatars);
+
+	/**
+	 * Returns the Avatar with the given id, or null if there is no such 
+	 * Avatar.
+	 */
+	Avatar findAvatar(long id);
+
+	/**
+	 * Returns all stored Avatars.
+	 */
+	Collection<Avatar> getAvatars();
+
+	/**
+	 * Returns up to limit Avatars whose ids are greater than afterId, in
+	 * ascending id order. Passing the id of the last Avatar returned as the
+	 * next afterId pages through the store.
+	 */
+	List<Avatar> getAvatars(long afterId, int limit);
+
+	/**
+	 * Records changes made to a previously created Avatar.
+	 */
+	void updateAvatar(Avatar avatar);
+
+	/**
+	 * Records changes made to several previously created Avatars in one 
+	 * operation.
+	 */
+	void updateAvatars(Collection<Avatar> avatars);
+
+	/**
+	 * Stores a new Quest, assigning it an id.
+	 */
+	void createQuest(Quest quest);
+
+	/**
+	 * Returns the Quest with the given id, or null if there is no such 
+	 * Quest.
+	 */
+	Quest findQuest(long id);
+
+	/**
+	 * Returns all stored Quests, in ascending id order.
+	 */
+	List<Quest> getQuests();
+
+	/**
+	 * Records changes made to a previously created Quest.
+	 */
+	void updateQuest(Quest quest);
+
+	/**
+	 * Removes a Quest. Avatars on the Quest should first be taken off it, 
+	 * with updateAvatar().
+	 * @return false if there was no such Quest.
+	 */
+	boolean deleteQuest(long id);
+
+	/**
+	 * Removes all Avatars and Quests, and resets the Avatar id allocator.
+	 */
+	void clear();
+
+	/**
+	 * Returns the number of stored Avatars.
+	 */
+	int size();
+
+	/**
+	 * Releases any resources held by the store.
+	 */
+	void close();
+}
@@ -0,0 +1,16 @@
+package nz.ac.auckland.avatar.store;
+
+/**
+ * Creates the AvatarStore for a new database epoch. The Avatar Web service 
+ * asks its factory for a store at startup and again each time the database 
+ * is reloaded.
+ *
+ */
+public interface AvatarStoreFactory {
+
+	/**
+	 * Returns an AvatarStore for a new epoch. The store may be a new, empty 
+	 * instance or, for a persistent store, hold Avatars from an earlier run.
+	 */
+	AvatarStore createStore();
+}
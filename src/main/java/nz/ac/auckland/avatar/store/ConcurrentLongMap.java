@@ -0,0 +1,322 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from primitive long keys to non-null values, for holding millions of
+ * entries without boxing keys or allocating a node per entry.
+ *
+ * Entries are held in an open-addressing table (linear probing) of a long[]
+ * of keys alongside an array of values. Lookups are lock-free and allocate
+ * nothing; a slot's value is written after its key, so a reader that sees
+ * the value also sees the key. Writes are serialised and, because entries
+ * are never removed individually, a slot's key never changes once it's in
+ * use. When the table fills, the writer rehashes into a larger table and
+ * publishes it; readers still holding the old table see a consistent, if
+ * slightly stale, map.
+ *
+ * A single writer keeps resizing and the sorted keys simple, and a write 
+ * is O(1) amortised, so the monitor is held briefly. Re-putting the value 
+ * already held for a key, as updates of an Avatar in place do, returns 
+ * without taking it. Stores that need writes to scale with threads hold
+ * several maps (see ShardedAvatarStore).
+ *
+ * Keys are also kept in ascending order, for paging through the map with
+ * valuesAfter(), by the writer: a key greater than every sorted key (the
+ * usual case, as ids are allocated in ascending order) is appended to a
+ * sorted long[], beyond the end readers can see; any other key is added to
+ * a navigable overflow set. Once the overflow set holds more than a quarter
+ * as many keys as the array, the writer merges it into a new array, so the
+ * cost of merging is amortised over the writes. Ordered reads merge the
+ * array with the overflow set as they go, and never copy either.
+ *
+ */
+final class ConcurrentLongMap<V> {
+	private static final int MIN_CAPACITY = 16;
+
+	// The table is grown once it's more than 3/4 full.
+	private static final int LOAD_FACTOR_PERCENT = 75;
+
+	private volatile Table<V> _table;
+	private volatile int _size;
+
+	private volatile SortedKeys _sorted;
+
+	ConcurrentLongMap() {
+		_table = new Table<V>(MIN_CAPACITY);
+		_sorted = new SortedKeys();
+	}
+
+	V get(long key) {
+		return _table.get(key);
+	}
+
+	/**
+	 * Associates value with key, returning the previous value or null if
+	 * there was none.
+	 */
+	V put(long key, V value) {
+		if(value == null) {
+			throw new NullPointerException("Null values aren't supported");
+		}
+		if(_table.get(key) == value) {
+			return value;
+		}
+		synchronized(this) {
+			return putLocked(key, value);
+		}
+	}
+
+	private V putLocked(long key, V value) {
+		Table<V> table = _table;
+		int slot = table.slotOf(key);
+		V previous = table._values.get(slot);
+		if(previous != null) {
+			table._values.set(slot, value);
+			return previous;
+		}
+
+		if((long) (_size + 1) * 100 > (long) table.capacity() * LOAD_FACTOR_PERCENT) {
+			table = table.resize(table.capacity() * 2);
+			_table = table;
+			slot = table.slotOf(key);
+		}
+		table._keys[slot] = key;
+		table._values.set(slot, value);
+		_sorted = _sorted.add(key);
+		_size++;
+		return null;
+	}
+
+	synchronized void clear() {
+		_table = new Table<V>(MIN_CAPACITY);
+		_sorted = new SortedKeys();
+		_size = 0;
+	}
+
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns, in ascending key order, the values of up to limit entries
+	 * whose keys are greater than afterKey.
+	 */
+	List<V> valuesAfter(long afterKey, int limit) {
+		ValueIterator values = new ValueIterator(afterKey);
+		List<V> page = new ArrayList<V>(Math.min(limit, values.remaining()));
+		while(page.size() < limit && values.hasNext()) {
+			page.add(values.next());
+		}
+		return page;
+	}
+
+	/**
+	 * Returns a view of the values of all entries, in ascending key order.
+	 * Nothing is copied: each iterator reads the entries as it goes, and is
+	 * weakly consistent with concurrent writes.
+	 */
+	Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator(Long.MIN_VALUE);
+			}
+
+			@Override
+			public int size() {
+				return _size;
+			}
+		};
+	}
+
+	static int hash(long key) {
+		// Murmur3's 64 bit finaliser.
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb93fe53ec5c1L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/**
+	 * Iterates, in ascending key order, over the values of the entries whose
+	 * keys are greater than a given key, merging the sorted keys' array and
+	 * overflow set. Values are read from the current table, so an iterator
+	 * sees values replaced after it was created.
+	 */
+	private final class ValueIterator implements Iterator<V> {
+		private final SortedKeys _keys;
+		private final Iterator<Long> _overflow;
+		private int _index;
+		private Long _nextOverflow;
+		private V _next;
+
+		ValueIterator(long afterKey) {
+			_keys = _sorted;
+			int i = Arrays.binarySearch(_keys._keys, 0, _keys._count, afterKey);
+			_index = i < 0 ? -(i + 1) : i + 1;
+			_overflow = _keys._overflow.tailSet(afterKey, false).iterator();
+			_nextOverflow = _overflow.hasNext() ? _overflow.next() : null;
+		}
+
+		/**
+		 * Returns an upper bound on the number of values left.
+		 */
+		int remaining() {
+			return _keys._count - _index + _keys._overflowCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(_next == null) {
+				long key;
+				if(_nextOverflow != null 
+						&& (_index == _keys._count || _nextOverflow < _keys._keys[_index])) {
+					key = _nextOverflow;
+					_nextOverflow = _overflow.hasNext() ? _overflow.next() : null;
+				} else if(_index < _keys._count) {
+					key = _keys._keys[_index++];
+				} else {
+					return false;
+				}
+				_next = _table.get(key);
+			}
+			return true;
+		}
+
+		@Override
+		public V next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			V value = _next;
+			_next = null;
+			return value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static final class Table<V> {
+		private final long[] _keys;
+		private final AtomicReferenceArray<V> _values;
+		private final int _mask;
+
+		Table(int capacity) {
+			_keys = new long[capacity];
+			_values = new AtomicReferenceArray<V>(capacity);
+			_mask = capacity - 1;
+		}
+
+		int capacity() {
+			return _keys.length;
+		}
+
+		V get(long key) {
+			for(int slot = hash(key) & _mask; ; slot = (slot + 1) & _mask) {
+				V value = _values.get(slot);
+				if(value == null || _keys[slot] == key) {
+					return value;
+				}
+			}
+		}
+
+		/**
+		 * Returns the slot holding key, or the empty slot where it belongs.
+		 */
+		int slotOf(long key) {
+			for(int slot = hash(key) & _mask; ; slot = (slot + 1) & _mask) {
+				if(_values.get(slot) == null || _keys[slot] == key) {
+					return slot;
+				}
+			}
+		}
+
+		Table<V> resize(int capacity) {
+			Table<V> resized = new Table<V>(capacity);
+			for(int i = 0; i < _keys.length; i++) {
+				V value = _values.get(i);
+				if(value != null) {
+					int slot = resized.slotOf(_keys[i]);
+					resized._keys[slot] = _keys[i];
+					resized._values.lazySet(slot, value);
+				}
+			}
+			return resized;
+		}
+	}
+
+	/**
+	 * The keys inserted, in ascending order: the first _count keys of _keys,
+	 * and those in _overflow. An add may write to the array shared with
+	 * earlier instances, but only beyond their _count, and to the overflow
+	 * set, which readers of earlier instances may see early; either way 
+	 * values are read from the table, which the key was added to first.
+	 */
+	private static final class SortedKeys {
+		private final long[] _keys;
+		private final int _count;
+		private final NavigableSet<Long> _overflow;
+		private final int _overflowCount;
+
+		SortedKeys() {
+			this(new long[MIN_CAPACITY], 0, new ConcurrentSkipListSet<Long>(), 0);
+		}
+
+		SortedKeys(long[] keys, int count, NavigableSet<Long> overflow, int overflowCount) {
+			_keys = keys;
+			_count = count;
+			_overflow = overflow;
+			_overflowCount = overflowCount;
+		}
+
+		/**
+		 * Returns the keys with key, which isn't among them, added.
+		 */
+		SortedKeys add(long key) {
+			if(_count > 0 && key < _keys[_count - 1]) {
+				_overflow.add(key);
+				if(_overflowCount + 1 > Math.max(MIN_CAPACITY, _count / 4)) {
+					return merge();
+				}
+				return new SortedKeys(_keys, _count, _overflow, _overflowCount + 1);
+			}
+			long[] keys = _keys;
+			if(_count == keys.length) {
+				keys = Arrays.copyOf(keys, keys.length * 2);
+			}
+			keys[_count] = key;
+			return new SortedKeys(keys, _count + 1, _overflow, _overflowCount);
+		}
+
+		private SortedKeys merge() {
+			long[] merged = new long[(_count + _overflowCount + 1) * 2];
+			Iterator<Long> overflow = _overflow.iterator();
+			Long next = overflow.hasNext() ? overflow.next() : null;
+			int i = 0, k = 0;
+			while(i < _count || next != null) {
+				if(next != null && (i == _count || next < _keys[i])) {
+					merged[k++] = next;
+					next = overflow.hasNext() ? overflow.next() : null;
+				} else {
+					merged[k++] = _keys[i++];
+				}
+			}
+			return new SortedKeys(merged, k, new ConcurrentSkipListSet<Long>(), 0);
+		}
+	}
+}
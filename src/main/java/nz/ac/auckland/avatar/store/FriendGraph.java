@@ -0,0 +1,416 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+
+/**
+ * The friend graph of the Avatars in a store, held as a sorted array of
+ * friend ids per Avatar. Friendship is directed, as it is in Avatar: an
+ * Avatar's friends are those it lists.
+ *
+ * Each Avatar's friends are replaced as a whole whenever the Avatar is
+ * indexed, so queries are lock-free and see each Avatar's friends either
+ * before or after an update. Friends are held in a map per index stripe 
+ * (see IndexedAvatarStore), so that Avatars in different stripes are 
+ * updated without sharing a map's writer lock. Traversals that reach more than
+ * PARALLEL_THRESHOLD Avatars at one step expand them in parallel.
+ *
+ */
+public class FriendGraph {
+	/**
+	 * The greatest depth that friendsOfFriends() will search to.
+	 */
+	public static final int MAX_DEPTH = 4;
+
+	/**
+	 * The number of Avatars that friendsOfFriends() may reach before it stops
+	 * expanding further distances.
+	 */
+	public static final int MAX_REACHED = 100000;
+
+	// Number of Avatars above which a step of a traversal is split across
+	// threads, and the number each thread expands at a time.
+	static final int PARALLEL_THRESHOLD = 1024;
+	private static final int CHUNK_SIZE = 512;
+
+	private static final long[] NO_FRIENDS = new long[0];
+
+	private static final ExecutorService TRAVERSAL_POOL = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger _count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "friend-graph-"
+							+ _count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final ConcurrentLongMap<long[]>[] _friends;
+
+	@SuppressWarnings("unchecked")
+	FriendGraph(int stripes) {
+		_friends = new ConcurrentLongMap[stripes];
+		for(int i = 0; i < stripes; i++) {
+			_friends[i] = new ConcurrentLongMap<long[]>();
+		}
+	}
+
+	/**
+	 * Returns the ids of the Avatar's friends, in ascending order.
+	 */
+	public long[] friendsOf(long id) {
+		long[] friends = friendsMap(id).get(id);
+		return friends == null ? NO_FRIENDS : friends.clone();
+	}
+
+	/**
+	 * Returns the ids of the Avatars that are friends of both a and b, in
+	 * ascending order.
+	 */
+	public long[] mutualFriends(long a, long b) {
+		long[] friendsOfA = friends(a);
+		long[] friendsOfB = friends(b);
+		long[] mutual = new long[Math.min(friendsOfA.length, friendsOfB.length)];
+		int count = 0;
+		for(int i = 0, j = 0; i < friendsOfA.length && j < friendsOfB.length; ) {
+			if(friendsOfA[i] < friendsOfB[j]) {
+				i++;
+			} else if(friendsOfA[i] > friendsOfB[j]) {
+				j++;
+			} else {
+				mutual[count++] = friendsOfA[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(mutual, count);
+	}
+
+	/**
+	 * Returns the ids of the Avatars reachable from id through more than one
+	 * and at most depth friendships, nearest first and in ascending order
+	 * within each distance. The Avatar itself and its friends are excluded.
+	 * @throws IllegalArgumentException if depth isn't between 1 and
+	 * MAX_DEPTH.
+	 */
+	public long[] friendsOfFriends(long id, int depth) {
+		return friendsOfFriends(id, depth, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a page of friendsOfFriends(id, depth): up to limit ids, starting
+	 * after afterId, or from the first if afterId is 0. If afterId isn't 
+	 * among them the page is empty. Distances beyond the one that fills the
+	 * page aren't expanded, nor are any once MAX_REACHED Avatars have been
+	 * reached.
+	 * @throws IllegalArgumentException if depth isn't between 1 and
+	 * MAX_DEPTH.
+	 */
+	public long[] friendsOfFriends(long id, int depth, long afterId, int limit) {
+		if(depth < 1 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("Depth must be between 1 and " + MAX_DEPTH);
+		}
+		LongIntMap visited = new LongIntMap();
+		visited.add(id, 1);
+		long[] frontier = friends(id);
+		for(long friend : frontier) {
+			visited.add(friend, 1);
+		}
+
+		boolean started = afterId == 0;
+		List<long[]> page = new ArrayList<long[]>();
+		int count = 0;
+		for(int distance = 2; distance <= depth && frontier.length > 0 && count < limit
+				&& visited.size() <= MAX_REACHED; distance++) {
+			LongIntMap reached = expand(frontier, false);
+			long[] next = new long[reached.size()];
+			int reachedCount = 0;
+			for(long candidate : reached.keys()) {
+				if(visited.add(candidate, 1) == 1) {
+					next[reachedCount++] = candidate;
+				}
+			}
+			frontier = Arrays.copyOf(next, reachedCount);
+			Arrays.sort(frontier);
+
+			int from = 0;
+			if(!started) {
+				int after = Arrays.binarySearch(frontier, afterId);
+				if(after < 0) {
+					continue;
+				}
+				started = true;
+				from = after + 1;
+			}
+			int to = (int) Math.min(frontier.length, (long) from + limit - count);
+			page.add(Arrays.copyOfRange(frontier, from, to));
+			count += to - from;
+		}
+		return concat(page);
+	}
+
+	/**
+	 * Returns up to limit suggested friends for an Avatar: the friends of its
+	 * friends who aren't already its friends, ranked by the number of
+	 * friends they have in common with it, and then by id.
+	 */
+	public long[] suggestFriends(long id, int limit) {
+		long[] friends = friends(id);
+		LongIntMap mutualCounts = expand(friends, true);
+
+		long[] candidates = new long[mutualCounts.size()];
+		int count = 0;
+		for(long candidate : mutualCounts.keys()) {
+			if(candidate != id && Arrays.binarySearch(friends, candidate) < 0) {
+				candidates[count++] = candidate;
+			}
+		}
+
+		// Most mutual friends first, then ascending id.
+		Long[] ranked = new Long[count];
+		for(int i = 0; i < count; i++) {
+			ranked[i] = candidates[i];
+		}
+		final LongIntMap counts = mutualCounts;
+		Arrays.sort(ranked, new Comparator<Long>() {
+			@Override
+			public int compare(Long a, Long b) {
+				int byCount = counts.get(b) - counts.get(a);
+				return byCount != 0 ? byCount : a.compareTo(b);
+			}
+		});
+		long[] suggestions = new long[Math.min(limit, count)];
+		for(int i = 0; i < suggestions.length; i++) {
+			suggestions[i] = ranked[i];
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Records the Avatar's current friends.
+	 */
+	void update(Avatar avatar) {
+		Collection<Avatar> friends = avatar.getFriends();
+		long[] ids = new long[friends.size()];
+		int count = 0;
+		for(Avatar friend : friends) {
+			ids[count++] = friend.getId();
+		}
+		Arrays.sort(ids);
+
+		ConcurrentLongMap<long[]> map = friendsMap(avatar.getId());
+		long[] current = map.get(avatar.getId());
+		if(current == null ? ids.length > 0 : !Arrays.equals(current, ids)) {
+			map.put(avatar.getId(), ids);
+		}
+	}
+
+	void clear() {
+		for(ConcurrentLongMap<long[]> map : _friends) {
+			map.clear();
+		}
+	}
+
+	/**
+	 * Returns the map holding the friends of the Avatar with the given id:
+	 * that of the Avatar's index stripe.
+	 */
+	private ConcurrentLongMap<long[]> friendsMap(long id) {
+		return _friends[(int) ((id & Long.MAX_VALUE) % _friends.length)];
+	}
+
+	private long[] friends(long id) {
+		long[] friends = friendsMap(id).get(id);
+		return friends == null ? NO_FRIENDS : friends;
+	}
+
+	/**
+	 * Returns the friends of the given Avatars, each with the number of the
+	 * Avatars it's a friend of if count is true, or 1 otherwise.
+	 */
+	private LongIntMap expand(long[] ids, boolean count) {
+		if(ids.length <= PARALLEL_THRESHOLD) {
+			return expand(ids, 0, ids.length, count);
+		}
+
+		List<Future<LongIntMap>> parts = new ArrayList<Future<LongIntMap>>();
+		for(int from = 0; from < ids.length; from += CHUNK_SIZE) {
+			parts.add(TRAVERSAL_POOL.submit(
+					new Expansion(ids, from, Math.min(ids.length, from + CHUNK_SIZE), count)));
+		}
+		LongIntMap merged = new LongIntMap();
+		try {
+			for(Future<LongIntMap> part : parts) {
+				LongIntMap reached = part.get();
+				for(long key : reached.keys()) {
+					if(count) {
+						merged.add(key, reached.get(key));
+					} else {
+						merged.put(key, 1);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while traversing friends", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to traverse friends", e.getCause());
+		}
+		return merged;
+	}
+
+	private LongIntMap expand(long[] ids, int from, int to, boolean count) {
+		LongIntMap reached = new LongIntMap();
+		for(int i = from; i < to; i++) {
+			for(long friend : friends(ids[i])) {
+				if(count) {
+					reached.add(friend, 1);
+				} else {
+					reached.put(friend, 1);
+				}
+			}
+		}
+		return reached;
+	}
+
+	private static long[] concat(List<long[]> arrays) {
+		int length = 0;
+		for(long[] array : arrays) {
+			length += array.length;
+		}
+		long[] result = new long[length];
+		int offset = 0;
+		for(long[] array : arrays) {
+			System.arraycopy(array, 0, result, offset, array.length);
+			offset += array.length;
+		}
+		return result;
+	}
+
+	private class Expansion implements Callable<LongIntMap> {
+		private final long[] _ids;
+		private final int _from;
+		private final int _to;
+		private final boolean _count;
+
+		Expansion(long[] ids, int from, int to, boolean count) {
+			_ids = ids;
+			_from = from;
+			_to = to;
+			_count = count;
+		}
+
+		@Override
+		public LongIntMap call() {
+			return expand(_ids, _from, _to, _count);
+		}
+	}
+
+	/**
+	 * Map from long to int for the working state of a single traversal;
+	 * open addressing with linear probing, absent keys map to 0.
+	 */
+	static final class LongIntMap {
+		private long[] _keys;
+		private int[] _values;
+		private int _size;
+
+		LongIntMap() {
+			_keys = new long[16];
+			_values = new int[16];
+		}
+
+		int size() {
+			return _size;
+		}
+
+		int get(long key) {
+			int mask = _keys.length - 1;
+			for(int slot = ConcurrentLongMap.hash(key) & mask; _values[slot] != 0; slot = (slot + 1) & mask) {
+				if(_keys[slot] == key) {
+					return _values[slot];
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Adds delta (which must be positive) to key's value, and returns the
+		 * new value.
+		 */
+		int add(long key, int delta) {
+			int slot = slotOf(key);
+			if(_values[slot] != 0) {
+				return _values[slot] += delta;
+			}
+			insert(slot, key, delta);
+			return delta;
+		}
+
+		void put(long key, int value) {
+			int slot = slotOf(key);
+			if(_values[slot] != 0) {
+				_values[slot] = value;
+			} else {
+				insert(slot, key, value);
+			}
+		}
+
+		long[] keys() {
+			long[] keys = new long[_size];
+			int count = 0;
+			for(int i = 0; i < _keys.length; i++) {
+				if(_values[i] != 0) {
+					keys[count++] = _keys[i];
+				}
+			}
+			return keys;
+		}
+
+		private int slotOf(long key) {
+			int mask = _keys.length - 1;
+			int slot = ConcurrentLongMap.hash(key) & mask;
+			while(_values[slot] != 0 && _keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void insert(int slot, long key, int value) {
+			_keys[slot] = key;
+			_values[slot] = value;
+			if(++_size * 2 > _keys.length) {
+				grow();
+			}
+		}
+
+		private void grow() {
+			long[] keys = _keys;
+			int[] values = _values;
+			_keys = new long[keys.length * 2];
+			_values = new int[keys.length * 2];
+			for(int i = 0; i < keys.length; i++) {
+				if(values[i] != 0) {
+					int slot = slotOf(keys[i]);
+					_keys[slot] = keys[i];
+					_values[slot] = values[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Lazy set operations on iterators over ascending Avatar ids, such as those
+ * returned by IndexedAvatarStore's queries. Ids are read from the underlying
+ * iterators only as the result is iterated, so taking the first n ids of a
+ * union or intersection reads no further than the nth.
+ *
+ */
+public final class IdIterators {
+
+	private IdIterators() {
+	}
+
+	/**
+	 * Returns an iterator over no ids.
+	 */
+	public static Iterator<Long> empty() {
+		return Collections.<Long>emptyList().iterator();
+	}
+
+	/**
+	 * Returns the ascending, distinct ids returned by any of the given
+	 * iterators. The iterators are taken from iterators, and each read for
+	 * its first id, when the union's first id is asked for: the smallest id
+	 * can't be known before then. So the first id of a union of k iterators
+	 * costs k reads, and each id after it O(log k).
+	 */
+	public static Iterator<Long> union(final Iterable<Iterator<Long>> iterators) {
+		return new LazyIterator() {
+			private PriorityQueue<PeekingIterator> _heads;
+
+			@Override
+			protected Long computeNext() {
+				if(_heads == null) {
+					_heads = new PriorityQueue<PeekingIterator>(11, PeekingIterator.BY_HEAD);
+					for(Iterator<Long> ids : iterators) {
+						if(ids.hasNext()) {
+							_heads.add(new PeekingIterator(ids));
+						}
+					}
+				}
+				PriorityQueue<PeekingIterator> heads = _heads;
+				if(heads.isEmpty()) {
+					return null;
+				}
+				long id = heads.peek()._head;
+				// Advance every iterator at this id, so that it's returned once.
+				while(!heads.isEmpty() && heads.peek()._head == id) {
+					PeekingIterator ids = heads.poll();
+					if(ids.advance()) {
+						heads.add(ids);
+					}
+				}
+				return id;
+			}
+		};
+	}
+
+	/**
+	 * Returns the ascending ids returned by both of the given iterators.
+	 */
+	public static Iterator<Long> intersection(final Iterator<Long> a, final Iterator<Long> b) {
+		return new LazyIterator() {
+			@Override
+			protected Long computeNext() {
+				if(!a.hasNext() || !b.hasNext()) {
+					return null;
+				}
+				long idA = a.next();
+				long idB = b.next();
+				while(idA != idB) {
+					if(idA < idB) {
+						if(!a.hasNext()) {
+							return null;
+						}
+						idA = a.next();
+					} else {
+						if(!b.hasNext()) {
+							return null;
+						}
+						idB = b.next();
+					}
+				}
+				return idA;
+			}
+		};
+	}
+
+	/**
+	 * Iterator whose next id is computed when it's asked for.
+	 */
+	private abstract static class LazyIterator implements Iterator<Long> {
+		private Long _next;
+
+		/**
+		 * Returns the next id, or null if there are no more.
+		 */
+		protected abstract Long computeNext();
+
+		@Override
+		public boolean hasNext() {
+			if(_next == null) {
+				_next = computeNext();
+			}
+			return _next != null;
+		}
+
+		@Override
+		public Long next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Long id = _next;
+			_next = null;
+			return id;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * An iterator together with the id it last returned.
+	 */
+	private static class PeekingIterator {
+		static final Comparator<PeekingIterator> BY_HEAD = new Comparator<PeekingIterator>() {
+			@Override
+			public int compare(PeekingIterator a, PeekingIterator b) {
+				return a._head < b._head ? -1 : (a._head == b._head ? 0 : 1);
+			}
+		};
+
+		private final Iterator<Long> _ids;
+		private long _head;
+
+		PeekingIterator(Iterator<Long> ids) {
+			_ids = ids;
+			_head = ids.next();
+		}
+
+		boolean advance() {
+			if(!_ids.hasNext()) {
+				return false;
+			}
+			_head = _ids.next();
+			return true;
+		}
+	}
+}
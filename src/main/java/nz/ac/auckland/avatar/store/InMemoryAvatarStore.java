@@ -0,0 +1,138 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Quest;
+
+/**
+ * AvatarStore implementation that holds Avatars in memory. Data held by an
+ * InMemoryAvatarStore does not survive a restart.
+ *
+ * Avatars are held in a ConcurrentLongMap keyed by id, so that lookups 
+ * neither box the id nor, with millions of Avatars, pay for a node and a
+ * Long per Avatar.
+ *
+ */
+public class InMemoryAvatarStore implements AvatarStore {
+	/**
+	 * Factory that creates a new, empty InMemoryAvatarStore for each epoch.
+	 */
+	public static final AvatarStoreFactory FACTORY = new AvatarStoreFactory() {
+		@Override
+		public AvatarStore createStore() {
+			return new InMemoryAvatarStore();
+		}
+	};
+
+	private final ConcurrentLongMap<Avatar> _avatars;
+	private final AtomicLong _idCounter;
+	private final ConcurrentNavigableMap<Long, Quest> _quests;
+	private final AtomicLong _questIdCounter;
+
+	public InMemoryAvatarStore() {
+		_avatars = new ConcurrentLongMap<Avatar>();
+		_idCounter = new AtomicLong();
+		_quests = new ConcurrentSkipListMap<Long, Quest>();
+		_questIdCounter = new AtomicLong();
+	}
+
+	@Override
+	public long nextId() {
+		return _idCounter.incrementAndGet();
+	}
+
+	@Override
+	public long nextIds(int count) {
+		return _idCounter.addAndGet(count) - count + 1;
+	}
+
+	@Override
+	public void createAvatar(Avatar avatar) {
+		_avatars.put(avatar.getId(), avatar);
+	}
+
+	@Override
+	public void createAvatars(Collection<Avatar> avatars) {
+		for(Avatar avatar : avatars) {
+			_avatars.put(avatar.getId(), avatar);
+		}
+	}
+
+	@Override
+	public Avatar findAvatar(long id) {
+		return _avatars.get(id);
+	}
+
+	@Override
+	public Collection<Avatar> getAvatars() {
+		return Collections.unmodifiableCollection(_avatars.values());
+	}
+
+	@Override
+	public List<Avatar> getAvatars(long afterId, int limit) {
+		return _avatars.valuesAfter(afterId, limit);
+	}
+
+	@Override
+	public void updateAvatar(Avatar avatar) {
+		// Avatars are held by reference, so the change has already been
+		// applied. Re-put in case the caller holds a different instance.
+		_avatars.put(avatar.getId(), avatar);
+	}
+
+	@Override
+	public void updateAvatars(Collection<Avatar> avatars) {
+		createAvatars(avatars);
+	}
+
+	@Override
+	public void createQuest(Quest quest) {
+		quest.setId(_questIdCounter.incrementAndGet());
+		_quests.put(quest.getId(), quest);
+	}
+
+	@Override
+	public Quest findQuest(long id) {
+		return _quests.get(id);
+	}
+
+	@Override
+	public List<Quest> getQuests() {
+		return new ArrayList<Quest>(_quests.values());
+	}
+
+	@Override
+	public void updateQuest(Quest quest) {
+		_quests.put(quest.getId(), quest);
+	}
+
+	@Override
+	public boolean deleteQuest(long id) {
+		return _quests.remove(id) != null;
+	}
+
+	@Override
+	public void clear() {
+		_avatars.clear();
+		_idCounter.set(0);
+		_quests.clear();
+		_questIdCounter.set(0);
+	}
+
+	@Override
+	public int size() {
+		return _avatars.size();
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release.
+	}
+}
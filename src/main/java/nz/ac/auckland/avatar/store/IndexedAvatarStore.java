@@ -0,0 +1,527 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.joda.time.LocalDate;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Quest;
+
+/**
+ * AvatarStore decorator that maintains secondary indexes over the Avatars
+ * held in another store. Because every create and update passes through the
+ * store, the indexes are always in step with the stored Avatars.
+ *
+ * The following indexes are maintained:
+ * - Username: sorted, supporting exact and prefix match in O(log n);
+ * - Category: inverted index from Category to Avatar ids, O(1) lookup;
+ * - Date of birth: sorted, supporting range queries in O(log n);
+ * - Friends: the FriendGraph, of each Avatar's friend ids;
+ * - Quests: the QuestIndex, of the Avatars on and achievements unlocked in
+ *   each Quest;
+ * - Achievements: the Leaderboard, ranking Avatars by their number of
+ *   achievements.
+ *
+ * Queries return lazy iterators over ascending Avatar ids, read from the
+ * live indexes as they're iterated, so that a page of results costs no more
+ * than the page itself; combine them with IdIterators. The exception is the
+ * first id of a prefix or date-of-birth query, which merges the ids of each
+ * matching username or date: it costs O(k log n) for k of them. Queries are
+ * lock-free and weakly consistent with concurrent updates.
+ *
+ * Each Avatar is indexed under one of a number of striped locks, chosen by
+ * id, and the indexes themselves take concurrent updates, so Avatars in 
+ * different stripes are indexed in parallel. The number of stripes is a
+ * multiple of the number of shards of a ShardedAvatarStore, so that writes
+ * to different shards never share a stripe; a sharded store's Avatars, and
+ * large batches of them, are indexed with a task per shard.
+ *
+ */
+public class IndexedAvatarStore implements AvatarStore {
+	// The least number of index stripes.
+	private static final int MIN_STRIPES = 64;
+
+	private final AvatarStore _store;
+	private final ShardedAvatarStore _sharded;
+	private final ReentrantLock[] _stripes;
+
+	private final ConcurrentNavigableMap<String, NavigableSet<Long>> _byUsername;
+	private final Map<Category, NavigableSet<Long>> _byCategory;
+	private final ConcurrentNavigableMap<LocalDate, NavigableSet<Long>> _byDateOfBirth;
+	private final FriendGraph _friendGraph;
+	private final QuestIndex _questIndex;
+	private final Leaderboard _leaderboard;
+
+	// The keys under which each Avatar is currently indexed, so that stale
+	// entries can be removed when an Avatar is updated.
+	private final Map<Long, IndexKeys> _indexed;
+
+	// Indexes the Avatars of one shard.
+	private final ShardedAvatarStore.ShardTask<Void> _indexShard = 
+			new ShardedAvatarStore.ShardTask<Void>() {
+		@Override
+		public Void run(Collection<Avatar> avatars) {
+			for(Avatar avatar : avatars) {
+				index(avatar);
+			}
+			return null;
+		}
+	};
+
+	public IndexedAvatarStore(AvatarStore store) {
+		_store = store;
+		_sharded = store instanceof ShardedAvatarStore ? (ShardedAvatarStore) store : null;
+		int shards = _sharded != null ? _sharded.getShards() : 1;
+		_stripes = new ReentrantLock[(MIN_STRIPES + shards - 1) / shards * shards];
+		for(int i = 0; i < _stripes.length; i++) {
+			_stripes[i] = new ReentrantLock();
+		}
+		_byUsername = new ConcurrentSkipListMap<String, NavigableSet<Long>>();
+		_byCategory = new EnumMap<Category, NavigableSet<Long>>(Category.class);
+		for(Category category : Category.values()) {
+			_byCategory.put(category, new ConcurrentSkipListSet<Long>());
+		}
+		_byDateOfBirth = new ConcurrentSkipListMap<LocalDate, NavigableSet<Long>>();
+		_indexed = new ConcurrentHashMap<Long, IndexKeys>();
+		_friendGraph = new FriendGraph(_stripes.length);
+		_questIndex = new QuestIndex();
+		_leaderboard = new Leaderboard();
+
+		// A persistent store may already hold Avatars.
+		if(_sharded != null) {
+			_sharded.onEachShard(_indexShard);
+			return;
+		}
+		AvatarCursor cursor = new AvatarCursor(_store, 0, 100);
+		while(cursor.hasNext()) {
+			index(cursor.next());
+		}
+	}
+
+	@Override
+	public long nextId() {
+		return _store.nextId();
+	}
+
+	@Override
+	public long nextIds(int count) {
+		return _store.nextIds(count);
+	}
+
+	@Override
+	public void createAvatar(Avatar avatar) {
+		_store.createAvatar(avatar);
+		index(avatar);
+	}
+
+	@Override
+	public void createAvatars(Collection<Avatar> avatars) {
+		_store.createAvatars(avatars);
+		indexAll(avatars);
+	}
+
+	@Override
+	public Avatar findAvatar(long id) {
+		return _store.findAvatar(id);
+	}
+
+	@Override
+	public Collection<Avatar> getAvatars() {
+		return _store.getAvatars();
+	}
+
+	@Override
+	public List<Avatar> getAvatars(long afterId, int limit) {
+		return _store.getAvatars(afterId, limit);
+	}
+
+	@Override
+	public void updateAvatar(Avatar avatar) {
+		_store.updateAvatar(avatar);
+		index(avatar);
+	}
+
+	@Override
+	public void updateAvatars(Collection<Avatar> avatars) {
+		_store.updateAvatars(avatars);
+		indexAll(avatars);
+	}
+
+	/**
+	 * Adds an achievement, already recorded with updateAvatar(), to the
+	 * QuestIndex. Achievements are only indexed from the Avatar itself when
+	 * it's first stored, so each one recorded after that must be indexed 
+	 * with this.
+	 */
+	public void indexAchievement(long avatarId, Achievement achievement) {
+		ReentrantLock stripe = _stripes[stripeOf(avatarId)];
+		stripe.lock();
+		try {
+			_questIndex.addAchievement(avatarId, achievement);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public void createQuest(Quest quest) {
+		_store.createQuest(quest);
+	}
+
+	@Override
+	public Quest findQuest(long id) {
+		return _store.findQuest(id);
+	}
+
+	@Override
+	public List<Quest> getQuests() {
+		return _store.getQuests();
+	}
+
+	@Override
+	public void updateQuest(Quest quest) {
+		_store.updateQuest(quest);
+	}
+
+	@Override
+	public boolean deleteQuest(long id) {
+		lockAll();
+		try {
+			if(!_store.deleteQuest(id)) {
+				return false;
+			}
+			_questIndex.removeQuest(id);
+			return true;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	@Override
+	public void clear() {
+		lockAll();
+		try {
+			_store.clear();
+			_byUsername.clear();
+			for(Set<Long> ids : _byCategory.values()) {
+				ids.clear();
+			}
+			_byDateOfBirth.clear();
+			_indexed.clear();
+			_friendGraph.clear();
+			_questIndex.clear();
+			_leaderboard.clear();
+		} finally {
+			unlockAll();
+		}
+	}
+
+	@Override
+	public int size() {
+		return _store.size();
+	}
+
+	@Override
+	public void close() {
+		_store.close();
+	}
+
+	/**
+	 * Returns the ids, greater than afterId, of Avatars with exactly the 
+	 * given username.
+	 */
+	public Iterator<Long> findByUsername(String username, long afterId) {
+		return after(_byUsername.get(username), afterId);
+	}
+
+	/**
+	 * Returns the ids, greater than afterId, of Avatars whose usernames start
+	 * with the given prefix.
+	 */
+	public Iterator<Long> findByUsernamePrefix(String prefix, long afterId) {
+		ConcurrentNavigableMap<String, NavigableSet<Long>> range = 
+				_byUsername.tailMap(prefix, true);
+		String end = successor(prefix);
+		if(end != null) {
+			range = range.headMap(end, false);
+		}
+		return IdIterators.union(after(range.values(), afterId));
+	}
+
+	/**
+	 * Returns the ids, greater than afterId, of Avatars of the given Category.
+	 */
+	public Iterator<Long> findByCategory(Category category, long afterId) {
+		return after(_byCategory.get(category), afterId);
+	}
+
+	/**
+	 * Returns the ids, greater than afterId, of Avatars born between from and
+	 * to, inclusive. Either bound may be null, in which case the range is open
+	 * at that end.
+	 */
+	public Iterator<Long> findByDateOfBirth(LocalDate from, LocalDate to, long afterId) {
+		ConcurrentNavigableMap<LocalDate, NavigableSet<Long>> range = _byDateOfBirth;
+		if(from != null) {
+			range = range.tailMap(from, true);
+		}
+		if(to != null) {
+			range = range.headMap(to, true);
+		}
+		return IdIterators.union(after(range.values(), afterId));
+	}
+
+	/**
+	 * Returns the friend graph of the stored Avatars.
+	 */
+	public FriendGraph getFriendGraph() {
+		return _friendGraph;
+	}
+
+	/**
+	 * Returns the index of the Avatars on, and achievements unlocked in, 
+	 * each Quest.
+	 */
+	public QuestIndex getQuestIndex() {
+		return _questIndex;
+	}
+
+	/**
+	 * Returns the ranking of Avatars by their number of achievements.
+	 */
+	public Leaderboard getLeaderboard() {
+		return _leaderboard;
+	}
+
+	/**
+	 * Returns the index of the lock stripe of the Avatar with the given id.
+	 * Ids in different shards of a ShardedAvatarStore are in different
+	 * stripes, as the number of stripes is a multiple of the number of 
+	 * shards.
+	 */
+	int stripeOf(long id) {
+		return (int) ((id & Long.MAX_VALUE) % _stripes.length);
+	}
+
+	/**
+	 * Acquires every stripe, in ascending order, for changes to the indexes
+	 * as a whole.
+	 */
+	private void lockAll() {
+		for(ReentrantLock stripe : _stripes) {
+			stripe.lock();
+		}
+	}
+
+	private void unlockAll() {
+		for(int i = _stripes.length - 1; i >= 0; i--) {
+			_stripes[i].unlock();
+		}
+	}
+
+	/**
+	 * Indexes Avatars, fanning a large batch out to the shards of a sharded
+	 * store; as shards and stripes don't overlap, the tasks don't contend.
+	 */
+	private void indexAll(Collection<Avatar> avatars) {
+		if(_sharded == null || avatars.size() < ShardedAvatarStore.PARALLEL_THRESHOLD) {
+			for(Avatar avatar : avatars) {
+				index(avatar);
+			}
+			return;
+		}
+		_sharded.onEachShard(avatars, _indexShard);
+	}
+
+	private void index(Avatar avatar) {
+		ReentrantLock stripe = _stripes[stripeOf(avatar.getId())];
+		stripe.lock();
+		try {
+			indexLocked(avatar);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	private void indexLocked(Avatar avatar) {
+		long id = avatar.getId();
+		_friendGraph.update(avatar);
+		_leaderboard.update(avatar);
+
+		IndexKeys keys = new IndexKeys(avatar);
+		IndexKeys previous = _indexed.put(id, keys);
+
+		if(previous == null) {
+			_questIndex.addAchievements(id, avatar.getAchievements());
+		} else {
+			if(previous.equals(keys)) {
+				return;
+			}
+			remove(_byUsername, previous._username, id);
+			if(previous._category != null) {
+				_byCategory.get(previous._category).remove(id);
+			}
+			remove(_byDateOfBirth, previous._dateOfBirth, id);
+		}
+
+		add(_byUsername, keys._username, id);
+		if(keys._category != null) {
+			_byCategory.get(keys._category).add(id);
+		}
+		add(_byDateOfBirth, keys._dateOfBirth, id);
+		_questIndex.moveAvatar(id, previous == null ? 0 : previous._questId, keys._questId);
+	}
+
+	/**
+	 * Adds id to the set under key. Avatars in other stripes may be adding
+	 * to, or removing, the same set, so the id is added again if the set
+	 * was removed from the index before the id could be seen in it.
+	 */
+	private static <K> void add(ConcurrentNavigableMap<K, NavigableSet<Long>> index, K key, long id) {
+		if(key == null) {
+			return;
+		}
+		while(true) {
+			NavigableSet<Long> ids = index.get(key);
+			if(ids == null) {
+				NavigableSet<Long> created = new ConcurrentSkipListSet<Long>();
+				ids = index.putIfAbsent(key, created);
+				if(ids == null) {
+					ids = created;
+				}
+			}
+			ids.add(id);
+			if(index.get(key) == ids) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes id from the set under key, and the set from the index if it's
+	 * empty. Ids added to the set while it was being removed are put back.
+	 */
+	private static <K> void remove(ConcurrentNavigableMap<K, NavigableSet<Long>> index, K key, long id) {
+		if(key == null) {
+			return;
+		}
+		NavigableSet<Long> ids = index.get(key);
+		if(ids != null) {
+			ids.remove(id);
+			if(ids.isEmpty() && index.remove(key, ids)) {
+				for(long added : ids) {
+					add(index, key, added);
+				}
+			}
+		}
+	}
+
+	private static Iterator<Long> after(NavigableSet<Long> ids, long afterId) {
+		if(ids == null) {
+			return IdIterators.empty();
+		}
+		return ids.tailSet(afterId, false).iterator();
+	}
+
+	/**
+	 * Returns iterators over the ids, greater than afterId, in each of the
+	 * given sets. Each set's iterator is created only when it's reached.
+	 */
+	private static Iterable<Iterator<Long>> after(final Iterable<NavigableSet<Long>> sets,
+			final long afterId) {
+		return new Iterable<Iterator<Long>>() {
+			@Override
+			public Iterator<Iterator<Long>> iterator() {
+				final Iterator<NavigableSet<Long>> i = sets.iterator();
+				return new Iterator<Iterator<Long>>() {
+					@Override
+					public boolean hasNext() {
+						return i.hasNext();
+					}
+
+					@Override
+					public Iterator<Long> next() {
+						return after(i.next(), afterId);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Returns the least string greater than every string that starts with 
+	 * prefix, or null if there is none (the prefix is empty or all 
+	 * Character.MAX_VALUE).
+	 */
+	private static String successor(String prefix) {
+		int end = prefix.length();
+		while(end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+		if(end == 0) {
+			return null;
+		}
+		return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+	}
+
+	/**
+	 * The indexed attribute values of an Avatar.
+	 */
+	private static class IndexKeys {
+		private final String _username;
+		private final Category _category;
+		private final LocalDate _dateOfBirth;
+		private final long _questId;
+
+		IndexKeys(Avatar avatar) {
+			_username = avatar.getUsername();
+			_category = avatar.getCategory();
+			_dateOfBirth = avatar.getDateOfBirth();
+			Quest quest = avatar.getCurrentQuest();
+			_questId = quest == null ? 0 : quest.getId();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof IndexKeys))
+				return false;
+			IndexKeys other = (IndexKeys) obj;
+			return new EqualsBuilder().
+					append(_username, other._username).
+					append(_category, other._category).
+					append(_dateOfBirth, other._dateOfBirth).
+					append(_questId, other._questId).
+					isEquals();
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder(17, 31).
+					append(_username).
+					append(_category).
+					append(_dateOfBirth).
+					append(_questId).
+					toHashCode();
+		}
+	}
+}
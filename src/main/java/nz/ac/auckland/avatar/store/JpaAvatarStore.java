@@ -0,0 +1,713 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Quest;
+
+/**
+ * AvatarStore implementation that persists Avatars to the database configured
+ * by the "auditorPU" persistence unit (H2, via Hibernate).
+ *
+ * Writes are group committed: callers enqueue their write and block while a
+ * single writer thread drains all pending writes and applies them in one
+ * transaction. Hibernate sends the resulting statements to the database in
+ * JDBC batches (see hibernate.jdbc.batch_size in persistence.xml), so under
+ * load many writes share one round trip and one commit.
+ *
+ * Reads use a short-lived EntityManager and return detached Avatars.
+ * Avatars, Achievements and Quests are held in Hibernate's second-level
+ * cache (see persistence.xml and ehcache.xml), so reading an Avatar that has
+ * been read or written recently doesn't go to the database. The cache is
+ * kept up to date by Hibernate as part of each write, so every path by
+ * which the store changes Avatars and Quests keeps it consistent.
+ * 
+ * The results of the Quest listing and Avatar count queries are cached too,
+ * until the next write to the tables they read. Avatar listings aren't:
+ * they're large, and when the Avatars in a cached listing have been evicted
+ * they're loaded back one select at a time.
+ * 
+ * Quests are written in their own transactions, outside the group commit.
+ *
+ */
+public class JpaAvatarStore implements AvatarStore {
+	private static final Logger _logger = LoggerFactory.getLogger(JpaAvatarStore.class);
+
+	public static final String PERSISTENCE_UNIT = "auditorPU";
+
+	private static final int DEFAULT_MAX_GROUP_SIZE = 256;
+
+	// Query hint that caches a query's results.
+	private static final String CACHEABLE = "org.hibernate.cacheable";
+
+	private final EntityManagerFactory _factory;
+	private final AtomicLong _idCounter;
+	private final BlockingQueue<Write> _pendingWrites;
+	private final int _maxGroupSize;
+	private final int _jdbcBatchSize;
+	private final Thread _writer;
+	private volatile boolean _running;
+
+	// Guards _closed, so that no write is queued once close() has begun.
+	private final Object _closeLock = new Object();
+	private boolean _closed;
+
+	// The epoch of the newest store handed out by newEpoch(). Writes through
+	// an older epoch's store check it under the read lock, and newEpoch()
+	// advances it and queues its clear under the write lock, so a write from
+	// a retired epoch is either rejected or committed before the clear.
+	private final ReadWriteLock _epochLock = new ReentrantReadWriteLock();
+	private int _epoch;
+
+	public JpaAvatarStore() {
+		this(Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Creates a JpaAvatarStore.
+	 * @param properties overrides for the persistence unit's properties, e.g.
+	 * hibernate.connection.url.
+	 */
+	public JpaAvatarStore(Map<String, String> properties) {
+		this(properties, DEFAULT_MAX_GROUP_SIZE);
+	}
+
+	public JpaAvatarStore(Map<String, String> properties, int maxGroupSize) {
+		_factory = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT,
+				new HashMap<String, String>(properties));
+		_maxGroupSize = maxGroupSize;
+		_jdbcBatchSize = jdbcBatchSize(_factory);
+		_pendingWrites = new LinkedBlockingQueue<Write>();
+		_idCounter = new AtomicLong(maxStoredId());
+
+		_running = true;
+		_writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainWrites();
+			}
+		}, "avatar-store-writer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	@Override
+	public long nextId() {
+		return _idCounter.incrementAndGet();
+	}
+
+	@Override
+	public long nextIds(int count) {
+		return _idCounter.addAndGet(count) - count + 1;
+	}
+
+	@Override
+	public void createAvatar(Avatar avatar) {
+		submit(new Write(WriteType.CREATE, avatar));
+	}
+
+	@Override
+	public void createAvatars(Collection<Avatar> avatars) {
+		submit(new Write(WriteType.CREATE, avatars));
+	}
+
+	@Override
+	public Avatar findAvatar(long id) {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.find(Avatar.class, id);
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public Collection<Avatar> getAvatars() {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.createQuery("select a from Avatar a order by a._id",
+					Avatar.class).getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public List<Avatar> getAvatars(long afterId, int limit) {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.createQuery("select a from Avatar a where a._id > :after order by a._id",
+					Avatar.class)
+					.setParameter("after", afterId)
+					.setMaxResults(limit)
+					.getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public void updateAvatar(Avatar avatar) {
+		submit(new Write(WriteType.UPDATE, avatar));
+	}
+
+	@Override
+	public void updateAvatars(Collection<Avatar> avatars) {
+		submit(new Write(WriteType.UPDATE, avatars));
+	}
+
+	@Override
+	public void createQuest(final Quest quest) {
+		// The database assigns the id.
+		quest.setId(0);
+		inTransaction(new Transactional() {
+			@Override
+			public void run(EntityManager em) {
+				em.persist(quest);
+			}
+		});
+	}
+
+	@Override
+	public Quest findQuest(long id) {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.find(Quest.class, id);
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public List<Quest> getQuests() {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.createQuery("select q from Quest q order by q._id",
+					Quest.class)
+					.setHint(CACHEABLE, true)
+					.getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	@Override
+	public void updateQuest(final Quest quest) {
+		inTransaction(new Transactional() {
+			@Override
+			public void run(EntityManager em) {
+				em.merge(quest);
+			}
+		});
+	}
+
+	@Override
+	public boolean deleteQuest(final long id) {
+		final boolean[] deleted = new boolean[1];
+		inTransaction(new Transactional() {
+			@Override
+			public void run(EntityManager em) {
+				Quest quest = em.find(Quest.class, id);
+				if(quest == null) {
+					return;
+				}
+				// Avatars put on the Quest after the caller took Avatars off it
+				// would otherwise block the delete.
+				em.createQuery("update Avatar a set a._currentQuest = null where a._currentQuest = :quest")
+						.setParameter("quest", quest)
+						.executeUpdate();
+				em.remove(quest);
+				deleted[0] = true;
+			}
+		});
+		return deleted[0];
+	}
+
+	@Override
+	public void clear() {
+		submit(new Write(WriteType.CLEAR, Collections.<Avatar>emptyList()));
+		_idCounter.set(0);
+	}
+
+	@Override
+	public int size() {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			return em.createQuery("select count(a) from Avatar a", Long.class)
+					.setHint(CACHEABLE, true)
+					.getSingleResult().intValue();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Returns Hibernate's statistics for the store, including the hit, miss
+	 * and put counts of each second-level cache region.
+	 */
+	public Statistics getStatistics() {
+		return _factory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	/**
+	 * Closes the store. Writes already queued are committed first; writes
+	 * submitted after close() has begun fail with an IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		synchronized(_closeLock) {
+			if(_closed) {
+				return;
+			}
+			_closed = true;
+		}
+		_running = false;
+		try {
+			_writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// Fail any writes the writer didn't get to, rather than leave their
+		// submitters waiting forever.
+		Write write;
+		while((write = _pendingWrites.poll()) != null) {
+			write.complete(new IllegalStateException("Store has been closed"));
+		}
+		_factory.close();
+	}
+
+	private void submit(Write write) {
+		enqueue(write);
+		write.await();
+	}
+
+	private void enqueue(Write write) {
+		synchronized(_closeLock) {
+			if(_closed) {
+				throw new IllegalStateException("Store has been closed");
+			}
+			_pendingWrites.add(write);
+		}
+	}
+
+	/**
+	 * Clears the store and returns a view of it for a new epoch, retiring 
+	 * the views returned earlier: writes through them are rejected with an
+	 * IllegalStateException from then on. Reads through a retired view still
+	 * succeed, and see the new epoch's Avatars.
+	 */
+	AvatarStore newEpoch() {
+		Write clear = new Write(WriteType.CLEAR, Collections.<Avatar>emptyList());
+		int epoch;
+		_epochLock.writeLock().lock();
+		try {
+			epoch = ++_epoch;
+			enqueue(clear);
+		} finally {
+			_epochLock.writeLock().unlock();
+		}
+		clear.await();
+		_idCounter.set(0);
+		return new EpochStore(epoch);
+	}
+
+	/**
+	 * Writer thread loop. Each iteration takes every write queued so far (up
+	 * to _maxGroupSize) and commits them together.
+	 */
+	private void drainWrites() {
+		List<Write> group = new ArrayList<Write>(_maxGroupSize);
+		while(_running || !_pendingWrites.isEmpty()) {
+			try {
+				Write first = _pendingWrites.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				group.add(first);
+				_pendingWrites.drainTo(group, _maxGroupSize - 1);
+				commit(group);
+			} catch (InterruptedException e) {
+				// Keep draining until close() is called.
+			} finally {
+				group.clear();
+			}
+		}
+	}
+
+	private void commit(List<Write> group) {
+		try {
+			apply(group);
+			for(Write write : group) {
+				write.complete(null);
+			}
+		} catch (RuntimeException e) {
+			if(group.size() == 1) {
+				group.get(0).complete(e);
+				return;
+			}
+			// Don't let one bad write fail the whole group: retry each write
+			// in its own transaction so that only the culprit reports failure.
+			_logger.debug("Group commit of " + group.size() + " writes failed, retrying individually", e);
+			for(Write write : group) {
+				try {
+					apply(Collections.singletonList(write));
+					write.complete(null);
+				} catch (RuntimeException individual) {
+					write.complete(individual);
+				}
+			}
+		}
+	}
+
+	private void apply(List<Write> group) {
+		EntityManager em = _factory.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			int unflushed = 0;
+			for(Write write : group) {
+				if(write._type == WriteType.CLEAR) {
+					// Remove Avatars one at a time so that their achievements,
+					// friendships and bag items are removed by cascade.
+					for(Avatar avatar : em.createQuery("select a from Avatar a",
+							Avatar.class).getResultList()) {
+						em.remove(avatar);
+					}
+					// The Avatars must be gone before the Quests they're on.
+					em.flush();
+					em.createQuery("delete from Quest").executeUpdate();
+					continue;
+				}
+				
+				for(Avatar avatar : write._avatars) {
+					write.applyTo(em, avatar);
+
+					// Flush and clear periodically so that the persistence
+					// context doesn't grow with the group size.
+					if(++unflushed == _jdbcBatchSize) {
+						em.flush();
+						em.clear();
+						unflushed = 0;
+					}
+				}
+			}
+			tx.commit();
+		} catch (RuntimeException e) {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	private void inTransaction(Transactional work) {
+		EntityManager em = _factory.createEntityManager();
+		EntityTransaction tx = em.getTransaction();
+		try {
+			tx.begin();
+			work.run(em);
+			tx.commit();
+		} catch (RuntimeException e) {
+			if(tx.isActive()) {
+				tx.rollback();
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	private long maxStoredId() {
+		EntityManager em = _factory.createEntityManager();
+		try {
+			Long max = em.createQuery("select max(a._id) from Avatar a",
+					Long.class).getSingleResult();
+			return max == null ? 0 : max;
+		} finally {
+			em.close();
+		}
+	}
+
+	private static int jdbcBatchSize(EntityManagerFactory factory) {
+		Object size = factory.getProperties().get("hibernate.jdbc.batch_size");
+		try {
+			return size == null ? 1 : Math.max(1, Integer.parseInt(size.toString()));
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Factory for JpaAvatarStores. A database's contents can't be duplicated
+	 * off to the side, so every epoch shares one store: the first epoch sees
+	 * the Avatars persisted by earlier runs, and each later epoch receives a
+	 * view of the store after it has been cleared in a single transaction
+	 * (see newEpoch()). Requests still running against a retired epoch can't
+	 * write to the store, but do read the new epoch's Avatars.
+	 */
+	public static class Factory implements AvatarStoreFactory {
+		private final Map<String, String> _properties;
+		private JpaAvatarStore _store;
+
+		public Factory() {
+			this(Collections.<String, String>emptyMap());
+		}
+
+		public Factory(Map<String, String> properties) {
+			_properties = properties;
+		}
+
+		@Override
+		public synchronized AvatarStore createStore() {
+			if(_store == null) {
+				_store = new JpaAvatarStore(_properties);
+				return _store.new EpochStore(0);
+			}
+			return _store.newEpoch();
+		}
+	}
+
+	/**
+	 * The store as seen by one epoch: delegates to the JpaAvatarStore, 
+	 * failing writes once a newer epoch has begun.
+	 */
+	private class EpochStore implements AvatarStore {
+		private final int _number;
+
+		EpochStore(int number) {
+			_number = number;
+		}
+
+		@Override
+		public long nextId() {
+			return JpaAvatarStore.this.nextId();
+		}
+
+		@Override
+		public long nextIds(int count) {
+			return JpaAvatarStore.this.nextIds(count);
+		}
+
+		@Override
+		public void createAvatar(Avatar avatar) {
+			submit(new Write(WriteType.CREATE, avatar));
+		}
+
+		@Override
+		public void createAvatars(Collection<Avatar> avatars) {
+			submit(new Write(WriteType.CREATE, avatars));
+		}
+
+		@Override
+		public Avatar findAvatar(long id) {
+			return JpaAvatarStore.this.findAvatar(id);
+		}
+
+		@Override
+		public Collection<Avatar> getAvatars() {
+			return JpaAvatarStore.this.getAvatars();
+		}
+
+		@Override
+		public List<Avatar> getAvatars(long afterId, int limit) {
+			return JpaAvatarStore.this.getAvatars(afterId, limit);
+		}
+
+		@Override
+		public void updateAvatar(Avatar avatar) {
+			submit(new Write(WriteType.UPDATE, avatar));
+		}
+
+		@Override
+		public void updateAvatars(Collection<Avatar> avatars) {
+			submit(new Write(WriteType.UPDATE, avatars));
+		}
+
+		@Override
+		public void createQuest(final Quest quest) {
+			inEpoch(new Runnable() {
+				@Override
+				public void run() {
+					JpaAvatarStore.this.createQuest(quest);
+				}
+			});
+		}
+
+		@Override
+		public Quest findQuest(long id) {
+			return JpaAvatarStore.this.findQuest(id);
+		}
+
+		@Override
+		public List<Quest> getQuests() {
+			return JpaAvatarStore.this.getQuests();
+		}
+
+		@Override
+		public void updateQuest(final Quest quest) {
+			inEpoch(new Runnable() {
+				@Override
+				public void run() {
+					JpaAvatarStore.this.updateQuest(quest);
+				}
+			});
+		}
+
+		@Override
+		public boolean deleteQuest(final long id) {
+			final boolean[] deleted = new boolean[1];
+			inEpoch(new Runnable() {
+				@Override
+				public void run() {
+					deleted[0] = JpaAvatarStore.this.deleteQuest(id);
+				}
+			});
+			return deleted[0];
+		}
+
+		@Override
+		public void clear() {
+			submit(new Write(WriteType.CLEAR, Collections.<Avatar>emptyList()));
+			_idCounter.set(0);
+		}
+
+		@Override
+		public int size() {
+			return JpaAvatarStore.this.size();
+		}
+
+		@Override
+		public void close() {
+			JpaAvatarStore.this.close();
+		}
+
+		private void submit(Write write) {
+			_epochLock.readLock().lock();
+			try {
+				checkEpoch();
+				enqueue(write);
+			} finally {
+				_epochLock.readLock().unlock();
+			}
+			write.await();
+		}
+
+		/**
+		 * Runs a Quest write. Quest writes are run in their own transactions,
+		 * rather than queued, so they must finish before a new epoch's clear
+		 * is queued.
+		 */
+		private void inEpoch(Runnable work) {
+			_epochLock.readLock().lock();
+			try {
+				checkEpoch();
+				work.run();
+			} finally {
+				_epochLock.readLock().unlock();
+			}
+		}
+
+		private void checkEpoch() {
+			if(_number != _epoch) {
+				throw new IllegalStateException("Store epoch " + _number 
+						+ " has been retired by epoch " + _epoch);
+			}
+		}
+	}
+
+	private interface Transactional {
+		void run(EntityManager em);
+	}
+
+	private enum WriteType {
+		CREATE, UPDATE, CLEAR;
+	}
+
+	/**
+	 * A write, of one or more Avatars, waiting to be group committed.
+	 */
+	private static class Write {
+		private final WriteType _type;
+		private final Collection<Avatar> _avatars;
+		private final CountDownLatch _done;
+		private volatile RuntimeException _failure;
+
+		Write(WriteType type, Avatar avatar) {
+			this(type, Collections.singletonList(avatar));
+		}
+
+		Write(WriteType type, Collection<Avatar> avatars) {
+			_type = type;
+			_avatars = avatars;
+			_done = new CountDownLatch(1);
+		}
+
+		void applyTo(EntityManager em, Avatar avatar) {
+			if(_type == WriteType.CREATE && !hasAssignedAchievementIds(avatar)) {
+				em.persist(avatar);
+			} else {
+				// Client supplied achievement ids can't be persisted 
+				// directly, merge assigns new ones.
+				em.merge(avatar);
+			}
+		}
+
+		void complete(RuntimeException failure) {
+			_failure = failure;
+			_done.countDown();
+		}
+
+		void await() {
+			boolean interrupted = false;
+			while(true) {
+				try {
+					_done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if(_failure != null) {
+				throw new PersistenceException("Failed to write Avatar", _failure);
+			}
+		}
+
+		private static boolean hasAssignedAchievementIds(Avatar avatar) {
+			for(Achievement achievement : avatar.getAchievements()) {
+				if(achievement.getId() != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
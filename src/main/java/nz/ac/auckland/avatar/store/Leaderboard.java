@@ -0,0 +1,350 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Category;
+
+/**
+ * Ranking of Avatars by number of achievements, most first and then by
+ * ascending id, both overall and within each Category. Ranks start at 1.
+ *
+ * Each ranking is a treap whose nodes record the size of their subtree, so
+ * an Avatar's rank, and the Avatar at a rank, are found in O(log n). The
+ * treap is persistent: an update copies the O(log n) nodes on the path it
+ * changes and publishes a new root, so queries read a consistent ranking
+ * without locking. Updates of each Avatar are serialised by the 
+ * IndexedAvatarStore; updates of different Avatars publish their roots with
+ * a compare-and-set, and one that loses the race re-applies its change to
+ * the new root.
+ *
+ */
+public class Leaderboard {
+	private final Ranking _overall;
+	private final Map<Category, Ranking> _byCategory;
+
+	// The Category and achievement count under which each Avatar is ranked.
+	private final Map<Long, Standing> _standings;
+
+	Leaderboard() {
+		_overall = new Ranking();
+		_byCategory = new EnumMap<Category, Ranking>(Category.class);
+		for(Category category : Category.values()) {
+			_byCategory.put(category, new Ranking());
+		}
+		_standings = new ConcurrentHashMap<Long, Standing>();
+	}
+
+	/**
+	 * Returns up to k entries from the top of the ranking of the given
+	 * Category, or of all Avatars if category is null.
+	 */
+	public List<Entry> top(Category category, int k) {
+		return ranking(category).entries(1, k);
+	}
+
+	/**
+	 * Returns the entries ranked from rank - radius to rank + radius in the
+	 * ranking of the given Category, or of all Avatars if category is null.
+	 */
+	public List<Entry> around(Category category, int rank, int radius) {
+		int from = Math.max(1, rank - radius);
+		return ranking(category).entries(from, rank + radius - from + 1);
+	}
+
+	/**
+	 * Returns an Avatar's entry in the ranking of its Category if
+	 * byCategory is true, or of all Avatars otherwise; null if the Avatar
+	 * isn't ranked.
+	 */
+	public Entry find(long avatarId, boolean byCategory) {
+		Standing standing = _standings.get(avatarId);
+		if(standing == null || (byCategory && standing._category == null)) {
+			return null;
+		}
+		Ranking ranking = byCategory ? _byCategory.get(standing._category) : _overall;
+		return new Entry(avatarId, standing._achievements,
+				ranking.rankOf(standing._achievements, avatarId));
+	}
+
+	/**
+	 * Returns the number of Avatars in the ranking of the given Category, or
+	 * of all Avatars if category is null.
+	 */
+	public int size(Category category) {
+		return ranking(category).size();
+	}
+
+	/**
+	 * Re-ranks an Avatar if its Category or number of achievements has
+	 * changed.
+	 */
+	void update(Avatar avatar) {
+		long id = avatar.getId();
+		Standing standing = new Standing(avatar.getCategory(), avatar.getTimeline().size());
+		Standing previous = _standings.put(id, standing);
+		if(previous != null) {
+			if(previous._category == standing._category
+					&& previous._achievements == standing._achievements) {
+				return;
+			}
+			_overall.move(previous._achievements, standing._achievements, id);
+			if(previous._category == standing._category) {
+				_byCategory.get(standing._category).move(
+						previous._achievements, standing._achievements, id);
+				return;
+			}
+			if(previous._category != null) {
+				_byCategory.get(previous._category).remove(previous._achievements, id);
+			}
+		} else {
+			_overall.add(standing._achievements, id);
+		}
+		if(standing._category != null) {
+			_byCategory.get(standing._category).add(standing._achievements, id);
+		}
+	}
+
+	void clear() {
+		_standings.clear();
+		_overall.clear();
+		for(Ranking ranking : _byCategory.values()) {
+			ranking.clear();
+		}
+	}
+
+	private Ranking ranking(Category category) {
+		return category == null ? _overall : _byCategory.get(category);
+	}
+
+	/**
+	 * An Avatar's place in a ranking.
+	 */
+	public static final class Entry {
+		private final long _avatarId;
+		private final int _achievements;
+		private final int _rank;
+
+		Entry(long avatarId, int achievements, int rank) {
+			_avatarId = avatarId;
+			_achievements = achievements;
+			_rank = rank;
+		}
+
+		public long getAvatarId() {
+			return _avatarId;
+		}
+
+		public int getAchievements() {
+			return _achievements;
+		}
+
+		public int getRank() {
+			return _rank;
+		}
+	}
+
+	private static final class Standing {
+		private final Category _category;
+		private final int _achievements;
+
+		Standing(Category category, int achievements) {
+			_category = category;
+			_achievements = achievements;
+		}
+	}
+
+	/**
+	 * One ranking; a persistent treap ordered by achievements descending,
+	 * then id ascending, with heap priorities derived from the ids.
+	 */
+	static final class Ranking {
+		private static final AtomicReferenceFieldUpdater<Ranking, Node> _rootUpdater = 
+				AtomicReferenceFieldUpdater.newUpdater(Ranking.class, Node.class, "_root");
+
+		private volatile Node _root;
+
+		int size() {
+			return size(_root);
+		}
+
+		/**
+		 * Returns the rank that an Avatar with the given number of
+		 * achievements has, or would have.
+		 */
+		int rankOf(int achievements, long id) {
+			int before = 0;
+			Node node = _root;
+			while(node != null) {
+				int order = compare(achievements, id, node);
+				if(order == 0) {
+					return before + size(node._left) + 1;
+				}
+				if(order < 0) {
+					node = node._left;
+				} else {
+					before += size(node._left) + 1;
+					node = node._right;
+				}
+			}
+			return before + 1;
+		}
+
+		/**
+		 * Returns up to count entries, starting at rank from.
+		 */
+		List<Entry> entries(int from, int count) {
+			List<Entry> entries = new ArrayList<Entry>(Math.max(0, Math.min(count, 1024)));
+			if(from >= 1 && count > 0) {
+				collect(_root, 0, from, from + count - 1, entries);
+			}
+			return entries;
+		}
+
+		void add(int achievements, long id) {
+			Node root;
+			do {
+				root = _root;
+			} while(!_rootUpdater.compareAndSet(this, root, add(root, achievements, id)));
+		}
+
+		void remove(int achievements, long id) {
+			Node root;
+			do {
+				root = _root;
+			} while(!_rootUpdater.compareAndSet(this, root, remove(root, achievements, id)));
+		}
+
+		/**
+		 * Re-ranks an Avatar under a new number of achievements, publishing
+		 * the new root once, so that no query sees the ranking without it.
+		 */
+		void move(int from, int to, long id) {
+			Node root;
+			do {
+				root = _root;
+			} while(!_rootUpdater.compareAndSet(this, root, add(remove(root, from, id), to, id)));
+		}
+
+		void clear() {
+			_root = null;
+		}
+
+		/**
+		 * Adds the nodes of the subtree, whose first node has rank offset + 1,
+		 * that are ranked from first to last.
+		 */
+		private static void collect(Node node, int offset, int first, int last, List<Entry> entries) {
+			while(node != null && offset < last) {
+				int rank = offset + size(node._left) + 1;
+				if(rank > first) {
+					collect(node._left, offset, first, last, entries);
+				}
+				if(rank >= first && rank <= last) {
+					entries.add(new Entry(node._id, node._achievements, rank));
+				}
+				if(rank >= last) {
+					return;
+				}
+				offset = rank;
+				node = node._right;
+			}
+		}
+
+		private static Node add(Node root, int achievements, long id) {
+			Node[] parts = split(root, achievements, id);
+			Node node = new Node(achievements, id, ConcurrentLongMap.hash(id), null, null);
+			return merge(merge(parts[0], node), parts[1]);
+		}
+
+		private static Node remove(Node node, int achievements, long id) {
+			if(node == null) {
+				return null;
+			}
+			int order = compare(achievements, id, node);
+			if(order == 0) {
+				return merge(node._left, node._right);
+			}
+			if(order < 0) {
+				return node.withChildren(remove(node._left, achievements, id), node._right);
+			}
+			return node.withChildren(node._left, remove(node._right, achievements, id));
+		}
+
+		/**
+		 * Splits a treap into those nodes ranked before the given key and the
+		 * rest.
+		 */
+		private static Node[] split(Node node, int achievements, long id) {
+			if(node == null) {
+				return new Node[2];
+			}
+			if(compare(achievements, id, node) <= 0) {
+				Node[] parts = split(node._left, achievements, id);
+				parts[1] = node.withChildren(parts[1], node._right);
+				return parts;
+			}
+			Node[] parts = split(node._right, achievements, id);
+			parts[0] = node.withChildren(node._left, parts[0]);
+			return parts;
+		}
+
+		/**
+		 * Joins two treaps, where every node of a is ranked before every node
+		 * of b.
+		 */
+		private static Node merge(Node a, Node b) {
+			if(a == null) {
+				return b;
+			}
+			if(b == null) {
+				return a;
+			}
+			if(a._priority >= b._priority) {
+				return a.withChildren(a._left, merge(a._right, b));
+			}
+			return b.withChildren(merge(a, b._left), b._right);
+		}
+
+		/**
+		 * Orders the key (achievements, id) relative to node's.
+		 */
+		private static int compare(int achievements, long id, Node node) {
+			if(achievements != node._achievements) {
+				return achievements > node._achievements ? -1 : 1;
+			}
+			return id < node._id ? -1 : (id == node._id ? 0 : 1);
+		}
+
+		private static int size(Node node) {
+			return node == null ? 0 : node._size;
+		}
+	}
+
+	private static final class Node {
+		private final int _achievements;
+		private final long _id;
+		private final int _priority;
+		private final int _size;
+		private final Node _left;
+		private final Node _right;
+
+		Node(int achievements, long id, int priority, Node left, Node right) {
+			_achievements = achievements;
+			_id = id;
+			_priority = priority;
+			_left = left;
+			_right = right;
+			_size = Ranking.size(left) + Ranking.size(right) + 1;
+		}
+
+		Node withChildren(Node left, Node right) {
+			return new Node(_achievements, _id, _priority, left, right);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+
+/**
+ * Index from each Quest to the Avatars currently on it and the achievements
+ * Avatars have unlocked in it, so that questions such as "who has completed
+ * Quest X" are answered without scanning the store.
+ *
+ * An Avatar's current Quest is reindexed whenever the Avatar is. Its
+ * achievements are indexed when the Avatar is first indexed and, after
+ * that, as each is recorded with IndexedAvatarStore.indexAchievement().
+ * Updates of each Avatar are serialised by the IndexedAvatarStore, and
+ * different Avatars are updated concurrently; queries are lock-free.
+ *
+ */
+public class QuestIndex {
+	private final ConcurrentMap<Long, NavigableSet<Long>> _avatarsOnQuest;
+
+	// Quest id -> Avatar id -> the achievements the Avatar unlocked in the
+	// Quest.
+	private final ConcurrentMap<Long, ConcurrentNavigableMap<Long, List<Achievement>>> _achievements;
+
+	QuestIndex() {
+		_avatarsOnQuest = new ConcurrentHashMap<Long, NavigableSet<Long>>();
+		_achievements = new ConcurrentHashMap<Long, ConcurrentNavigableMap<Long, List<Achievement>>>();
+	}
+
+	/**
+	 * Returns the ids of the Avatars whose current Quest is the given one.
+	 */
+	public NavigableSet<Long> findAvatarsOnQuest(long questId) {
+		NavigableSet<Long> ids = _avatarsOnQuest.get(questId);
+		return ids == null ? new TreeSet<Long>() : new TreeSet<Long>(ids);
+	}
+
+	/**
+	 * Returns the ids of the Avatars that have unlocked achievements in the
+	 * given Quest.
+	 */
+	public NavigableSet<Long> findAvatarsWithAchievements(long questId) {
+		Map<Long, List<Achievement>> byAvatar = _achievements.get(questId);
+		return byAvatar == null ? new TreeSet<Long>() : new TreeSet<Long>(byAvatar.keySet());
+	}
+
+	/**
+	 * Returns the achievements unlocked in the given Quest, by Avatar id.
+	 */
+	public NavigableMap<Long, List<Achievement>> findAchievements(long questId) {
+		NavigableMap<Long, List<Achievement>> achievements = new TreeMap<Long, List<Achievement>>();
+		Map<Long, List<Achievement>> byAvatar = _achievements.get(questId);
+		if(byAvatar != null) {
+			achievements.putAll(byAvatar);
+		}
+		return achievements;
+	}
+
+	/**
+	 * Moves an Avatar from one Quest to another; a Quest id of 0 is no
+	 * Quest.
+	 */
+	void moveAvatar(long avatarId, long fromQuestId, long toQuestId) {
+		if(fromQuestId != 0) {
+			NavigableSet<Long> ids = _avatarsOnQuest.get(fromQuestId);
+			if(ids != null) {
+				ids.remove(avatarId);
+			}
+		}
+		if(toQuestId != 0) {
+			NavigableSet<Long> ids = _avatarsOnQuest.get(toQuestId);
+			if(ids == null) {
+				NavigableSet<Long> created = new ConcurrentSkipListSet<Long>();
+				ids = _avatarsOnQuest.putIfAbsent(toQuestId, created);
+				if(ids == null) {
+					ids = created;
+				}
+			}
+			ids.add(avatarId);
+		}
+	}
+
+	void addAchievements(long avatarId, Collection<Achievement> achievements) {
+		for(Achievement achievement : achievements) {
+			addAchievement(avatarId, achievement);
+		}
+	}
+
+	void addAchievement(long avatarId, Achievement achievement) {
+		long questId = achievement.getQuestId();
+		if(questId == 0) {
+			return;
+		}
+		ConcurrentNavigableMap<Long, List<Achievement>> byAvatar = _achievements.get(questId);
+		if(byAvatar == null) {
+			ConcurrentNavigableMap<Long, List<Achievement>> created = 
+					new ConcurrentSkipListMap<Long, List<Achievement>>();
+			byAvatar = _achievements.putIfAbsent(questId, created);
+			if(byAvatar == null) {
+				byAvatar = created;
+			}
+		}
+		// Only this Avatar's stripe adds to its list.
+		List<Achievement> achievements = byAvatar.get(avatarId);
+		if(achievements == null) {
+			achievements = new CopyOnWriteArrayList<Achievement>();
+			byAvatar.put(avatarId, achievements);
+		}
+		achievements.add(achievement);
+	}
+
+	void removeQuest(long questId) {
+		_avatarsOnQuest.remove(questId);
+		_achievements.remove(questId);
+	}
+
+	void clear() {
+		_avatarsOnQuest.clear();
+		_achievements.clear();
+	}
+}
@@ -0,0 +1,441 @@
+package nz.ac.auckland.avatar.store;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Quest;
+
+/**
+ * AvatarStore implementation that holds Avatars in memory, split by id
+ * across a number of shards. Each shard is an InMemoryAvatarStore with a
+ * map of its own, so writes to different shards don't contend.
+ *
+ * Operations on many Avatars (createAvatars(), updateAvatars() and
+ * onEachShard(), with which IndexedAvatarStore indexes a sharded store) are
+ * fanned out, one task per shard, and run in parallel.
+ * With a single writer per shard, each shard has a thread of its own, and
+ * every write to a shard, including single-Avatar writes, runs on that
+ * thread; otherwise writes run on the caller's thread and fan-out tasks on
+ * a pool with a thread per shard. Reads always run on the caller's thread
+ * and are lock-free.
+ *
+ * Ids are allocated from one counter and assigned to shards round-robin.
+ * Quests are few, and are held by the first shard.
+ *
+ */
+public class ShardedAvatarStore implements AvatarStore {
+	/**
+	 * System property giving the number of shards (default, the number of
+	 * processors).
+	 */
+	public static final String SHARDS_PROPERTY = "avatar.store.shards";
+
+	/**
+	 * System property that, when true, gives each shard a single writer
+	 * thread.
+	 */
+	public static final String SINGLE_WRITER_PROPERTY = "avatar.store.singleWriter";
+
+	// Number of Avatars below which a bulk write without single writers
+	// runs on the caller's thread rather than being fanned out.
+	static final int PARALLEL_THRESHOLD = 1024;
+
+	/**
+	 * Factory that creates a new, empty ShardedAvatarStore for each epoch.
+	 * The stores it creates share its threads, so that replacing a store on
+	 * reload doesn't leave threads behind.
+	 */
+	public static class Factory implements AvatarStoreFactory {
+		private final boolean _singleWriter;
+		private final ExecutorService[] _executors;
+
+		public Factory(int shards, boolean singleWriter) {
+			_singleWriter = singleWriter;
+			_executors = createExecutors(shards, singleWriter);
+		}
+
+		/**
+		 * Creates a Factory configured by the SHARDS_PROPERTY and
+		 * SINGLE_WRITER_PROPERTY system properties.
+		 */
+		public static Factory fromSystemProperties() {
+			return new Factory(
+					Integer.getInteger(SHARDS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+					Boolean.getBoolean(SINGLE_WRITER_PROPERTY));
+		}
+
+		@Override
+		public AvatarStore createStore() {
+			return new ShardedAvatarStore(_executors, _singleWriter, false);
+		}
+	}
+
+	/**
+	 * Work done on the Avatars of one shard, as part of an operation across
+	 * every shard.
+	 */
+	public interface ShardTask<R> {
+		R run(Collection<Avatar> avatars);
+	}
+
+	private final InMemoryAvatarStore[] _shards;
+	private final ExecutorService[] _executors;
+	private final boolean _singleWriter;
+	private final boolean _ownsExecutors;
+	private final AtomicLong _idCounter;
+
+	/**
+	 * Creates a store with the given number of shards, and, if singleWriter
+	 * is true, a writer thread per shard. The store's threads are stopped
+	 * when it's closed.
+	 */
+	public ShardedAvatarStore(int shards, boolean singleWriter) {
+		this(createExecutors(shards, singleWriter), singleWriter, true);
+	}
+
+	private ShardedAvatarStore(ExecutorService[] executors, boolean singleWriter,
+			boolean ownsExecutors) {
+		_shards = new InMemoryAvatarStore[executors.length];
+		for(int i = 0; i < _shards.length; i++) {
+			_shards[i] = new InMemoryAvatarStore();
+		}
+		_executors = executors;
+		_singleWriter = singleWriter;
+		_ownsExecutors = ownsExecutors;
+		_idCounter = new AtomicLong();
+	}
+
+	/**
+	 * Returns the number of shards.
+	 */
+	public int getShards() {
+		return _shards.length;
+	}
+
+	@Override
+	public long nextId() {
+		return _idCounter.incrementAndGet();
+	}
+
+	@Override
+	public long nextIds(int count) {
+		return _idCounter.addAndGet(count) - count + 1;
+	}
+
+	@Override
+	public void createAvatar(final Avatar avatar) {
+		final int shard = shardOf(avatar.getId());
+		if(!_singleWriter) {
+			_shards[shard].createAvatar(avatar);
+			return;
+		}
+		await(_executors[shard].submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				_shards[shard].createAvatar(avatar);
+				return null;
+			}
+		}));
+	}
+
+	@Override
+	public void createAvatars(Collection<Avatar> avatars) {
+		if(!_singleWriter && avatars.size() < PARALLEL_THRESHOLD) {
+			for(Avatar avatar : avatars) {
+				_shards[shardOf(avatar.getId())].createAvatar(avatar);
+			}
+			return;
+		}
+
+		final List<List<Avatar>> byShard = partition(avatars);
+		fanOut(new ShardWork<Void>() {
+			@Override
+			public Void run(int shard) {
+				_shards[shard].createAvatars(byShard.get(shard));
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Avatar findAvatar(long id) {
+		return _shards[shardOf(id)].findAvatar(id);
+	}
+
+	/**
+	 * Returns a view of every shard's Avatars, read from the shards as it's
+	 * iterated, shard by shard; it isn't in id order.
+	 */
+	@Override
+	public Collection<Avatar> getAvatars() {
+		final List<Collection<Avatar>> shards = new ArrayList<Collection<Avatar>>(_shards.length);
+		for(InMemoryAvatarStore shard : _shards) {
+			shards.add(shard.getAvatars());
+		}
+		return new AbstractCollection<Avatar>() {
+			@Override
+			public Iterator<Avatar> iterator() {
+				return new Iterator<Avatar>() {
+					private int _shard;
+					private Iterator<Avatar> _current = shards.get(0).iterator();
+
+					@Override
+					public boolean hasNext() {
+						while(!_current.hasNext() && _shard < shards.size() - 1) {
+							_current = shards.get(++_shard).iterator();
+						}
+						return _current.hasNext();
+					}
+
+					@Override
+					public Avatar next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return _current.next();
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				int size = 0;
+				for(Collection<Avatar> shard : shards) {
+					size += shard.size();
+				}
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public List<Avatar> getAvatars(long afterId, int limit) {
+		// Merge each shard's first limit Avatars after afterId.
+		List<List<Avatar>> pages = new ArrayList<List<Avatar>>(_shards.length);
+		for(InMemoryAvatarStore shard : _shards) {
+			pages.add(shard.getAvatars(afterId, limit));
+		}
+		int[] next = new int[pages.size()];
+		List<Avatar> merged = new ArrayList<Avatar>(Math.min(limit, 1024));
+		while(merged.size() < limit) {
+			int lowest = -1;
+			for(int i = 0; i < pages.size(); i++) {
+				if(next[i] < pages.get(i).size() && (lowest < 0
+						|| pages.get(i).get(next[i]).getId() < pages.get(lowest).get(next[lowest]).getId())) {
+					lowest = i;
+				}
+			}
+			if(lowest < 0) {
+				break;
+			}
+			merged.add(pages.get(lowest).get(next[lowest]++));
+		}
+		return merged;
+	}
+
+	@Override
+	public void updateAvatar(Avatar avatar) {
+		// Re-put, as InMemoryAvatarStore does, in case the caller holds a
+		// different instance.
+		createAvatar(avatar);
+	}
+
+	@Override
+	public void updateAvatars(Collection<Avatar> avatars) {
+		createAvatars(avatars);
+	}
+
+	/**
+	 * Runs a task on the Avatars of each shard, in parallel, and returns the
+	 * results in shard order. Tasks shouldn't change the shard's Avatars.
+	 */
+	public <R> List<R> onEachShard(final ShardTask<R> task) {
+		return fanOut(new ShardWork<R>() {
+			@Override
+			public R run(int shard) {
+				return task.run(_shards[shard].getAvatars());
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on each shard's share of the given Avatars, in parallel, 
+	 * and returns the results in shard order.
+	 */
+	public <R> List<R> onEachShard(Collection<Avatar> avatars, final ShardTask<R> task) {
+		final List<List<Avatar>> byShard = partition(avatars);
+		return fanOut(new ShardWork<R>() {
+			@Override
+			public R run(int shard) {
+				return task.run(byShard.get(shard));
+			}
+		});
+	}
+
+	@Override
+	public void createQuest(Quest quest) {
+		_shards[0].createQuest(quest);
+	}
+
+	@Override
+	public Quest findQuest(long id) {
+		return _shards[0].findQuest(id);
+	}
+
+	@Override
+	public List<Quest> getQuests() {
+		return _shards[0].getQuests();
+	}
+
+	@Override
+	public void updateQuest(Quest quest) {
+		_shards[0].updateQuest(quest);
+	}
+
+	@Override
+	public boolean deleteQuest(long id) {
+		return _shards[0].deleteQuest(id);
+	}
+
+	@Override
+	public void clear() {
+		fanOut(new ShardWork<Void>() {
+			@Override
+			public Void run(int shard) {
+				_shards[shard].clear();
+				return null;
+			}
+		});
+		_idCounter.set(0);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for(InMemoryAvatarStore shard : _shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	@Override
+	public void close() {
+		if(_ownsExecutors) {
+			for(ExecutorService executor : _executors) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	int shardOf(long id) {
+		return (int) ((id & Long.MAX_VALUE) % _shards.length);
+	}
+
+	private List<List<Avatar>> partition(Collection<Avatar> avatars) {
+		List<List<Avatar>> byShard = new ArrayList<List<Avatar>>(_shards.length);
+		for(int i = 0; i < _shards.length; i++) {
+			byShard.add(new ArrayList<Avatar>(avatars.size() / _shards.length + 1));
+		}
+		for(Avatar avatar : avatars) {
+			byShard.get(shardOf(avatar.getId())).add(avatar);
+		}
+		return byShard;
+	}
+
+	// Work done on one shard, by its index.
+	private interface ShardWork<R> {
+		R run(int shard);
+	}
+
+	/**
+	 * Runs work on every shard, each on the shard's executor, and waits for
+	 * all of it to finish.
+	 */
+	private <R> List<R> fanOut(final ShardWork<R> work) {
+		List<Future<R>> parts = new ArrayList<Future<R>>(_shards.length);
+		for(int i = 0; i < _shards.length; i++) {
+			final int shard = i;
+			parts.add(_executors[shard].submit(new Callable<R>() {
+				@Override
+				public R call() {
+					return work.run(shard);
+				}
+			}));
+		}
+		List<R> results = new ArrayList<R>(parts.size());
+		for(Future<R> part : parts) {
+			results.add(await(part));
+		}
+		return Collections.unmodifiableList(results);
+	}
+
+	private static <R> R await(Future<R> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a shard", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Failed to update a shard", e.getCause());
+		}
+	}
+
+	/**
+	 * Returns, for each shard, the executor that runs its fan-out tasks and,
+	 * with single writers, its writes: a thread per shard if singleWriter is
+	 * true, or else a pool with a thread per shard shared by all of them.
+	 */
+	private static ExecutorService[] createExecutors(int shards, boolean singleWriter) {
+		if(shards < 1) {
+			throw new IllegalArgumentException("A store needs at least one shard");
+		}
+		ExecutorService[] executors = new ExecutorService[shards];
+		if(singleWriter) {
+			for(int i = 0; i < shards; i++) {
+				executors[i] = Executors.newSingleThreadExecutor(threadFactory("avatar-shard-" + i));
+			}
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(shards, threadFactory("avatar-shards-"));
+			for(int i = 0; i < shards; i++) {
+				executors[i] = pool;
+			}
+		}
+		return executors;
+	}
+
+	private static ThreadFactory threadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				int count = _count.incrementAndGet();
+				Thread thread = new Thread(runnable, name.endsWith("-") ? name + count : name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
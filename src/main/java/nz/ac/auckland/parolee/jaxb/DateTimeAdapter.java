@@ -8,6 +8,9 @@ import org.joda.time.DateTime;
  * JAXB XML adapter to convert between Joda DateTime instances and Strings.
  * DateTime objects are marshalled as Strings, and unmarshalled back into 
  * DateTime instances.
+ * 
+ * The ISO-8601 form produced by Joda is converted by IsoFormats without
+ * going through Joda's general-purpose converters.
  *
  */
 public class DateTimeAdapter extends XmlAdapter<String, DateTime> {
@@ -18,7 +21,7 @@ public class DateTimeAdapter extends XmlAdapter<String, DateTime> {
 			return null;
 		}
 		
-		return new DateTime(dateTimeAsString);
+		return IsoFormats.parseDateTime(dateTimeAsString);
 	}
 
 	@Override
@@ -27,6 +30,6 @@ public class DateTimeAdapter extends XmlAdapter<String, DateTime> {
 			return null;
 		}
 		
-		return dateTime.toString();
+		return IsoFormats.printDateTime(dateTime);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+package nz.ac.auckland.parolee.jaxb;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.IllegalFieldValueException;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Fast parsing and printing of the ISO-8601 forms that Joda's toString()
+ * methods produce, for the JAXB date adapters:
+ * - LocalDate: yyyy-MM-dd;
+ * - LocalTime: HH:mm:ss.SSS;
+ * - DateTime: yyyy-MM-ddTHH:mm:ss.SSS followed by Z or +HH:mm/-HH:mm.
+ *
+ * Values are read and written directly from and to characters. Anything 
+ * else, such as years outside 0000-9999, other chronologies or less usual
+ * ISO forms, is handed to Joda's general-purpose parsers and printers, so 
+ * results are always the same as Joda's.
+ *
+ * Recently parsed dates are kept in a small cache, since the same dates
+ * (e.g. dates of birth) tend to recur.
+ *
+ */
+final class IsoFormats {
+	private static final Chronology ISO_UTC = ISOChronology.getInstanceUTC();
+
+	private static final int DATE_CACHE_SIZE = 256;
+
+	// Direct-mapped cache of parsed dates, indexed by the hash of the date's
+	// String. Entries are immutable, so slots can be read and replaced 
+	// without locking.
+	private static final CachedDate[] _dateCache = new CachedDate[DATE_CACHE_SIZE];
+
+	private IsoFormats() {
+	}
+
+	static LocalDate parseLocalDate(String s) {
+		int slot = s.hashCode() & (DATE_CACHE_SIZE - 1);
+		CachedDate cached = _dateCache[slot];
+		if(cached != null && cached._text.equals(s)) {
+			return cached._date;
+		}
+
+		LocalDate date = null;
+		if(s.length() == 10 && s.charAt(4) == '-' && s.charAt(7) == '-') {
+			int year = digits(s, 0, 4);
+			int month = digits(s, 5, 2);
+			int day = digits(s, 8, 2);
+			if((year | month | day) >= 0) {
+				try {
+					date = new LocalDate(year, month, day, ISO_UTC);
+				} catch (IllegalFieldValueException e) {
+					// Let Joda report the error.
+				}
+			}
+		}
+		if(date == null) {
+			date = new LocalDate(s);
+		}
+		_dateCache[slot] = new CachedDate(s, date);
+		return date;
+	}
+
+	static String printLocalDate(LocalDate date) {
+		int year = date.getYear();
+		if(date.getChronology() != ISO_UTC || year < 0 || year > 9999) {
+			return date.toString();
+		}
+		char[] chars = new char[10];
+		appendDate(chars, year, date.getMonthOfYear(), date.getDayOfMonth());
+		return new String(chars);
+	}
+
+	static LocalTime parseLocalTime(String s) {
+		if(s.length() == 12 && isTime(s, 0)) {
+			try {
+				return new LocalTime(digits(s, 0, 2), digits(s, 3, 2), 
+						digits(s, 6, 2), digits(s, 9, 3), ISO_UTC);
+			} catch (IllegalFieldValueException e) {
+				// Let Joda report the error.
+			}
+		}
+		return new LocalTime(s);
+	}
+
+	static String printLocalTime(LocalTime time) {
+		if(time.getChronology() != ISO_UTC) {
+			return time.toString();
+		}
+		char[] chars = new char[12];
+		appendTime(chars, 0, time.getHourOfDay(), time.getMinuteOfHour(), 
+				time.getSecondOfMinute(), time.getMillisOfSecond());
+		return new String(chars);
+	}
+
+	static DateTime parseDateTime(String s) {
+		int length = s.length();
+		if((length == 24 || length == 29) && s.charAt(4) == '-' 
+				&& s.charAt(7) == '-' && s.charAt(10) == 'T' && isTime(s, 11)) {
+			int offset = offsetMillis(s, 23);
+			int year = digits(s, 0, 4);
+			int month = digits(s, 5, 2);
+			int day = digits(s, 8, 2);
+			if(offset != Integer.MIN_VALUE && (year | month | day) >= 0) {
+				try {
+					long local = ISO_UTC.getDateTimeMillis(year, month, day,
+							digits(s, 11, 2), digits(s, 14, 2), digits(s, 17, 2), 
+							digits(s, 20, 3));
+					// Like new DateTime(String), the result is in the default
+					// time zone.
+					return new DateTime(local - offset);
+				} catch (IllegalFieldValueException e) {
+					// Let Joda report the error.
+				}
+			}
+		}
+		return new DateTime(s);
+	}
+
+	static String printDateTime(DateTime time) {
+		if(!(time.getChronology() instanceof ISOChronology)) {
+			return time.toString();
+		}
+		long millis = time.getMillis();
+		DateTimeZone zone = time.getZone();
+		int offset = zone.getOffset(millis);
+		long local = millis + offset;
+		int year = ISO_UTC.year().get(local);
+		if(offset % 60000 != 0 || year < 0 || year > 9999) {
+			return time.toString();
+		}
+
+		char[] chars = new char[offset == 0 ? 24 : 29];
+		appendDate(chars, year, ISO_UTC.monthOfYear().get(local), 
+				ISO_UTC.dayOfMonth().get(local));
+		chars[10] = 'T';
+		appendTime(chars, 11, ISO_UTC.hourOfDay().get(local), 
+				ISO_UTC.minuteOfHour().get(local), ISO_UTC.secondOfMinute().get(local),
+				ISO_UTC.millisOfSecond().get(local));
+		if(offset == 0) {
+			chars[23] = 'Z';
+		} else {
+			int minutes = offset / 60000;
+			chars[23] = minutes < 0 ? '-' : '+';
+			minutes = Math.abs(minutes);
+			append(chars, 24, minutes / 60, 2);
+			chars[26] = ':';
+			append(chars, 27, minutes % 60, 2);
+		}
+		return new String(chars);
+	}
+
+	private static void appendDate(char[] chars, int year, int month, int day) {
+		append(chars, 0, year, 4);
+		chars[4] = '-';
+		append(chars, 5, month, 2);
+		chars[7] = '-';
+		append(chars, 8, day, 2);
+	}
+
+	private static void appendTime(char[] chars, int start, int hour, int minute, 
+			int second, int millis) {
+		append(chars, start, hour, 2);
+		chars[start + 2] = ':';
+		append(chars, start + 3, minute, 2);
+		chars[start + 5] = ':';
+		append(chars, start + 6, second, 2);
+		chars[start + 8] = '.';
+		append(chars, start + 9, millis, 3);
+	}
+
+	private static void append(char[] chars, int start, int value, int width) {
+		for(int i = start + width - 1; i >= start; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Returns whether s has the form HH:mm:ss.SSS at start, ignoring 
+	 * whether the characters between separators are digits.
+	 */
+	private static boolean isTime(String s, int start) {
+		return s.charAt(start + 2) == ':' && s.charAt(start + 5) == ':' 
+				&& s.charAt(start + 8) == '.';
+	}
+
+	/**
+	 * Parses the offset at start, returning Integer.MIN_VALUE if it isn't Z
+	 * or +HH:mm/-HH:mm.
+	 */
+	private static int offsetMillis(String s, int start) {
+		int length = s.length() - start;
+		char sign = s.charAt(start);
+		if(length == 1) {
+			return sign == 'Z' ? 0 : Integer.MIN_VALUE;
+		}
+		if(length != 6 || (sign != '+' && sign != '-') || s.charAt(start + 3) != ':') {
+			return Integer.MIN_VALUE;
+		}
+		int hours = digits(s, start + 1, 2);
+		int minutes = digits(s, start + 4, 2);
+		if(hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+			return Integer.MIN_VALUE;
+		}
+		int offset = (hours * 60 + minutes) * 60000;
+		return sign == '-' ? -offset : offset;
+	}
+
+	/**
+	 * Parses count decimal digits at start, returning -1 if any character 
+	 * isn't a digit. Other digits than ASCII ones are left to Joda.
+	 */
+	private static int digits(String s, int start, int count) {
+		int value = 0;
+		for(int i = start; i < start + count; i++) {
+			int digit = s.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static final class CachedDate {
+		private final String _text;
+		private final LocalDate _date;
+
+		CachedDate(String text, LocalDate date) {
+			_text = text;
+			_date = date;
+		}
+	}
+}
@@ -9,6 +9,9 @@ import org.joda.time.LocalDate;
  * LocalDate objects are marshalled as Strings, and unmarshalled back into 
  * LocalDate instances.
  * 
+ * The ISO-8601 form produced by Joda is converted by IsoFormats without
+ * going through Joda's general-purpose converters.
+ * 
  */
 public class LocalDateAdapter extends XmlAdapter<String, LocalDate> {
 
@@ -18,7 +21,7 @@ public class LocalDateAdapter extends XmlAdapter<String, LocalDate> {
 			return null;
 		}
 		
-		return new LocalDate(dateAsString);
+		return IsoFormats.parseLocalDate(dateAsString);
 	}
 
 	@Override
@@ -27,6 +30,6 @@ public class LocalDateAdapter extends XmlAdapter<String, LocalDate> {
 			return null;
 		}
 		
-		return date.toString();
+		return IsoFormats.printLocalDate(date);
 	}
 }
\ No newline at end of file
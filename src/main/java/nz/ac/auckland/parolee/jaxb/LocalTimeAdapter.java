@@ -9,6 +9,9 @@ import org.joda.time.LocalTime;
  * LocalTime objects are marshalled as Strings, and unmarshalled back into 
  * LocalTime instances.
  * 
+ * The ISO-8601 form produced by Joda is converted by IsoFormats without
+ * going through Joda's general-purpose converters.
+ * 
  */
 public class LocalTimeAdapter extends XmlAdapter<String, LocalTime> {
 
@@ -18,7 +21,7 @@ public class LocalTimeAdapter extends XmlAdapter<String, LocalTime> {
 			return null;
 		}
 		
-		return new LocalTime(timeAsString);
+		return IsoFormats.parseLocalTime(timeAsString);
 	}
 
 	@Override
@@ -27,6 +30,6 @@ public class LocalTimeAdapter extends XmlAdapter<String, LocalTime> {
 			return null;
 		}
 		
-		return time.toString();
+		return IsoFormats.printLocalTime(time);
 	}
 }
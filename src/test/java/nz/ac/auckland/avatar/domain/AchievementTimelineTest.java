@@ -0,0 +1,160 @@
+package nz.ac.auckland.avatar.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that AchievementTimeline keeps achievements most recent first and
+ * returns the requested windows.
+ */
+public class AchievementTimelineTest {
+	private static final DateTime START = new DateTime(2016, 4, 1, 12, 0);
+
+	private AchievementTimeline _timeline;
+
+	@Before
+	public void createTimeline() {
+		_timeline = new AchievementTimeline();
+	}
+
+	private Achievement add(int minutes, String name) {
+		Achievement achievement = new Achievement(0, START.plusMinutes(minutes), name);
+		_timeline.add(achievement);
+		return achievement;
+	}
+
+	/**
+	 * Tests that achievements added out of order are returned most recent 
+	 * first, with ties ordered most recently added first.
+	 */
+	@Test
+	public void ordersMostRecentFirst() {
+		assertNull(_timeline.latest());
+
+		add(10, "b");
+		add(30, "d");
+		add(0, "a");
+		add(20, "c1");
+		Achievement c2 = add(20, "c2");
+		_timeline.add(new Achievement(0, null, "untimed"));
+
+		List<Achievement> all = _timeline.toList();
+		assertEquals(6, all.size());
+		assertEquals("d", all.get(0).getAchievementName());
+		assertSame(c2, all.get(1));
+		assertEquals("c1", all.get(2).getAchievementName());
+		assertEquals("untimed", all.get(5).getAchievementName());
+		assertEquals("d", _timeline.latest().getAchievementName());
+	}
+
+	/**
+	 * Tests from/to bounds, which are inclusive, and limits.
+	 */
+	@Test
+	public void timeRangeWindow() {
+		for(int i = 0; i < 10; i++) {
+			add(i * 10, "a" + i);
+		}
+
+		List<Achievement> window = _timeline.window(START.plusMinutes(20), 
+				START.plusMinutes(50), null, 0);
+		assertEquals(4, window.size());
+		assertEquals("a5", window.get(0).getAchievementName());
+		assertEquals("a2", window.get(3).getAchievementName());
+
+		window = _timeline.window(START.plusMinutes(20), null, null, 2);
+		assertEquals(2, window.size());
+		assertEquals("a9", window.get(0).getAchievementName());
+	}
+
+	/**
+	 * Tests paging through the timeline with the before cursor.
+	 */
+	@Test
+	public void pageWithBefore() {
+		for(int i = 0; i < 10; i++) {
+			add(i * 10, "a" + i);
+		}
+
+		List<Achievement> page = _timeline.window(null, null, null, 4);
+		assertEquals("a9", page.get(0).getAchievementName());
+		assertEquals("a6", page.get(3).getAchievementName());
+
+		page = _timeline.window(null, null, page.get(3).getTimeAchieved(), 4);
+		assertEquals("a5", page.get(0).getAchievementName());
+		assertEquals("a2", page.get(3).getAchievementName());
+
+		page = _timeline.window(null, null, page.get(3).getTimeAchieved(), 4);
+		assertEquals(2, page.size());
+		assertEquals("a0", page.get(1).getAchievementName());
+	}
+
+	/**
+	 * Tests that paging with cursors neither skips nor repeats achievements
+	 * that share a time across a page boundary.
+	 */
+	@Test
+	public void pageAcrossEqualTimes() {
+		add(0, "a");
+		for(int i = 0; i < 5; i++) {
+			add(10, "b" + i);
+		}
+		add(20, "c");
+
+		AchievementTimeline.Page page = _timeline.page(null, null, null, null, 3);
+		assertEquals(names("c", "b4", "b3"), names(page.getAchievements()));
+		page = _timeline.page(null, null, null, page.getNext(), 3);
+		assertEquals(names("b2", "b1", "b0"), names(page.getAchievements()));
+		page = _timeline.page(null, null, null, 
+				AchievementTimeline.Cursor.parse(page.getNext().toString()), 3);
+		assertEquals(names("a"), names(page.getAchievements()));
+		assertNull(page.getNext());
+
+		// A full last page has no next cursor either.
+		page = _timeline.page(START.plusMinutes(10), null, null, null, 6);
+		assertEquals(6, page.getAchievements().size());
+		assertNull(page.getNext());
+	}
+
+	/**
+	 * Tests that a cursor taken from one timeline resumes at the same place
+	 * in a timeline rebuilt, in a different order, from achievements with
+	 * distinct ids.
+	 */
+	@Test
+	public void cursorSurvivesRebuild() {
+		List<Achievement> achievements = new ArrayList<Achievement>();
+		for(int i = 0; i < 6; i++) {
+			achievements.add(new Achievement(i + 1, START, "a" + i));
+		}
+		AchievementTimeline.Page page = new AchievementTimeline(achievements)
+				.page(null, null, null, null, 2);
+		assertEquals(names("a5", "a4"), names(page.getAchievements()));
+
+		Collections.reverse(achievements);
+		page = new AchievementTimeline(achievements).page(null, null, null, page.getNext(), 2);
+		assertEquals(names("a3", "a2"), names(page.getAchievements()));
+	}
+
+	private static List<String> names(String... names) {
+		return Arrays.asList(names);
+	}
+
+	private static List<String> names(List<Achievement> achievements) {
+		List<String> names = new ArrayList<String>();
+		for(Achievement achievement : achievements) {
+			names.add(achievement.getAchievementName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,147 @@
+package nz.ac.auckland.avatar.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.xml.bind.JAXBContext;
+
+import org.junit.Test;
+
+/**
+ * Tests that Bag holds a set of Items shared through the ItemCatalog, and
+ * compares and hashes like any other Set of the same Items.
+ */
+public class BagTest {
+
+	/**
+	 * Tests adding, removing and counting Items, including ones without a
+	 * type or description.
+	 */
+	@Test
+	public void setOfItems() {
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Oak staff", ItemType.STAFF));
+		bag.addItem(new Item(5, "Oak staff", ItemType.STAFF));
+		bag.addItem(new Item(2, "Yew staff", ItemType.STAFF));
+		bag.addItem(new Item(2, null, ItemType.STAFF));
+		bag.addItem(new Item(1, "Pebble", null));
+		bag.addItem(new Item(3, "Small potion", ItemType.HEALTH_POTION));
+		assertEquals(5, bag.getItems().size());
+		assertEquals(3, bag.count(ItemType.STAFF));
+		assertEquals(1, bag.count(null));
+		assertEquals(0, bag.count(ItemType.SWORD));
+		assertTrue(bag.getItems().contains(new Item(2, null, ItemType.STAFF)));
+
+		bag.removeItem(new Item(5, "Oak staff", ItemType.STAFF));
+		bag.removeItem(new Item(5, "Oak staff", ItemType.SWORD));
+		assertEquals(2, bag.count(ItemType.STAFF));
+		assertFalse(bag.getItems().contains(new Item(5, "Oak staff", ItemType.STAFF)));
+
+		int items = 0;
+		for(Item item : bag.getItems()) {
+			assertTrue(bag.getItems().contains(item));
+			items++;
+		}
+		assertEquals(4, items);
+
+		ItemSet set = new ItemSet();
+		set.addAll(bag.getItems());
+		for(Iterator<Item> i = set.iterator(); i.hasNext();) {
+			if(i.next().getItemType() == ItemType.STAFF) {
+				i.remove();
+			}
+		}
+		assertEquals(2, set.size());
+		assertEquals(0, set.count(ItemType.STAFF));
+	}
+
+	/**
+	 * Tests that Bags holding the same Items are equal and hash alike
+	 * whatever order the Items were added in, and that a Bag's Items equal
+	 * and hash like a HashSet of them.
+	 */
+	@Test
+	public void equality() {
+		Item[] items = {
+				new Item(5, "Oak staff", ItemType.STAFF),
+				new Item(20, "Blocks", ItemType.SHIELD),
+				new Item(3, "Heals", ItemType.HEALTH_POTION),
+				new Item(4, "Heals", ItemType.HEALTH_POTION),
+				new Item(-2, null, ItemType.MANA_POTION)};
+		Bag bag = new Bag();
+		Bag reversed = new Bag();
+		for(int i = 0; i < items.length; i++) {
+			bag.addItem(items[i]);
+			reversed.addItem(items[items.length - 1 - i]);
+		}
+		assertEquals(bag, reversed);
+		assertEquals(bag.hashCode(), reversed.hashCode());
+
+		Set<Item> expected = new HashSet<Item>(Arrays.asList(items));
+		assertEquals(expected, bag.getItems());
+		assertEquals(bag.getItems(), expected);
+		assertEquals(expected.hashCode(), bag.hashCode());
+
+		reversed.removeItem(items[3]);
+		assertNotEquals(bag, reversed);
+		reversed.addItem(new Item(4, "Heals", ItemType.SHIELD));
+		assertNotEquals(bag, reversed);
+	}
+
+	/**
+	 * Tests that a Bag's bonus to each Stat follows Items as they're added
+	 * and removed.
+	 */
+	@Test
+	public void bonuses() {
+		Bag bag = new Bag();
+		assertEquals(0, bag.getBonus(Stat.ATTACK));
+		bag.addItem(new Item(5, "Short sword", ItemType.SWORD));
+		bag.addItem(new Item(8, "Long sword", ItemType.SWORD));
+		bag.addItem(new Item(8, "Long sword", ItemType.SWORD));
+		bag.addItem(new Item(4, "Buckler", ItemType.SHIELD));
+		bag.addItem(new Item(9, "Rock", null));
+		assertEquals(13, bag.getBonus(Stat.ATTACK));
+		assertEquals(4, bag.getBonus(Stat.DEFENCE));
+		assertEquals(0, bag.getBonus(Stat.MAGIC));
+
+		bag.removeItem(new Item(5, "Short sword", ItemType.SWORD));
+		bag.removeItem(new Item(9, "Rock", null));
+		assertEquals(8, bag.getBonus(Stat.ATTACK));
+		bag.removeItem(new Item(4, "Buckler", ItemType.SHIELD));
+		assertEquals(0, bag.getBonus(Stat.DEFENCE));
+	}
+
+	/**
+	 * Tests that Bags, including ones unmarshalled from XML, hold the
+	 * catalog's instance of each Item.
+	 */
+	@Test
+	public void sharesItems() throws Exception {
+		Bag bag = new Bag();
+		bag.addItem(new Item(7, new String("Shared sword"), ItemType.SWORD));
+		Bag other = new Bag();
+		other.addItem(new Item(7, new String("Shared sword"), ItemType.SWORD));
+		Item shared = ItemCatalog.intern(new Item(7, "Shared sword", ItemType.SWORD));
+		assertSame(shared, bag.getItems().iterator().next());
+		assertSame(shared, other.getItems().iterator().next());
+
+		JAXBContext context = JAXBContext.newInstance(Bag.class);
+		StringWriter xml = new StringWriter();
+		context.createMarshaller().marshal(bag, xml);
+		Bag copy = (Bag) context.createUnmarshaller().unmarshal(new StringReader(xml.toString()));
+		assertEquals(bag, copy);
+		assertSame(shared, copy.getItems().iterator().next());
+		assertEquals(1, copy.count(ItemType.SWORD));
+	}
+}
@@ -0,0 +1,158 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+
+/**
+ * Tests AchievementFeed's ring buffer, its delivery as server-sent events,
+ * and that AvatarResource publishes recorded achievements to it.
+ */
+public class AchievementFeedTest {
+
+	/**
+	 * Tests that the most recent events are held, and that reading from an
+	 * overwritten event starts at the oldest held.
+	 */
+	@Test
+	public void ring() {
+		AchievementFeed feed = new AchievementFeed(8);
+		assertEquals(8, feed.capacity());
+		for(int i = 0; i < 10; i++) {
+			assertEquals(i, feed.publish(i, achievement("A" + i)));
+		}
+
+		List<AchievementFeed.Event> events = feed.read(0, 100);
+		assertEquals(8, events.size());
+		assertEquals(2, events.get(0).getSequence());
+		assertEquals(9, events.get(7).getSequence());
+		assertEquals(5, feed.read(5, 2).get(0).getSequence());
+		assertEquals(2, feed.read(5, 2).size());
+		assertTrue(feed.read(10, 100).isEmpty());
+	}
+
+	/**
+	 * Tests that a subscriber waiting for an event is woken when it's
+	 * published, and times out otherwise.
+	 */
+	@Test
+	public void await() throws Exception {
+		final AchievementFeed feed = new AchievementFeed(8);
+		assertFalse(feed.await(0, 10, TimeUnit.MILLISECONDS));
+
+		final CountDownLatch waiting = new CountDownLatch(1);
+		final AtomicReference<Boolean> published = new AtomicReference<Boolean>();
+		Thread subscriber = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				waiting.countDown();
+				try {
+					published.set(feed.await(0, 10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					published.set(false);
+				}
+			}
+		});
+		subscriber.start();
+		waiting.await();
+		feed.publish(1, achievement("A"));
+		subscriber.join(10000);
+		assertTrue(published.get());
+	}
+
+	/**
+	 * Tests that a subscriber reading while several threads publish sees
+	 * every event, in sequence.
+	 */
+	@Test
+	public void concurrentPublishers() throws Exception {
+		final int publishers = 4;
+		final int perPublisher = 2000;
+		final AchievementFeed feed = new AchievementFeed(publishers * perPublisher);
+		Thread[] threads = new Thread[publishers];
+		for(int t = 0; t < publishers; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < perPublisher; i++) {
+						feed.publish(i, achievement("A"));
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		long next = 0;
+		while(next < publishers * perPublisher) {
+			List<AchievementFeed.Event> events = feed.read(next, 100);
+			if(events.isEmpty()) {
+				assertTrue(feed.await(next, 10, TimeUnit.SECONDS));
+			}
+			for(AchievementFeed.Event event : events) {
+				assertEquals(next++, event.getSequence());
+			}
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Tests the server-sent events written for a subscriber that has fallen
+	 * behind.
+	 */
+	@Test
+	public void skipsOverwrittenEvents() throws Exception {
+		AchievementFeed feed = new AchievementFeed(4);
+		for(int i = 0; i < 10; i++) {
+			feed.publish(7, achievement("A" + i));
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new AchievementFeedOutput(feed, 0, 2).write(output);
+		String events = output.toString("UTF-8");
+
+		assertTrue(events.startsWith("event: skipped\ndata: 6\n\nid: 6\nevent: achievement\ndata: "));
+		assertTrue(events.contains("A6"));
+		assertTrue(events.contains("id: 7\n"));
+		assertFalse(events.contains("A8"));
+	}
+
+	/**
+	 * Tests that achievements recorded through AvatarResource are streamed,
+	 * and that a client can resume after the last event it received.
+	 */
+	@Test
+	public void streamsRecordedAchievements() throws Exception {
+		MockService service = MockService.withAvatars();
+		for(String name : new String[] {"First blood", "Dragon slain"}) {
+			assertEquals(204, service.send(MockHttpRequest.post("/avatars/2/achievements"),
+					"<achievement><achievement-name>" + name
+					+ "</achievement-name></achievement>").getStatus());
+		}
+
+		String events = service.get("/avatars/achievements/feed?from=0&limit=2", 200);
+		assertTrue(events.contains("id: 0\n") && events.contains("First blood"));
+		assertTrue(events.contains("id: 1\n") && events.contains("Dragon slain"));
+		assertTrue(events.contains("avatar-id=\"2\""));
+
+		events = service.invoke(MockHttpRequest.get("/avatars/achievements/feed?limit=1")
+				.header("Last-Event-ID", "0")).getContentAsString();
+		assertTrue(events.contains("Dragon slain") && !events.contains("First blood"));
+	}
+
+	private static Achievement achievement(String name) {
+		return new Achievement(0, new DateTime(), name);
+	}
+}
@@ -0,0 +1,79 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ws.rs.core.Link;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that GET {id}/achievements serves windows of an Avatar's timeline.
+ */
+public class AvatarAchievementsTest {
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests that the most recent achievements are returned first, and that
+	 * an Avatar that doesn't exist gives a 404 rather than a 500.
+	 */
+	@Test
+	public void getAchievements() throws Exception {
+		for(String name : new String[] {"First blood", "Dragon slain"}) {
+			_service.send(MockHttpRequest.post("/avatars/2/achievements"),
+					"<achievement><achievement-name>" + name
+					+ "</achievement-name></achievement>");
+		}
+		String latest = _service.get("/avatars/2/achievements?limit=1", 200);
+		assertTrue(latest.contains("Dragon slain"));
+		assertFalse(latest.contains("First blood"));
+
+		_service.get("/avatars/12345/achievements", 404);
+	}
+
+	/**
+	 * Tests following next links through achievements received at the same
+	 * time, across page boundaries.
+	 */
+	@Test
+	public void pageAchievementsWithTheSameTime() throws Exception {
+		for(int i = 0; i < 5; i++) {
+			_service.send(MockHttpRequest.post("/avatars/2/achievements"),
+					"<achievement><achievement-name>Quest " + i + "</achievement-name>"
+					+ "<time-recieved>2016-04-01T12:00:00.000Z</time-recieved></achievement>");
+		}
+
+		Set<String> seen = new HashSet<String>();
+		String uri = "/avatars/2/achievements?limit=2";
+		int pages = 0;
+		while(uri != null) {
+			MockHttpResponse response = _service.invoke(MockHttpRequest.get(uri));
+			assertEquals(200, response.getStatus());
+			String page = response.getContentAsString();
+			for(int i = 0; i < 5; i++) {
+				if(page.contains("Quest " + i + "<")) {
+					assertTrue(seen.add("Quest " + i));
+				}
+			}
+			Object next = response.getOutputHeaders().getFirst("Link");
+			uri = next == null ? null : Link.valueOf(next.toString()).getUri().toString();
+			pages++;
+		}
+		assertEquals(5, seen.size());
+		assertEquals(3, pages);
+
+		_service.get("/avatars/2/achievements?after=12", 400);
+	}
+}
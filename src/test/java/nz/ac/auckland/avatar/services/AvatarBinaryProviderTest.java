@@ -0,0 +1,142 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.dto.Avatar;
+
+/**
+ * Tests that AvatarBinaryProvider round trips the types on the wire, and 
+ * that the Web service offers the binary format through content 
+ * negotiation while keeping XML as the default.
+ */
+public class AvatarBinaryProviderTest {
+	private static final MediaType BINARY = MediaType.valueOf(AvatarBinaryProvider.MEDIA_TYPE);
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	private AvatarBinaryProvider _provider;
+
+	@Before
+	public void createProvider() {
+		_provider = new AvatarBinaryProvider();
+	}
+
+	private static Avatar createAvatar(long id) {
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Oak staff", ItemType.STAFF));
+		bag.addItem(new Item(-2, null, ItemType.MANA_POTION));
+		List<Achievement> achievements = new ArrayList<Achievement>();
+		Achievement achievement = new Achievement(3, new DateTime(2015, 5, 1, 10, 0), "Balrog");
+		achievement.setQuestId(12);
+		achievements.add(achievement);
+		achievements.add(new Achievement(4, null, "\u00dcn nombre"));
+		return new Avatar(id, "gandalf", Category.MAGE, new LocalDate(1954, 7, 29), 
+				bag, achievements);
+	}
+
+	private byte[] write(Object value, Type type) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		_provider.writeTo(value, value.getClass(), type, NO_ANNOTATIONS, BINARY, null, out);
+		return out.toByteArray();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object read(byte[] bytes, Class<?> type, Type genericType) throws Exception {
+		return _provider.readFrom((Class) type, genericType, NO_ANNOTATIONS, BINARY, null,
+				new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Tests that an Avatar, with its bag and achievements, survives a round
+	 * trip and is smaller than its XML representation.
+	 */
+	@Test
+	public void roundTripAvatar() throws Exception {
+		Avatar avatar = createAvatar(Long.MAX_VALUE);
+		assertTrue(_provider.isWriteable(Avatar.class, Avatar.class, NO_ANNOTATIONS, BINARY));
+
+		byte[] bytes = write(avatar, Avatar.class);
+		Avatar copy = (Avatar) read(bytes, Avatar.class, Avatar.class);
+
+		assertEquals(avatar, copy);
+		assertEquals(avatar.getBag(), copy.getBag());
+		assertEquals(2, copy.getAchievements().size());
+		Achievement achievement = copy.getAchievements().get(0);
+		assertEquals(3, achievement.getId());
+		assertEquals("Balrog", achievement.getAchievementName());
+		assertEquals(12, achievement.getQuestId());
+		assertEquals(new DateTime(2015, 5, 1, 10, 0).getMillis(),
+				achievement.getTimeAchieved().getMillis());
+		assertEquals("\u00dcn nombre", copy.getAchievements().get(1).getAchievementName());
+
+		StringWriter xml = new StringWriter();
+		JAXBContext.newInstance(Avatar.class).createMarshaller().marshal(avatar, xml);
+		assertTrue(bytes.length * 4 < xml.toString().getBytes("UTF-8").length);
+	}
+
+	/**
+	 * Tests that Sets of Avatars are read and written, and that collections 
+	 * of unsupported types are left to other providers.
+	 */
+	@Test
+	public void roundTripSet() throws Exception {
+		Set<Avatar> friends = new LinkedHashSet<Avatar>();
+		friends.add(createAvatar(1));
+		friends.add(createAvatar(2));
+		Type type = new GenericEntity<Set<Avatar>>(friends) {}.getType();
+
+		assertTrue(_provider.isReadable(Set.class, type, NO_ANNOTATIONS, BINARY));
+		Object copy = read(write(friends, type), Set.class, type);
+		assertEquals(friends, copy);
+
+		Type strings = new GenericEntity<List<String>>(new ArrayList<String>()) {}.getType();
+		assertTrue(!_provider.isWriteable(ArrayList.class, strings, NO_ANNOTATIONS, BINARY));
+	}
+
+	/**
+	 * Tests that the Web service returns the binary format when it's asked 
+	 * for, and XML otherwise.
+	 */
+	@Test
+	public void negotiateFormat() throws Exception {
+		MockService service = MockService.withAvatars();
+
+		MockHttpResponse response = service.invoke(MockHttpRequest.get("/avatars/1").accept(BINARY));
+		assertEquals(200, response.getStatus());
+		assertEquals(BINARY.toString(), 
+				response.getOutputHeaders().getFirst(HttpHeaders.CONTENT_TYPE).toString());
+		Avatar avatar = (Avatar) read(response.getOutput(), Avatar.class, Avatar.class);
+		assertEquals(1, avatar.getId());
+
+		response = service.invoke(MockHttpRequest.get("/avatars/1"));
+		assertEquals(200, response.getStatus());
+		assertTrue(response.getContentAsString().contains("<avatar"));
+	}
+}
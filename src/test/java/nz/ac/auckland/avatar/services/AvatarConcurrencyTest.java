@@ -0,0 +1,231 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.Request;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.dto.AvatarAchievement;
+import nz.ac.auckland.avatar.store.AvatarStoreFactory;
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+import nz.ac.auckland.avatar.store.JpaAvatarStore;
+
+/**
+ * Stress tests that AvatarResource loses no updates when many threads 
+ * change the same Avatars at once: every achievement recorded is kept, and
+ * every change increments the Avatar's version exactly once. Also tests 
+ * that readers never see part of an update.
+ *
+ */
+public class AvatarConcurrencyTest {
+	private static final long[] IDS = { 1, 2, 3 };
+
+	@Test
+	public void noLostUpdatesInMemory() throws Exception {
+		stress(new AvatarResource(InMemoryAvatarStore.FACTORY), 8, 250);
+	}
+
+	/**
+	 * Tests that an achievement for an Avatar that doesn't exist is rejected
+	 * with a 404, rather than failing on the missing Avatar under its lock.
+	 */
+	@Test
+	public void achievementForUnknownAvatar() throws Exception {
+		MockService service = MockService.withAvatars();
+		assertEquals(404, service.send(MockHttpRequest.post("/avatars/12345/achievements"),
+				"<achievement><achievement-name>Lost</achievement-name></achievement>").getStatus());
+		assertEquals(204, service.send(MockHttpRequest.post("/avatars/1/achievements"),
+				"<achievement><achievement-name>Found</achievement-name></achievement>").getStatus());
+	}
+
+	/**
+	 * With a persistent store, every lookup returns a new instance of an 
+	 * Avatar, so changes must be serialised by id rather than by instance.
+	 */
+	@Test
+	public void noLostUpdatesWithJpa() throws Exception {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("hibernate.connection.url", "jdbc:h2:mem:concurrency;DB_CLOSE_DELAY=-1");
+		properties.put("javax.persistence.schema-generation.scripts.action", "none");
+		AvatarStoreFactory factory = new JpaAvatarStore.Factory(properties);
+		AvatarResource resource = new AvatarResource(factory);
+		try {
+			stress(resource, 4, 15);
+		} finally {
+			resource.currentStore().close();
+		}
+	}
+
+	/**
+	 * Tests that a GET of an Avatar part way through an update waits for
+	 * the update to finish, rather than seeing, and caching, only part of it.
+	 */
+	@Test
+	public void readersSeeWholeUpdates() throws Exception {
+		AvatarResource resource = new AvatarResource(InMemoryAvatarStore.FACTORY);
+		final MockService service = new MockService().addResource(resource);
+		final CountDownLatch updating = new CountDownLatch(1);
+		final CountDownLatch resume = new CountDownLatch(1);
+		final long id = resource.currentStore().nextId();
+		resource.currentStore().createAvatar(new Avatar(id, "even", Category.MAGE, 
+				new LocalDate(1970, 5, 26), new Bag()) {
+			@Override
+			public void setCategory(Category category) {
+				// Pause between changing the username and the category.
+				updating.countDown();
+				try {
+					resume.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				super.setCategory(category);
+			}
+		});
+		service.get("/avatars/" + id, 200);
+
+		final AtomicReference<String> read = new AtomicReference<String>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					updating.await();
+					read.set(service.get("/avatars/" + id, 200));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		reader.start();
+		Thread writer = update(resource, id);
+		reader.join(500);
+		resume.countDown();
+		writer.join();
+		reader.join();
+
+		assertTrue(read.get(), read.get().contains("<user-name>odd</user-name>"));
+		assertTrue(read.get(), read.get().contains(Category.MONK.toString()));
+		String avatar = service.get("/avatars/" + id, 200);
+		assertTrue(avatar, avatar.contains(Category.MONK.toString()));
+	}
+
+	private static Thread update(final AvatarResource resource, final long id) {
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					resource.updateAvatar(new nz.ac.auckland.avatar.dto.Avatar(id, "odd", 
+							Category.MONK, new LocalDate(1970, 5, 26), new Bag(), null), request());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+		return writer;
+	}
+
+	/**
+	 * Runs threads that each make iterations rounds of changes to the 
+	 * Avatars in IDS: an achievement for one Avatar, a batch of achievements
+	 * for two, and a new bag for one.
+	 */
+	private void stress(final AvatarResource resource, int threads, final int iterations) 
+			throws Exception {
+		Map<Long, Integer> achievementsBefore = new HashMap<Long, Integer>();
+		Map<Long, Long> versionsBefore = new HashMap<Long, Long>();
+		for(long id : IDS) {
+			Avatar avatar = resource.findAvatar(id);
+			achievementsBefore.put(id, avatar.getAchievements().size());
+			versionsBefore.put(id, avatar.getVersion());
+		}
+
+		final Map<Long, AtomicInteger> achievementsAdded = new HashMap<Long, AtomicInteger>();
+		final Map<Long, AtomicInteger> changes = new HashMap<Long, AtomicInteger>();
+		for(long id : IDS) {
+			achievementsAdded.put(id, new AtomicInteger());
+			changes.put(id, new AtomicInteger());
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(threads);
+
+		for(int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < iterations; i++) {
+							long id = IDS[(thread + i) % IDS.length];
+							resource.createAchievementForAvatar(id, achievement(thread, i));
+							record(id, true);
+
+							long other = IDS[(thread + i + 1) % IDS.length];
+							List<AvatarAchievement> batch = new ArrayList<AvatarAchievement>();
+							batch.add(new AvatarAchievement(id, achievement(thread, i)));
+							batch.add(new AvatarAchievement(other, achievement(thread, i)));
+							resource.createAchievementsForAvatars(batch);
+							record(id, true);
+							record(other, true);
+
+							int status = resource.updateBag(other, new Bag(), request()).getStatus();
+							assertEquals(204, status);
+							record(other, false);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						finished.countDown();
+					}
+				}
+
+				private void record(long id, boolean achievement) {
+					changes.get(id).incrementAndGet();
+					if(achievement) {
+						achievementsAdded.get(id).incrementAndGet();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		finished.await();
+		assertNull(String.valueOf(failure.get()), failure.get());
+
+		for(long id : IDS) {
+			Avatar avatar = resource.findAvatar(id);
+			assertEquals(achievementsBefore.get(id) + achievementsAdded.get(id).get(), 
+					avatar.getAchievements().size());
+			assertEquals(versionsBefore.get(id) + changes.get(id).get(), avatar.getVersion());
+		}
+	}
+
+	private static Achievement achievement(int thread, int iteration) {
+		return new Achievement(0, new DateTime(2015, 1, 1, 0, 0).plusMinutes(iteration), 
+				"stress-" + thread + "-" + iteration);
+	}
+
+	private static Request request() throws Exception {
+		return new RequestImpl(MockHttpRequest.put("/avatars"), new MockHttpResponse());
+	}
+}
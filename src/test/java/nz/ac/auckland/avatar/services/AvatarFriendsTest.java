@@ -0,0 +1,79 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {id}/friends endpoints.
+ */
+public class AvatarFriendsTest {
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests that PUT {id}/friends rejects a set of friends naming an Avatar 
+	 * that doesn't exist, leaving the Avatar's friends as they were.
+	 */
+	@Test
+	public void updateFriendsRejectsUnknownFriends() throws Exception {
+		assertEquals(204, putFriends(1, 2).getStatus());
+		assertEquals(400, putFriends(1, 3, 12345).getStatus());
+		assertEquals(404, putFriends(12345, 2).getStatus());
+
+		String friends = _service.get("/avatars/1/friends", 200);
+		assertTrue(friends.contains("id=\"2\""));
+		assertFalse(friends.contains("id=\"3\""));
+	}
+
+	/**
+	 * Tests that GET {id}/friends/network returns pages of the Avatar's 
+	 * friends of friends, linked by rel="next".
+	 */
+	@Test
+	public void friendsOfFriendsArePaged() throws Exception {
+		for(String username : new String[] {"four", "five"}) {
+			assertEquals(201, _service.send(MockHttpRequest.post("/avatars"),
+					"<avatar><user-name>" + username + "</user-name></avatar>").getStatus());
+		}
+		assertEquals(204, putFriends(1, 2).getStatus());
+		assertEquals(204, putFriends(2, 3, 4, 5).getStatus());
+
+		MockHttpResponse page = _service.invoke(MockHttpRequest.get("/avatars/1/friends/network?limit=2"));
+		assertEquals(200, page.getStatus());
+		assertTrue(page.getContentAsString().contains("id=\"3\""));
+		assertTrue(page.getContentAsString().contains("id=\"4\""));
+		assertFalse(page.getContentAsString().contains("id=\"5\""));
+		String next = page.getOutputHeaders().getFirst("Link").toString();
+		assertTrue(next.contains("after=4") && next.contains("rel=\"next\""));
+
+		page = _service.invoke(MockHttpRequest.get("/avatars/1/friends/network?after=4&limit=2"));
+		assertEquals(200, page.getStatus());
+		assertTrue(page.getContentAsString().contains("id=\"5\""));
+		assertFalse(page.getContentAsString().contains("id=\"4\""));
+		assertNull(page.getOutputHeaders().getFirst("Link"));
+
+		assertEquals(400, _service.invoke(
+				MockHttpRequest.get("/avatars/1/friends/network?limit=0")).getStatus());
+	}
+
+	private MockHttpResponse putFriends(long id, long... friends) 
+			throws Exception {
+		StringBuilder xml = new StringBuilder("<collection>");
+		for(long friend : friends) {
+			xml.append("<avatar id=\"").append(friend).append("\"/>");
+		}
+		xml.append("</collection>");
+		return _service.send(MockHttpRequest.put("/avatars/" + id + "/friends"), xml.toString());
+	}
+}
@@ -0,0 +1,127 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.core.MediaType;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests that PATCH {id} updates only the fields named in its field mask,
+ * and that PATCH {id}/bag adds and removes Items.
+ */
+public class AvatarPatchTest {
+	private static final String MANA_POTION = "<item><item_type>MANA_POTION</item_type>"
+			+ "<stat_increase_amount>5</stat_increase_amount>"
+			+ "<item_description>Able to replenish a small amount of mana</item_description></item>";
+
+	private static final String SWORD = "<item><item_type>SWORD</item_type>"
+			+ "<stat_increase_amount>9</stat_increase_amount>"
+			+ "<item_description>Sharp</item_description></item>";
+
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests that only masked fields change, and that the mask, the Avatar and
+	 * the If-Match header are checked.
+	 */
+	@Test
+	public void patchAvatar() throws Exception {
+		MockHttpResponse response = patch("/avatars/1?fields=user-name", 
+				"<avatar><user-name>ellie</user-name><category>MONK</category></avatar>", null);
+		assertEquals(204, response.getStatus());
+		String avatar = get("/avatars/1").getContentAsString();
+		assertTrue(avatar.contains("<user-name>ellie</user-name>"));
+		assertTrue(avatar.contains("<category>MAGE</category>"));
+		assertTrue(avatar.contains("Able to replenish a small amount of mana"));
+
+		assertEquals(204, patch("/avatars/1?fields=category,%20bag", 
+				"<avatar><category>MONK</category></avatar>", null).getStatus());
+		avatar = get("/avatars/1").getContentAsString();
+		assertTrue(avatar.contains("<category>MONK</category>"));
+		assertFalse(avatar.contains("<bag>"));
+
+		assertEquals(400, patch("/avatars/1", "<avatar/>", null).getStatus());
+		assertEquals(400, patch("/avatars/1?fields=user-name,id", "<avatar/>", null).getStatus());
+		assertEquals(404, patch("/avatars/12345?fields=category", "<avatar/>", null).getStatus());
+
+		String tag = get("/avatars/1").getOutputHeaders().getFirst("ETag").toString();
+		assertEquals(204, patch("/avatars/1?fields=user-name", 
+				"<avatar><user-name>ellie2</user-name></avatar>", tag).getStatus());
+		assertEquals(412, patch("/avatars/1?fields=user-name", 
+				"<avatar><user-name>ellie3</user-name></avatar>", tag).getStatus());
+	}
+
+	/**
+	 * Tests adding and removing Items, leaving the rest of the bag as it was.
+	 */
+	@Test
+	public void patchBag() throws Exception {
+		assertEquals(204, patch("/avatars/1/bag", 
+				"<bag-patch><add>" + SWORD + "</add></bag-patch>", null).getStatus());
+		String bag = get("/avatars/1/bag").getContentAsString();
+		assertTrue(bag.contains("Sharp") && bag.contains("Able to replenish"));
+
+		assertEquals(204, patch("/avatars/1/bag", "<bag-patch><remove>" + MANA_POTION 
+				+ "</remove><add>" + MANA_POTION + MANA_POTION + "</add></bag-patch>", null).getStatus());
+		assertEquals(204, patch("/avatars/1/bag", 
+				"<bag-patch><remove>" + SWORD + "</remove></bag-patch>", null).getStatus());
+		bag = get("/avatars/1/bag").getContentAsString();
+		assertTrue(!bag.contains("Sharp") && bag.contains("Able to replenish"));
+
+		// Avatar #3 has no bag.
+		assertEquals(204, patch("/avatars/3/bag", 
+				"<bag-patch><add>" + SWORD + "</add></bag-patch>", null).getStatus());
+		assertTrue(get("/avatars/3/bag").getContentAsString().contains("Sharp"));
+		assertEquals(404, patch("/avatars/12345/bag", 
+				"<bag-patch><add>" + SWORD + "</add></bag-patch>", null).getStatus());
+	}
+
+	/**
+	 * Tests that a PATCH without a body, or a bag patch without lists, is
+	 * rejected rather than failing on the server.
+	 */
+	@Test
+	public void patchWithoutBody() throws Exception {
+		assertEquals(400, patch("/avatars/1?fields=user-name", "", null).getStatus());
+		assertEquals(400, patch("/avatars/1/bag", "", null).getStatus());
+		assertEquals(400, patch("/avatars/1/bag", "<bag-patch/>", null).getStatus());
+		assertEquals(400, patch("/avatars/1/bag", 
+				"<bag-patch><remove/><add/></bag-patch>", null).getStatus());
+
+		// The XML provider rejects an empty body itself; the resource must
+		// still cope with a null entity from any other caller.
+		AvatarResource resource = new AvatarResource(InMemoryAvatarStore.FACTORY);
+		assertEquals(400, resource.patchAvatar(1, "user-name", null, null).getStatus());
+		assertEquals(400, resource.patchBag(1, null, null).getStatus());
+		assertTrue(get("/avatars/1").getContentAsString().contains("<user-name>ellieille</user-name>"));
+	}
+
+	private MockHttpResponse get(String uri) throws Exception {
+		MockHttpResponse response = _service.invoke(
+				MockHttpRequest.get(uri).accept(MediaType.APPLICATION_XML));
+		assertEquals(200, response.getStatus());
+		return response;
+	}
+
+	private MockHttpResponse patch(String uri, String xml, String ifMatch) throws Exception {
+		MockHttpRequest request = MockHttpRequest.create("PATCH", uri);
+		if(ifMatch != null) {
+			request.header("If-Match", ifMatch);
+		}
+		return _service.send(request, xml);
+	}
+}
@@ -0,0 +1,174 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.store.AvatarStore;
+import nz.ac.auckland.avatar.store.AvatarStoreFactory;
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+
+/**
+ * Tests that reloading the database starts a new epoch that requests can't
+ * confuse with the one before it.
+ */
+public class AvatarReloadTest {
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests that entity tags from before a reload match neither conditional 
+	 * GETs nor conditional PUTs after it, although the reloaded Avatar has 
+	 * the same id and version.
+	 */
+	@Test
+	public void entityTagsDontSurviveReload() throws Exception {
+		String tag = etag("/avatars/1");
+		assertEquals(304, _service.invoke(MockHttpRequest.get("/avatars/1")
+				.header("If-None-Match", tag)).getStatus());
+
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars"), null).getStatus());
+		assertTrue(!tag.equals(etag("/avatars/1")));
+		assertEquals(200, _service.invoke(MockHttpRequest.get("/avatars/1")
+				.header("If-None-Match", tag)).getStatus());
+		assertEquals(412, _service.send(MockHttpRequest.put("/avatars/1/skills")
+				.header("If-Match", tag), "<skills mana=\"1\"/>").getStatus());
+	}
+
+	/**
+	 * Tests that a request that started before a reload finishes against the
+	 * epoch it started in, and that requests after the reload see the new 
+	 * epoch only.
+	 */
+	@Test
+	public void requestsFinishInTheirEpoch() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch reloaded = new CountDownLatch(1);
+		final AtomicBoolean holdNext = new AtomicBoolean();
+		final MockService service = new MockService().addResource(
+				new AvatarResource(InMemoryAvatarStore.FACTORY) {
+			@Override
+			protected IndexedAvatarStore currentStore() {
+				IndexedAvatarStore store = super.currentStore();
+				if(holdNext.compareAndSet(true, false)) {
+					// Hold the request, with the store it read, until the
+					// database has been reloaded.
+					started.countDown();
+					try {
+						reloaded.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return store;
+			}
+		});
+
+		holdNext.set(true);
+		final AtomicReference<MockHttpResponse> before = new AtomicReference<MockHttpResponse>();
+		Thread request = new Thread() {
+			@Override
+			public void run() {
+				try {
+					before.set(service.send(MockHttpRequest.post("/avatars"),
+							"<avatar><user-name>before</user-name></avatar>"));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		request.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		assertEquals(204, service.send(MockHttpRequest.put("/avatars"), null).getStatus());
+		reloaded.countDown();
+		request.join(10000);
+		assertEquals(201, before.get().getStatus());
+		String location = before.get().getOutputHeaders().getFirst("Location").toString();
+		assertTrue(location.endsWith("avatars/4"));
+
+		// The Avatar created in the old epoch isn't in the new one.
+		service.get("/avatars/4", 404);
+		assertEquals(201, service.send(MockHttpRequest.post("/avatars"),
+				"<avatar><user-name>after</user-name></avatar>").getStatus());
+		String avatar = service.get("/avatars/4", 200);
+		assertTrue(avatar.contains("after") && !avatar.contains("before"));
+	}
+
+	/**
+	 * Tests that when a reload overlaps one that started before it, the 
+	 * store created last is the one left published, however long the first
+	 * reload takes.
+	 */
+	@Test
+	public void overlappingReloadsPublishTheNewestStore() throws Exception {
+		final List<AvatarStore> created = new CopyOnWriteArrayList<AvatarStore>();
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final AvatarResource resource = new AvatarResource(new AvatarStoreFactory() {
+			@Override
+			public AvatarStore createStore() {
+				AvatarStore store = new InMemoryAvatarStore();
+				created.add(store);
+				if(calls.incrementAndGet() == 2) {
+					// Hold up the first reload.
+					creating.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return store;
+			}
+		});
+
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				resource.reloadDatabase();
+			}
+		};
+		first.start();
+		assertTrue(creating.await(10, TimeUnit.SECONDS));
+		Thread second = new Thread() {
+			@Override
+			public void run() {
+				resource.reloadDatabase();
+			}
+		};
+		second.start();
+		second.join(200);
+		release.countDown();
+		first.join(10000);
+		second.join(10000);
+
+		assertEquals(3, created.size());
+		assertSame(created.get(2).findAvatar(1), resource.currentStore().findAvatar(1));
+	}
+
+	private String etag(String uri) throws Exception {
+		MockHttpResponse response = _service.invoke(MockHttpRequest.get(uri));
+		assertEquals(200, response.getStatus());
+		return response.getOutputHeaders().getFirst("ETag").toString();
+	}
+}
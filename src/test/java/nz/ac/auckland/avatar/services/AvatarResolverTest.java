@@ -0,0 +1,117 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.dto.Avatar;
+
+/**
+ * Tests that AvatarResolver covers the types on the wire and that its
+ * contexts reuse Marshallers and Unmarshallers safely.
+ */
+public class AvatarResolverTest {
+	private AvatarResolver _resolver;
+
+	@Before
+	public void createResolver() {
+		_resolver = new AvatarResolver();
+	}
+
+	/**
+	 * Tests that every type on the wire shares one context, and that types
+	 * that aren't bound by the service are left to RESTEasy.
+	 */
+	@Test
+	public void resolvesWireTypes() {
+		JAXBContext context = _resolver.getContext(Avatar.class);
+		assertNotNull(context);
+		for(Class<?> type : AvatarResolver.WIRE_TYPES) {
+			assertSame(context, _resolver.getContext(type));
+		}
+		assertNull(_resolver.getContext(String.class));
+
+		// DTO classes whose XML type names clash get a context of their own.
+		JAXBContext itemContext = _resolver.getContext(nz.ac.auckland.avatar.dto.Item.class);
+		assertNotNull(itemContext);
+		assertNotSame(context, itemContext);
+		assertSame(itemContext, _resolver.getContext(nz.ac.auckland.avatar.dto.Item.class));
+	}
+
+	/**
+	 * Tests that an Avatar survives a round trip through the context.
+	 */
+	@Test
+	public void marshalAndUnmarshal() throws Exception {
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Oak staff", ItemType.STAFF));
+		Avatar avatar = new Avatar(7, "gandalf", Category.MAGE,
+				new LocalDate(1954, 7, 29), bag, Collections.singletonList(
+						new Achievement(3, new DateTime(2015, 5, 1, 10, 0), "Balrog")));
+
+		JAXBContext context = _resolver.getContext(Avatar.class);
+		StringWriter xml = new StringWriter();
+		context.createMarshaller().marshal(avatar, xml);
+		Avatar copy = (Avatar) context.createUnmarshaller().unmarshal(
+				new StringReader(xml.toString()));
+
+		assertEquals(avatar, copy);
+		assertEquals(bag, copy.getBag());
+		assertEquals(1, copy.getAchievements().size());
+	}
+
+	/**
+	 * Tests that a thread reuses its Marshaller, with settings from its last
+	 * use reset, and that other threads get their own.
+	 */
+	@Test
+	public void reusesMarshallerPerThread() throws Exception {
+		final PooledJAXBContext context = (PooledJAXBContext) _resolver.getContext(Avatar.class);
+
+		Marshaller marshaller = context.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		Marshaller again = context.createMarshaller();
+		assertSame(marshaller, again);
+		assertFalse((Boolean) again.getProperty(Marshaller.JAXB_FORMATTED_OUTPUT));
+		assertEquals(1, context.getMarshallersCreated());
+		assertEquals(1, context.getMarshallersReused());
+
+		final AtomicReference<Marshaller> other = new AtomicReference<Marshaller>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					other.set(context.createMarshaller());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+		thread.join();
+		assertNotNull(other.get());
+		assertNotSame(marshaller, other.get());
+		assertEquals(2, context.getMarshallersCreated());
+	}
+}
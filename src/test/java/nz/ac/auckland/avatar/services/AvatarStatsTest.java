@@ -0,0 +1,73 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.bind.JAXBContext;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.domain.Stat;
+import nz.ac.auckland.avatar.dto.AvatarStats;
+
+/**
+ * Tests that an Avatar's stats combine its category's base stats, its
+ * skills and its items, and follow changes to its skills and bag.
+ */
+public class AvatarStatsTest {
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests GET {id}/stats before and after changing an Avatar's skills and
+	 * bag.
+	 */
+	@Test
+	public void stats() throws Exception {
+		// Avatar #1 is a MAGE with a mana potion.
+		AvatarStats stats = stats(1);
+		assertEquals(1, stats.getAvatarId());
+		assertStat(stats, Stat.MANA, 120, 0, 5, 125);
+		assertStat(stats, Stat.MAGIC, 16, 0, 0, 16);
+
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars/1/skills"),
+				"<skills mana=\"10\" magic=\"2\"/>").getStatus());
+		assertTrue(_service.get("/avatars/1/skills", 200).contains("mana=\"10\""));
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars/1/bag"),
+				"<bag><items>"
+				+ "<item><item_type>STAFF</item_type><stat_increase_amount>7</stat_increase_amount></item>"
+				+ "<item><item_type>MANA_POTION</item_type><stat_increase_amount>5</stat_increase_amount></item>"
+				+ "<item><item_type>MANA_POTION</item_type><stat_increase_amount>3</stat_increase_amount></item>"
+				+ "</items></bag>").getStatus());
+
+		stats = stats(1);
+		assertStat(stats, Stat.MANA, 120, 10, 8, 138);
+		assertStat(stats, Stat.MAGIC, 16, 2, 7, 25);
+		assertStat(stats, Stat.HEALTH, 70, 0, 0, 70);
+
+		_service.get("/avatars/12345/stats", 404);
+	}
+
+	private static void assertStat(AvatarStats stats, Stat stat, int base, int skills,
+			int items, int total) {
+		AvatarStats.StatValue value = stats.getStat(stat);
+		assertEquals(base, value.getBase());
+		assertEquals(skills, value.getSkills());
+		assertEquals(items, value.getItems());
+		assertEquals(total, value.getTotal());
+	}
+
+	private AvatarStats stats(long id) throws Exception {
+		String xml = _service.get("/avatars/" + id + "/stats", 200);
+		return (AvatarStats) JAXBContext.newInstance(AvatarStats.class)
+				.createUnmarshaller().unmarshal(new StringReader(xml));
+	}
+}
@@ -0,0 +1,102 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+import nz.ac.auckland.avatar.store.IndexedAvatarStore;
+
+/**
+ * Tests the entity tags of Avatar representations and the conditional
+ * requests that use them.
+ */
+public class EntityTagsTest {
+	private static final String SKILLS = "<skills mana=\"1\"/>";
+
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		_service = MockService.withAvatars();
+	}
+
+	/**
+	 * Tests that a GET returns 200 with an ETag, and that a conditional GET
+	 * with that tag returns 304 with the same tag and no body.
+	 */
+	@Test
+	public void conditionalGet() throws Exception {
+		MockHttpResponse response = _service.invoke(MockHttpRequest.get("/avatars/1"));
+		assertEquals(200, response.getStatus());
+		String tag = etag(response);
+
+		response = _service.invoke(MockHttpRequest.get("/avatars/1")
+				.header("If-None-Match", tag));
+		assertEquals(304, response.getStatus());
+		assertEquals(tag, etag(response));
+		assertEquals(0, response.getOutput().length);
+
+		assertEquals(200, _service.invoke(MockHttpRequest.get("/avatars/1")
+				.header("If-None-Match", "\"not-a-tag\"")).getStatus());
+	}
+
+	/**
+	 * Tests that an update changes the tag, that the tag it returns matches
+	 * a later GET, and that an update with the old tag fails with 412.
+	 */
+	@Test
+	public void conditionalPut() throws Exception {
+		String tag = etag(_service.invoke(MockHttpRequest.get("/avatars/1")));
+
+		MockHttpResponse response = _service.send(MockHttpRequest.put("/avatars/1/skills")
+				.header("If-Match", tag), SKILLS);
+		assertEquals(204, response.getStatus());
+		String updated = etag(response);
+		assertFalse(tag.equals(updated));
+		assertEquals(updated, etag(_service.invoke(MockHttpRequest.get("/avatars/1"))));
+
+		assertEquals(412, _service.send(MockHttpRequest.put("/avatars/1/skills")
+				.header("If-Match", tag), SKILLS).getStatus());
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars/1/skills")
+				.header("If-Match", updated), SKILLS).getStatus());
+	}
+
+	/**
+	 * Tests that the same Avatar id and version get different tags in
+	 * different epochs, and that a reload through PUT /avatars changes the
+	 * tag a GET returns.
+	 */
+	@Test
+	public void tagsChangeAcrossEpochs() throws Exception {
+		IndexedAvatarStore store = new IndexedAvatarStore(
+				InMemoryAvatarStore.FACTORY.createStore());
+		AvatarDatabase database = new AvatarDatabase(1, store);
+		EntityTag tag = EntityTags.forAvatar(database, 1, 0);
+		assertEquals(tag, EntityTags.forAvatar(database, 1, 0));
+		assertFalse(tag.equals(EntityTags.forAvatar(database, 1, 1)));
+		assertFalse(tag.equals(EntityTags.forAvatar(new AvatarDatabase(2, store), 1, 0)));
+		// A later run of the service starts again at epoch 1.
+		assertFalse(tag.equals(EntityTags.forAvatar(new AvatarDatabase(1, store), 1, 0)));
+
+		String before = etag(_service.invoke(MockHttpRequest.get("/avatars/1")));
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars"), null).getStatus());
+		String after = etag(_service.invoke(MockHttpRequest.get("/avatars/1")));
+		assertFalse(before.equals(after));
+		assertEquals(412, _service.send(MockHttpRequest.put("/avatars/1/skills")
+				.header("If-Match", before), SKILLS).getStatus());
+	}
+
+	private static String etag(MockHttpResponse response) {
+		Object tag = response.getOutputHeaders().getFirst("ETag");
+		assertNotNull(tag);
+		return tag.toString();
+	}
+}
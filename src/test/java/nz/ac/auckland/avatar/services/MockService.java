@@ -0,0 +1,77 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.ws.rs.core.MediaType;
+
+import org.jboss.resteasy.core.Dispatcher;
+import org.jboss.resteasy.core.SynchronousDispatcher;
+import org.jboss.resteasy.core.SynchronousExecutionContext;
+import org.jboss.resteasy.mock.MockDispatcherFactory;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+
+/**
+ * The Avatar Web service, in process, for tests: a RESTEasy mock dispatcher
+ * with the service's providers registered, to which tests add resources and
+ * send requests.
+ */
+class MockService {
+	private final Dispatcher _dispatcher;
+
+	MockService() {
+		_dispatcher = MockDispatcherFactory.createDispatcher();
+		_dispatcher.getProviderFactory().registerProvider(AvatarResolver.class);
+		_dispatcher.getProviderFactory().registerProvider(AvatarBinaryProvider.class);
+	}
+
+	/**
+	 * Creates a service with an AvatarResource backed by an in-memory store.
+	 */
+	static MockService withAvatars() {
+		return new MockService().addResource(new AvatarResource(InMemoryAvatarStore.FACTORY));
+	}
+
+	MockService addResource(Object resource) {
+		_dispatcher.getRegistry().addSingletonResource(resource);
+		return this;
+	}
+
+	Dispatcher getDispatcher() {
+		return _dispatcher;
+	}
+
+	/**
+	 * Dispatches request with the asynchronous context that resource methods
+	 * need to suspend the request, as a servlet container would.
+	 */
+	MockHttpResponse invoke(MockHttpRequest request) {
+		MockHttpResponse response = new MockHttpResponse();
+		request.setAsynchronousContext(new SynchronousExecutionContext(
+				(SynchronousDispatcher) _dispatcher, request, response));
+		_dispatcher.invoke(request, response);
+		return response;
+	}
+
+	/**
+	 * GETs uri, checks the response's status and returns its body.
+	 */
+	String get(String uri, int status) throws Exception {
+		MockHttpResponse response = invoke(MockHttpRequest.get(uri));
+		assertEquals(status, response.getStatus());
+		return response.getContentAsString();
+	}
+
+	/**
+	 * Sends request with an XML body, or without a body if xml is null.
+	 */
+	MockHttpResponse send(MockHttpRequest request, String xml) throws Exception {
+		if(xml != null) {
+			request.contentType(MediaType.APPLICATION_XML_TYPE);
+			request.content(xml.getBytes("UTF-8"));
+		}
+		return invoke(request);
+	}
+}
@@ -0,0 +1,92 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+
+/**
+ * Tests QuestResource, and that putting Avatars on Quests and recording
+ * achievements keep the answers of its index queries up to date.
+ */
+public class QuestResourceTest {
+	private MockService _service;
+
+	@Before
+	public void createService() {
+		AvatarResource avatars = new AvatarResource(InMemoryAvatarStore.FACTORY);
+		_service = new MockService().addResource(avatars).addResource(new QuestResource(avatars));
+	}
+
+	/**
+	 * Tests creating, reading, updating and deleting Quests.
+	 */
+	@Test
+	public void crud() throws Exception {
+		MockHttpResponse created = _service.send(MockHttpRequest.post("/quests"),
+				quest(0, "Dragon", "Slay the dragon"));
+		assertEquals(201, created.getStatus());
+		assertTrue(created.getOutputHeaders().getFirst("Location").toString().endsWith("quests/1"));
+
+		assertTrue(_service.get("/quests/1", 200).contains("<quest-name>Dragon</quest-name>"));
+		assertEquals(204, _service.send(MockHttpRequest.put("/quests/1"),
+				quest(1, "Dragon", "Slay the red dragon")).getStatus());
+		assertTrue(_service.get("/quests", 200).contains("Slay the red dragon"));
+
+		assertEquals(204, _service.send(MockHttpRequest.delete("/quests/1"), null).getStatus());
+		_service.get("/quests/1", 404);
+		assertEquals(404, _service.send(MockHttpRequest.delete("/quests/1"), null).getStatus());
+	}
+
+	/**
+	 * Tests that the Avatars on a Quest, and the achievements unlocked in
+	 * it, follow changes made through AvatarResource, and that deleting the
+	 * Quest takes Avatars off it.
+	 */
+	@Test
+	public void avatarsAndCompletions() throws Exception {
+		_service.send(MockHttpRequest.post("/quests"), quest(0, "Dragon", "Slay the dragon"));
+		assertEquals(400, _service.send(MockHttpRequest.put("/avatars/1/quest"),
+				quest(2, null, null)).getStatus());
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars/1/quest"),
+				quest(1, null, null)).getStatus());
+		assertEquals(204, _service.send(MockHttpRequest.put("/avatars/2/quest"),
+				quest(1, null, null)).getStatus());
+
+		assertTrue(_service.get("/avatars/1/quest", 200).contains("<quest-name>Dragon</quest-name>"));
+		String onQuest = _service.get("/quests/1/avatars", 200);
+		assertTrue(onQuest.contains("ellieille") && onQuest.contains("lavitasy"));
+
+		assertEquals(204, _service.send(MockHttpRequest.post("/avatars/2/achievements"),
+				"<achievement><achievement-name>Dragon slain</achievement-name>"
+				+ "<quest-id>1</quest-id></achievement>").getStatus());
+		String completions = _service.get("/quests/1/completions", 200);
+		assertTrue(completions.contains("Dragon slain"));
+		assertTrue(!completions.contains("avatar-id=\"1\""));
+
+		assertEquals(204, _service.send(MockHttpRequest.delete("/avatars/2/quest"), null).getStatus());
+		_service.get("/avatars/2/quest", 404);
+		onQuest = _service.get("/quests/1/avatars", 200);
+		assertTrue(onQuest.contains("ellieille") && !onQuest.contains("lavitasy"));
+
+		_service.send(MockHttpRequest.delete("/quests/1"), null);
+		_service.get("/avatars/1/quest", 404);
+		_service.get("/quests/1/completions", 404);
+	}
+
+	private static String quest(long id, String name, String description) {
+		StringBuilder xml = new StringBuilder("<quest id=\"" + id + "\">");
+		if(name != null) {
+			xml.append("<quest-name>" + name + "</quest-name>");
+		}
+		if(description != null) {
+			xml.append("<quest-description>" + description + "</quest-description>");
+		}
+		return xml.append("</quest>").toString();
+	}
+}
@@ -0,0 +1,92 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.core.MediaType;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.dto.CacheStatistics;
+
+/**
+ * Tests that RenderedAvatarCache only serves representations of the current
+ * version of an Avatar, and that getAvatar() uses and invalidates it.
+ */
+public class RenderedAvatarCacheTest {
+	private static final MediaType XML = MediaType.APPLICATION_XML_TYPE;
+	private static final MediaType BINARY = MediaType.valueOf(AvatarBinaryProvider.MEDIA_TYPE);
+
+	private RenderedAvatarCache _cache;
+
+	@Before
+	public void createCache() {
+		_cache = new RenderedAvatarCache(32);
+	}
+
+	/**
+	 * Tests that entries are kept per media type and only returned for the
+	 * epoch and version they were rendered from.
+	 */
+	@Test
+	public void matchesEpochAndVersion() {
+		byte[] xml = { 1 };
+		byte[] binary = { 2 };
+		_cache.put(7, XML, 0, 3, xml);
+		_cache.put(7, BINARY, 0, 3, binary);
+
+		assertArrayEquals(xml, _cache.get(7, XML, 0, 3));
+		assertArrayEquals(binary, _cache.get(7, BINARY, 0, 3));
+		assertNull(_cache.get(7, XML, 0, 4));
+		assertNull(_cache.get(7, XML, 1, 3));
+		assertNull(_cache.get(8, XML, 0, 3));
+
+		CacheStatistics statistics = _cache.getStatistics();
+		assertEquals(2, statistics.getHits());
+		assertEquals(3, statistics.getMisses());
+		assertEquals(1, statistics.getSize());
+
+		_cache.invalidate(7);
+		assertNull(_cache.get(7, BINARY, 0, 3));
+		assertEquals(1, _cache.getStatistics().getInvalidations());
+	}
+
+	/**
+	 * Tests that the cache stays within its capacity.
+	 */
+	@Test
+	public void evictsBeyondCapacity() {
+		for(long id = 0; id < 1000; id++) {
+			_cache.put(id, XML, 0, 0, new byte[0]);
+		}
+		CacheStatistics statistics = _cache.getStatistics();
+		assertTrue(statistics.getSize() <= 32);
+		assertEquals(1000 - statistics.getSize(), statistics.getEvictions());
+	}
+
+	/**
+	 * Tests that repeated reads of an Avatar are served from the cache and 
+	 * that updating the Avatar drops its cached representation.
+	 */
+	@Test
+	public void cachesRenderedAvatars() throws Exception {
+		MockService service = MockService.withAvatars();
+
+		String first = service.get("/avatars/1", 200);
+		assertEquals(first, service.get("/avatars/1", 200));
+		assertTrue(service.get("/avatars/cache/statistics", 200).contains("hits=\"1\""));
+
+		assertEquals(204, service.send(MockHttpRequest.put("/avatars/1/bag"), 
+				"<bag><items/></bag>").getStatus());
+
+		String updated = service.get("/avatars/1", 200);
+		assertTrue(!first.equals(updated));
+		String statistics = service.get("/avatars/cache/statistics", 200);
+		assertTrue(statistics.contains("misses=\"2\""));
+		assertTrue(statistics.contains("invalidations=\"1\""));
+	}
+}
@@ -0,0 +1,250 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.mock.MockHttpResponse;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+
+/**
+ * Tests that RequestExecutor resumes suspended requests with the outcome of
+ * their work, and maps rejection and timeouts to 503 (Service Unavailable),
+ * and that resources behave the same when their work runs on a pool.
+ *
+ */
+public class RequestExecutorTest {
+
+	@Test
+	public void resumeWithResult() throws Exception {
+		RecordingResponse response = new RecordingResponse();
+		RequestExecutor.DIRECT.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() {
+				return "result";
+			}
+		});
+		assertEquals("result", response._resumedWith);
+	}
+
+	@Test
+	public void resumeWithFailure() throws Exception {
+		final IllegalStateException failure = new IllegalStateException();
+		RecordingResponse response = new RecordingResponse();
+		RequestExecutor.DIRECT.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() {
+				throw failure;
+			}
+		});
+		assertSame(failure, response._resumedWith);
+	}
+
+	@Test
+	public void rejectWhenQueueIsFull() throws Exception {
+		ThreadPoolExecutor pool = RequestExecutor.boundedPool(1, 1);
+		RequestExecutor executor = new RequestExecutor(pool, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		Callable<Object> blocked = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				release.await();
+				return null;
+			}
+		};
+
+		try {
+			// One request running, one queued, the third is turned away.
+			executor.submit(new RecordingResponse(), blocked);
+			executor.submit(new RecordingResponse(), blocked);
+			RecordingResponse rejected = new RecordingResponse();
+			executor.submit(rejected, blocked);
+
+			Response response = (Response) rejected._resumedWith;
+			assertEquals(503, response.getStatus());
+			assertNotNull(response.getMetadata().getFirst(HttpHeaders.RETRY_AFTER));
+		} finally {
+			release.countDown();
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void timeOut() throws Exception {
+		RequestExecutor executor = new RequestExecutor(RequestExecutor.boundedPool(1, 1), 1000);
+		final CountDownLatch release = new CountDownLatch(1);
+		RecordingResponse response = new RecordingResponse();
+		executor.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				release.await();
+				return "late";
+			}
+		});
+		assertEquals(1000, response._timeoutMillis);
+
+		response._timeoutHandler.handleTimeout(response);
+		assertEquals(503, ((Response) response._resumedWith).getStatus());
+		release.countDown();
+	}
+
+	@Test
+	public void skipWorkOfTimedOutRequest() throws Exception {
+		final AtomicBoolean called = new AtomicBoolean();
+		RecordingResponse response = new RecordingResponse();
+		response.resume("timed out");
+		RequestExecutor.DIRECT.submit(response, new Callable<Object>() {
+			@Override
+			public Object call() {
+				called.set(true);
+				return null;
+			}
+		});
+		assertFalse(called.get());
+		assertEquals("timed out", response._resumedWith);
+	}
+
+	/**
+	 * Tests that requests whose work runs on a pool thread, rather than the
+	 * request thread, are answered with absolute Locations, and that the
+	 * request's context is available to the work.
+	 */
+	@Test
+	public void createOnPool() throws Exception {
+		ThreadPoolExecutor pool = RequestExecutor.boundedPool(2, 10);
+		try {
+			AvatarResource avatars = new AvatarResource(InMemoryAvatarStore.FACTORY,
+					new RequestExecutor(pool, 10000));
+			MockService service = new MockService().addResource(avatars)
+					.addResource(new QuestResource(avatars));
+
+			MockHttpResponse created = service.send(MockHttpRequest.create("POST", 
+					URI.create("http://localhost/avatars"), URI.create("http://localhost/")),
+					"<avatar><user-name>pooled</user-name></avatar>");
+			assertEquals(201, created.getStatus());
+			assertEquals("http://localhost/avatars/4", 
+					created.getOutputHeaders().getFirst("Location").toString());
+			assertTrue(service.get("/avatars/4", 200).contains("pooled"));
+			MockHttpResponse avatar = service.invoke(MockHttpRequest.get("/avatars/4"));
+			assertEquals(304, service.invoke(MockHttpRequest.get("/avatars/4").header("If-None-Match", 
+					avatar.getOutputHeaders().getFirst("ETag").toString())).getStatus());
+
+			created = service.send(MockHttpRequest.create("POST", 
+					URI.create("http://localhost/quests"), URI.create("http://localhost/")),
+					"<quest><quest-name>Dragon</quest-name></quest>");
+			assertEquals(201, created.getStatus());
+			assertEquals("http://localhost/quests/1", 
+					created.getOutputHeaders().getFirst("Location").toString());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * AsyncResponse that records how it was resumed; only the first 
+	 * resumption takes effect.
+	 */
+	private static class RecordingResponse implements AsyncResponse {
+		private volatile Object _resumedWith;
+		private volatile boolean _suspended = true;
+		private volatile TimeoutHandler _timeoutHandler;
+		private volatile long _timeoutMillis;
+
+		@Override
+		public synchronized boolean resume(Object response) {
+			if(!_suspended) {
+				return false;
+			}
+			_suspended = false;
+			_resumedWith = response;
+			return true;
+		}
+
+		@Override
+		public boolean resume(Throwable response) {
+			return resume((Object) response);
+		}
+
+		@Override
+		public boolean cancel() {
+			return resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+		}
+
+		@Override
+		public boolean cancel(int retryAfter) {
+			return cancel();
+		}
+
+		@Override
+		public boolean cancel(Date retryAfter) {
+			return cancel();
+		}
+
+		@Override
+		public boolean isSuspended() {
+			return _suspended;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return !_suspended;
+		}
+
+		@Override
+		public boolean setTimeout(long time, TimeUnit unit) {
+			_timeoutMillis = unit.toMillis(time);
+			return true;
+		}
+
+		@Override
+		public void setTimeoutHandler(TimeoutHandler handler) {
+			_timeoutHandler = handler;
+		}
+
+		@Override
+		public Collection<Class<?>> register(Class<?> callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<Class<?>> register(Object callback) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+			return Collections.emptyMap();
+		}
+	}
+}
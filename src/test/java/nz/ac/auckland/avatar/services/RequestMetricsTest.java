@@ -0,0 +1,82 @@
+package nz.ac.auckland.avatar.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.junit.Test;
+
+import nz.ac.auckland.avatar.store.InMemoryAvatarStore;
+
+/**
+ * Tests for LatencyHistogram and the recording and rendering of 
+ * RequestMetrics.
+ *
+ */
+public class RequestMetricsTest {
+
+	/**
+	 * Tests that every value falls in a bucket no more than 1/16 wider than
+	 * itself.
+	 */
+	@Test
+	public void bucketPrecision() {
+		for(long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			long highest = LatencyHistogram.highestValueOf(bucket);
+			assertTrue(highest >= value);
+			assertTrue(highest - value <= value / 16);
+		}
+		assertEquals(15, LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(15)));
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(1000000, snapshot.getMax());
+		assertWithin(500000, snapshot.getValueAt(0.5));
+		assertWithin(990000, snapshot.getValueAt(0.99));
+		assertWithin(999000, snapshot.getValueAt(0.999));
+		assertEquals(0, new LatencyHistogram().snapshot().getValueAt(0.5));
+	}
+
+	/**
+	 * Tests that requests are counted by endpoint and status, and rendered 
+	 * at /metrics.
+	 */
+	@Test
+	public void recordRequests() throws Exception {
+		RequestMetrics metrics = new RequestMetrics();
+		MockService service = new MockService();
+		service.getDispatcher().getProviderFactory().register(new RequestMetricsFeature(metrics));
+		service.addResource(new AvatarResource(InMemoryAvatarStore.FACTORY))
+				.addResource(new MetricsResource(metrics));
+
+		assertEquals(200, service.invoke(MockHttpRequest.get("/avatars/1")).getStatus());
+		assertEquals(200, service.invoke(MockHttpRequest.get("/avatars/2")).getStatus());
+		assertEquals(404, service.invoke(MockHttpRequest.get("/avatars/999")).getStatus());
+
+		RequestMetrics.Endpoint getAvatar = metrics.endpoint("AvatarResource.getAvatar");
+		assertEquals(2, getAvatar.getRequests(200));
+		assertEquals(1, getAvatar.getRequests(404));
+		assertEquals(0, getAvatar.getErrors());
+
+		String text = service.invoke(MockHttpRequest.get("/metrics")).getContentAsString();
+		assertTrue(text.contains(
+				"avatar_requests_total{endpoint=\"AvatarResource.getAvatar\",status=\"200\"} 2\n"));
+		assertTrue(text.contains(
+				"avatar_request_latency_seconds_count{endpoint=\"AvatarResource.getAvatar\"} 3\n"));
+		assertTrue(text.contains(
+				"avatar_request_latency_seconds{endpoint=\"AvatarResource.getAvatar\",quantile=\"0.99\"} "));
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("Expected ~" + expected + " but was " + actual, 
+				actual >= expected && actual - expected <= expected / 16);
+	}
+}
@@ -0,0 +1,277 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.domain.Quest;
+import nz.ac.auckland.avatar.domain.Skills;
+import nz.ac.auckland.avatar.domain.Stat;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests that every AvatarStore implementation must pass. Subclasses supply
+ * the store under test.
+ */
+public abstract class AvatarStoreContractTest {
+	private static final Logger _logger = LoggerFactory.getLogger(AvatarStoreContractTest.class);
+
+	private static final int WRITER_THREADS = 8;
+	private static final int WRITES_PER_THREAD = 250;
+
+	protected AvatarStore _store;
+
+	protected abstract AvatarStore createStore();
+
+	@Before
+	public void setUpStore() {
+		_store = createStore();
+		_store.clear();
+	}
+
+	@After
+	public void closeStore() {
+		_store.close();
+	}
+
+	/**
+	 * Tests that ids are unique and that a created Avatar can be found again.
+	 */
+	@Test
+	public void createAndFind() {
+		long id = _store.nextId();
+		assertTrue(_store.nextId() != id);
+
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Able to replenish a small amount of mana", 
+				ItemType.MANA_POTION));
+		_store.createAvatar(new Avatar(id, "ellieille", Category.MAGE, 
+				new LocalDate(1970, 5, 26), bag));
+
+		Avatar found = _store.findAvatar(id);
+		assertNotNull(found);
+		assertEquals("ellieille", found.getUsername());
+		assertEquals(Category.MAGE, found.getCategory());
+		assertEquals(new LocalDate(1970, 5, 26), found.getDateOfBirth());
+		assertEquals(bag, found.getBag());
+		assertEquals(1, _store.size());
+	}
+
+	/**
+	 * Tests that a missing Avatar is reported as null.
+	 */
+	@Test
+	public void findMissingAvatar() {
+		assertNull(_store.findAvatar(12345));
+	}
+
+	/**
+	 * Tests that changes passed to updateAvatar() are visible to later reads.
+	 */
+	@Test
+	public void updateAvatar() {
+		long id = _store.nextId();
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Heals", ItemType.HEALTH_POTION));
+		bag.addItem(new Item(20, "Blocks", ItemType.SHIELD));
+		_store.createAvatar(new Avatar(id, "lavitasy", Category.MONK, 
+				new LocalDate(1970, 2, 9), bag));
+
+		Avatar avatar = _store.findAvatar(id);
+		avatar.setUsername("lavitasy2");
+		avatar.addAchievement(new Achievement(0, new DateTime(), "First blood"));
+		Skills skills = new Skills();
+		skills.setBonus(Stat.ATTACK, 3);
+		avatar.setSkills(skills);
+		_store.updateAvatar(avatar);
+
+		Avatar updated = _store.findAvatar(id);
+		assertEquals("lavitasy2", updated.getUsername());
+		assertEquals(1, updated.getAchievements().size());
+		assertEquals("First blood", updated.getAchievements().get(0).getAchievementName());
+		assertEquals(skills, updated.getSkills());
+		assertEquals(20, updated.getBag().getBonus(Stat.DEFENCE));
+	}
+
+	/**
+	 * Tests that Quests can be created, listed, updated, set as an Avatar's
+	 * current Quest and deleted.
+	 */
+	@Test
+	public void questLifecycle() {
+		Quest dragon = new Quest(0, "Dragon", "Slay the dragon");
+		Quest rescue = new Quest(0, "Rescue", "Rescue the princess");
+		_store.createQuest(dragon);
+		_store.createQuest(rescue);
+		assertTrue(dragon.getId() != 0 && dragon.getId() < rescue.getId());
+		assertEquals(2, _store.getQuests().size());
+		assertEquals("Dragon", _store.getQuests().get(0).getQuestName());
+
+		Quest found = _store.findQuest(dragon.getId());
+		found.setQuestDescription("Slay the red dragon");
+		_store.updateQuest(found);
+		assertEquals("Slay the red dragon", _store.findQuest(dragon.getId()).getQuestDescription());
+
+		long id = _store.nextId();
+		Avatar avatar = new Avatar(id, "ellieille", Category.MAGE, 
+				new LocalDate(1970, 5, 26), new Bag());
+		avatar.setCurrentQuest(_store.findQuest(dragon.getId()));
+		_store.createAvatar(avatar);
+		assertEquals(dragon.getId(), _store.findAvatar(id).getCurrentQuest().getId());
+
+		avatar = _store.findAvatar(id);
+		avatar.setCurrentQuest(null);
+		_store.updateAvatar(avatar);
+		assertTrue(_store.deleteQuest(dragon.getId()));
+		assertTrue(!_store.deleteQuest(dragon.getId()));
+		assertNull(_store.findQuest(dragon.getId()));
+		assertNull(_store.findAvatar(id).getCurrentQuest());
+		assertEquals(1, _store.getQuests().size());
+
+		_store.clear();
+		assertTrue(_store.getQuests().isEmpty());
+	}
+
+	/**
+	 * Tests that a range of ids can be allocated, and that Avatars can be
+	 * created and updated in bulk.
+	 */
+	@Test
+	public void bulkCreateAndUpdate() {
+		long first = _store.nextIds(50);
+		assertEquals(first + 50, _store.nextId());
+
+		List<Avatar> avatars = new ArrayList<Avatar>();
+		for(long id = first; id < first + 50; id++) {
+			avatars.add(new Avatar(id, "avatar" + id, Category.MONK, 
+					new LocalDate(1990, 1, 1), new Bag()));
+		}
+		_store.createAvatars(avatars);
+		assertEquals(50, _store.size());
+
+		for(Avatar avatar : avatars) {
+			avatar.addAchievement(new Achievement(0, new DateTime(), "Onboarded"));
+		}
+		_store.updateAvatars(avatars);
+
+		for(long id = first; id < first + 50; id++) {
+			assertEquals(1, _store.findAvatar(id).getAchievements().size());
+		}
+	}
+
+	/**
+	 * Tests that a store can be paged through in id order with a cursor.
+	 */
+	@Test
+	public void pageThroughAvatars() {
+		for(int i = 0; i < 25; i++) {
+			long id = _store.nextId();
+			_store.createAvatar(new Avatar(id, "avatar" + id, Category.MAGE, 
+					new LocalDate(1990, 1, 1), new Bag()));
+		}
+
+		List<Avatar> page = _store.getAvatars(0, 10);
+		assertEquals(10, page.size());
+		assertEquals(1, page.get(0).getId());
+		assertEquals(10, page.get(9).getId());
+
+		page = _store.getAvatars(20, 10);
+		assertEquals(5, page.size());
+		assertEquals(21, page.get(0).getId());
+
+		long previous = 0;
+		int count = 0;
+		AvatarCursor cursor = new AvatarCursor(_store, 0, 7);
+		while(cursor.hasNext()) {
+			long id = cursor.next().getId();
+			assertTrue(id > previous);
+			previous = id;
+			count++;
+		}
+		assertEquals(25, count);
+	}
+
+	/**
+	 * Tests that clear() removes all Avatars and restarts id allocation.
+	 */
+	@Test
+	public void clear() {
+		long id = _store.nextId();
+		_store.createAvatar(new Avatar(id, "i_dont_know", Category.BARBARIAN, 
+				new LocalDate(1980, 10, 19), null));
+
+		_store.clear();
+
+		assertEquals(0, _store.size());
+		assertNull(_store.findAvatar(id));
+		assertEquals(1, _store.nextId());
+	}
+
+	/**
+	 * Tests that concurrent writers neither lose Avatars nor receive 
+	 * duplicate ids, and reports the store's write throughput.
+	 */
+	@Test
+	public void concurrentWriteThroughput() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(WRITER_THREADS);
+		List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+
+		long start = System.nanoTime();
+		for(int i = 0; i < WRITER_THREADS; i++) {
+			results.add(executor.submit(new Callable<List<Long>>() {
+				@Override
+				public List<Long> call() {
+					List<Long> ids = new ArrayList<Long>();
+					for(int j = 0; j < WRITES_PER_THREAD; j++) {
+						long id = _store.nextId();
+						_store.createAvatar(new Avatar(id, "avatar" + id, 
+								Category.ROUGE, new LocalDate(1990, 1, 1), new Bag()));
+						ids.add(id);
+					}
+					return ids;
+				}
+			}));
+		}
+
+		Set<Long> ids = new HashSet<Long>();
+		for(Future<List<Long>> result : results) {
+			ids.addAll(result.get());
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		int expected = WRITER_THREADS * WRITES_PER_THREAD;
+		assertEquals(expected, ids.size());
+		assertEquals(expected, _store.size());
+		for(long id : ids) {
+			assertNotNull(_store.findAvatar(id));
+		}
+
+		_logger.info(getClass().getSimpleName() + ": " + expected + " writes in " 
+				+ (elapsed / 1000000) + "ms (" 
+				+ (long) (expected / (elapsed / 1e9)) + " writes/s)");
+	}
+}
@@ -0,0 +1,191 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for ConcurrentLongMap, in particular growth and ordered paging
+ * with keys inserted out of order.
+ *
+ */
+public class ConcurrentLongMapTest {
+
+	@Test
+	public void putAndGet() {
+		ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+		assertNull(map.put(7, "a"));
+		assertNull(map.put(-7, "b"));
+		assertNull(map.put(0, "c"));
+		assertEquals("a", map.put(7, "d"));
+
+		assertEquals("d", map.get(7));
+		assertEquals("b", map.get(-7));
+		assertEquals("c", map.get(0));
+		assertNull(map.get(8));
+		assertEquals(3, map.size());
+	}
+
+	/**
+	 * Tests that entries survive the table growing, and that pages are
+	 * returned in key order whatever the insertion order.
+	 */
+	@Test
+	public void growAndPage() {
+		ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+		List<Long> keys = new ArrayList<Long>();
+		for(long key = 1; key <= 10000; key++) {
+			keys.add(key * 3);
+		}
+		Collections.shuffle(keys, new Random(42));
+
+		for(int i = 0; i < keys.size(); i++) {
+			map.put(keys.get(i), keys.get(i));
+			if(i % 1000 == 0) {
+				// Interleave ordered reads with writes.
+				map.valuesAfter(0, 10);
+			}
+		}
+		assertEquals(10000, map.size());
+		for(long key : keys) {
+			assertEquals(key, (long) map.get(key));
+		}
+
+		List<Long> page = map.valuesAfter(3, 5);
+		assertEquals(5, page.size());
+		for(int i = 0; i < 5; i++) {
+			assertEquals(6 + i * 3, (long) page.get(i));
+		}
+		assertEquals(10000, map.valuesAfter(1, Integer.MAX_VALUE).size());
+		assertEquals(1, map.valuesAfter(29997, 10).size());
+		assertEquals(10000, map.values().size());
+	}
+
+	@Test
+	public void clear() {
+		ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+		for(long key = 0; key < 100; key++) {
+			map.put(key, "v" + key);
+		}
+		assertEquals(10, map.valuesAfter(50, 10).size());
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(1));
+		assertEquals(0, map.values().size());
+
+		map.put(5, "a");
+		assertEquals(1, map.values().size());
+	}
+
+	/**
+	 * Tests that values() is a view, in key order, that sees entries put
+	 * after it was created.
+	 */
+	@Test
+	public void valuesView() {
+		ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+		Collection<Long> values = map.values();
+		assertTrue(values.isEmpty());
+		for(long key : new long[] {5, 1, 9, 3}) {
+			map.put(key, key);
+		}
+		assertEquals(4, values.size());
+		assertEquals(Arrays.asList(1L, 3L, 5L, 9L), new ArrayList<Long>(values));
+
+		Iterator<Long> iterator = values.iterator();
+		assertEquals(1L, (long) iterator.next());
+		map.put(3, 30L);
+		assertEquals(30L, (long) iterator.next());
+	}
+
+	/**
+	 * Tests that writers on several threads, inserting and re-putting, lose
+	 * no entries.
+	 */
+	@Test
+	public void concurrentWriters() throws Exception {
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+		final int perThread = 50000;
+		final CountDownLatch finished = new CountDownLatch(4);
+		for(int t = 0; t < 4; t++) {
+			final int thread = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(long i = 0; i < perThread; i++) {
+						Long key = i * 4 + thread;
+						map.put(key, key);
+						map.put(key, key);
+					}
+					finished.countDown();
+				}
+			}).start();
+		}
+		finished.await();
+		assertEquals(4 * perThread, map.size());
+		long expected = 0;
+		for(long value : map.values()) {
+			assertEquals(expected++, value);
+		}
+		assertEquals(4 * perThread, expected);
+	}
+
+	/**
+	 * Tests that readers running alongside a writer always find the entries
+	 * already put, and see pages in key order.
+	 */
+	@Test
+	public void concurrentReaders() throws Exception {
+		final ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+		final int count = 200000;
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final CountDownLatch finished = new CountDownLatch(4);
+
+		for(int t = 0; t < 4; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random();
+					while(!done.get()) {
+						int size = map.size();
+						if(size > 0) {
+							long key = random.nextInt(size) + 1;
+							Long value = map.get(key);
+							if(value == null || value != key) {
+								failure.set("Missing " + key + " of " + size);
+							}
+						}
+						List<Long> page = map.valuesAfter(random.nextInt(count), 20);
+						for(int i = 1; i < page.size(); i++) {
+							if(page.get(i) <= page.get(i - 1)) {
+								failure.set("Out of order " + page);
+							}
+						}
+					}
+					finished.countDown();
+				}
+			}).start();
+		}
+		for(long key = 1; key <= count; key++) {
+			map.put(key, key);
+		}
+		done.set(true);
+		finished.await();
+		assertNull(failure.get(), failure.get());
+		assertEquals(count, map.size());
+	}
+}
@@ -0,0 +1,124 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the FriendGraph of an IndexedAvatarStore follows updates to
+ * Avatars' friends, and answers traversal queries.
+ */
+public class FriendGraphTest {
+	private IndexedAvatarStore _store;
+
+	@Before
+	public void setUpStore() {
+		_store = new IndexedAvatarStore(new InMemoryAvatarStore());
+	}
+
+	/**
+	 * Tests mutual friends, friends of friends by depth and suggestions on 
+	 * the graph 1 -> {2, 3}, 2 -> {4, 5}, 3 -> {4, 1}, 4 -> {6}, 5 -> {2}.
+	 */
+	@Test
+	public void queries() {
+		List<Avatar> avatars = create(6);
+		befriend(avatars, 1, 2, 3);
+		befriend(avatars, 2, 4, 5);
+		befriend(avatars, 3, 4, 1);
+		befriend(avatars, 4, 6);
+		befriend(avatars, 5, 2);
+		FriendGraph graph = _store.getFriendGraph();
+
+		assertArrayEquals(new long[] {2, 3}, graph.friendsOf(1));
+		assertArrayEquals(new long[] {4}, graph.mutualFriends(2, 3));
+		assertArrayEquals(new long[0], graph.mutualFriends(1, 6));
+
+		assertArrayEquals(new long[] {4, 5}, graph.friendsOfFriends(1, 2));
+		assertArrayEquals(new long[] {4, 5, 6}, graph.friendsOfFriends(1, 3));
+		assertArrayEquals(new long[] {4, 5, 6}, graph.friendsOfFriends(1, FriendGraph.MAX_DEPTH));
+
+		// Pages of friends of friends, following the order above.
+		assertArrayEquals(new long[] {4, 5}, graph.friendsOfFriends(1, 3, 0, 2));
+		assertArrayEquals(new long[] {5}, graph.friendsOfFriends(1, 3, 4, 1));
+		assertArrayEquals(new long[] {6}, graph.friendsOfFriends(1, 3, 5, 10));
+		assertArrayEquals(new long[0], graph.friendsOfFriends(1, 3, 6, 10));
+		assertArrayEquals(new long[0], graph.friendsOfFriends(1, 3, 2, 10));
+
+		// 4 is a friend of both 2 and 3, 5 only of 2.
+		assertArrayEquals(new long[] {4, 5}, graph.suggestFriends(1, 10));
+		assertArrayEquals(new long[] {4}, graph.suggestFriends(1, 1));
+	}
+
+	/**
+	 * Tests that replacing an Avatar's friends, and clearing the store, 
+	 * update the graph.
+	 */
+	@Test
+	public void followUpdatesAndClear() {
+		List<Avatar> avatars = create(3);
+		befriend(avatars, 1, 2);
+		befriend(avatars, 1, 3);
+		assertArrayEquals(new long[] {3}, _store.getFriendGraph().friendsOf(1));
+
+		_store.clear();
+		assertArrayEquals(new long[0], _store.getFriendGraph().friendsOf(1));
+	}
+
+	/**
+	 * Tests a traversal whose steps are large enough to be expanded in 
+	 * parallel: a hub befriends n Avatars, each of which befriends the next
+	 * and the hub, and the last befriends one more.
+	 */
+	@Test
+	public void largeFanOut() {
+		int n = FriendGraph.PARALLEL_THRESHOLD * 3;
+		List<Avatar> avatars = create(n + 2);
+		long[] spokes = new long[n];
+		for(int i = 0; i < n; i++) {
+			spokes[i] = i + 2;
+		}
+		befriend(avatars, 1, spokes);
+		for(int i = 2; i <= n + 1; i++) {
+			befriend(avatars, i, i + 1, 1);
+		}
+		FriendGraph graph = _store.getFriendGraph();
+
+		assertArrayEquals(new long[] {n + 2}, graph.friendsOfFriends(1, 2));
+		long[] suggestions = graph.suggestFriends(1, n);
+		assertArrayEquals(new long[] {n + 2}, suggestions);
+		assertArrayEquals(new long[] {3}, graph.mutualFriends(1, 2));
+	}
+
+	private List<Avatar> create(int count) {
+		List<Avatar> avatars = new ArrayList<Avatar>();
+		for(int i = 0; i < count; i++) {
+			Avatar avatar = new Avatar(_store.nextId(), "avatar" + i, Category.MAGE, 
+					new LocalDate(1970, 1, 1), new Bag());
+			_store.createAvatar(avatar);
+			avatars.add(avatar);
+		}
+		return avatars;
+	}
+
+	private void befriend(List<Avatar> avatars, long id, long... friendIds) {
+		Avatar avatar = avatars.get((int) id - 1);
+		Set<Avatar> friends = new HashSet<Avatar>();
+		for(long friendId : friendIds) {
+			friends.add(avatars.get((int) friendId - 1));
+		}
+		avatar.updateFriends(friends);
+		_store.updateAvatar(avatar);
+	}
+}
@@ -0,0 +1,79 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the lazy union and intersection of ascending id iterators.
+ */
+public class IdIteratorsTest {
+
+	/**
+	 * Tests that a union merges its iterators, returning shared ids once.
+	 */
+	@Test
+	public void union() {
+		List<Iterator<Long>> iterators = new ArrayList<Iterator<Long>>();
+		iterators.add(ids(1, 4, 7));
+		iterators.add(ids(2, 4, 9));
+		iterators.add(ids());
+		assertEquals(Arrays.asList(1L, 2L, 4L, 7L, 9L), list(IdIterators.union(iterators)));
+		assertFalse(IdIterators.union(new ArrayList<Iterator<Long>>()).hasNext());
+	}
+
+	/**
+	 * Tests that a union takes no iterators until its first id is asked for.
+	 */
+	@Test
+	public void unionOpensIteratorsLazily() {
+		final List<Iterator<Long>> iterators = new ArrayList<Iterator<Long>>();
+		Iterator<Long> union = IdIterators.union(new Iterable<Iterator<Long>>() {
+			@Override
+			public Iterator<Iterator<Long>> iterator() {
+				return iterators.iterator();
+			}
+		});
+		iterators.add(ids(3, 5));
+		iterators.add(ids(2));
+		assertEquals(Arrays.asList(2L, 3L, 5L), list(union));
+	}
+
+	/**
+	 * Tests that an intersection returns the shared ids, and reads no 
+	 * further than it has to.
+	 */
+	@Test
+	public void intersection() {
+		assertEquals(Arrays.asList(4L, 9L), 
+				list(IdIterators.intersection(ids(1, 4, 7, 9), ids(2, 4, 9, 10))));
+		assertFalse(IdIterators.intersection(ids(1, 3), ids(2, 4)).hasNext());
+
+		Iterator<Long> a = ids(1, 2, 3, 100);
+		Iterator<Long> both = IdIterators.intersection(a, ids(2, 3));
+		assertEquals(2L, (long) both.next());
+		assertEquals(3L, (long) a.next());
+	}
+
+	private static Iterator<Long> ids(long... ids) {
+		List<Long> list = new ArrayList<Long>();
+		for(long id : ids) {
+			list.add(id);
+		}
+		return list.iterator();
+	}
+
+	private static List<Long> list(Iterator<Long> ids) {
+		List<Long> list = new ArrayList<Long>();
+		while(ids.hasNext()) {
+			list.add(ids.next());
+		}
+		return list;
+	}
+}
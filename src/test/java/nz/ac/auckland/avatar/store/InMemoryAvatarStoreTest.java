@@ -0,0 +1,12 @@
+package nz.ac.auckland.avatar.store;
+
+/**
+ * Runs the AvatarStore contract against InMemoryAvatarStore.
+ */
+public class InMemoryAvatarStoreTest extends AvatarStoreContractTest {
+
+	@Override
+	protected AvatarStore createStore() {
+		return new InMemoryAvatarStore();
+	}
+}
@@ -0,0 +1,270 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Quest;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+/**
+ * Runs the AvatarStore contract against IndexedAvatarStore, and tests that 
+ * its indexes follow creates, updates and clears.
+ */
+public class IndexedAvatarStoreTest extends AvatarStoreContractTest {
+
+	@Override
+	protected AvatarStore createStore() {
+		return new IndexedAvatarStore(new InMemoryAvatarStore());
+	}
+
+	private IndexedAvatarStore indexedStore() {
+		return (IndexedAvatarStore) _store;
+	}
+
+	private Avatar create(String username, Category category, LocalDate dateOfBirth) {
+		Avatar avatar = new Avatar(_store.nextId(), username, category, dateOfBirth, new Bag());
+		_store.createAvatar(avatar);
+		return avatar;
+	}
+
+	/**
+	 * Tests exact and prefix username queries, from the start and after an id.
+	 */
+	@Test
+	public void queryByUsername() {
+		Avatar ellie = create("ellieille", Category.MAGE, new LocalDate(1970, 5, 26));
+		Avatar ellen = create("ellen", Category.MONK, new LocalDate(1970, 2, 9));
+		create("i_dont_know", Category.BARBARIAN, new LocalDate(1980, 10, 19));
+
+		assertEquals(ids(ellie), found(indexedStore().findByUsername("ellieille", 0)));
+		assertEquals(ids(ellie, ellen), found(indexedStore().findByUsernamePrefix("ell", 0)));
+		assertEquals(ids(ellie), found(indexedStore().findByUsernamePrefix("elli", 0)));
+		assertEquals(ids(ellie), found(indexedStore().findByUsernamePrefix("ellieille", 0)));
+		assertEquals(3, found(indexedStore().findByUsernamePrefix("", 0)).size());
+		assertTrue(found(indexedStore().findByUsernamePrefix("ell\uffff", 0)).isEmpty());
+		assertTrue(found(indexedStore().findByUsername("ell", 0)).isEmpty());
+		assertEquals(ids(ellen), found(indexedStore().findByUsernamePrefix("ell", ellie.getId())));
+		assertTrue(found(indexedStore().findByUsername("ellieille", ellie.getId())).isEmpty());
+	}
+
+	/**
+	 * Tests category and date-of-birth range queries.
+	 */
+	@Test
+	public void queryByCategoryAndDateOfBirth() {
+		Avatar ellie = create("ellieille", Category.MAGE, new LocalDate(1970, 5, 26));
+		Avatar lavitasy = create("lavitasy", Category.MAGE, new LocalDate(1970, 2, 9));
+		Avatar barbarian = create("i_dont_know", Category.BARBARIAN, new LocalDate(1980, 10, 19));
+
+		assertEquals(ids(ellie, lavitasy), found(indexedStore().findByCategory(Category.MAGE, 0)));
+		assertTrue(found(indexedStore().findByCategory(Category.ROUGE, 0)).isEmpty());
+
+		assertEquals(ids(ellie, lavitasy), found(indexedStore().findByDateOfBirth(
+				new LocalDate(1970, 1, 1), new LocalDate(1970, 12, 31), 0)));
+		assertEquals(ids(ellie, barbarian), found(indexedStore().findByDateOfBirth(
+				new LocalDate(1970, 5, 26), null, 0)));
+		assertEquals(ids(lavitasy), found(indexedStore().findByDateOfBirth(
+				null, new LocalDate(1970, 2, 9), 0)));
+	}
+
+	/**
+	 * Tests that an update moves an Avatar between index entries, and that
+	 * clear() empties the indexes.
+	 */
+	@Test
+	public void indexesFollowUpdatesAndClear() {
+		Avatar avatar = create("ellieille", Category.MAGE, new LocalDate(1970, 5, 26));
+
+		avatar.setUsername("ellie");
+		avatar.setCategory(Category.ROUGE);
+		avatar.setDateOfBirth(new LocalDate(1971, 5, 26));
+		_store.updateAvatar(avatar);
+
+		assertTrue(found(indexedStore().findByUsername("ellieille", 0)).isEmpty());
+		assertEquals(ids(avatar), found(indexedStore().findByUsername("ellie", 0)));
+		assertTrue(found(indexedStore().findByCategory(Category.MAGE, 0)).isEmpty());
+		assertEquals(ids(avatar), found(indexedStore().findByCategory(Category.ROUGE, 0)));
+		assertTrue(found(indexedStore().findByDateOfBirth(null, new LocalDate(1970, 12, 31), 0)).isEmpty());
+
+		_store.clear();
+		assertTrue(found(indexedStore().findByUsernamePrefix("", 0)).isEmpty());
+		assertTrue(found(indexedStore().findByCategory(Category.ROUGE, 0)).isEmpty());
+	}
+
+	/**
+	 * Tests that the QuestIndex follows Avatars' current Quests, indexes
+	 * the achievements of new Avatars and those added with 
+	 * indexAchievement(), and is cleared with the store.
+	 */
+	@Test
+	public void questIndex() {
+		Quest dragon = new Quest(0, "Dragon", "Slay the dragon");
+		Quest rescue = new Quest(0, "Rescue", "Rescue the princess");
+		_store.createQuest(dragon);
+		_store.createQuest(rescue);
+		QuestIndex index = indexedStore().getQuestIndex();
+
+		Avatar ellie = new Avatar(_store.nextId(), "ellieille", Category.MAGE, 
+				new LocalDate(1970, 5, 26), new Bag());
+		Achievement slain = achievement("Dragon slain", dragon);
+		ellie.addAchievement(slain);
+		ellie.setCurrentQuest(dragon);
+		_store.createAvatar(ellie);
+		Avatar lavitasy = create("lavitasy", Category.MONK, new LocalDate(1970, 2, 9));
+
+		assertEquals(ids(ellie), index.findAvatarsOnQuest(dragon.getId()));
+		assertEquals(ids(ellie), index.findAvatarsWithAchievements(dragon.getId()));
+		assertEquals(Arrays.asList(slain), index.findAchievements(dragon.getId()).get(ellie.getId()));
+
+		ellie.setCurrentQuest(rescue);
+		_store.updateAvatar(ellie);
+		lavitasy.setCurrentQuest(rescue);
+		Achievement rescued = achievement("Princess rescued", rescue);
+		lavitasy.addAchievement(rescued);
+		_store.updateAvatar(lavitasy);
+		indexedStore().indexAchievement(lavitasy.getId(), rescued);
+
+		assertTrue(index.findAvatarsOnQuest(dragon.getId()).isEmpty());
+		assertEquals(ids(ellie, lavitasy), index.findAvatarsOnQuest(rescue.getId()));
+		assertEquals(ids(lavitasy), index.findAvatarsWithAchievements(rescue.getId()));
+
+		_store.clear();
+		assertTrue(index.findAvatarsOnQuest(rescue.getId()).isEmpty());
+		assertTrue(index.findAchievements(dragon.getId()).isEmpty());
+	}
+
+	/**
+	 * Tests that Avatars created and renamed by several threads at once,
+	 * sharing usernames, end up indexed under their final usernames only.
+	 */
+	@Test
+	public void concurrentIndexing() throws Exception {
+		final String[] names = {"ann", "anna", "bob"};
+		final int threads = 4;
+		final int perThread = 500;
+		final List<Avatar> avatars = new CopyOnWriteArrayList<Avatar>();
+		final CountDownLatch finished = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i < perThread; i++) {
+						Avatar avatar = create(names[i % names.length], Category.MAGE, 
+								new LocalDate(1970, 1, 1 + i % 28));
+						avatar.setUsername(names[(i + 1) % names.length]);
+						_store.updateAvatar(avatar);
+						avatars.add(avatar);
+					}
+					finished.countDown();
+				}
+			}.start();
+		}
+		finished.await();
+
+		for(String name : names) {
+			TreeSet<Long> expected = new TreeSet<Long>();
+			for(Avatar avatar : avatars) {
+				if(avatar.getUsername().equals(name)) {
+					expected.add(avatar.getId());
+				}
+			}
+			assertEquals(expected, found(indexedStore().findByUsername(name, 0)));
+		}
+		assertEquals(threads * perThread, found(indexedStore().findByUsernamePrefix("", 0)).size());
+		assertEquals(threads * perThread, found(indexedStore().findByDateOfBirth(null, null, 0)).size());
+		assertEquals(threads * perThread, indexedStore().getLeaderboard().size(Category.MAGE));
+	}
+
+	/**
+	 * Tests that Avatars in different shards of a ShardedAvatarStore are
+	 * never indexed under the same lock stripe.
+	 */
+	@Test
+	public void stripesFollowShards() {
+		ShardedAvatarStore shards = new ShardedAvatarStore(3, false);
+		try {
+			IndexedAvatarStore store = new IndexedAvatarStore(shards);
+			for(long a = 1; a <= 200; a++) {
+				for(long b = a + 1; b <= 200; b++) {
+					if(shards.shardOf(a) != shards.shardOf(b)) {
+						assertTrue(store.stripeOf(a) != store.stripeOf(b));
+					}
+				}
+			}
+		} finally {
+			shards.close();
+		}
+	}
+
+	/**
+	 * Tests that a sharded store's Avatars, and a batch large enough to be
+	 * indexed a shard at a time, are all indexed.
+	 */
+	@Test
+	public void indexShardsInParallel() {
+		ShardedAvatarStore shards = new ShardedAvatarStore(3, false);
+		try {
+			int count = ShardedAvatarStore.PARALLEL_THRESHOLD * 2;
+			List<Avatar> avatars = new ArrayList<Avatar>(count);
+			long first = shards.nextIds(count);
+			for(int i = 0; i < count; i++) {
+				avatars.add(new Avatar(first + i, i % 2 == 0 ? "ann" : "bob", Category.MAGE, 
+						new LocalDate(1970, 1, 1), new Bag()));
+			}
+			shards.createAvatars(avatars.subList(0, 10));
+			IndexedAvatarStore store = new IndexedAvatarStore(shards);
+			assertEquals(10, found(store.findByCategory(Category.MAGE, 0)).size());
+
+			store.createAvatars(avatars.subList(10, count));
+			assertEquals(count, found(store.findByCategory(Category.MAGE, 0)).size());
+			assertEquals(count / 2, found(store.findByUsername("bob", 0)).size());
+
+			for(Avatar avatar : avatars) {
+				avatar.setUsername("cat");
+			}
+			store.updateAvatars(avatars);
+			assertTrue(found(store.findByUsername("ann", 0)).isEmpty());
+			assertEquals(count, found(store.findByUsername("cat", 0)).size());
+			assertEquals(count, store.getLeaderboard().size(Category.MAGE));
+		} finally {
+			shards.close();
+		}
+	}
+
+	private static Achievement achievement(String name, Quest quest) {
+		Achievement achievement = new Achievement(0, new DateTime(), name);
+		achievement.setQuestId(quest.getId());
+		return achievement;
+	}
+
+	private static TreeSet<Long> found(Iterator<Long> ids) {
+		TreeSet<Long> found = new TreeSet<Long>();
+		while(ids.hasNext()) {
+			found.add(ids.next());
+		}
+		return found;
+	}
+
+	private static TreeSet<Long> ids(Avatar... avatars) {
+		TreeSet<Long> ids = new TreeSet<Long>();
+		for(Avatar avatar : Arrays.asList(avatars)) {
+			ids.add(avatar.getId());
+		}
+		return ids;
+	}
+}
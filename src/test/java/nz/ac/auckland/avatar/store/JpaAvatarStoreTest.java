@@ -0,0 +1,197 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+import nz.ac.auckland.avatar.domain.Item;
+import nz.ac.auckland.avatar.domain.ItemType;
+import nz.ac.auckland.avatar.domain.Quest;
+
+import org.hibernate.stat.Statistics;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+/**
+ * Runs the AvatarStore contract against JpaAvatarStore, using an in-memory H2
+ * database rather than the one configured in persistence.xml.
+ */
+public class JpaAvatarStoreTest extends AvatarStoreContractTest {
+
+	@Override
+	protected AvatarStore createStore() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("hibernate.connection.url", "jdbc:h2:mem:avatars;DB_CLOSE_DELAY=-1");
+		properties.put("javax.persistence.schema-generation.scripts.action", "none");
+		return new JpaAvatarStore(properties);
+	}
+
+	/**
+	 * Tests that Avatars, with their friends, achievements, bag items and
+	 * Quest, are read from the second-level cache once they've been read,
+	 * and that every kind of write leaves the cache consistent with the
+	 * database.
+	 */
+	@Test
+	public void secondLevelCache() {
+		Statistics statistics = ((JpaAvatarStore) _store).getStatistics();
+		Quest dragon = new Quest(0, "Dragon", "Slay the dragon");
+		_store.createQuest(dragon);
+		long friendId = _store.nextId();
+		_store.createAvatar(new Avatar(friendId, "lavitasy", Category.MONK,
+				new LocalDate(1970, 2, 9), new Bag()));
+		long id = _store.nextId();
+		Bag bag = new Bag();
+		bag.addItem(new Item(5, "Heals", ItemType.HEALTH_POTION));
+		Avatar avatar = new Avatar(id, "ellieille", Category.MAGE,
+				new LocalDate(1970, 5, 26), bag);
+		avatar.addAchievement(new Achievement(0, new DateTime(), "First blood"));
+		avatar.addFriend(_store.findAvatar(friendId));
+		avatar.setCurrentQuest(_store.findQuest(dragon.getId()));
+		_store.createAvatar(avatar);
+
+		// Once read, the Avatar and everything loaded with it come from the
+		// cache.
+		_store.findAvatar(id);
+		statistics.clear();
+		avatar = _store.findAvatar(id);
+		assertEquals(0, statistics.getPrepareStatementCount());
+		assertTrue(statistics.getSecondLevelCacheHitCount() > 0);
+		assertEquals(1, avatar.getFriends().size());
+		assertEquals(1, avatar.getAchievements().size());
+		assertEquals(dragon.getId(), avatar.getCurrentQuest().getId());
+
+		// Updates replace the cached state.
+		avatar.setUsername("ellieille2");
+		avatar.getBag().addItem(new Item(20, "Blocks", ItemType.SHIELD));
+		avatar.addAchievement(new Achievement(0, new DateTime(), "Second blood"));
+		avatar.removeFriend(avatar.getFriends().iterator().next());
+		_store.updateAvatar(avatar);
+		avatar = _store.findAvatar(id);
+		assertEquals("ellieille2", avatar.getUsername());
+		assertEquals(2, avatar.getBag().getItems().size());
+		assertEquals(2, avatar.getAchievements().size());
+		assertTrue(avatar.getFriends().isEmpty());
+
+		// Cached query results are dropped when the tables they read change.
+		assertEquals(1, _store.getQuests().size());
+		statistics.clear();
+		assertEquals(1, _store.getQuests().size());
+		assertEquals(0, statistics.getPrepareStatementCount());
+		_store.createQuest(new Quest(0, "Rescue", "Rescue the princess"));
+		assertEquals(2, _store.getQuests().size());
+
+		// Deleting a Quest takes Avatars off it with a bulk update, which
+		// the cache doesn't see row by row.
+		assertTrue(_store.deleteQuest(dragon.getId()));
+		assertNull(_store.findAvatar(id).getCurrentQuest());
+		assertNull(_store.findQuest(dragon.getId()));
+
+		_store.clear();
+		assertNull(_store.findAvatar(id));
+		assertFalse(_store.getQuests().iterator().hasNext());
+		assertEquals(0, _store.size());
+	}
+
+	/**
+	 * Tests that writes racing close() either commit or fail, rather than
+	 * being queued after the writer thread has exited and blocking forever.
+	 */
+	@Test
+	public void writesRacingClose() throws Exception {
+		final AtomicInteger committed = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+		List<Thread> writers = new ArrayList<Thread>();
+		for(int i = 0; i < 4; i++) {
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while(true) {
+							_store.createAvatar(new Avatar(_store.nextId(), "ellieille", 
+									Category.MAGE, new LocalDate(1970, 5, 26), new Bag()));
+							committed.incrementAndGet();
+						}
+					} catch (IllegalStateException e) {
+						closed.incrementAndGet();
+					}
+				}
+			};
+			writer.start();
+			writers.add(writer);
+		}
+		while(committed.get() < 10) {
+			Thread.sleep(10);
+		}
+		_store.close();
+
+		for(Thread writer : writers) {
+			writer.join(10000);
+			assertFalse(writer.isAlive());
+		}
+		assertEquals(writers.size(), closed.get());
+		try {
+			_store.createAvatar(new Avatar(_store.nextId(), "lavitasy", 
+					Category.MONK, new LocalDate(1970, 2, 9), new Bag()));
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Tests that the Factory clears the shared store for each new epoch, and
+	 * that writes through a retired epoch's store are rejected rather than
+	 * landing in the new epoch.
+	 */
+	@Test
+	public void retiredEpochsCantWrite() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("hibernate.connection.url", "jdbc:h2:mem:epochs;DB_CLOSE_DELAY=-1");
+		properties.put("javax.persistence.schema-generation.scripts.action", "none");
+		JpaAvatarStore.Factory factory = new JpaAvatarStore.Factory(properties);
+
+		AvatarStore retired = factory.createStore();
+		Avatar ellie = new Avatar(retired.nextId(), "ellieille", Category.MAGE,
+				new LocalDate(1970, 5, 26), new Bag());
+		retired.createAvatar(ellie);
+
+		AvatarStore current = factory.createStore();
+		try {
+			assertNull(current.findAvatar(ellie.getId()));
+			try {
+				retired.updateAvatar(ellie);
+				fail();
+			} catch (IllegalStateException e) {
+				// Expected.
+			}
+			try {
+				retired.createQuest(new Quest(0, "Dragon", "Slay the dragon"));
+				fail();
+			} catch (IllegalStateException e) {
+				// Expected.
+			}
+			assertEquals(0, current.size());
+			assertFalse(current.getQuests().iterator().hasNext());
+
+			current.createAvatar(new Avatar(current.nextId(), "lavitasy", Category.MONK,
+					new LocalDate(1970, 2, 9), new Bag()));
+			assertEquals(1, current.size());
+		} finally {
+			current.close();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nz.ac.auckland.avatar.domain.Achievement;
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the Leaderboard of an IndexedAvatarStore ranks Avatars by
+ * their number of achievements as they're added and change Category.
+ */
+public class LeaderboardTest {
+	private IndexedAvatarStore _store;
+
+	@Before
+	public void setUpStore() {
+		_store = new IndexedAvatarStore(new InMemoryAvatarStore());
+	}
+
+	/**
+	 * Tests top-K, rank and neighbourhood queries, overall and by Category,
+	 * on a small leaderboard.
+	 */
+	@Test
+	public void queries() {
+		Avatar a = create(Category.MAGE, 3);
+		Avatar b = create(Category.MONK, 5);
+		Avatar c = create(Category.MAGE, 3);
+		Avatar d = create(Category.MAGE, 0);
+		Leaderboard leaderboard = _store.getLeaderboard();
+
+		assertRanked(leaderboard.top(null, 10), b, a, c, d);
+		assertRanked(leaderboard.top(null, 2), b, a);
+		assertRanked(leaderboard.top(Category.MAGE, 10), a, c, d);
+		assertRanked(leaderboard.around(null, 3, 1), a, c, d);
+		assertRanked(leaderboard.around(null, 1, 1), b, a);
+		assertEquals(4, leaderboard.find(d.getId(), false).getRank());
+		assertEquals(3, leaderboard.find(d.getId(), true).getRank());
+		assertEquals(5, leaderboard.find(b.getId(), false).getAchievements());
+		assertNull(leaderboard.find(12345, false));
+
+		// Overtake b, and move to b's Category.
+		addAchievements(c, 3);
+		c.setCategory(Category.MONK);
+		_store.updateAvatar(c);
+		assertRanked(leaderboard.top(null, 10), c, b, a, d);
+		assertRanked(leaderboard.top(Category.MONK, 10), c, b);
+		assertRanked(leaderboard.top(Category.MAGE, 10), a, d);
+
+		_store.clear();
+		assertEquals(0, leaderboard.size(null));
+		assertEquals(0, leaderboard.top(Category.MAGE, 10).size());
+	}
+
+	/**
+	 * Tests, against a sort of every Avatar, that ranks stay correct through
+	 * many random achievements.
+	 */
+	@Test
+	public void randomUpdates() {
+		Random random = new Random(7);
+		List<Avatar> avatars = new ArrayList<Avatar>();
+		for(int i = 0; i < 300; i++) {
+			avatars.add(create(Category.values()[i % Category.values().length],
+					random.nextInt(4)));
+		}
+		for(int i = 0; i < 1000; i++) {
+			addAchievements(avatars.get(random.nextInt(avatars.size())), 1);
+		}
+		assertRanksMatch(avatars);
+		List<Leaderboard.Entry> around = _store.getLeaderboard().around(null, 150, 10);
+		assertEquals(21, around.size());
+		assertEquals(140, around.get(0).getRank());
+	}
+
+	/**
+	 * Tests that Avatars re-ranked by several threads at once, each changing
+	 * Avatars of its own, are all ranked correctly afterwards.
+	 */
+	@Test
+	public void concurrentUpdates() throws Exception {
+		final List<Avatar> avatars = new ArrayList<Avatar>();
+		for(int i = 0; i < 200; i++) {
+			avatars.add(create(Category.values()[i % Category.values().length], 0));
+		}
+		final int threads = 4;
+		final CountDownLatch finished = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(thread);
+					for(int i = 0; i < 10000; i++) {
+						int index = random.nextInt(avatars.size() / threads) * threads + thread;
+						addAchievements(avatars.get(index), 1);
+					}
+					finished.countDown();
+				}
+			}.start();
+		}
+		finished.await();
+		assertRanksMatch(avatars);
+		for(Category category : Category.values()) {
+			assertEquals(avatars.size() / Category.values().length, 
+					_store.getLeaderboard().size(category));
+		}
+	}
+
+	/**
+	 * Asserts that the overall ranking is that of a sort of the Avatars by
+	 * number of achievements.
+	 */
+	private void assertRanksMatch(List<Avatar> avatars) {
+		List<Avatar> expected = new ArrayList<Avatar>(avatars);
+		Collections.sort(expected, new Comparator<Avatar>() {
+			@Override
+			public int compare(Avatar a, Avatar b) {
+				int byCount = b.getTimeline().size() - a.getTimeline().size();
+				return byCount != 0 ? byCount : Long.valueOf(a.getId()).compareTo(b.getId());
+			}
+		});
+		Leaderboard leaderboard = _store.getLeaderboard();
+		List<Leaderboard.Entry> all = leaderboard.top(null, avatars.size());
+		assertEquals(avatars.size(), all.size());
+		for(int rank = 1; rank <= expected.size(); rank++) {
+			Avatar avatar = expected.get(rank - 1);
+			assertEquals(avatar.getId(), all.get(rank - 1).getAvatarId());
+			assertEquals(rank, all.get(rank - 1).getRank());
+			assertEquals(rank, leaderboard.find(avatar.getId(), false).getRank());
+		}
+	}
+
+	/**
+	 * Tests that readers never see an Avatar missing from the rankings while
+	 * it's being re-ranked.
+	 */
+	@Test
+	public void readersSeeEveryAvatarDuringUpdates() throws Exception {
+		final List<Avatar> avatars = new ArrayList<Avatar>();
+		for(int i = 0; i < 50; i++) {
+			avatars.add(create(Category.MAGE, i % 5));
+		}
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				Random random = new Random(7);
+				for(int i = 0; i < 5000; i++) {
+					addAchievements(avatars.get(random.nextInt(avatars.size())), 1);
+				}
+				done.set(true);
+			}
+		};
+		writer.start();
+
+		Leaderboard leaderboard = _store.getLeaderboard();
+		while(!done.get()) {
+			assertEquals(avatars.size(), leaderboard.size(null));
+			assertEquals(avatars.size(), leaderboard.size(Category.MAGE));
+		}
+		writer.join();
+	}
+
+	private Avatar create(Category category, int achievements) {
+		Avatar avatar = new Avatar(_store.nextId(), "avatar", category,
+				new LocalDate(1990, 1, 1), new Bag());
+		for(int i = 0; i < achievements; i++) {
+			avatar.addAchievement(new Achievement(0, new DateTime(), "Achievement " + i));
+		}
+		_store.createAvatar(avatar);
+		return avatar;
+	}
+
+	private void addAchievements(Avatar avatar, int count) {
+		for(int i = 0; i < count; i++) {
+			avatar.addAchievement(new Achievement(0, new DateTime(), "More"));
+		}
+		_store.updateAvatar(avatar);
+	}
+
+	private static void assertRanked(List<Leaderboard.Entry> entries, Avatar... avatars) {
+		assertEquals(avatars.length, entries.size());
+		for(int i = 0; i < avatars.length; i++) {
+			assertEquals(avatars[i].getId(), entries.get(i).getAvatarId());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package nz.ac.auckland.avatar.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.auckland.avatar.domain.Avatar;
+import nz.ac.auckland.avatar.domain.Bag;
+import nz.ac.auckland.avatar.domain.Category;
+
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+/**
+ * Runs the AvatarStore contract against a ShardedAvatarStore with a single
+ * writer per shard, and tests operations across shards, with and without
+ * single writers.
+ */
+public class ShardedAvatarStoreTest extends AvatarStoreContractTest {
+
+	@Override
+	protected AvatarStore createStore() {
+		return new ShardedAvatarStore(3, true);
+	}
+
+	/**
+	 * Tests that a bulk write large enough to be fanned out reaches every
+	 * shard, and that Avatars can be listed, paged through and aggregated
+	 * across shards.
+	 */
+	@Test
+	public void acrossShards() {
+		ShardedAvatarStore store = new ShardedAvatarStore(4, false);
+		try {
+			assertAcrossShards(store);
+		} finally {
+			store.close();
+		}
+		assertAcrossShards((ShardedAvatarStore) _store);
+	}
+
+	private static void assertAcrossShards(ShardedAvatarStore store) {
+		int count = ShardedAvatarStore.PARALLEL_THRESHOLD + 7;
+		long first = store.nextIds(count);
+		List<Avatar> avatars = new ArrayList<Avatar>();
+		for(long id = first; id < first + count; id++) {
+			avatars.add(new Avatar(id, "avatar" + id, Category.values()[(int) (id % 4)], 
+					new LocalDate(1990, 1, 1), new Bag()));
+		}
+		store.createAvatars(avatars);
+		assertEquals(count, store.size());
+		assertEquals(count, store.getAvatars().size());
+		assertSame(avatars.get(100), store.findAvatar(first + 100));
+
+		Set<Long> ids = new HashSet<Long>();
+		for(Avatar avatar : store.getAvatars()) {
+			ids.add(avatar.getId());
+		}
+		assertEquals(count, ids.size());
+
+		List<Avatar> page = store.getAvatars(first + 9, 20);
+		assertEquals(20, page.size());
+		for(int i = 0; i < page.size(); i++) {
+			assertEquals(first + 10 + i, page.get(i).getId());
+		}
+
+		List<Integer> mages = store.onEachShard(new ShardedAvatarStore.ShardTask<Integer>() {
+			@Override
+			public Integer run(Collection<Avatar> avatars) {
+				int mages = 0;
+				for(Avatar avatar : avatars) {
+					if(avatar.getCategory() == Category.MAGE) {
+						mages++;
+					}
+				}
+				return mages;
+			}
+		});
+		assertEquals(store.getShards(), mages.size());
+		int total = 0;
+		for(int shardMages : mages) {
+			total += shardMages;
+		}
+		int expected = 0;
+		for(Avatar avatar : avatars) {
+			if(avatar.getCategory() == Category.MAGE) {
+				expected++;
+			}
+		}
+		assertEquals(expected, total);
+	}
+}
@@ -0,0 +1,87 @@
+package nz.ac.auckland.parolee.jaxb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.IllegalFieldValueException;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.joda.time.chrono.GregorianChronology;
+import org.junit.Test;
+
+/**
+ * Tests that IsoFormats parses and prints exactly as Joda does, on both its
+ * fast path and its fallback.
+ */
+public class IsoFormatsTest {
+	private static final String[] ZONES = { "UTC", "Pacific/Auckland", 
+			"America/St_Johns", "Asia/Kathmandu", "Europe/London", "Africa/Monrovia" };
+
+	/**
+	 * Tests that randomly chosen instants, in zones with unusual offsets, 
+	 * round trip to the same Strings and values as Joda produces.
+	 */
+	@Test
+	public void matchesJodaForDateTimes() {
+		Random random = new Random(42);
+		for(String id : ZONES) {
+			DateTimeZone zone = DateTimeZone.forID(id);
+			for(int i = 0; i < 2000; i++) {
+				long millis = (random.nextLong() % 8000000000000L);
+				DateTime time = new DateTime(millis, zone);
+				String text = time.toString();
+				assertEquals(text, IsoFormats.printDateTime(time));
+				assertEquals(new DateTime(text), IsoFormats.parseDateTime(text));
+			}
+		}
+	}
+
+	/**
+	 * Tests that dates and times round trip to the same Strings and values 
+	 * as Joda produces, including through the date cache.
+	 */
+	@Test
+	public void matchesJodaForLocalDatesAndTimes() {
+		Random random = new Random(7);
+		for(int i = 0; i < 5000; i++) {
+			LocalDate date = new LocalDate(1900, 1, 1).plusDays(random.nextInt(80000));
+			String text = date.toString();
+			assertEquals(text, IsoFormats.printLocalDate(date));
+			assertEquals(date, IsoFormats.parseLocalDate(text));
+			assertEquals(date, IsoFormats.parseLocalDate(text));
+
+			LocalTime time = new LocalTime(random.nextInt(24 * 60 * 60 * 1000), DateTimeZone.UTC);
+			text = time.toString();
+			assertEquals(text, IsoFormats.printLocalTime(time));
+			assertEquals(time, IsoFormats.parseLocalTime(text));
+		}
+	}
+
+	/**
+	 * Tests that unusual forms and values fall back to Joda.
+	 */
+	@Test
+	public void fallsBackToJoda() {
+		assertEquals(new DateTime("2015-05-01T10:00"), IsoFormats.parseDateTime("2015-05-01T10:00"));
+		assertEquals(new DateTime("2015-05-01T10:00:00.000+05:30:15"), 
+				IsoFormats.parseDateTime("2015-05-01T10:00:00.000+05:30:15"));
+		assertEquals(new LocalDate("20150501"), IsoFormats.parseLocalDate("20150501"));
+		assertEquals(new LocalTime("10:15"), IsoFormats.parseLocalTime("10:15"));
+
+		LocalDate distant = new LocalDate(12000, 1, 1);
+		assertEquals(distant.toString(), IsoFormats.printLocalDate(distant));
+		DateTime gregorian = new DateTime(0, GregorianChronology.getInstance(DateTimeZone.UTC));
+		assertEquals(gregorian.toString(), IsoFormats.printDateTime(gregorian));
+
+		try {
+			IsoFormats.parseLocalDate("2015-02-30");
+			fail();
+		} catch (IllegalFieldValueException e) {
+			// Expected.
+		}
+	}
+}